@@ -0,0 +1,170 @@
+/* BenchmarkCircuits.java
+ * The circuits and steps the JMH benchmarks measure
+ */
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** The steps of the simulator that the JMH benchmarks in
+ *  benchmarks/logic measure, each a public static method.
+ *  JMH will not take benchmarks in the default package, and code in a
+ *  named package cannot name a class in the default package, so the
+ *  benchmarks find these methods by name, as method handles, once.
+ *  The methods take and return only strings, numbers and objects, so
+ *  that the benchmarks need not name any class of the simulator.
+ *  <p>
+ *  The circuits are made by a {@link NetlistGenerator NetlistGenerator}.
+ *  Every circuit also has a gate named quiet, whose inputs and output
+ *  never change, and which alone is probed, so that nothing is traced.
+ *  <p>
+ *  This holds one circuit at a time, the one last loaded, as Logic does.
+ *  @see Logic#load
+ */
+public class BenchmarkCircuits {
+
+    // the probes of every circuit, the quiet gate only
+    private static final List <String> probes = Arrays.asList( "quiet" );
+
+    // the gates of the circuit last loaded, indexed by id
+    private static Gate[] gates;
+
+    // the wire changed by the event benchmark
+    private static Wire wire;
+
+    /** Write a circuit of one shape to a file
+     *  @param shape the shape, as the generator names it
+     *  @param size roughly the number of elements
+     *  @param fileName the file
+     *  @return the number of elements, gate and wire lines, written
+     *  @throws IOException if the file cannot be written
+     */
+    public static long write( String shape, int size, String fileName )
+	throws IOException
+    {
+	NetlistGenerator g = new NetlistGenerator(
+	    size, new NetlistGenerator.Delay( "uniform:0.5,2.0" ),
+	    new NetlistGenerator.Delay( "uniform:0.1,0.5" ), false
+	);
+	try (OutputStream out = new FileOutputStream( fileName )) {
+	    g.generate( shape, size, 0, 2.0, 3, out );
+	    out.write( (
+		"gate quiet and 1.0\n"
+	      + "wire K false quiet in1 0.5\n"
+	      + "wire K false quiet in2 0.5\n"
+	      + "probe quiet\n"
+	    ).getBytes( StandardCharsets.ISO_8859_1 ) );
+	}
+	return g.gates + g.wires + 3;
+    }
+
+    /** Make an event set by the name -scheduler gives it
+     *  @param scheduler queue, heap or calendar
+     *  @return the event set, or null for the queue of Event objects
+     */
+    private static EventSet eventSet( String scheduler ) {
+	if ("heap".equals( scheduler )) return new EventHeap();
+	if ("calendar".equals( scheduler )) return new CalendarQueue();
+	return null;
+    }
+
+    /** Forget the circuit last loaded, so that loading the next does not
+     *  include the cost of forgetting this one
+     */
+    public static void reset() {
+	gates = null;
+	wire = null;
+	Logic.reset();
+    }
+
+    /** Read a circuit
+     *  @param fileName the file holding it
+     *  @param reader the reader, as -reader names it
+     *  @param scheduler the event set, as -scheduler names it
+     *  @return the gates, indexed by id
+     *  @throws IOException if the file cannot be read
+     */
+    public static Object load( String fileName, String reader,
+			       String scheduler ) throws IOException {
+	gates = Logic.load( fileName, reader, eventSet( scheduler ) );
+	return gates;
+    }
+
+    /** Get ready to simulate the circuit last loaded
+     *  @param events the events after which to stop, or 0 for no limit
+     */
+    public static void start( long events ) {
+	if (events > 0) Simulator.limit( Float.POSITIVE_INFINITY, events );
+	Trace.start( gates, probes, "sync", null );
+    }
+
+    /** Simulate until there is nothing more to do
+     *  @return the number of events processed
+     */
+    public static long run() {
+	return Simulator.run();
+    }
+
+    /** Finish the simulation begun by {@link #start start}
+     */
+    public static void finish() {
+	Trace.finish();
+    }
+
+    /** Pick names of gates in the circuit last loaded
+     *  @param count how many, with repeats
+     *  @return the names, picked at random with a fixed seed
+     */
+    public static String[] names( int count ) {
+	Random rand = new Random( 1 );
+	String[] names = new String[count];
+	for (int i = 0; i < count; i++) {
+	    names[i] = gates[rand.nextInt( gates.length )].name();
+	}
+	return names;
+    }
+
+    /** Look up a gate by name
+     *  @param name the name
+     *  @return the gate
+     */
+    public static Object find( String name ) {
+	return Logic.findGate( name );
+    }
+
+    /** Make the circuit of the event benchmark, one wire into one gate.
+     *  The gate is an xor gate with its first input held false, and the
+     *  wire changes its second input, so each change of the wire is two
+     *  events, the input change and the output change.
+     *  @param scheduler the event set, as -scheduler names it
+     */
+    public static void eventCircuit( String scheduler ) {
+	reset();
+	Simulator.useEventSet( eventSet( scheduler ) );
+	Gate source = Gate.make(
+	    Logic.symbols.intern( "source" ), Gate.CONST, 1.0F
+	);
+	Gate g = Gate.make( Logic.symbols.intern( "g" ), Gate.XOR, 1.0F );
+	new Wire( source, "false", g, "in1", 0.5F );
+	wire = new Wire( source, "true", g, "in2", 0.5F );
+	g.checkSanity();
+	gates = new Gate[] { source, g };
+	Simulator.setGates( gates );
+	Trace.start( gates, Arrays.asList( "source" ), "sync", null );
+    }
+
+    /** Change the wire of the event circuit and let the change pass
+     *  through the gate; each change starts at time 0, since the last
+     *  has drained
+     *  @param value the new value of the wire
+     *  @return the number of events processed
+     */
+    public static long event( boolean value ) {
+	wire.inputChangeEvent( 0.0F, value );
+	return Simulator.run();
+    }
+}
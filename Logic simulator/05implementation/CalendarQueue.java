@@ -0,0 +1,248 @@
+/* CalendarQueue.java
+ * A pending event set with amortized constant time add and removeFirst
+ * After R. Brown, Calendar Queues, CACM 31, 10 (October 1988)
+ */
+
+import java.util.Arrays;
+
+/** A pending event set kept as a calendar queue.
+ *  Time is divided into buckets of equal width, like the days of a year;
+ *  an event goes into the bucket for its day, and buckets repeat every
+ *  year.  Each bucket is a short list kept in order of time.
+ *  When the delays in the circuit fall within a narrow band, as they do
+ *  with the jittered gate delays and fixed wire delays used here, nearly
+ *  every event lands in a bucket that is found in constant time.
+ *  The number of buckets follows the number of pending events, and each
+ *  time the calendar is resized the bucket width is recomputed from the
+ *  observed spread of the pending events, so that each day holds a few
+ *  of them.  The calendar is also rebuilt with a new width when the
+ *  buckets stop being cheap to use, as happens when the delays in the
+ *  circuit drift, even if the number of pending events stays the same.
+ *  Events are held in pooled parallel arrays linked by index, so nothing
+ *  is allocated per event.
+ *  @see EventSet
+ */
+final class CalendarQueue extends EventSet {
+    // pooled event records, linked through next[], -1 ends a list
+    private float[] times;
+    private long[] keys;      // breaks ties in time
+    private int[] targets;
+    private int[] pins;
+    private boolean[] values;
+    private int[] next;
+    private int free = -1;    // list of unused records
+    private int used = 0;     // records below this index were ever used
+
+    // the calendar, buckets.length is always a power of two
+    private int[] buckets;    // the first record in each bucket
+    private int[] tails;      // the last record in each bucket
+    private float width;      // time spanned by one bucket
+    private long day;         // the day being searched, time / width
+
+    private int count = 0;
+
+    // the time of the event most recently removed
+    private float lastTime = 0.0F;
+
+    // list links followed and empty days skipped since the last check
+    private long work = 0;
+    private int removals = 0;
+
+    /** construct an empty calendar queue
+     */
+    CalendarQueue() {
+	int capacity = 1024;
+	times = new float[capacity];
+	keys = new long[capacity];
+	targets = new int[capacity];
+	pins = new int[capacity];
+	values = new boolean[capacity];
+	next = new int[capacity];
+	buckets = new int[16];
+	tails = new int[16];
+	Arrays.fill( buckets, -1 );
+	width = 1.0F;
+	day = 0;
+    }
+
+    boolean isEmpty() {
+	return count == 0;
+    }
+
+    int size() {
+	return count;
+    }
+
+    void add( float time, long key, int target, int pin, boolean value ) {
+	int r = allocate();
+	times[r] = time;
+	keys[r] = key;
+	targets[r] = target;
+	pins[r] = pin;
+	values[r] = value;
+	insert( r );
+	count = count + 1;
+	if (count > 2 * buckets.length) resize( buckets.length * 2 );
+    }
+
+    void shift( float dt ) {
+	for (int b = 0; b < buckets.length; b++) {
+	    for (int r = buckets[b]; r != -1; r = next[r]) {
+		times[r] = times[r] + dt;
+	    }
+	}
+	lastTime = lastTime + dt;
+	resize( buckets.length );
+    }
+
+    void removeFirst() {
+	int mask = buckets.length - 1;
+	int r = -1;
+	int b = (int)(day & mask);
+
+	// search one year of days starting with the current day
+	for (int n = 0; n < buckets.length; n++) {
+	    int h = buckets[b];
+	    if ((h != -1) && (dayOf( times[h] ) <= day)) {
+		r = h;
+		break;
+	    }
+	    b = (b + 1) & mask;
+	    day = day + 1;
+	    work = work + 1;
+	}
+
+	if (r == -1) {
+	    // nothing this year, the calendar is sparse, find the earliest
+	    for (int i = 0; i < buckets.length; i++) {
+		int h = buckets[i];
+		if ((h != -1) && ((r == -1) || earlier( h, r ))) r = h;
+	    }
+	    day = dayOf( times[r] );
+	    b = (int)(day & mask);
+	}
+
+	buckets[b] = next[r];
+	if (next[r] == -1) tails[b] = -1;
+	time = times[r];
+	key = keys[r];
+	target = targets[r];
+	pin = pins[r];
+	value = values[r];
+	release( r );
+	count = count - 1;
+	lastTime = time;
+
+	if ((count < buckets.length / 2) && (buckets.length > 16)) {
+	    resize( buckets.length / 2 );
+	} else {
+	    removals = removals + 1;
+	    if (removals == buckets.length) {
+		// an average of a few steps per event is the goal
+		if (work > 4L * removals) resize( buckets.length );
+		work = 0;
+		removals = 0;
+	    }
+	}
+    }
+
+    // the day number of a time, with the current bucket width
+    private long dayOf( float t ) {
+	return (long)(t / width);
+    }
+
+    // true if record i comes before record j
+    private boolean earlier( int i, int j ) {
+	if (times[i] != times[j]) return times[i] < times[j];
+	return keys[i] < keys[j];
+    }
+
+    // link record r into its bucket, keeping the bucket in order
+    private void insert( int r ) {
+	int b = (int)(dayOf( times[r] ) & (buckets.length - 1));
+	int h = buckets[b];
+	if (h == -1) {
+	    next[r] = -1;
+	    buckets[b] = r;
+	    tails[b] = r;
+	    return;
+	}
+	if (earlier( r, h )) {
+	    next[r] = h;
+	    buckets[b] = r;
+	    return;
+	}
+	if (!earlier( r, tails[b] )) {
+	    // the usual case, r is later than everything in the bucket
+	    next[r] = -1;
+	    next[tails[b]] = r;
+	    tails[b] = r;
+	    return;
+	}
+	while ((next[h] != -1) && !earlier( r, next[h] )) {
+	    h = next[h];
+	    work = work + 1;
+	}
+	next[r] = next[h];
+	next[h] = r;
+    }
+
+    // rebuild the calendar with n buckets and a width fitted to the events
+    private void resize( int n ) {
+	// gather all the pending events into one list, noting their spread
+	int all = -1;
+	float latest = lastTime;
+	for (int i = 0; i < buckets.length; i++) {
+	    int r = buckets[i];
+	    while (r != -1) {
+		int following = next[r];
+		if (times[r] > latest) latest = times[r];
+		next[r] = all;
+		all = r;
+		r = following;
+	    }
+	}
+	if (latest > lastTime) width = 3.0F * (latest - lastTime) / count;
+
+	// a day narrower than the float spacing of times would hold nothing
+	width = Math.max( width, 4.0F * Math.ulp( latest ) );
+	work = 0;
+	removals = 0;
+
+	buckets = new int[n];
+	tails = new int[n];
+	Arrays.fill( buckets, -1 );
+	day = dayOf( lastTime );
+	while (all != -1) {
+	    int following = next[all];
+	    insert( all );
+	    all = following;
+	}
+    }
+
+    // get an unused record, growing the pool if needed
+    private int allocate() {
+	if (free != -1) {
+	    int r = free;
+	    free = next[r];
+	    return r;
+	}
+	if (used == times.length) {
+	    int n = times.length * 2;
+	    times = Arrays.copyOf( times, n );
+	    keys = Arrays.copyOf( keys, n );
+	    targets = Arrays.copyOf( targets, n );
+	    pins = Arrays.copyOf( pins, n );
+	    values = Arrays.copyOf( values, n );
+	    next = Arrays.copyOf( next, n );
+	}
+	used = used + 1;
+	return used - 1;
+    }
+
+    // return record r to the pool
+    private void release( int r ) {
+	next[r] = free;
+	free = r;
+    }
+}
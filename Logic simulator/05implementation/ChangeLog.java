@@ -0,0 +1,100 @@
+/* ChangeLog.java
+ * Output changes logged by one thread of a parallel simulation
+ */
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/** The output changes made by one logical process of a parallel
+ *  simulation, in the order the process made them.
+ *  Each change is logged with the latest key of any event the process
+ *  had simulated at the time of the change, up to and including the
+ *  event that made it.  The process publishes its changes in batches,
+ *  each time promising that it will log no change earlier than a given
+ *  time; {@link #merge merge} passes the changes of all processes to
+ *  {@link Trace Trace} in the order of a sequential simulation.
+ *  <p>
+ *  A sequential simulation always takes the earliest pending event, by
+ *  time and then by {@link EventSet#key key}.  As long as simultaneous
+ *  events in different processes never cause each other, which holds
+ *  when no wire between processes has zero delay, the sequential order
+ *  is the merge of the orders of the processes that repeatedly takes the
+ *  earliest next event of any process.  Such a merge takes each event
+ *  right after the latest key its own process took before it at the same
+ *  time, so that latest key orders the changes.
+ */
+final class ChangeLog {
+    // batches published, and the batch being filled
+    private final ConcurrentLinkedQueue <EventBatch> published
+	= new ConcurrentLinkedQueue <EventBatch> ();
+    private EventBatch filling = new EventBatch();
+
+    // no change earlier than this will be published
+    private volatile float done = 0.0F;
+
+    /** Log a change, to be published later
+     *  @param time when the output changed
+     *  @param latest the latest key simulated at that time, so far
+     *  @param gate the id of the gate
+     *  @param v the new output value
+     */
+    void add( float time, long latest, int gate, boolean v ) {
+	filling.add( time, latest, gate, Simulator.OUTPUT, v );
+    }
+
+    /** Publish the changes logged so far
+     *  @param limit no change earlier than this will be logged later,
+     *  infinity when the process is finished
+     */
+    void publish( float limit ) {
+	if (filling.count > 0) {
+	    published.add( filling );
+	    filling = new EventBatch();
+	}
+	done = limit;
+    }
+
+    /** Pass the changes of all the logs to the trace, in the order of a
+     *  sequential simulation, until all logs are published to infinity
+     *  @param logs the logs, one per process
+     */
+    static void merge( ChangeLog[] logs ) {
+	int n = logs.length;
+	EventBatch[] head = new EventBatch[n]; // the batch of each log
+	int[] at = new int[n];                 // the next change in it
+	for (;;) {
+	    // every change before limit has been published
+	    float limit = Float.POSITIVE_INFINITY;
+	    for (ChangeLog l: logs) limit = Math.min( limit, l.done );
+
+	    boolean moved = false;
+	    for (;;) {
+		int best = -1;
+		for (int p = 0; p < n; p++) {
+		    if ((head[p] == null) || (at[p] == head[p].count)) {
+			head[p] = logs[p].published.poll();
+			at[p] = 0;
+			if (head[p] == null) continue;
+		    }
+		    EventBatch b = head[p];
+		    int i = at[p];
+		    if (b.time[i] >= limit) continue;
+		    if ((best < 0)
+		    ||  (b.time[i] < head[best].time[at[best]])
+		    ||  ((b.time[i] == head[best].time[at[best]])
+		    &&   (b.key[i] < head[best].key[at[best]]))) {
+			best = p;
+		    }
+		}
+		if (best < 0) break;
+		EventBatch b = head[best];
+		int i = at[best];
+		Trace.change( b.time[i], b.target[i], b.value[i] );
+		at[best] = i + 1;
+		moved = true;
+	    }
+	    if (limit == Float.POSITIVE_INFINITY) return;
+	    if (!moved) LockSupport.parkNanos( 50000 );
+	}
+    }
+}
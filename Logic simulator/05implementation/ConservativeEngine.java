@@ -0,0 +1,397 @@
+/* ConservativeEngine.java
+ * Conservative parallel simulation of a compiled circuit
+ * After K. M. Chandy and J. Misra, Distributed Simulation: A Case Study in
+ * Design and Verification of Distributed Programs, IEEE TSE 5, 5 (1979)
+ * and R. E. Bryant, Simulation of Packet Communication Architecture
+ * Computer Systems, MIT LCS TR-188 (1977)
+ */
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** Simulates a {@link NetlistKernel NetlistKernel} on several threads.
+ *  The gates are partitioned among logical processes, each run by its
+ *  own thread with its own pending event sets.  A change sent along a
+ *  wire to a gate of another process travels as a timestamped message
+ *  over a channel from one process to the other.
+ *  <p>
+ *  A process only simulates events earlier than the clocks of all its
+ *  incoming channels; the clock of a channel is its sender's promise
+ *  that no message earlier than it will follow.  Promises rest on
+ *  lookahead: a change output at time t reaches the other process no
+ *  earlier than t plus the delay of the wire, and a gate whose input
+ *  changes at time t changes its output no earlier than t plus 0.95 of
+ *  its delay.  Processes renew their promises after every round of
+ *  events, whether or not they sent messages, so the clocks are the null
+ *  messages that keep processes with cycles between them from deadlock.
+ *  Wires without delay give no lookahead, so the gates at both ends of
+ *  each such wire are kept in the same process by the {@link Partitioner
+ *  Partitioner}.
+ *  <p>
+ *  Every gate draws from its own {@link PRNG PRNG} stream, and events at
+ *  the same time are ordered by {@link EventSet#key EventSet.key}, which
+ *  each process computes from its own gates, so every gate sees exactly
+ *  the events, in exactly the order, that it sees in a sequential run.
+ *  The processes log the changes they trace, and the calling thread
+ *  merges the logs into the order of a sequential run, see {@link
+ *  ChangeLog ChangeLog}, so the trace is the same as that of {@link
+ *  NetlistKernel#run NetlistKernel.run}.
+ *  <p>
+ *  Lookahead must survive float rounding; a simulation that runs so long
+ *  that adding a wire delay to the time leaves it unchanged is stopped.
+ */
+final class ConservativeEngine {
+    // the circuit
+    private final NetlistKernel k;
+
+    // per gate, the number of the process that simulates it
+    private final int[] part;
+
+    // per gate, true if it has a wire to a gate of another process
+    private final boolean[] crosses;
+
+    // the simulation state, as kept by the gates; each element is only
+    // used by the process that simulates its gate
+    private final int[] inputs;
+    private final boolean[] value;
+    private final boolean[] outValue;
+    private final long[] scheduled;
+
+    // the logical processes
+    private final LogicalProcess[] processes;
+
+    // events a process simulates before renewing its promises; without a
+    // limit, a process with no channels in could run forever in one round
+    private static final int ROUND = 1 << 14;
+
+    // pending events plus messages in channels, over all processes;
+    // the simulation is over when this reaches zero
+    private final AtomicLong work = new AtomicLong();
+
+    /** Prepare to simulate a circuit
+     *  @param k the compiled circuit
+     *  @param parts the number of processes, each with its own thread
+     */
+    ConservativeEngine( NetlistKernel k, int parts ) {
+	int n = k.gates;
+	this.k = k;
+	parts = Math.max( 1, Math.min( parts, n ) );
+	part = Partitioner.partition( k, parts );
+	crosses = new boolean[n];
+	inputs = new int[n];
+	value = new boolean[n];
+	outValue = new boolean[n];
+	scheduled = new long[n];
+
+	// the gates of each process
+	int[] size = new int[parts];
+	for (int g = 0; g < n; g++) size[part[g]]++;
+	processes = new LogicalProcess[parts];
+	for (int p = 0; p < parts; p++) {
+	    processes[p] = new LogicalProcess( p, new int[size[p]], parts );
+	    size[p] = 0;
+	}
+	for (int g = 0; g < n; g++) {
+	    LogicalProcess p = processes[part[g]];
+	    p.members[size[p.id]++] = g;
+	}
+
+	// a channel for each pair of processes with wires between them,
+	// with the least lookahead of those wires
+	Channel[][] channels = new Channel[parts][parts];
+	int[] incoming = new int[parts];
+	for (int g = 0; g < n; g++) {
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		int from = part[g];
+		int to = part[k.wireDst[w]];
+		if (from == to) continue;
+		crosses[g] = true;
+		Channel c = channels[from][to];
+		if (c == null) {
+		    c = new Channel( to );
+		    channels[from][to] = c;
+		    incoming[to]++;
+		}
+		c.wireMin = Math.min( c.wireMin, k.wireDelay[w] );
+		c.gateMin = Math.min( c.gateMin, k.delay[g] * 0.95f );
+	    }
+	}
+	for (LogicalProcess p: processes) p.in = new Channel[incoming[p.id]];
+	for (int from = 0; from < parts; from++) {
+	    LogicalProcess p = processes[from];
+	    int outgoing = 0;
+	    for (int to = 0; to < parts; to++) {
+		Channel c = channels[from][to];
+		if (c == null) continue;
+		outgoing++;
+		LogicalProcess q = processes[to];
+		q.in[--incoming[to]] = c;
+	    }
+	    p.out = new Channel[outgoing];
+	    outgoing = 0;
+	    for (int to = 0; to < parts; to++) {
+		Channel c = channels[from][to];
+		if (c == null) continue;
+		p.out[outgoing++] = c;
+		p.to[to] = c;
+	    }
+	}
+    }
+
+    /** Simulate the circuit, printing the same trace as NetlistKernel.run
+     *  The calling thread merges the trace while the processes run.
+     */
+    void run() {
+	long initial = 0;
+	for (LogicalProcess p: processes) initial = initial + p.launch();
+	work.set( initial );
+	for (LogicalProcess p: processes) {
+	    p.thread = new Thread( p, "simulation process " + p.id );
+	    p.thread.setDaemon( true );
+	    p.thread.start();
+	}
+	ChangeLog[] logs = new ChangeLog[processes.length];
+	for (LogicalProcess p: processes) logs[p.id] = p.log;
+	ChangeLog.merge( logs );
+	for (LogicalProcess p: processes) {
+	    try {
+		p.thread.join();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    /** The simulation has run so long that lookahead is lost to rounding
+     *  @param time the simulated time
+     */
+    private static void stalled( float time ) {
+	Errors.fatal(
+	    "Lookahead lost to rounding at time " + time
+	    + ", use a sequential engine"
+	);
+    }
+
+    /** Messages from one process to another
+     */
+    private static final class Channel {
+	// the number of the receiving process
+	final int to;
+
+	// the least delay of the wires, and the least of 0.95 of the
+	// delays of the gates they come from, the channel's lookahead
+	float wireMin = Float.POSITIVE_INFINITY;
+	float gateMin = Float.POSITIVE_INFINITY;
+
+	// batches of messages sent, and the one the sender is filling
+	final ConcurrentLinkedQueue <EventBatch> sent
+	    = new ConcurrentLinkedQueue <EventBatch> ();
+	EventBatch batch = new EventBatch();
+
+	// no message earlier than this will be sent, it only increases
+	volatile float clock = 0.0F;
+
+	Channel( int to ) {
+	    this.to = to;
+	}
+    }
+
+    /** A logical process, simulating its share of the gates
+     */
+    private final class LogicalProcess implements Runnable {
+	final int id;
+	final int[] members;
+
+	// the channels in and out, and out indexed by receiving process
+	Channel[] in;
+	Channel[] out;
+	final Channel[] to;
+
+	// pending output changes of gates that cross to other processes,
+	// whose times bound the messages to come, and all other events
+	private final EventHeap outputs = new EventHeap();
+	private final EventHeap events = new EventHeap();
+
+	// changes traced, in order
+	final ChangeLog log = new ChangeLog();
+
+	// the time of the latest event, and the latest key at that time
+	private float now = -1.0F;
+	private long latest = 0;
+
+	Thread thread;
+
+	LogicalProcess( int id, int[] members, int parts ) {
+	    this.id = id;
+	    this.members = members;
+	    this.to = new Channel[parts];
+	}
+
+	/** schedule the first events, as Gate.checkSanity does
+	 *  @return the number of events scheduled
+	 */
+	long launch() {
+	    long n = 0;
+	    for (int g: members) {
+		if (!k.launched( g )) continue;
+		if (k.kind[g] != NetlistKernel.CONST) value[g] = true;
+		scheduleOutput( k.delay[g], g );
+		n++;
+	    }
+	    return n;
+	}
+
+	public void run() {
+	    try {
+		float safe = 0.0F;
+		for (;;) {
+		    float last = safe;
+		    safe = Float.POSITIVE_INFINITY;
+		    for (Channel c: in) safe = Math.min( safe, c.clock );
+		    for (Channel c: in) receive( c );
+		    if (!(round( safe ) || (safe != last))) {
+			LockSupport.parkNanos( 100000 );
+		    }
+		    if (work.get() == 0) break;
+		}
+	    } catch (RuntimeException | Error e) {
+		Errors.fatal( "Simulation process failed: " + e );
+	    }
+	    log.publish( Float.POSITIVE_INFINITY );
+	}
+
+	// take the messages that have arrived on a channel
+	private void receive( Channel c ) {
+	    for (;;) {
+		EventBatch b = c.sent.poll();
+		if (b == null) return;
+		for (int i = 0; i < b.count; i++) {
+		    events.add(
+			b.time[i], b.key[i], b.target[i], b.pin[i], b.value[i]
+		    );
+		}
+	    }
+	}
+
+	/** simulate events before safe, then renew all promises
+	 *  @param safe no message earlier than this can still arrive
+	 *  @return true if any event was simulated
+	 */
+	private boolean round( float safe ) {
+	    long delta = 0;
+	    int n = 0;
+	    while (n < ROUND) {
+		EventHeap e = first();
+		if ((e == null) || (e.firstTime() >= safe)) break;
+		e.removeFirst();
+		delta = delta + simulate( e ) - 1;
+		n++;
+	    }
+
+	    // account for the events before any message can be taken
+	    if (delta != 0) work.addAndGet( delta );
+
+	    // no input changes here before t, no output changes before o
+	    EventHeap e = first();
+	    float t = (e == null) ? safe : Math.min( safe, e.firstTime() );
+	    float o = outputs.isEmpty()
+		    ? Float.POSITIVE_INFINITY : outputs.firstTime();
+	    for (Channel c: out) {
+		float promise = Math.min(
+		    o + c.wireMin, (t + c.gateMin) + c.wireMin
+		);
+		if ((t != Float.POSITIVE_INFINITY) && !(promise > t)) {
+		    stalled( t );
+		}
+		if (c.batch.count > 0) {
+		    c.sent.add( c.batch );
+		    c.batch = new EventBatch();
+		}
+		if (promise > c.clock) {
+		    c.clock = promise;
+		    LockSupport.unpark( processes[c.to].thread );
+		}
+	    }
+	    log.publish( t );
+	    return n > 0;
+	}
+
+	// the event set holding the first pending event, null if none
+	private EventHeap first() {
+	    if (events.isEmpty()) return outputs.isEmpty() ? null : outputs;
+	    if (outputs.isEmpty()) return events;
+	    float a = events.firstTime();
+	    float b = outputs.firstTime();
+	    if (a != b) return (a < b) ? events : outputs;
+	    return (events.firstKey() < outputs.firstKey()) ? events : outputs;
+	}
+
+	/** simulate the event just removed from e, as NetlistKernel.run does
+	 *  @param e the event set
+	 *  @return the number of events scheduled
+	 */
+	private int simulate( EventHeap e ) {
+	    float time = e.time;
+	    int g = e.target;
+	    byte kind = k.kind[g];
+	    if (time != now) {
+		now = time;
+		latest = e.key;
+	    } else if (e.key > latest) {
+		latest = e.key;
+	    }
+
+	    if (e.pin == Simulator.OUTPUT) {
+		boolean v;
+		if (kind == NetlistKernel.CONST) {
+		    v = true;
+		} else {
+		    v = value[g];
+		    if (v == outValue[g]) return 0;
+		    outValue[g] = v;
+		}
+		log.add( time, latest, g, v );
+		for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		    int d = k.wireDst[w];
+		    float at = time + k.wireDelay[w];
+		    long key = EventSet.key( g, scheduled[g]++ );
+		    if (part[d] == id) {
+			events.add( at, key, d, k.wireSlot[w], v );
+		    } else {
+			if (!(at > time)) stalled( time );
+			to[part[d]].batch.add( at, key, d, k.wireSlot[w], v );
+		    }
+		}
+		return k.fanout[g + 1] - k.fanout[g];
+	    }
+
+	    // wires never lead to const gates in a circuit without errors
+	    int in = inputs[g] + (e.value ? 1 : -1);
+	    inputs[g] = in;
+	    boolean newVal = NetlistKernel.value(
+		kind, in, k.fanin[g + 1] - k.fanin[g]
+	    );
+
+	    // not gates schedule an output event on every input change
+	    if ((newVal != value[g]) || (kind == NetlistKernel.NOT)) {
+		value[g] = newVal;
+		float d = k.delay[g];
+		scheduleOutput(
+		    time + (d * 0.95f) + PRNG.randomFloat( g, d * 0.1f ), g
+		);
+		return 1;
+	    }
+	    return 0;
+	}
+
+	// schedule a change of the output of gate g
+	private void scheduleOutput( float time, int g ) {
+	    EventHeap s = crosses[g] ? outputs : events;
+	    s.add(
+		time, EventSet.key( g, scheduled[g]++ ),
+		g, Simulator.OUTPUT, false
+	    );
+	}
+    }
+}
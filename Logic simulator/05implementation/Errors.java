@@ -1,10 +1,16 @@
 /** Error reporting package
  *  provides standard prefix and behavior for messages
  */
+import java.util.List;
+
 class Errors {
     // error messages are counted.
     private static int errorCount = 0;
 
+    // where each thread's messages are collected, if they are, null if not
+    private static final ThreadLocal <List <String>> collected
+	= new ThreadLocal <List <String>> ();
+
     /** Allow public read-only access to the count of error messages
      * @return the count
      */
@@ -16,14 +22,36 @@ class Errors {
      * @arg message the message to output
      */
     public static void warn( String message ) {
+	List <String> c = collected.get();
+	if (c != null) {
+	    c.add( message );
+	    return;
+	}
 	System.err.println( "Logic: " + message );
 	errorCount = errorCount + 1;
     }
 
+    /** Report something that is not an error, output a message and return
+     * @arg message the message to output
+     */
+    public static void note( String message ) {
+	System.err.println( "Logic: " + message );
+    }
+
+    /** Collect this thread's nonfatal messages instead of outputting them
+     *  Collected messages are not counted; whoever collects them is
+     *  expected to pass them to warn later, in a sensible order.
+     * @arg into the list messages are added to, or null to stop collecting
+     */
+    static void collect( List <String> into ) {
+	collected.set( into );
+    }
+
     /** Report fatal errors, output a message and exit, never to return
      * @arg message the message to output
      */
     public static void fatal( String message ) {
+	Trace.finish(); // so the message follows the trace, as it happened
 	warn( message );
 	System.exit( 1 );
     }
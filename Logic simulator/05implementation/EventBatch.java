@@ -0,0 +1,46 @@
+/* EventBatch.java
+ * Records of events handed from one thread of a simulation to another
+ */
+
+import java.util.Arrays;
+
+/** A batch of primitive event records, each a time, a key, a target gate
+ *  id, a pin and a value, as in an {@link EventSet EventSet}.
+ *  One thread fills a batch and then hands the whole of it to another,
+ *  through a concurrent queue, which publishes the records safely; a
+ *  batch is never changed once it has been handed over.
+ */
+final class EventBatch {
+    float[] time = new float[64];
+    long[] key = new long[64];
+    int[] target = new int[64];
+    int[] pin = new int[64];
+    boolean[] value = new boolean[64];
+
+    // the number of records
+    int count = 0;
+
+    /** add one record
+     *  @param t the time
+     *  @param k the key
+     *  @param g the target gate id
+     *  @param p the pin
+     *  @param v the value
+     */
+    void add( float t, long k, int g, int p, boolean v ) {
+	if (count == time.length) {
+	    int n = count * 2;
+	    time = Arrays.copyOf( time, n );
+	    key = Arrays.copyOf( key, n );
+	    target = Arrays.copyOf( target, n );
+	    pin = Arrays.copyOf( pin, n );
+	    value = Arrays.copyOf( value, n );
+	}
+	time[count] = t;
+	key[count] = k;
+	target[count] = g;
+	pin[count] = p;
+	value[count] = v;
+	count = count + 1;
+    }
+}
@@ -0,0 +1,214 @@
+/* EventHeap.java
+ * An allocation-free pending event set
+ * Events are kept in parallel primitive arrays organized as a d-ary heap
+ */
+
+import java.util.Arrays;
+
+/** A pending event set kept as a 4-ary heap over parallel arrays.
+ *  A 4-ary heap is shallower than a binary heap, and the four children
+ *  of a node sit next to each other in the arrays, so removeFirst
+ *  touches fewer cache lines.
+ *  The arrays only grow; once the heap is big enough for the circuit,
+ *  scheduling an event allocates nothing.
+ *  <p>
+ *  For inertial delay, the heap can also index where each gate's pending
+ *  output event is, so that the event can be cancelled where it lies;
+ *  each gate may then have at most one pending output event.
+ *  @see EventSet
+ */
+final class EventHeap extends EventSet {
+    // the heap arity, children of node i are D*i+1 to D*i+D
+    private static final int D = 4;
+
+    // the event fields, one array per field, index 0 is the root
+    private float[] times;
+    private long[] keys;      // breaks ties in time
+    private int[] targets;
+    private int[] pins;
+    private boolean[] values;
+
+    private int count = 0;
+
+    // if indexed, the position of each gate's pending output event, or -1
+    private int[] outputAt = null;
+
+    /** construct an empty event heap
+     */
+    EventHeap() {
+	this( 1024 );
+    }
+
+    /** construct an empty event heap
+     *  @param capacity the number of events it can hold before growing
+     */
+    EventHeap( int capacity ) {
+	times = new float[capacity];
+	keys = new long[capacity];
+	targets = new int[capacity];
+	pins = new int[capacity];
+	values = new boolean[capacity];
+    }
+
+    boolean isEmpty() {
+	return count == 0;
+    }
+
+    int size() {
+	return count;
+    }
+
+    /** @return the time of the first pending event, which must exist
+     */
+    float firstTime() {
+	return times[0];
+    }
+
+    /** @return the key of the first pending event, which must exist
+     */
+    long firstKey() {
+	return keys[0];
+    }
+
+    /** Index the pending output event of each gate, so that it can be
+     *  cancelled; from now on, each gate may have at most one
+     *  This must be called while the heap is empty.
+     *  @param gates the number of gates
+     */
+    void indexOutputs( int gates ) {
+	outputAt = new int[gates];
+	Arrays.fill( outputAt, -1 );
+    }
+
+    /** Cancel the pending output event of a gate, if it has one
+     *  The heap must have been indexed.
+     *  @param gate the id of the gate
+     */
+    void cancelOutput( int gate ) {
+	int i = outputAt[gate];
+	if (i < 0) return;
+	outputAt[gate] = -1;
+	count = count - 1;
+	if (i == count) return;
+
+	// fill the hole with the last event, which may need to go either way
+	float t = times[count];
+	long s = keys[count];
+	if ((i > 0) && before( t, s, (i - 1) / D )) {
+	    siftUp( i, t, s, targets[count], pins[count], values[count] );
+	} else {
+	    siftDown( i, t, s, targets[count], pins[count], values[count] );
+	}
+    }
+
+    void add( float time, long key, int target, int pin, boolean value ) {
+	if (count == times.length) grow();
+	int i = count;
+	count = count + 1;
+	siftUp( i, time, key, target, pin, value );
+    }
+
+    void shift( float dt ) {
+	// adding to every time keeps the order, apart from rounding, so
+	// the heap is rebuilt bottom up in case rounding made ties
+	for (int i = 0; i < count; i++) times[i] = times[i] + dt;
+	for (int i = (count - 2) / D; i >= 0; i--) {
+	    siftDown( i, times[i], keys[i], targets[i], pins[i], values[i] );
+	}
+    }
+
+    void removeFirst() {
+	time = times[0];
+	key = keys[0];
+	target = targets[0];
+	pin = pins[0];
+	value = values[0];
+	if ((outputAt != null) && (pin == Simulator.OUTPUT)) {
+	    outputAt[target] = -1;
+	}
+
+	count = count - 1;
+	if (count == 0) return;
+	siftDown(
+	    0, times[count], keys[count],
+	    targets[count], pins[count], values[count]
+	);
+    }
+
+    // put an event in the hole at i, moving parents down until it fits
+    private void siftUp( int i, float t, long s, int tg, int p, boolean v ) {
+	while (i > 0) {
+	    int parent = (i - 1) / D;
+	    if (!before( t, s, parent )) break;
+	    move( parent, i );
+	    i = parent;
+	}
+	set( i, t, s, tg, p, v );
+    }
+
+    // put an event in the hole at i, moving children up until it fits
+    private void siftDown( int i, float t, long s, int tg, int p, boolean v ) {
+	for (;;) {
+	    int child = D * i + 1;
+	    if (child >= count) break;
+	    int last = Math.min( child + D, count );
+	    int min = child;
+	    for (int c = child + 1; c < last; c++) {
+		if (lessThan( c, min )) min = c;
+	    }
+	    if (!lessThan( min, t, s )) break;
+	    move( min, i );
+	    i = min;
+	}
+	set( i, t, s, tg, p, v );
+    }
+
+    // true if the event at i comes before event (t, s)
+    private boolean lessThan( int i, float t, long s ) {
+	if (times[i] != t) return times[i] < t;
+	return keys[i] < s;
+    }
+
+    // true if the event at i comes before the event at j
+    private boolean lessThan( int i, int j ) {
+	return lessThan( i, times[j], keys[j] );
+    }
+
+    // true if event (t, s) comes before the event at i
+    private boolean before( float t, long s, int i ) {
+	if (t != times[i]) return t < times[i];
+	return s < keys[i];
+    }
+
+    // copy the event at from into slot to
+    private void move( int from, int to ) {
+	times[to] = times[from];
+	keys[to] = keys[from];
+	targets[to] = targets[from];
+	pins[to] = pins[from];
+	values[to] = values[from];
+	if ((outputAt != null) && (pins[to] == Simulator.OUTPUT)) {
+	    outputAt[targets[to]] = to;
+	}
+    }
+
+    // fill in slot i
+    private void set( int i, float t, long s, int tg, int p, boolean v ) {
+	times[i] = t;
+	keys[i] = s;
+	targets[i] = tg;
+	pins[i] = p;
+	values[i] = v;
+	if ((outputAt != null) && (p == Simulator.OUTPUT)) outputAt[tg] = i;
+    }
+
+    // double the capacity of all the arrays
+    private void grow() {
+	int n = times.length * 2;
+	times = Arrays.copyOf( times, n );
+	keys = Arrays.copyOf( keys, n );
+	targets = Arrays.copyOf( targets, n );
+	pins = Arrays.copyOf( pins, n );
+	values = Arrays.copyOf( values, n );
+    }
+}
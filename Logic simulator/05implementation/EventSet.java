@@ -0,0 +1,77 @@
+/* EventSet.java
+ * Pending event sets that hold events as primitive records
+ * Used by Simulator in place of its PriorityQueue of Event objects
+ */
+
+/** A set of pending events, each event is a primitive record of a time,
+ *  a key, a target gate id, a pin number and a logic value.
+ *  Events leave the set in order of time; events at the same time leave
+ *  in order of their keys, exactly as in the PriorityQueue used by
+ *  Simulator, so every event set gives the same simulation output.
+ *  <p>
+ *  The key of an event names the gate that scheduled it and how many
+ *  events that gate had scheduled before, see {@link #key key}.  Unlike
+ *  a count of all events scheduled, this needs nothing but the gate's own
+ *  history, so simulations that split the gates among threads order
+ *  simultaneous events exactly as a sequential simulation does.
+ *  No objects are allocated per event.
+ *  @see Simulator
+ *  @see EventHeap
+ */
+abstract class EventSet {
+    // the fields of the event most recently taken by removeFirst()
+    float time;
+    long key;
+    int target;
+    int pin;
+    boolean value;
+
+    // bits of a key that count the events scheduled by one gate, leaving
+    // the 31 bits of any gate id above them, so no key is negative
+    private static final int COUNT_BITS = 32;
+
+    /** The key of an event, which breaks ties between events at one time
+     *  Keys of events from different gates are ordered by gate id, and
+     *  those from one gate by the order that gate scheduled them.  Every
+     *  gate id has its own keys, so no two pending events share a key
+     *  and every event set orders them alike.  The count wraps after 2 to
+     *  the 32 events from one gate, which could only reorder events at
+     *  one time from one gate that many events apart.
+     *  @param source the id of the gate that schedules the event
+     *  @param count how many events that gate scheduled before
+     *  @return the key
+     */
+    static long key( int source, long count ) {
+	return ((long)source << COUNT_BITS)
+	     | (count & ((1L << COUNT_BITS) - 1));
+    }
+
+    /** add one event to the set
+     *  @param time when the event happens
+     *  @param key orders events at the same time, see {@link #key key}
+     *  @param target the id of the gate the event happens to
+     *  @param pin the pin that changes, or Simulator.OUTPUT
+     *  @param value the new logic value
+     */
+    abstract void add(
+	float time, long key, int target, int pin, boolean value
+    );
+
+    /** @return true if there are no pending events
+     */
+    abstract boolean isEmpty();
+
+    /** @return the number of pending events
+     */
+    abstract int size();
+
+    /** delay every pending event by the same time
+     *  @param dt the delay
+     */
+    abstract void shift( float dt );
+
+    /** remove the first pending event, its fields are left in
+     *  time, key, target, pin and value.  The set must not be empty.
+     */
+    abstract void removeFirst();
+}
@@ -6,11 +6,14 @@
  * Adapted from Dr. Jones' solution to MP5
  * This version is refactored from the lambda-based framework to a version
  * that utilizes anonymous subclasses of Simulator.Event
+ * Gates now schedule through Simulator.schedule( time, gate ) so that the
+ * simulator may hold events as primitive records instead of Event objects
  * A large amount of javadoc comments have been extended to be more useful
  * to someone who is learning how the program works via javadoc
  *
  */
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Scanner;
 
@@ -29,6 +32,10 @@ import java.util.Scanner;
  *  @see Wire
  *  @see AndGate
  *  @see OrGate
+ *  @see NandGate
+ *  @see NorGate
+ *  @see XorGate
+ *  @see XnorGate
  *  @see NotGate
  *  @see ConstGate
  *  @see #factory(Scanner sc)
@@ -45,13 +52,13 @@ public abstract class Gate {
      */
     public static class ConstructorFailure extends Exception {}
 
-    /** The name of the gate is never null and should be unique. It simply
-     *  acts as an identifier that the user can utilize in the output of the
-     *  program to follow that gate's activity. For example, A, B, and C are
-     *  unique identifiers that are easy to distinguish in the program's
-     *  output.
+    /** The id of the gate is its name interned in the
+     *  {@link SymbolTable SymbolTable} of {@link Logic Logic}, so it is
+     *  also the dense index of this gate in the table of all gates.
+     *  Primitive simulation events and the compiled kernel name their
+     *  gate by this number instead of holding a reference to it.
      */
-    public final String name;
+    public final int id;
 
     /** The delay of the gate describies how long the gate takes for a
      *  change in input to be realized at the output. For example, a delay
@@ -63,18 +70,47 @@ public abstract class Gate {
 
     // information about gate connections and logic values is all in subclasses
 
+    /** Gate kind codes, used by {@link #make make} and wherever gates are
+     *  handled as numbers rather than objects, as in
+     *  {@link NetlistKernel NetlistKernel}.
+     */
+    static final byte CONST = 0;
+    static final byte AND = 1;
+    static final byte OR = 2;
+    static final byte NOT = 3;
+    static final byte NAND = 4;
+    static final byte NOR = 5;
+    static final byte XOR = 6;
+    static final byte XNOR = 7;
+    static final byte UNKNOWN = -1;
+
+    /** The most inputs a gate may have
+     */
+    static final int MAX_INPUTS = 1 << 16;
+
     /** Constructor used only from within subclasses of class Gate.
-     *  All subclass costructors should call super(name, delay)
-     *  in order to initialize the name and delay fields during
+     *  All subclass costructors should call super(id, delay)
+     *  in order to initialize the id and delay fields during
      *  their respective construction.
-     *  @param name a textual identity of the gate and is final
+     *  @param id the id of the gate's name, interned in Logic.symbols
      *  @param delay the delay value for this gate and is final
      */
-    protected Gate( String name, float delay ) {
-	this.name = name;
+    protected Gate( int id, float delay ) {
+	this.id = id;
 	this.delay = delay;
     }
 
+    /** The name of the gate is never null and is unique. It simply
+     *  acts as an identifier that the user can utilize in the output of the
+     *  program to follow that gate's activity. For example, A, B, and C are
+     *  unique identifiers that are easy to distinguish in the program's
+     *  output.  Names are kept in the symbol table, not in the gate.
+     *  @return the name of this gate
+     */
+    public final String name() {
+	return Logic.symbols.name( id );
+    }
+
     /** The public use this factory to construct gates. The scanner takes
      *  care of learning which type of gate the input file specifies and
      *  that determines which concrete constructor gets called. A
@@ -108,7 +144,8 @@ public abstract class Gate {
 	}
 
 	// check the fields
-	if (Logic.findGate( name ) != null) {
+	if ((Logic.symbols.lookup( name ) >= 0)
+	||  (Logic.symbols.instance( name ) != null)) {
 	    Errors.warn( "Redefinition: gate " + name + " " + kind );
 	    sc.nextLine();
 	    throw new ConstructorFailure();
@@ -120,37 +157,133 @@ public abstract class Gate {
 	);
 
 	// now construct the right kind of gate
-	if ("and".equals( kind )) {
-	    newGate = new AndGate( name, delay );
-	} else if ("or".equals( kind )) {
-	    newGate = new OrGate( name, delay );
-	} else if ("not".equals( kind )) {
-	    newGate = new NotGate( name, delay );
-	} else if ("const".equals( kind )) {
-	    newGate = new ConstGate( name, delay );
-	} else {
+	byte code = kindCode( kind );
+	if (code == UNKNOWN) {
 	    Errors.warn( "Unknown gate kind: gate " + name + " " + kind );
 	    sc.nextLine();
 	    throw new ConstructorFailure();
 	}
+	newGate = make( Logic.symbols.intern( name ), code, delay );
 
 	ScanSupport.lineEnd( sc, ()->newGate.toString() );
 	return newGate;
     }
 
+    /** Translate the textual kind of a gate to its kind code
+     *  @param kind the kind, as given in the input file
+     *  @return the kind code, or UNKNOWN if there is no such kind of gate
+     */
+    static byte kindCode( String kind ) {
+	if ("and".equals( kind )) return AND;
+	if ("or".equals( kind )) return OR;
+	if ("not".equals( kind )) return NOT;
+	if ("nand".equals( kind )) return NAND;
+	if ("nor".equals( kind )) return NOR;
+	if ("xor".equals( kind )) return XOR;
+	if ("xnor".equals( kind )) return XNOR;
+	if ("const".equals( kind )) return CONST;
+	return UNKNOWN;
+    }
+
+    /** Translate a kind code back to the textual kind of a gate
+     *  @param kind the kind code, never UNKNOWN
+     *  @return the kind, as given in the input file
+     */
+    static String kindName( byte kind ) {
+	if (kind == AND) return "and";
+	if (kind == OR) return "or";
+	if (kind == NOT) return "not";
+	if (kind == NAND) return "nand";
+	if (kind == NOR) return "nor";
+	if (kind == XOR) return "xor";
+	if (kind == XNOR) return "xnor";
+	return "const";
+    }
+
+    /** The pin number registerInput gives an input pin of a gate of some
+     *  kind, for gates that are only described, not constructed
+     *  @param kind the kind code of the gate
+     *  @param pinName the textual representation of the input pin
+     *  @return the pin number, or -1 if there is no such pin
+     */
+    static int inputNumber( byte kind, String pinName ) {
+	if (kind == CONST) return -1;
+	if (kind == NOT) return "in".equals( pinName ) ? 0 : -1;
+	return MultiInputGate.pinNumber( pinName );
+    }
+
+    /** The pin number registerOutput gives an output pin of a gate of
+     *  some kind, for gates that are only described, not constructed
+     *  @param kind the kind code of the gate
+     *  @param pinName the textual representation of the output pin
+     *  @return the pin number, or -1 if there is no such pin
+     */
+    static int outputNumber( byte kind, String pinName ) {
+	if (kind != CONST) return "out".equals( pinName ) ? 0 : -1;
+	if ("true".equals( pinName )) return 1;
+	if ("false".equals( pinName )) return 0;
+	return -1;
+    }
+
+    /** The name inPinName gives an input pin of a gate of some kind
+     *  @param kind the kind code of the gate
+     *  @param pinNumber a pin number returned by inputNumber
+     *  @return the textual name of the pin
+     */
+    static String inputName( byte kind, int pinNumber ) {
+	if (kind == CONST) return "???";
+	if (kind == NOT) return (pinNumber == 0) ? "in" : "???";
+	if ((pinNumber < 1) || (pinNumber > MAX_INPUTS)) return "???";
+	return "in" + pinNumber;
+    }
+
+    /** The name outPinName gives an output pin of a gate of some kind
+     *  @param kind the kind code of the gate
+     *  @param pinNumber a pin number returned by outputNumber
+     *  @return the textual name of the pin
+     */
+    static String outputName( byte kind, int pinNumber ) {
+	if (kind != CONST) return (pinNumber == 0) ? "out" : "???";
+	if (pinNumber == 0) return "false";
+	if (pinNumber == 1) return "true";
+	return "???";
+    }
+
+    /** Construct a gate once its fields are known and checked.
+     *  Callers intern the name only once nothing can stop the gate from
+     *  being built, so that ids stay dense.
+     *  @param id the id of the gate's name, interned in Logic.symbols
+     *  @param kind the kind code, never UNKNOWN
+     *  @param delay the delay of the gate
+     *  @return the newly constructed gate, always one of the concrete classes
+     */
+    static Gate make( int id, byte kind, float delay ) {
+	if (kind == AND) return new AndGate( id, delay );
+	if (kind == OR) return new OrGate( id, delay );
+	if (kind == NOT) return new NotGate( id, delay );
+	if (kind == NAND) return new NandGate( id, delay );
+	if (kind == NOR) return new NorGate( id, delay );
+	if (kind == XOR) return new XorGate( id, delay );
+	if (kind == XNOR) return new XnorGate( id, delay );
+	return new ConstGate( id, delay );
+    }
+
     /** Registers with the gate that its input is in use, meaning it has
      *  now one wire connected to it. Input pins may only have one wire.
-     *  @param w the wire that is connected to this gate's input
+     *  Only this gate's own bookkeeping is touched, so calls for different
+     *  gates may be made at the same time from different threads.
      *  @param pinName the textual representation of the input pin
      *  @return a pin number usable as a parameter to
      *  {@link #inPinName inPinName}
      *  @see #inPinName
      */
-    public abstract int registerInput( Wire w, String pinName );
+    public abstract int registerInput( String pinName );
 
     /** Registers with the gate that its output is in use, meaning it has
      *  at least one wire connected to it. Output pins can have any
-     *  number of output wires connected.
+     *  number of output wires connected, kept in the order registered.
+     *  As with registerInput, calls for different gates may be made at
+     *  the same time, but calls for one gate must come from one thread.
      *  @param w the wire that is connected to this gate's output
      *  @param pinName the textual representation of the output pin
      *  @return a pin number usable as a parameter to
@@ -198,6 +331,36 @@ public abstract class Gate {
      */
     public abstract void inputChangeEvent( float time, int dstPin, boolean v );
 
+    /** Represents the event where the output of the gate changes.
+     *  This is scheduled through {@link Simulator#schedule(float, Gate)
+     *  Simulator.schedule} and passes the new output on to the wires
+     *  attached to the output of the gate.
+     *  @param time the time at which the output change occurs
+     */
+    abstract void outputChangeEvent( float time );
+
+    /** Append the line of the trace for a change of this gate's output
+     *  @param b where the line is appended, without a line end
+     *  @param time the time at which the output changed
+     *  @param v the new output value
+     *  @see Trace
+     */
+    abstract void traceLine( StringBuilder b, float time, boolean v );
+
+    /** @return the kind code of this gate, as {@link #make make} takes it
+     */
+    abstract byte kindCode();
+
+    /** Tell whether an output pin can ever change.  Only the false output
+     *  of a const gate never does.
+     *  @param kind the kind code of the gate
+     *  @param pinNumber a pin number returned by registerOutput
+     *  @return true unless the pin's value is fixed for all time
+     */
+    static boolean canChange( byte kind, int pinNumber ) {
+	return (kind != CONST) || (pinNumber != 0);
+    }
+
 } // abstract class Gate
 
 /** Gathers all of the properties common to single-output gates.
@@ -216,7 +379,7 @@ abstract class LogicGate extends Gate {
     private LinkedList <Wire> outgoing = new LinkedList <Wire> ();
 
     /** This gate's current value, computed by input change events
-     *  which are defined in {@link TwoInputGate TwoInputGate} and
+     *  which are defined in {@link MultiInputGate MultiInputGate} and
      *  {@link NotGate NotGate}.
      */
     protected boolean value = false;
@@ -224,15 +387,18 @@ abstract class LogicGate extends Gate {
     // this gate's most recent actual output value
     private boolean outValue = false;
 
+    // with inertial delay, true while an output change is pending
+    private boolean pending = false;
+
     /** The constructor used only from subclasses of LogicGate
-     *  All subclass costructors should call super(name, delay)
-     *  in order to initialize the name and delay fields during
+     *  All subclass costructors should call super(id, delay)
+     *  in order to initialize the id and delay fields during
      *  their respective construction.
-     *  @param name a textual identity of the gate and is final
+     *  @param id the id of the gate's name, interned in Logic.symbols
      *  @param delay the delay value for this gate and is final
      */
-    public LogicGate( String name, float delay ) {
-	super( name, delay );
+    public LogicGate( int id, float delay ) {
+	super( id, delay );
     }
 
     /** Registers with the gate that its output is in use, meaning it has
@@ -249,7 +415,7 @@ abstract class LogicGate extends Gate {
 	    outgoing.add( w );
 	    return 0;
 	} else {
-	    Errors.warn( "Illegal output pin: " + name + " " + pinName );
+	    Errors.warn( "Illegal output pin: " + name() + " " + pinName );
 	    return -1;
 	}
     }
@@ -277,90 +443,148 @@ abstract class LogicGate extends Gate {
      *  @see Wire#inputChangeEvent
      */
     protected final void outputChangeEvent( float time ) {
+	pending = false;
 	if (value != outValue) { // only if the output actually changes
 	    outValue = value;
-	    System.out.println(
-		"At " + time + " " + toString() +
-		" out " + " changes to " + value
-	    );
+	    Trace.change( time, id, value );
 	    for (Wire w: outgoing) {
 		w.inputChangeEvent( time, value );
 	    }
 	}
     }
 
+    /** Append the line of the trace for a change of this gate's output
+     *  @param b where the line is appended, without a line end
+     *  @param time the time at which the output changed
+     *  @param v the new output value
+     */
+    final void traceLine( StringBuilder b, float time, boolean v ) {
+	b.append( "At " ).append( time ).append( " " ).append( toString() )
+	 .append( " out " ).append( " changes to " ).append( v );
+    }
+
+    /** Schedule the first change of this gate's output, to its value,
+     *  exactly one delay after the simulation starts
+     */
+    protected final void launch() {
+	pending = true;
+	Simulator.schedule( delay, this );
+    }
+
+    /** Take a newly computed value, scheduling the output to follow it
+     *  after this gate's delay.
+     *  With transport delay, every output change is scheduled, and a pulse
+     *  shorter than the delay becomes two output events, both of which
+     *  {@link #outputChangeEvent outputChangeEvent} finds to change
+     *  nothing.  With inertial delay, a value that undoes a pending
+     *  output change cancels that change where it waits among the pending
+     *  events, so the pulse never enters the event set at all.
+     *  @param time when the value is computed
+     *  @param v the new value
+     */
+    protected final void newValue( float time, boolean v ) {
+	if (Simulator.inertial()) {
+	    if (pending) {
+		if (v == value) return;
+		Simulator.cancel( this );
+		pending = false;
+	    }
+	    value = v;
+	    if (v == outValue) return;
+	    pending = true;
+	} else {
+	    value = v;
+	}
+	Simulator.schedule(
+	    time + (delay * 0.95f) + PRNG.randomFloat( id, delay * 0.1f ),
+	    this
+	);
+    }
+
 } // abstract class LogicGate
 
-/** Handles the properties common to logic gates with two inputs.
- *  Specifically, all two-input gates have two input wires, in1 an in2.
- *  Extenders of this class (AndGate and OrGate) implement the abstract
- *  method updateValue and this class provides inputChangeEvent which
- *  is specific to gates with two inputs.
+/** Handles the properties common to logic gates with many inputs.
+ *  A gate has inputs in1 to inN, where N is the highest numbered input
+ *  wired to it, but at least 2, and all of them must be wired.
+ *  Rather than look at every input each time one changes, the gate keeps
+ *  a count of the inputs that are true, so each change costs the same
+ *  however many inputs there are.  Extenders of this class (AndGate,
+ *  OrGate, NandGate, NorGate, XorGate and XnorGate) implement the
+ *  abstract method valueOf, giving the gate's value from that count.
  *
  *  @see AndGate
  *  @see OrGate
  *  @see LogicGate
  */
-abstract class TwoInputGate extends LogicGate {
-    // usage records for inputs
-    /** Represents the usage of the first input pin of the gate,
-     *  always starts false.
-     */
-    protected boolean in1used = false;
+abstract class MultiInputGate extends LogicGate {
+    // usage records for inputs, used[i] for pin in(i + 1)
+    private boolean[] used = new boolean[2];
 
-    /** Represents the usage of the second input pin of the gate,
-     *  always starts false.
-     */
-    protected boolean in2used = false;
+    // Boolean values of inputs, in[i] for pin in(i + 1)
+    private boolean[] in = new boolean[2];
 
-    // Boolean values of inputs
-    /** Represents the current value of input for the first input pin,
-     *  always starts as false.
+    /** The number of inputs, 2 unless inputs beyond in2 are wired, known
+     *  once {@link #checkSanity checkSanity} has been called.
      */
-    protected boolean in1 = false;
+    protected int inputs = 2;
 
-    /** Represents the current value of input for the second input pin,
-     *  always starts as false.
+    /** The number of inputs that are true, always starts as 0.
      */
-    protected boolean in2 = false;
+    protected int trueInputs = 0;
 
-    /** The constructor used only from subclasses of TwoInputGate
-     *  All subclass costructors should call super(name, delay)
-     *  in order to initialize the name and delay fields during
+    /** The constructor used only from subclasses of MultiInputGate
+     *  All subclass costructors should call super(id, delay)
+     *  in order to initialize the id and delay fields during
      *  their respective construction.
-     *  @param name a textual identity of the gate and is final
+     *  @param id the id of the gate's name, interned in Logic.symbols
      *  @param delay the delay value for this gate and is final
      */
-    protected TwoInputGate( String name, float delay ) {
-	super( name, delay );
+    protected MultiInputGate( int id, float delay ) {
+	super( id, delay );
     }
 
-    /** Update the gate's inUse fields that keep track of whether
+    /** Update the gate's usage records that keep track of whether
      *  or not a certain input pin is in use. All gates must have their
      *  input pins used and only one wire can be connected to an input pin.
-     *  @param w the wire that is connected to this gate's input
      *  @param pinName the textual representation of the input pin
      *  @return a pin number usable as a parameter to
      *  {@link #inPinName inPinName}
      *  @see #inPinName
      */
-    public final int registerInput( Wire w, String pinName ) {
-	if ("in1".equals( pinName )) {
-	    if (in1used) Errors.warn(
-		"Multiple uses of input pin: " + name + " in1"
-	    );
-	    in1used = true;
-	    return 1;
-	} else if ("in2".equals( pinName )) {
-	    if (in2used) Errors.warn(
-		"Multiple uses of input pin: " + name + " in2"
-	    );
-	    in2used = true;
-	    return 2;
-	} else {
-	    Errors.warn( "Illegal input pin: " + name + " " + pinName );
+    public final int registerInput( String pinName ) {
+	int pin = pinNumber( pinName );
+	if (pin < 1) {
+	    Errors.warn( "Illegal input pin: " + name() + " " + pinName );
 	    return -1;
 	}
+	if (pin > used.length) {
+	    int n = Math.max( pin, 2 * used.length );
+	    used = Arrays.copyOf( used, n );
+	    in = Arrays.copyOf( in, n );
+	}
+	if (used[pin - 1]) Errors.warn(
+	    "Multiple uses of input pin: " + name() + " " + pinName
+	);
+	used[pin - 1] = true;
+	return pin;
+    }
+
+    /** @return the number of an input pin in1 to inN, or -1 if there is
+     *  no such pin
+     *  @param pinName the textual representation of the input pin
+     */
+    static int pinNumber( String pinName ) {
+	int length = pinName.length();
+	if ((length < 3) || (length > 7) || !pinName.startsWith( "in" )
+	||  (pinName.charAt( 2 ) == '0')) return -1;
+	int pin = 0;
+	for (int i = 2; i < length; i++) {
+	    char c = pinName.charAt( i );
+	    if ((c < '0') || (c > '9')) return -1;
+	    pin = 10 * pin + (c - '0');
+	}
+	if (pin > MAX_INPUTS) return -1;
+	return pin;
     }
 
     /** Gets the name of the input pin, given its number. The number can
@@ -373,69 +597,84 @@ abstract class TwoInputGate extends LogicGate {
     public final String inPinName( int pinNumber ) {
 	if (pinNumber == 1) return "in1";
 	if (pinNumber == 2) return "in2";
+	if ((pinNumber > 2) && (pinNumber <= MAX_INPUTS)) {
+	    return "in" + pinNumber;
+	}
 	return "???";
     }
 
     /** Checks the sanity of this gate's connections. Input pins should
      *  only have one input wire each and all
      *  {@link LogicGate LogicGate}s need all of their input pins used.
+     *  A gate that is true when all its inputs are false is launched
+     *  here, as a {@link NotGate NotGate} is.
      */
     public final void checkSanity() {
-	if (!in1used) Errors.warn( "Unused input pin: " + name + " in1" );
-	if (!in2used) Errors.warn( "Unused input pin: " + name + " in2" );
+	inputs = 2;
+	for (int i = 2; i < used.length; i++) {
+	    if (used[i]) inputs = i + 1;
+	}
+	for (int i = 0; i < inputs; i++) {
+	    if (!used[i]) Errors.warn(
+		"Unused input pin: " + name() + " in" + (i + 1)
+	    );
+	}
+
+	// this is a good time to launch the simulation
+	if (valueOf( 0 )) {
+	    value = true;
+	    launch();
+	}
     }
 
     // Simulation methods
 
-    /** Update the output value of a gate based on its input values
+    /** The value of the gate, given how many of its inputs are true
      *  This is called from {@link #inputChangeEvent inputChangeEvent}
      *  to delegate the response of the logic gate to the input change
      *  to the concrete gate class instead of this abstract class.
-     *  @param time the value is updated
+     *  @param trueInputs the number of inputs that are true
+     *  @return the value
      *  @see inputChangeEvent
      */
-    abstract void updateValue( float time );
+    abstract boolean valueOf( int trueInputs );
 
     /** Handles the updating of one of the gate's inputs based on a change
      *  in value to one of the input pins.
-     *  This method calls {@link #updateValue updateValue} in order
+     *  This method calls {@link #valueOf valueOf} in order
      *  to determine if an outputChangeEvent should be scheduled.
      *  @param time the time when the input changes
      *  @param dstPin the pin that changes
      *  @param v the new logic value
-     *  @see updateValue
+     *  @see valueOf
      */
     public void inputChangeEvent( float time, int dstPin, boolean v ) {
-	if (dstPin == 1) {
-	    in1 = v;
-	} else if (dstPin == 2) {
-	    in2 = v;
-	}
-	updateValue( time );
+	if (in[dstPin - 1] == v) return;
+	in[dstPin - 1] = v;
+	trueInputs = trueInputs + (v ? 1 : -1);
+	boolean newVal = valueOf( trueInputs );
+	if (newVal != value) newValue( time, newVal );
     }
 
-} // abstract class TwoInputGate
+} // abstract class MultiInputGate
 
 /** Handles the properties specific to and gates.
- *  This class implements updateValue, which compares the current
- *  inputs carried by its two input wires by the AND operator.
- *  updateValue is called by inputChangeEvent which is defined in
- *  TwoInputGate, and updateValue will schedule an outputChangeEvent
- *  if it has determined that a change in ouput has occured.
- *  @see TwoInputGate
+ *  This class implements valueOf, which is true when all of the
+ *  inputs carried by its input wires are true.
+ *  @see MultiInputGate
  *  @see LogicGate
  */
-final class AndGate extends TwoInputGate {
+final class AndGate extends MultiInputGate {
 
     /** Constructor for AndGate, utilizes the class heirarchy to
-     *  initialize final variables name and delay.
+     *  initialize final variables id and delay.
      *  This class is final and is the concrete class that the
      *  simulator will utilize.
-     *  @param name a textual identity of the gate and is final
+     *  @param id the id of the gate's name, interned in Logic.symbols
      *  @param delay the delay value for this gate and is final
      */
-    public AndGate( String name, float delay ) {
-	super( name, delay );
+    public AndGate( int id, float delay ) {
+	super( id, delay );
     }
 
     /** Reconstruct the textual description of this gate. This is
@@ -443,54 +682,44 @@ final class AndGate extends TwoInputGate {
      *  @return the textual description
      */
     public String toString() {
-	return "gate " + name + " and " + delay;
+	return "gate " + name() + " and " + delay;
     }
 
     // Simulation methods
 
-    /** Update the output value of a gate based on its input values.
-     *  This implementation is specific to AndGate as it uses the AND
-     *  operator to determine a new value based on its in1 and in2 pins
-     *  @param time the value is updated
-     */
-    void updateValue( float time ) {
-	boolean newVal = in1 & in2;
-	if (newVal != value) {
-	    value = newVal;
-	    Simulator.schedule(
-	        new Simulator.Event(
-		time + (delay * 0.95f)
-		+ PRNG.randomFloat( delay * 0.1f ) ) {
-		    void trigger() {
-			outputChangeEvent( this.time );
-		    }
-		}
-	    );
-	}
+    /** The value of an and gate, true if all its inputs are true
+     *  @param trueInputs the number of inputs that are true
+     *  @return the value
+     */
+    boolean valueOf( int trueInputs ) {
+	return trueInputs == inputs;
+    }
+
+    /** @return the kind code of an and gate
+     */
+    byte kindCode() {
+	return AND;
     }
 
 } // class AndGate
 
 /** Handles the properties specific to or gates.
- *  This class implements updateValue, which compares the current
- *  inputs carried by its two input wires by the OR operator.
- *  updateValue is called by inputChangeEvent which is defined in
- *  TwoInputGate, and updateValue will schedule an outputChangeEvent
- *  if it has determined that a change in ouput has occured.
- *  @see TwoInputGate
+ *  This class implements valueOf, which is true when any of the
+ *  inputs carried by its input wires is true.
+ *  @see MultiInputGate
  *  @see LogicGate
  */
-final class OrGate extends TwoInputGate {
+final class OrGate extends MultiInputGate {
 
     /** Constructor for OrGate, utilizes the class heirarchy to
-     *  initialize final variables name and delay.
+     *  initialize final variables id and delay.
      *  This class is final and is the concrete class that the
      *  simulator will utilize.
-     *  @param name a textual identity of the gate and is final
+     *  @param id the id of the gate's name, interned in Logic.symbols
      *  @param delay the delay value for this gate and is final
      */
-    public OrGate( String name, float delay ) {
-	super( name, delay );
+    public OrGate( int id, float delay ) {
+	super( id, delay );
     }
 
     /** Reconstruct the textual description of this gate. This is
@@ -498,34 +727,183 @@ final class OrGate extends TwoInputGate {
      *  @return the textual description
      */
     public String toString() {
-	return "gate " + name + " or " + delay;
+	return "gate " + name() + " or " + delay;
     }
 
     // Simulation methods
 
-    /** Update the output value of a gate based on its input values.
-     *  This implementation of updateValue is specific to OrGate as it
-     *  uses the OR operator to determine its output value based on
-     *  in1 and in2 pins
-     *  @param time the value is updated
-     */
-    void updateValue( float time ) {
-	boolean newVal = in1 | in2;
-	if (newVal != value) {
-	    value = newVal;
-	    Simulator.schedule(
-	        new Simulator.Event( time + (delay * 0.95f)
-		+ PRNG.randomFloat( delay * 0.1f ) ) {
-		    void trigger() {
-			outputChangeEvent( this.time );
-		    }
-		}
-	    );
-	}
+    /** The value of an or gate, true if any of its inputs is true
+     *  @param trueInputs the number of inputs that are true
+     *  @return the value
+     */
+    boolean valueOf( int trueInputs ) {
+	return trueInputs != 0;
+    }
+
+    /** @return the kind code of an or gate
+     */
+    byte kindCode() {
+	return OR;
     }
 
 } // class OrGate
 
+/** Handles the properties specific to nand gates, and gates with their
+ *  output inverted.  Since a nand gate is true while its inputs are all
+ *  still false, it is launched by checkSanity.
+ *  @see MultiInputGate
+ *  @see LogicGate
+ */
+final class NandGate extends MultiInputGate {
+
+    /** Constructor for NandGate
+     *  @param id the id of the gate's name, interned in Logic.symbols
+     *  @param delay the delay value for this gate and is final
+     */
+    public NandGate( int id, float delay ) {
+	super( id, delay );
+    }
+
+    /** Reconstruct the textual description of this gate.
+     *  @return the textual description
+     */
+    public String toString() {
+	return "gate " + name() + " nand " + delay;
+    }
+
+    /** The value of a nand gate, false if all its inputs are true
+     *  @param trueInputs the number of inputs that are true
+     *  @return the value
+     */
+    boolean valueOf( int trueInputs ) {
+	return trueInputs != inputs;
+    }
+
+    /** @return the kind code of a nand gate
+     */
+    byte kindCode() {
+	return NAND;
+    }
+
+} // class NandGate
+
+/** Handles the properties specific to nor gates, or gates with their
+ *  output inverted.  Since a nor gate is true while its inputs are all
+ *  still false, it is launched by checkSanity.
+ *  @see MultiInputGate
+ *  @see LogicGate
+ */
+final class NorGate extends MultiInputGate {
+
+    /** Constructor for NorGate
+     *  @param id the id of the gate's name, interned in Logic.symbols
+     *  @param delay the delay value for this gate and is final
+     */
+    public NorGate( int id, float delay ) {
+	super( id, delay );
+    }
+
+    /** Reconstruct the textual description of this gate.
+     *  @return the textual description
+     */
+    public String toString() {
+	return "gate " + name() + " nor " + delay;
+    }
+
+    /** The value of a nor gate, true if none of its inputs is true
+     *  @param trueInputs the number of inputs that are true
+     *  @return the value
+     */
+    boolean valueOf( int trueInputs ) {
+	return trueInputs == 0;
+    }
+
+    /** @return the kind code of a nor gate
+     */
+    byte kindCode() {
+	return NOR;
+    }
+
+} // class NorGate
+
+/** Handles the properties specific to exclusive or gates, true when an
+ *  odd number of their inputs are true; only the parity of the count
+ *  of true inputs matters.
+ *  @see MultiInputGate
+ *  @see LogicGate
+ */
+final class XorGate extends MultiInputGate {
+
+    /** Constructor for XorGate
+     *  @param id the id of the gate's name, interned in Logic.symbols
+     *  @param delay the delay value for this gate and is final
+     */
+    public XorGate( int id, float delay ) {
+	super( id, delay );
+    }
+
+    /** Reconstruct the textual description of this gate.
+     *  @return the textual description
+     */
+    public String toString() {
+	return "gate " + name() + " xor " + delay;
+    }
+
+    /** The value of an xor gate, true if an odd number of inputs are true
+     *  @param trueInputs the number of inputs that are true
+     *  @return the value
+     */
+    boolean valueOf( int trueInputs ) {
+	return (trueInputs & 1) != 0;
+    }
+
+    /** @return the kind code of an xor gate
+     */
+    byte kindCode() {
+	return XOR;
+    }
+
+} // class XorGate
+
+/** Handles the properties specific to exclusive nor gates, true when an
+ *  even number of their inputs are true.  Since an xnor gate is true
+ *  while its inputs are all still false, it is launched by checkSanity.
+ *  @see MultiInputGate
+ *  @see LogicGate
+ */
+final class XnorGate extends MultiInputGate {
+
+    /** Constructor for XnorGate
+     *  @param id the id of the gate's name, interned in Logic.symbols
+     *  @param delay the delay value for this gate and is final
+     */
+    public XnorGate( int id, float delay ) {
+	super( id, delay );
+    }
+
+    /** Reconstruct the textual description of this gate.
+     *  @return the textual description
+     */
+    public String toString() {
+	return "gate " + name() + " xnor " + delay;
+    }
+
+    /** The value of an xnor gate, true if an even number of inputs are true
+     *  @param trueInputs the number of inputs that are true
+     *  @return the value
+     */
+    boolean valueOf( int trueInputs ) {
+	return (trueInputs & 1) == 0;
+    }
+
+    /** @return the kind code of an xnor gate
+     */
+    byte kindCode() {
+	return XNOR;
+    }
+
+} // class XnorGate
+
 /** Handles the properties specific to not gates.
  *  NotGates are inverters; their output will always have
  *  the opposite value of their input after the delay of the
@@ -533,7 +911,7 @@ final class OrGate extends TwoInputGate {
  *  Important to note is that this class directly extends LogicGate and
  *  is fully functional at this level in the heirarchy based on its
  *  definition, this is different than the case for the AndGate and
- *  OrGate which extend TwoInputGate which is an extender of LogicGate.
+ *  OrGate which extend MultiInputGate which is an extender of LogicGate.
  *  Its inputChangeEvent handles updating its input since it is simple
  *  to just negate its output when a new input has been detected.
  *  Since all wires start false, the initial scheduling of a not gate
@@ -546,34 +924,33 @@ final class NotGate extends LogicGate {
     private boolean inUsed = false;
 
     /** Constructor for NotGate, utilizes the class heirarchy to
-     *  initialize final variables name and delay.
+     *  initialize final variables id and delay.
      *  This class is final and is the concrete class that the
      *  simulator will utilize.
-     *  @param name a textual identity of the gate and is final
+     *  @param id the id of the gate's name, interned in Logic.symbols
      *  @param delay the delay value for this gate and is final
      */
-    public NotGate( String name, float delay ) {
-	super( name, delay );
+    public NotGate( int id, float delay ) {
+	super( id, delay );
     }
 
     /** Update the gate's inUse fields that keep track of whether
      *  or not a certain input pin is in use. All gates must have their
      *  input pins used and only one wire can be connected to an input pin.
-     *  @param w the wire that is connected to this gate's input
      *  @param pinName the textual representation of the input pin
      *  @return a pin number usable as a parameter to
      *  {@link #inPinName inPinName}
      *  @see #inPinName
      */
-    public int registerInput( Wire w, String pinName ) {
+    public int registerInput( String pinName ) {
 	if ("in".equals( pinName )) {
 	    if (inUsed) Errors.warn(
-		"Multiple uses of input pin: " + name + " in"
+		"Multiple uses of input pin: " + name() + " in"
 	    );
 	    inUsed = true;
 	    return 0;
 	} else {
-	    Errors.warn( "Illegal input pin: " + name + " " + pinName );
+	    Errors.warn( "Illegal input pin: " + name() + " " + pinName );
 	    return -1;
 	}
     }
@@ -595,17 +972,11 @@ final class NotGate extends LogicGate {
      *  {@link LogicGate LogicGate}s need all of their input pins used.
      */
     public void checkSanity() {
-	if (!inUsed) Errors.warn( "Unused input pin: " + name + " in" );
+	if (!inUsed) Errors.warn( "Unused input pin: " + name() + " in" );
 
 	// this is a good time to launch the simulation
 	value = true;
-	Simulator.schedule(
-	    new Simulator.Event( delay ) {
-	        void trigger() {
-		    outputChangeEvent( this.time );
-	        }
-	    }
-	);
+	launch();
     }
 
     /** Reconstruct the textual description of this gate. This is
@@ -613,7 +984,7 @@ final class NotGate extends LogicGate {
      *  @return the textual description
      */
     public String toString() {
-	return "gate " + name + " not " + delay;
+	return "gate " + name() + " not " + delay;
     }
 
     // Simulation methods
@@ -622,22 +993,19 @@ final class NotGate extends LogicGate {
      *  This implementation of inputChangeEvent is unique to the NotGate.
      *  Every time a new input occurs, it is implicit that the new output
      *  is just a negation of that new input. Therefore, NotGate does not
-     *  require an updateValue like AndGate and OrGate do.
+     *  require a valueOf like AndGate and OrGate do.
      *  @param time the time when the input changes
      *  @param dstPin the pin that changes
      *  @param v the new logic value
      */
     public void inputChangeEvent( float time, int dstPin, boolean v ) {
-	value = !v;
-	    Simulator.schedule(
-	        new Simulator.Event( time
-		    + (delay * 0.95f)
-		    + PRNG.randomFloat( delay * 0.1f ) ) {
-		        void trigger() {
-			    outputChangeEvent( this.time );
-		        }
-		}
-	    );
+	newValue( time, !v );
+    }
+
+    /** @return the kind code of a not gate
+     */
+    byte kindCode() {
+	return NOT;
     }
 
 } // class NotGate
@@ -661,23 +1029,22 @@ final class ConstGate extends Gate {
     private LinkedList <Wire> outgoingFalse = new LinkedList <Wire> ();
 
     /** Constructor for ConstGate, utilizes the class heirarchy to
-     *  initialize final variables name and delay.
+     *  initialize final variables id and delay.
      *  This class is final and is the concrete class that the
      *  simulator will utilize.
-     *  @param name a textual identity of the gate and is final
+     *  @param id the id of the gate's name, interned in Logic.symbols
      *  @param delay the delay value for this gate and is final
      */
-    public ConstGate( String name, float delay ) {
-	super( name, delay );
+    public ConstGate( int id, float delay ) {
+	super( id, delay );
     }
     /**ConstGates have no input pins so this implementation of registerInput
     *  always returns -1 and handles the error in the input file accordingly.
-    *  @param w the wire that is connected to this gate's input
     *  @param pinName the textual representation of the input pin
     *  @return -1 as to indicate the ConstGate has no input pin
     */
-    public int registerInput( Wire w, String pinName ) {
-	Errors.warn( "Illegal input pin: " + name + " " + pinName );
+    public int registerInput( String pinName ) {
+	Errors.warn( "Illegal input pin: " + name() + " " + pinName );
 	return -1;
     }
 
@@ -698,7 +1065,7 @@ final class ConstGate extends Gate {
 	    outgoingFalse.add( w );
 	    return 0;
 	} else {
-	    Errors.warn( "Illegal output pin: " + name + " " + pinName );
+	    Errors.warn( "Illegal output pin: " + name() + " " + pinName );
 	    return -1;
 	}
     }
@@ -736,13 +1103,7 @@ final class ConstGate extends Gate {
 	// no sanity check; there are no input pins to check
 
 	// this is a good time to launch the simulation
-	Simulator.schedule(
-	    new Simulator.Event( delay ) {
-	        void trigger() {
-		    outputChangeEvent( this.time );
-	        }
-	    }
-	);
+	Simulator.schedule( delay, this );
     }
 
     /** Reconstruct the textual description of this gate. This is
@@ -750,7 +1111,7 @@ final class ConstGate extends Gate {
      *  @return the textual description
      */
     public String toString() {
-	return "gate " + name + " const " + delay;
+	return "gate " + name() + " const " + delay;
     }
 
     // Simulation methods
@@ -772,12 +1133,26 @@ final class ConstGate extends Gate {
      *  @param time the time at which the output change occurs
      */
     public void outputChangeEvent( float time ) {
-	System.out.println(
-	    "At " + time + " " + toString() + " true " + " changes to true"
-	);
+	Trace.change( time, id, true );
 	for (Wire w: outgoingTrue) {
 	    w.inputChangeEvent( time, true );
 	}
     }
 
+    /** Append the line of the trace for the change of the true output
+     *  @param b where the line is appended, without a line end
+     *  @param time the time at which the output changed
+     *  @param v the new output value, always true
+     */
+    void traceLine( StringBuilder b, float time, boolean v ) {
+	b.append( "At " ).append( time ).append( " " ).append( toString() )
+	 .append( " true " ).append( " changes to true" );
+    }
+
+    /** @return the kind code of a const gate
+     */
+    byte kindCode() {
+	return CONST;
+    }
+
 } // class ConstGate
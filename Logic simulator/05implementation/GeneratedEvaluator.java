@@ -0,0 +1,577 @@
+/* GeneratedEvaluator.java
+ * A circuit compiled into Java bytecode, 64 patterns at a time
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** Evaluates a circuit, as {@link PatternSimulator PatternSimulator}
+ *  does, with code generated for that one circuit.
+ *  Each logic gate becomes a few bytecodes: load its inputs, combining
+ *  each with those before, invert if it is a not, nand, nor or xnor
+ *  gate, and store its value.  The gates are taken in topological
+ *  order, a run of them to each generated static method; within a
+ *  method, values are held in locals, and only those values needed
+ *  outside it, by a later method or because they are printed, are stored
+ *  in the array of values.  Values of const gates are in that array
+ *  before evaluation starts.
+ *  <p>
+ *  A gate with too many inputs for one method gets methods of its own,
+ *  each combining a part of its inputs with the value so far, which is
+ *  kept in the gate's own place in the array of values between them.
+ *  <p>
+ *  Methods are kept well under the size beyond which the JIT will not
+ *  compile them, and the methods are gathered into hidden classes, each
+ *  with a constant pool within the class file format's limits and a
+ *  method that calls its other methods in order.  Nothing is dispatched
+ *  virtually; the JIT sees straight-line code for the whole circuit.
+ *  <p>
+ *  The class files are written directly, since there is no class file
+ *  library among the Java 17 APIs; they use only a handful of
+ *  instructions and have no branches, so they need no stack maps.
+ */
+final class GeneratedEvaluator {
+    // the most gates per generated method, bounding the locals it uses
+    private static final int GATES_PER_METHOD = 256;
+
+    // the most bytes of bytecode per generated method, leaving a margin
+    // under the 8000 beyond which the JIT will not compile a method; a
+    // gate takes at most 6 bytes per input and 18 more
+    private static final int METHOD_BYTES = 7000;
+
+    // the most inputs of a wide gate combined by one of its methods, at
+    // 6 bytes each, with room for loading the value so far and storing it
+    private static final int PART_INPUTS = 1100;
+
+    // the most methods per generated class, and the most array indexes
+    // its methods may use, one per input and one per gate, keeping its
+    // constant pool within the 65535 entries allowed
+    private static final int METHODS_PER_CLASS = 64;
+    private static final int CLASS_INDEXES = 60000;
+
+    // the method of each generated class that evaluates its gates
+    private final MethodHandle[] parts;
+
+    /** construct an evaluator, only used by generate
+     */
+    private GeneratedEvaluator( MethodHandle[] parts ) {
+	this.parts = parts;
+    }
+
+    /** Evaluate every gate once, for 64 patterns
+     *  @param value the value of each gate, indexed by gate id, already
+     *  holding the values of the const gates; the values of the gates
+     *  that were marked as needed are filled in
+     */
+    void evaluate( long[] value ) {
+	try {
+	    for (MethodHandle h: parts) h.invokeExact( value );
+	} catch (RuntimeException | Error e) {
+	    throw e;
+	} catch (Throwable e) {
+	    // generated code never throws a checked exception
+	    throw new AssertionError( e );
+	}
+    }
+
+    /** Generate an evaluator for a circuit
+     *  @param k the compiled circuit
+     *  @param order the gate ids in topological order
+     *  @param needed for each gate id, nonzero if its value is needed
+     *  after evaluation
+     *  @return the evaluator
+     */
+    static GeneratedEvaluator generate( NetlistKernel k, int[] order,
+					byte[] needed ) {
+	int n = k.gates;
+
+	// the gate driving each input, as numbered by fanin, or -1
+	int[] driver = new int[k.fanin[n]];
+	for (int i = 0; i < driver.length; i++) driver[i] = -1;
+	for (int g = 0; g < n; g++) {
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		driver[k.fanin[k.wireDst[w]] + k.wireSlot[w]] = g;
+	    }
+	}
+
+	// the logic gates in order, the position of each in that order,
+	// and the method each is evaluated in, starting a new method when
+	// the last is full; method m evaluates positions start[m] up to
+	// start[m + 1], and class c methods classStart[c] up to the next.
+	// A wide gate has methods of its own, the last being the one it is
+	// said to be evaluated in, and part[m] is the first of its inputs
+	// that method m combines, or -1 for a method of whole gates
+	int[] gates = new int[n];
+	int[] at = new int[n];
+	int count = 0;
+	int[] method = new int[n];
+	int most = n + k.fanin[n] / PART_INPUTS + 1;
+	int[] start = new int[most + 1];
+	int[] part = new int[most];
+	int[] classStart = new int[most + 1];
+	int methods = 0;
+	int classes = 0;
+	int bytes = 0;
+	int indexes = 0;
+	for (int g: order) {
+	    if (k.kind[g] == NetlistKernel.CONST) {
+		method[g] = -1;
+		continue;
+	    }
+	    int inputs = k.fanin[g + 1] - k.fanin[g];
+	    int size = 6 * inputs + 18;
+	    if (size > METHOD_BYTES) {
+		int end = k.fanin[g + 1];
+		for (int j = k.fanin[g]; j < end; j = j + PART_INPUTS) {
+		    if ((classes == 0)
+		    ||  (methods - classStart[classes - 1] == METHODS_PER_CLASS)
+		    ||  (indexes + PART_INPUTS + 1 > CLASS_INDEXES)) {
+			classStart[classes++] = methods;
+			indexes = 0;
+		    }
+		    part[methods] = j;
+		    start[methods++] = count;
+		    indexes = indexes + PART_INPUTS + 1;
+		}
+		bytes = METHOD_BYTES;   // what follows starts a new method
+	    } else {
+		if ((methods == 0) || (bytes + size > METHOD_BYTES)
+		||  (count - start[methods - 1] == GATES_PER_METHOD)) {
+		    if ((classes == 0)
+		    ||  (methods - classStart[classes - 1] == METHODS_PER_CLASS)
+		    ||  (indexes + inputs + 1 > CLASS_INDEXES)) {
+			classStart[classes++] = methods;
+			indexes = 0;
+		    }
+		    part[methods] = -1;
+		    start[methods++] = count;
+		    bytes = 0;
+		}
+		bytes = bytes + size;
+		indexes = indexes + inputs + 1;
+	    }
+	    method[g] = methods - 1;
+	    at[g] = count;
+	    gates[count++] = g;
+	}
+	start[methods] = count;
+	classStart[classes] = methods;
+
+	// a value is stored if it is needed after evaluation or by a gate
+	// in another method
+	boolean[] stored = new boolean[n];
+	for (int g = 0; g < n; g++) stored[g] = needed[g] != 0;
+	for (int g = 0; g < n; g++) {
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		if (method[k.wireDst[w]] != method[g]) stored[g] = true;
+	    }
+	}
+
+	// generate a class for each run of methods
+	MethodHandles.Lookup lookup = MethodHandles.lookup();
+	Circuit circuit = new Circuit( k, gates, at, driver, method, stored );
+	MethodType type = MethodType.methodType( void.class, long[].class );
+	List <MethodHandle> parts = new ArrayList <MethodHandle> ();
+	try {
+	    for (int cl = 0; cl < classes; cl++) {
+		ClassFile c = new ClassFile( "GeneratedCircuit" );
+		int m = classStart[cl];
+		int last = classStart[cl + 1];
+		for (int i = m; i < last; i++) {
+		    c.method( "m" + i, (part[i] < 0)
+			? circuit.method( c, start[i], start[i + 1] )
+			: circuit.part( c, start[i], part[i] )
+		    );
+		}
+		c.caller( "run", "m", m, last );
+		MethodHandles.Lookup hidden
+		    = lookup.defineHiddenClass( c.bytes(), true );
+		parts.add(
+		    hidden.findStatic( hidden.lookupClass(), "run", type )
+		);
+	    }
+	} catch (ReflectiveOperationException e) {
+	    Errors.fatal( "Can't generate the evaluator: " + e );
+	}
+	return new GeneratedEvaluator(
+	    parts.toArray( new MethodHandle[parts.size()] )
+	);
+    }
+
+    /** The circuit as the generated code sees it
+     */
+    private static final class Circuit {
+	final NetlistKernel k;
+	final int[] gates;      // the logic gates in topological order
+	final int[] at;         // the position of each gate in gates
+	final int[] driver;     // the gate driving each input, or -1
+	final int[] method;     // the method each gate is evaluated in
+	final boolean[] stored; // true if the gate's value is stored
+
+	Circuit( NetlistKernel k, int[] gates, int[] at, int[] driver,
+		 int[] method, boolean[] stored ) {
+	    this.k = k;
+	    this.gates = gates;
+	    this.at = at;
+	    this.driver = driver;
+	    this.method = method;
+	    this.stored = stored;
+	}
+
+	/** Generate the code of one method
+	 *  @param c the class the method is for
+	 *  @param from the position of the first gate it evaluates
+	 *  @param to just past the position of the last
+	 *  @return the code
+	 */
+	Code method( ClassFile c, int from, int to ) {
+	    Code code = new Code();
+	    int here = method[gates[from]];
+	    for (int i = from; i < to; i++) {
+		int g = gates[i];
+		byte kind = k.kind[g];
+
+		// push the inputs, combining each with those before
+		int combine = combiner( kind );
+		for (int j = k.fanin[g]; j < k.fanin[g + 1]; j++) {
+		    int d = driver[j];
+		    if (d < 0) {
+			code.op( Code.LCONST_0 );
+		    } else if (method[d] == here) {
+			code.local( Code.LLOAD, local( d, from ) );
+		    } else {
+			code.op( Code.ALOAD_0 );
+			code.index( c, d );
+			code.op( Code.LALOAD );
+		    }
+		    if (j > k.fanin[g]) code.op( combine );
+		}
+		if (NetlistKernel.inverting( kind )) {
+		    code.op( Code.LDC2_W );
+		    code.u2( c.minusOne() );
+		    code.op( Code.LXOR );
+		}
+
+		// keep the value in a local, and in the array if need be
+		code.local( Code.LSTORE, local( g, from ) );
+		if (stored[g]) {
+		    code.op( Code.ALOAD_0 );
+		    code.index( c, g );
+		    code.local( Code.LLOAD, local( g, from ) );
+		    code.op( Code.LASTORE );
+		}
+	    }
+	    code.op( Code.RETURN );
+	    code.maxLocals = 1 + 2 * (to - from);
+	    return code;
+	}
+
+	/** Generate the code of one method of a wide gate
+	 *  @param c the class the method is for
+	 *  @param at the position of the gate
+	 *  @param first the first of its inputs combined by this method;
+	 *  the inputs before are already combined, in the array of values
+	 *  @return the code
+	 */
+	Code part( ClassFile c, int at, int first ) {
+	    Code code = new Code();
+	    int g = gates[at];
+	    byte kind = k.kind[g];
+	    int combine = combiner( kind );
+	    int end = Math.min( first + PART_INPUTS, k.fanin[g + 1] );
+	    boolean last = end == k.fanin[g + 1];
+
+	    // the value so far, then the inputs, every one from the array
+	    if (first > k.fanin[g]) {
+		code.op( Code.ALOAD_0 );
+		code.index( c, g );
+		code.op( Code.LALOAD );
+	    }
+	    for (int j = first; j < end; j++) {
+		if (driver[j] < 0) {
+		    code.op( Code.LCONST_0 );
+		} else {
+		    code.op( Code.ALOAD_0 );
+		    code.index( c, driver[j] );
+		    code.op( Code.LALOAD );
+		}
+		if (j > k.fanin[g]) code.op( combine );
+	    }
+	    if (last && NetlistKernel.inverting( kind )) {
+		code.op( Code.LDC2_W );
+		code.u2( c.minusOne() );
+		code.op( Code.LXOR );
+	    }
+
+	    // a value so far is always stored, the final value if need be
+	    code.local( Code.LSTORE, 1 );
+	    if (!last || stored[g]) {
+		code.op( Code.ALOAD_0 );
+		code.index( c, g );
+		code.local( Code.LLOAD, 1 );
+		code.op( Code.LASTORE );
+	    }
+	    code.op( Code.RETURN );
+	    code.maxLocals = 3;
+	    return code;
+	}
+
+	// the instruction combining an input of a gate with those before
+	private static int combiner( byte kind ) {
+	    if ((kind == NetlistKernel.AND) || (kind == NetlistKernel.NAND)) {
+		return Code.LAND;
+	    } else if ((kind == NetlistKernel.OR)
+		   ||  (kind == NetlistKernel.NOR)) {
+		return Code.LOR;
+	    }
+	    return Code.LXOR;
+	}
+
+	// the local holding the value of gate g in the method from from
+	private int local( int g, int from ) {
+	    return 1 + 2 * (at[g] - from);
+	}
+    }
+
+    /** The bytecode of one method
+     */
+    private static final class Code {
+	static final int LCONST_0 = 0x09;
+	static final int SIPUSH = 0x11;
+	static final int LDC_W = 0x13;
+	static final int LDC2_W = 0x14;
+	static final int LLOAD = 0x16;
+	static final int ALOAD_0 = 0x2a;
+	static final int LALOAD = 0x2f;
+	static final int LSTORE = 0x37;
+	static final int LASTORE = 0x50;
+	static final int LAND = 0x7f;
+	static final int LOR = 0x81;
+	static final int LXOR = 0x83;
+	static final int RETURN = 0xb1;
+	static final int INVOKESTATIC = 0xb8;
+	static final int WIDE = 0xc4;
+
+	final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	int maxLocals = 1;
+
+	void op( int op ) {
+	    bytes.write( op );
+	}
+
+	void u2( int v ) {
+	    bytes.write( v >> 8 );
+	    bytes.write( v );
+	}
+
+	// load or store a local, in the shortest form there is
+	void local( int op, int slot ) {
+	    if (slot < 4) {
+		// lload_0 is 0x1e and lstore_0 is 0x3f
+		op( ((op == LLOAD) ? 0x1e : 0x3f) + slot );
+	    } else if (slot < 256) {
+		op( op );
+		op( slot );
+	    } else {
+		op( WIDE );
+		op( op );
+		u2( slot );
+	    }
+	}
+
+	// push an array index
+	void index( ClassFile c, int i ) {
+	    if (i < Short.MAX_VALUE) {
+		op( SIPUSH );
+		u2( i );
+	    } else {
+		op( LDC_W );
+		u2( c.integer( i ) );
+	    }
+	}
+    }
+
+    /** A class file being written, for a final class of static methods
+     *  each taking the array of values
+     */
+    private static final class ClassFile {
+	private static final String DESCRIPTOR = "([J)V";
+
+	// the constant pool, as written, and the index of each entry
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream( pool );
+	private final HashMap <String, Integer> entries
+	    = new HashMap <String, Integer> ();
+	private int poolCount = 1;
+
+	private final ByteArrayOutputStream methods
+	    = new ByteArrayOutputStream();
+	private final DataOutputStream methodsOut
+	    = new DataOutputStream( methods );
+	private int methodCount = 0;
+
+	private final int thisClass;
+	private final int superClass;
+	private final int codeName;
+	private final int descriptor;
+
+	ClassFile( String name ) {
+	    thisClass = classEntry( name );
+	    superClass = classEntry( "java/lang/Object" );
+	    codeName = utf8( "Code" );
+	    descriptor = utf8( DESCRIPTOR );
+	}
+
+	/** Add a public static method taking the array of values
+	 *  @param name the method's name
+	 *  @param code its code
+	 */
+	void method( String name, Code code ) {
+	    try {
+		methodsOut.writeShort( 0x0009 );  // public static
+		methodsOut.writeShort( utf8( name ) );
+		methodsOut.writeShort( descriptor );
+		methodsOut.writeShort( 1 );
+		methodsOut.writeShort( codeName );
+		methodsOut.writeInt( 12 + code.bytes.size() );
+		methodsOut.writeShort( 4 );       // max stack
+		methodsOut.writeShort( code.maxLocals );
+		methodsOut.writeInt( code.bytes.size() );
+		code.bytes.writeTo( methodsOut );
+		methodsOut.writeShort( 0 );       // exception table
+		methodsOut.writeShort( 0 );       // attributes
+	    } catch (IOException e) {
+		throw new AssertionError( e );    // never, in memory
+	    }
+	    methodCount = methodCount + 1;
+	}
+
+	/** Add a method calling the methods prefix + from up to prefix + to
+	 *  @param name the method's name
+	 *  @param prefix the names of the methods called, before their numbers
+	 *  @param from the first number
+	 *  @param to just past the last number
+	 */
+	void caller( String name, String prefix, int from, int to ) {
+	    Code code = new Code();
+	    for (int i = from; i < to; i++) {
+		code.op( Code.ALOAD_0 );
+		code.op( Code.INVOKESTATIC );
+		code.u2( methodEntry( prefix + i ) );
+	    }
+	    code.op( Code.RETURN );
+	    method( name, code );
+	}
+
+	/** @return the class file
+	 */
+	byte[] bytes() {
+	    ByteArrayOutputStream b = new ByteArrayOutputStream();
+	    DataOutputStream out = new DataOutputStream( b );
+	    try {
+		out.writeInt( 0xCAFEBABE );
+		out.writeShort( 0 );
+		out.writeShort( 61 );            // Java 17
+		out.writeShort( poolCount );
+		pool.writeTo( out );
+		out.writeShort( 0x0030 );        // final, super
+		out.writeShort( thisClass );
+		out.writeShort( superClass );
+		out.writeShort( 0 );             // interfaces
+		out.writeShort( 0 );             // fields
+		out.writeShort( methodCount );
+		methods.writeTo( out );
+		out.writeShort( 0 );             // attributes
+	    } catch (IOException e) {
+		throw new AssertionError( e );
+	    }
+	    return b.toByteArray();
+	}
+
+	/** @return the pool index of the long constant -1
+	 */
+	int minusOne() {
+	    Integer e = entries.get( "J-1" );
+	    if (e != null) return e;
+	    int i = entry( "J-1", 5 );
+	    write8( -1L );
+	    poolCount = poolCount + 1;          // longs take two entries
+	    return i;
+	}
+
+	/** @return the pool index of an int constant
+	 *  @param v the constant
+	 */
+	int integer( int v ) {
+	    Integer e = entries.get( "I" + v );
+	    if (e != null) return e;
+	    int i = entry( "I" + v, 3 );
+	    write4( v );
+	    return i;
+	}
+
+	// the index of a UTF8 entry
+	private int utf8( String s ) {
+	    Integer e = entries.get( "U" + s );
+	    if (e != null) return e;
+	    int i = entry( "U" + s, 1 );
+	    try {
+		poolOut.writeUTF( s );
+	    } catch (IOException x) {
+		throw new AssertionError( x );
+	    }
+	    return i;
+	}
+
+	// the index of a class entry
+	private int classEntry( String name ) {
+	    int u = utf8( name );
+	    int i = entry( "C" + name, 7 );
+	    write2( u );
+	    return i;
+	}
+
+	// the index of a methodref entry for a method of this class
+	private int methodEntry( String name ) {
+	    int u = utf8( name );
+	    int nameAndType = entry( "N" + name, 12 );
+	    write2( u );
+	    write2( descriptor );
+	    int i = entry( "M" + name, 10 );
+	    write2( thisClass );
+	    write2( nameAndType );
+	    return i;
+	}
+
+	// start a new entry with its tag, returning its index
+	private int entry( String key, int tag ) {
+	    int i = poolCount;
+	    entries.put( key, i );
+	    poolCount = poolCount + 1;
+	    pool.write( tag );
+	    return i;
+	}
+
+	private void write2( int v ) {
+	    pool.write( v >> 8 );
+	    pool.write( v );
+	}
+
+	private void write4( int v ) {
+	    write2( v >> 16 );
+	    write2( v );
+	}
+
+	private void write8( long v ) {
+	    write4( (int)(v >> 32) );
+	    write4( (int)v );
+	}
+    }
+}
@@ -0,0 +1,219 @@
+/* LevelizedSimulator.java
+ * Zero-delay settling of a circuit without loops, one pass per change
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Finds the values a circuit without loops settles to, ignoring delays,
+ *  as a quick check before simulating it in time.
+ *  When the circuit is compiled, each gate is given a level, 0 for a
+ *  gate with no inputs and otherwise one more than the highest level of
+ *  the gates driving it, and the gates are laid out in order of level,
+ *  each as an operation code and the positions of the gates driving it.
+ *  Settling is then one straight pass over these arrays, evaluating each
+ *  gate exactly once; a gate's level is the pass in which it would
+ *  settle if every gate took the same time.
+ *  A loop, such as a ring oscillator, may never settle, so a circuit
+ *  with a loop is a fatal error.
+ *  <p>
+ *  The circuit first settles with every const gate true, as it starts.
+ *  Then a file of changes is applied, each line of which is a set of
+ *  changes to make at once, pairs of a const gate name and 0 or 1; the
+ *  true output of the gate takes the value, and its false output stays
+ *  false.  Blank lines and lines starting with <tt>--</tt> are ignored.
+ *  After each settling, the {@link Probes probed} gates are printed,
+ *  all of them at the start and afterward those that changed, in the
+ *  order they settle, lowest level first.
+ */
+final class LevelizedSimulator {
+    // the operation code of a gate with no inputs
+    private static final byte CONST = NetlistKernel.CONST;
+
+    // the number of gates
+    private final int n;
+
+    // the gates in order of level, and the position of each in that order
+    private final int[] gate;
+    private final int[] at;
+
+    // per position, the gate's level and operation code, and where the
+    // positions of the gates driving its inputs are in from, those of
+    // position i from first[i] up to first[i + 1]; an input that is always
+    // false is driven from position n
+    private final int[] level;
+    private final byte[] op;
+    private final int[] first;
+    private final int[] from;
+
+    // per position, the gate's value, with value[n] always false, and
+    // for a const gate, the value of its true output
+    private final boolean[] value;
+    private final boolean[] drive;
+
+    /** Compile a circuit into level order
+     *  @param k the compiled circuit
+     */
+    LevelizedSimulator( NetlistKernel k ) {
+	n = k.gates;
+	int[] order = k.topologicalOrder();
+	if (order == null) {
+	    StringBuilder b = new StringBuilder( "Loop in circuit:" );
+	    for (Gate g: k.loop()) b.append( ' ' ).append( g.name() );
+	    Errors.fatal( b.toString() );
+	}
+
+	// the level of each gate, found in topological order
+	int[] levelOf = new int[n];
+	int top = 0;
+	for (int g: order) {
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		int d = k.wireDst[w];
+		levelOf[d] = Math.max( levelOf[d], levelOf[g] + 1 );
+	    }
+	    top = Math.max( top, levelOf[g] );
+	}
+
+	// lay out the gates by level, keeping topological order within each
+	int[] start = new int[top + 2];
+	for (int g = 0; g < n; g++) start[levelOf[g] + 1]++;
+	for (int l = 0; l <= top; l++) start[l + 1] = start[l + 1] + start[l];
+	gate = new int[n];
+	at = new int[n];
+	for (int g: order) {
+	    int i = start[levelOf[g]]++;
+	    gate[i] = g;
+	    at[g] = i;
+	}
+
+	// each input is driven by the gate at some position, or by none
+	level = new int[n];
+	op = new byte[n];
+	first = new int[n + 1];
+	for (int i = 0; i < n; i++) {
+	    int g = gate[i];
+	    level[i] = levelOf[g];
+	    op[i] = k.kind[g];
+	    first[i + 1] = first[i] + (k.fanin[g + 1] - k.fanin[g]);
+	}
+	from = new int[first[n]];
+	for (int j = 0; j < from.length; j++) from[j] = n;
+	for (int g = 0; g < n; g++) {
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		from[first[at[k.wireDst[w]]] + k.wireSlot[w]] = at[g];
+	    }
+	}
+
+	value = new boolean[n + 1];
+	drive = new boolean[n];
+	for (int i = 0; i < n; i++) drive[i] = true;
+    }
+
+    /** Evaluate each gate once, in order of level
+     */
+    private void settle() {
+	for (int i = 0; i < n; i++) {
+	    byte o = op[i];
+	    if (o == CONST) {
+		value[i] = drive[i];
+		continue;
+	    }
+	    int trueInputs = 0;
+	    for (int j = first[i]; j < first[i + 1]; j++) {
+		if (value[from[j]]) trueInputs++;
+	    }
+	    value[i] = NetlistKernel.value(
+		o, trueInputs, first[i + 1] - first[i]
+	    );
+	}
+    }
+
+    /** Settle the circuit, then apply each set of changes in a file,
+     *  printing the values of the probed gates
+     *  @param fileName the name of the file of changes
+     *  @param gates the gates, such that gates[i].id == i
+     *  @param probes the probes naming the gates whose values are printed
+     *  @throws IOException if the file cannot be read
+     */
+    void run( String fileName, Gate[] gates, List <String> probes )
+	throws IOException
+    {
+	byte[] traced = Probes.select( gates, probes );
+	OutputStream out = new BufferedOutputStream( System.out, 1 << 16 );
+	StringBuilder b = new StringBuilder();
+	boolean[] before = new boolean[n + 1];
+
+	settle();
+	b.append( "Initially\n" );
+	report( b, gates, traced, null );
+	try (BufferedReader in = new BufferedReader(
+	    new FileReader( fileName ), 1 << 16
+	)) {
+	    for (;;) {
+		String line = in.readLine();
+		if (line == null) break;
+		line = line.trim();
+		if (line.isEmpty() || line.startsWith( "--" )) continue;
+		change( line );
+		System.arraycopy( value, 0, before, 0, n + 1 );
+		settle();
+		b.append( "After " ).append( line ).append( '\n' );
+		report( b, gates, traced, before );
+		if (b.length() > (1 << 16)) {
+		    out.write( b.toString().getBytes(
+			StandardCharsets.ISO_8859_1
+		    ) );
+		    b.setLength( 0 );
+		}
+	    }
+	}
+	out.write( b.toString().getBytes( StandardCharsets.ISO_8859_1 ) );
+	out.flush();
+    }
+
+    /** Apply one set of changes to the const gates
+     *  @param line the changes, pairs of a gate name and 0 or 1
+     */
+    private void change( String line ) {
+	String[] fields = line.split( "\\s+" );
+	if ((fields.length % 2) != 0) Errors.fatal( "Bad changes: " + line );
+	for (int f = 0; f < fields.length; f = f + 2) {
+	    String name = fields[f];
+	    int id = Logic.symbols.lookup( name );
+	    if ((id < 0) || (id >= n)) {
+		Errors.fatal( "No such gate: " + name );
+	    } else if (op[at[id]] != CONST) {
+		Errors.fatal( "Not a const gate: " + name );
+	    } else if ("0".equals( fields[f + 1] )) {
+		drive[at[id]] = false;
+	    } else if ("1".equals( fields[f + 1] )) {
+		drive[at[id]] = true;
+	    } else {
+		Errors.fatal( "Bad changes: " + line );
+	    }
+	}
+    }
+
+    /** Append a line for each probed gate, in the order they settle
+     *  @param b where the lines are appended
+     *  @param gates the gates, such that gates[i].id == i
+     *  @param traced for each gate id, 1 if the gate is probed
+     *  @param before the values before the changes, or null to report
+     *  every probed gate
+     */
+    private void report( StringBuilder b, Gate[] gates, byte[] traced,
+			 boolean[] before ) {
+	for (int i = 0; i < n; i++) {
+	    if (traced[gate[i]] == 0) continue;
+	    if ((before != null) && (before[i] == value[i])) continue;
+	    b.append( "Level " ).append( level[i] ).append( ' ' )
+	     .append( gates[gate[i]].toString() )
+	     .append( " settles to " ).append( value[i] ).append( '\n' );
+	}
+    }
+}
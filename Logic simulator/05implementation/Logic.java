@@ -10,50 +10,112 @@
  *  @see Errors
  */
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Scanner;
 import java.io.FileNotFoundException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 
 public class Logic {
 
-    // the sets of all wires and all gates
+    // the sets of all wires and all gates, gates are indexed by Gate.id
     private static LinkedList <Wire> wires
 	= new LinkedList <Wire> ();
-    private static LinkedList <Gate> gates
-	= new LinkedList <Gate> ();
+    private static ArrayList <Gate> gates
+	= new ArrayList <Gate> ();
+
+    // the probes, from the circuit description and then the command line
+    private static ArrayList <String> probes
+	= new ArrayList <String> ();
+
+    /** The names of all gates; a gate's id is its name's id here
+     */
+    static final SymbolTable symbols = new SymbolTable();
+
+    // all gates indexed by Gate.id, filled in by numberGates
+    private static Gate[] gateTable;
+
+    // the circuit off the heap, for -engine offheap
+    private static NetlistStore store;
+
+    // settings from the command line
+    private static String scheduler = "queue";
+    private static String engine = "objects";
+    private static String reader = "bytes";
+    private static String compileName = null;  // image file to write
+    private static String imageName = null;    // image file to load
+    private static String storeName = null;    // store file, if any
+    private static String mapName = null;      // partition map to write
+    private static String patternName = null;  // patterns to simulate
+    private static String settleName = null;   // changes to settle
+    private static String evaluator = "loop";
+    private static boolean inertial = false;    // -delay inertial
+    private static int runs = 0;                // Monte Carlo runs, if any
+    private static float until = Float.POSITIVE_INFINITY;
+    private static long most = Long.MAX_VALUE;  // -events
+    private static String oscillation = null;   // -oscillation, if any
+    private static String trace = "async";
+    private static String vcdName = null;      // dump file, if any
+    private static int threads = Runtime.getRuntime().availableProcessors();
 
     /** Find a gate by textual name in the set gates
      *  @param s name of a gate
-     *  @return the gate named s or null if none
+     *  @return the gate named s or null if none, or if it belongs to an
+     *  instance of a module that made no Gate objects
      */
     public static Gate findGate( String s ) {
-	// quick and dirty implementation
-	for (Gate i: gates) {
-	    if (i.name.equals( s )) {
-		return i;
-	    }
-	}
-	return null;
+	// names are interned only as gates are constructed, so a name's id
+	// is also the index of its gate
+	int id = symbols.lookup( s );
+	if (id < 0) return null;
+	return gates.get( id );
     }
 
     /** Initialize this logic circuit by scanning its description
+     *  The description may define and use {@link Module Module}s.
      */ 
     private static void readCircuit( Scanner sc ) {
+	Module defining = null; // the module being defined, if any
 	while (sc.hasNext()) {
 	    String command = sc.next();
-	    if ("gate".equals( command )) {
+	    if ("gate".equals( command ) && (defining != null)) {
+		scanModuleGate( sc, defining );
+	    } else if ("gate".equals( command )) {
 		try {
 		    gates.add( Gate.factory( sc ) );
 		} catch (Gate.ConstructorFailure e) {
 		    // do nothing, the constructor already reported the error 
 		}
+	    } else if ("wire".equals( command ) && (defining != null)) {
+		scanModuleWire( sc, defining );
+	    } else if ("wire".equals( command ) && symbols.hasInstances()) {
+		scanInstanceWire( sc );
 	    } else if ("wire".equals( command )) {
 		try {
 		    wires.add( new Wire( sc ) );
 		} catch (Wire.ConstructorFailure e) {
 		    // do nothing, the constructor already reported the error 
 		}
+	    } else if ("module".equals( command )
+		   ||  "end".equals( command )
+		   ||  "instance".equals( command )
+		   ||  "input".equals( command )
+		   ||  "output".equals( command )) {
+		try {
+		    defining = scanHierarchy( sc, command, defining );
+		} catch (ScanSupport.NotFound e) {
+		    // do nothing, the error was already reported
+		}
+	    } else if ("probe".equals( command )) {
+		try {
+		    String p = ScanSupport.nextProbe( sc, ()->"probe ???" );
+		    probes.add( p );
+		    ScanSupport.lineEnd( sc, ()->"probe " + p );
+		} catch (ScanSupport.NotFound e) {
+		    // do nothing, the error was already reported
+		}
 	    } else if ("--".equals( command )) {
 		sc.nextLine();
 	    } else {
@@ -61,12 +123,297 @@ public class Logic {
 		sc.nextLine();
 	    }
 	}
+	if (defining != null) {
+	    Errors.warn( "Missing end: module " + defining.name );
+	}
+    }
+
+    /** Scan the rest of a gate definition in a module
+     *  @param sc the scanner from which the line is scanned
+     *  @param defining the module
+     */
+    private static void scanModuleGate( Scanner sc, Module defining ) {
+	try {
+	    String name = ScanSupport.nextName( sc, ()->"gate ???" );
+	    String kind = ScanSupport.nextName(
+		sc, ()->"gate " + name + " ???"
+	    );
+	    float delay = ScanSupport.nextFloat(
+		sc, ()->"gate " + name + " " + kind + " ???"
+	    );
+	    if (defining.gate( name, kind, delay )) {
+		ScanSupport.lineEnd(
+		    sc, ()->"gate " + name + " " + kind + " " + delay
+		);
+	    } else {
+		sc.nextLine();
+	    }
+	} catch (ScanSupport.NotFound e) {
+	    // do nothing, the error was already reported
+	}
+    }
+
+    /** Scan the four names of a wire, with the messages of {@link Wire
+     *  Wire}'s scanning constructor
+     *  @param sc the scanner from which the line is scanned
+     *  @return the source, its pin, the destination and its pin
+     *  @throws ScanSupport.NotFound if a name is missing
+     */
+    private static String[] scanWireNames( Scanner sc )
+	throws ScanSupport.NotFound
+    {
+	String source = ScanSupport.nextName( sc, ()->"wire ???" );
+	String srcPin = ScanSupport.nextName(
+	    sc, ()->"wire " + source + " ???"
+	);
+	String dst = ScanSupport.nextName(
+	    sc, ()->"wire " + " " + srcPin + " ???"
+	);
+	String dstPin = ScanSupport.nextName(
+	    sc, ()->"wire " + " " + srcPin + " " + dst + " ???"
+	);
+	return new String[] { source, srcPin, dst, dstPin };
+    }
+
+    /** Scan the rest of a wire definition in a module
+     *  @param sc the scanner from which the line is scanned
+     *  @param defining the module
+     */
+    private static void scanModuleWire( Scanner sc, Module defining ) {
+	try {
+	    String[] n = scanWireNames( sc );
+	    String names = n[0] + " " + n[1] + " " + n[2] + " " + n[3];
+	    float delay = ScanSupport.nextFloat(
+		sc, ()->"wire " + names + " ???"
+	    );
+	    if (defining.wire( n[0], n[1], n[2], n[3], delay )) {
+		ScanSupport.lineEnd( sc, ()->"wire " + names + " " + delay );
+	    } else {
+		sc.nextLine();
+	    }
+	} catch (ScanSupport.NotFound e) {
+	    // do nothing, the error was already reported
+	}
+    }
+
+    /** Scan the rest of a wire definition that may name instances
+     *  @param sc the scanner from which the line is scanned
+     */
+    private static void scanInstanceWire( Scanner sc ) {
+	try {
+	    String[] n = scanWireNames( sc );
+	    float delay = ScanSupport.nextFloatIfAny( sc );
+	    boolean hasDelay = !Float.isNaN( delay );
+	    String w = Module.connect( gates, wires, n[0], n[1], n[2], n[3],
+		hasDelay ? delay : 0.0F, hasDelay
+	    );
+	    if (w != null) {
+		ScanSupport.lineEnd( sc, ()->w );
+	    } else {
+		sc.nextLine();
+	    }
+	} catch (ScanSupport.NotFound e) {
+	    // do nothing, the error was already reported
+	}
+    }
+
+    /** Scan the rest of a line that defines or uses modules
+     *  @param sc the scanner from which the line is scanned
+     *  @param command the first word of the line
+     *  @param defining the module being defined, if any
+     *  @return the module being defined after the line, if any
+     *  @throws ScanSupport.NotFound if a name is missing
+     *  @see Module
+     */
+    private static Module scanHierarchy( Scanner sc, String command,
+					 Module defining )
+	throws ScanSupport.NotFound
+    {
+	int count = "module".equals( command ) ? 1
+		  : "end".equals( command ) ? 0
+		  : "instance".equals( command ) ? 2 : 3;
+	String[] name = new String[count];
+	String line = command;
+	for (int i = 0; i < count; i++) {
+	    String sofar = line;
+	    name[i] = ScanSupport.nextName( sc, ()->sofar + " ???" );
+	    line = line + " " + name[i];
+	}
+
+	boolean done;
+	if ("module".equals( command ) && (defining != null)) {
+	    Errors.warn( "Nested module: " + line );
+	    done = false;
+	} else if ("module".equals( command )) {
+	    defining = new Module( name[0] );
+	    done = true;
+	} else if ("end".equals( command ) && (defining == null)) {
+	    Errors.warn( "Unmatched end" );
+	    done = false;
+	} else if ("end".equals( command )) {
+	    defining.end();
+	    defining = null;
+	    done = true;
+	} else if ("instance".equals( command ) && (defining != null)) {
+	    done = defining.instance( name[0], name[1] );
+	} else if ("instance".equals( command )) {
+	    done = Module.instance( name[0], name[1], gates, wires );
+	} else if (defining == null) {
+	    Errors.warn( "Port outside module: " + line );
+	    done = false;
+	} else if ("input".equals( command )) {
+	    done = defining.input( name[0], name[1], name[2] );
+	} else {
+	    done = defining.output( name[0], name[1], name[2] );
+	}
+
+	if (done) {
+	    String all = line;
+	    ScanSupport.lineEnd( sc, ()->all );
+	} else {
+	    sc.nextLine();
+	}
+	return defining;
+    }
+
+    /** Read the circuit description with the reader named by -reader
+     *  @param fileName the name of the file holding the description
+     *  @throws IOException if the file cannot be opened or read
+     */
+    private static void readNetlist( String fileName ) throws IOException {
+	if ("scanner".equals( reader )) {
+	    readCircuit( new Scanner( new File( fileName ) ) );
+	} else if ("parallel".equals( reader )) {
+	    FileInputStream in = new FileInputStream( fileName );
+	    boolean flat
+		= ParallelLoader.read( in.getChannel(), gates, wires, probes );
+	    in.close();
+	    if (!flat) {
+		// modules are defined and used in order, so read sequentially
+		in = new FileInputStream( fileName );
+		new NetlistReader( in ).read( gates, wires, probes );
+		in.close();
+	    }
+	} else {
+	    FileInputStream in = new FileInputStream( fileName );
+	    new NetlistReader( in ).read( gates, wires, probes );
+	    in.close();
+	}
+    }
+
+    /** Load the circuit from the image named by -image, if it is good
+     *  @param fileName the name of the file holding the description
+     *  @return true if the circuit was loaded
+     *  @throws IOException if the image exists but cannot be read
+     */
+    private static boolean loadImage( String fileName ) throws IOException {
+	String rejected = NetlistImage.load(
+	    imageName, new File( fileName ), gates, wires, probes
+	);
+	if (rejected != null) {
+	    Errors.note( "Ignoring image " + imageName + ": " + rejected );
+	}
+	return rejected == null;
+    }
+
+    /** Simulate the circuit from the store named by -store, if it is good
+     *  and nothing but a simulation is wanted, without reading the
+     *  circuit description at all
+     *  @param fileName the name of the file holding the description
+     *  @param extraProbes the probes given on the command line
+     *  @return true if the circuit was simulated
+     *  @throws IOException if the store exists but cannot be read
+     */
+    private static boolean simulateStore( String fileName,
+					  ArrayList <String> extraProbes )
+	throws IOException
+    {
+	if ((storeName == null) || (compileName != null) || (mapName != null)
+	||  (patternName != null) || (settleName != null) || (runs > 0)) {
+	    return false;
+	}
+	String[] rejected = new String[1];
+	store = NetlistStore.load( storeName, new File( fileName ), rejected );
+	if (store == null) {
+	    if (rejected[0] != null) {
+		Errors.note(
+		    "Ignoring store " + storeName + ": " + rejected[0]
+		);
+	    }
+	    return false;
+	}
+	store.probes( probes );
+	probes.addAll( extraProbes );
+	simulate();
+	return true;
+    }
+
+    /** Lay the circuit out off the heap, in the store named by -store or
+     *  in direct memory, and drop the Gate and Wire objects; these must
+     *  all fit on the heap once, while the store is built
+     *  @param fileName the name of the file holding the description
+     */
+    private static void storeCircuit( String fileName ) {
+	try {
+	    store = NetlistStore.build(
+		gateTable, wires, probes, storeName, new File( fileName )
+	    );
+	} catch (IOException e) {
+	    Errors.fatal( "Can't write the store " + storeName );
+	}
+	gates.clear();
+	wires.clear();
+	gateTable = null;
+	Simulator.setGates( new Gate[0] );
+    }
+
+    /** Forget the circuit, and every name and module of it, so that
+     *  another may be read, as {@link BenchmarkCircuits BenchmarkCircuits} does
+     */
+    static void reset() {
+	gates.clear();
+	wires.clear();
+	probes.clear();
+	gateTable = null;
+	symbols.clear();
+	Module.clear();
+	Simulator.reset();
+    }
+
+    /** Read a circuit afresh and prepare to simulate it, as main does
+     *  @param fileName the name of the file holding the description
+     *  @param how the reader, as named by -reader
+     *  @param s the primitive event set, or null for the queue of Event
+     *  objects
+     *  @return the gates, indexed by id
+     *  @throws IOException if the file cannot be opened or read
+     */
+    static Gate[] load( String fileName, String how, EventSet s )
+	throws IOException
+    {
+	reset();
+	reader = how;
+	Simulator.useEventSet( s );
+	readNetlist( fileName );
+	numberGates();
+	sanityCheck();
+	return gateTable;
     }
 
     /** Check that a circuit is properly constructed
      */
     private static void sanityCheck() {
-	for (Gate i: gates) i.checkSanity();
+	int id = 0;
+	while (id < gates.size()) {
+	    Gate i = gates.get( id );
+	    if (i == null) {
+		// an instance that made no gates is checked as a whole
+		id = id + Module.checkSanity( id );
+	    } else {
+		i.checkSanity();
+		id = id + 1;
+	    }
+	}
 	// Bug: Are there any sensible sanity checks on wires?
     }
 
@@ -81,22 +428,411 @@ public class Logic {
 	}
     }
 
+    /** Give the table of gates, indexed by id, to the simulator
+     *  This must be done before the sanity check, since that is when the
+     *  first events are scheduled.
+     */
+    private static void numberGates() {
+	gateTable = gates.toArray( new Gate[gates.size()] );
+	Simulator.setGates( gateTable );
+	if (inertial) {
+	    Simulator.useInertialDelay( new EventHeap(), gateTable.length );
+	}
+	PRNG.shared().streams( gateTable.length );
+    }
+
+    /** Make the primitive event set named by the -scheduler option
+     *  @return the event set, or null for the queue of Event objects
+     */
+    private static EventSet makeEventSet() {
+	if ("calendar".equals( scheduler )) return new CalendarQueue();
+	if ("heap".equals( scheduler )) return new EventHeap();
+	return null;
+    }
+
+    /** Simulate the circuit with the engine named by the -engine option
+     */
+    private static void simulate() {
+	if ("kernel".equals( engine ) || (oscillation != null)) {
+	    // the kernel only works with primitive events
+	    EventSet s = makeEventSet();
+	    if ((s == null) || inertial) s = new EventHeap();
+	    NetlistKernel compiled = NetlistKernel.compile( gateTable, wires );
+	    Oscillation watch = null;
+	    if ("stop".equals( oscillation )) {
+		watch = new Oscillation( Oscillation.STOP );
+	    } else if ("skip".equals( oscillation )) {
+		watch = new Oscillation( Oscillation.SKIP );
+	    }
+	    Trace.start( compiled, probes, trace, vcdName );
+	    compiled.run( s, until, most, inertial, watch );
+	} else if ("conservative".equals( engine )) {
+	    NetlistKernel compiled = NetlistKernel.compile( gateTable, wires );
+	    ConservativeEngine parallel
+		= new ConservativeEngine( compiled, threads );
+	    Trace.start( compiled, probes, trace, vcdName );
+	    parallel.run();
+	} else if ("optimistic".equals( engine )) {
+	    NetlistKernel compiled = NetlistKernel.compile( gateTable, wires );
+	    OptimisticEngine parallel
+		= new OptimisticEngine( compiled, threads );
+	    Trace.start( compiled, probes, trace, vcdName );
+	    parallel.run();
+	} else if ("offheap".equals( engine )) {
+	    EventSet s = makeEventSet();
+	    if (s == null) s = new EventHeap();
+	    Trace.start( store, probes, trace, vcdName );
+	    store.run( s, PRNG.shared(), Trace::change, until, most );
+	} else {
+	    Trace.start( gateTable, probes, trace, vcdName );
+	    Simulator.limit( until, most );
+	    Simulator.run();
+	}
+	Trace.finish();
+    }
+
+    /** Get the value that follows an option on the command line
+     *  @param args the command line arguments
+     *  @param i the index of the option in args
+     *  @return the argument following the option
+     */
+    private static String optionValue( String[] args, int i ) {
+	if (i + 1 >= args.length) {
+	    Errors.fatal( "Missing value for option: " + args[i] );
+	}
+	return args[i + 1];
+    }
+
     /** Main program
-     *  @param args the input file to the program. This program
-     *  accepts only one input file
+     *  @param args the input file to the program, optionally preceded
+     *  by options.  This program accepts only one input file.
+     *  The options are:
+     *  <ul>
+     *  <li>-scheduler queue -- hold pending events in a PriorityQueue of
+     *  Event objects, this is the default
+     *  <li>-scheduler heap -- hold pending events as primitive records
+     *  in an {@link EventHeap EventHeap}, allocating nothing per event
+     *  <li>-scheduler calendar -- hold pending events as primitive
+     *  records in a {@link CalendarQueue CalendarQueue}
+     *  <li>-engine objects -- simulate with the Gate and Wire objects,
+     *  this is the default
+     *  <li>-engine kernel -- compile the circuit into a
+     *  {@link NetlistKernel NetlistKernel} and simulate over its arrays;
+     *  with -scheduler queue, the kernel uses an EventHeap; for this
+     *  engine and the three below, instances of {@link Module Module}s
+     *  make no Gate or Wire objects, unless another option needs them
+     *  <li>-engine conservative -- compile the circuit and simulate it
+     *  on several threads with a {@link ConservativeEngine
+     *  ConservativeEngine}; the trace is the same as with the kernel
+     *  <li>-engine optimistic -- as conservative, but with an {@link
+     *  OptimisticEngine OptimisticEngine}, which runs ahead and rolls
+     *  back when it turns out to have been wrong
+     *  <li>-engine offheap -- lay the circuit out off the heap in a
+     *  {@link NetlistStore NetlistStore}, dropping the Gate and Wire
+     *  objects, and simulate it there, so that the garbage collector
+     *  never scans it; the trace is the same as with the kernel.  The
+     *  objects must fit on the heap once, while the store is built.
+     *  <li>-store store -- with -engine offheap, keep the circuit in the
+     *  file store, mapped into memory, instead of in direct memory, so
+     *  that it may be bigger than memory; if the file is already a store
+     *  for the circuit description, simulate it without reading the
+     *  description, otherwise read the description and write the store
+     *  <li>-delay transport -- every change of a gate's value is passed to
+     *  its output after the gate's delay, this is the default
+     *  <li>-delay inertial -- a change that undoes a pending output change
+     *  of a gate, a pulse shorter than the gate's delay, cancels it
+     *  instead, see {@link LogicGate#newValue LogicGate.newValue}; this
+     *  only works with the objects and kernel engines, and events are
+     *  always held in an {@link EventHeap EventHeap}
+     *  <li>-threads n -- the number of threads a parallel engine uses,
+     *  by default the number of processors
+     *  <li>-reader bytes -- read the circuit with a
+     *  {@link NetlistReader NetlistReader}, this is the default
+     *  <li>-reader scanner -- read the circuit with a Scanner and the
+     *  methods of {@link ScanSupport ScanSupport}
+     *  <li>-reader parallel -- read the circuit on all processors with a
+     *  {@link ParallelLoader ParallelLoader}, or as bytes if it uses
+     *  {@link Module Module}s
+     *  <li>-trace async -- format and write the trace of output changes
+     *  on a separate {@link Trace Trace} writer thread, waiting for it
+     *  if it falls behind, this is the default
+     *  <li>-trace drop -- as async, but drop changes from the trace
+     *  instead of waiting for the writer
+     *  <li>-trace sync -- print each change as it happens
+     *  <li>-seed n -- seed the random jitter in gate delays with the long
+     *  integer n, so that the same seed gives the same trace; see
+     *  {@link PRNG PRNG}.  Without this, each run is different.
+     *  <li>-probe p -- trace only the gates that p names, as well as those
+     *  named by probe lines in the circuit description; p may be a gate
+     *  name, or a pattern where * matches any run of characters and ?
+     *  any one character, see {@link Probes Probes}.  This option may be
+     *  repeated.  With no probes at all, every gate is traced.
+     *  <li>-vcd file -- write the trace to the file as a
+     *  {@link ValueChangeDump ValueChangeDump} instead of printing it
+     *  <li>-compile image -- read and check the circuit, then write it to
+     *  the file image as a {@link NetlistImage NetlistImage} instead of
+     *  simulating it; nothing is written if there were errors
+     *  <li>-image image -- load the circuit from the file image, written
+     *  by -compile, unless it is missing, damaged or older than the
+     *  circuit description, in which case the description is read
+     *  <li>-partition map -- read and check the circuit, then partition
+     *  it among -threads parts as the parallel engines do, with a {@link
+     *  Partitioner Partitioner}, report the quality of the partition and
+     *  write it to the file map instead of simulating it
+     *  <li>-patterns file -- instead of simulating in time, apply each
+     *  input pattern in the file and print the values that result, 64
+     *  patterns at a time, with a {@link PatternSimulator PatternSimulator}
+     *  <li>-evaluator loop -- evaluate patterns with a loop over the
+     *  compiled circuit, this is the default
+     *  <li>-evaluator generated -- evaluate patterns with bytecode
+     *  generated for the circuit by a {@link GeneratedEvaluator
+     *  GeneratedEvaluator}
+     *  <li>-runs n -- instead of one simulation, do n at once with
+     *  different jitter, on -threads threads, and report statistics of
+     *  the changes of the probed gates, see {@link MonteCarlo MonteCarlo}
+     *  <li>-until t -- stop simulating at time t, or stop each of the
+     *  -runs simulations at time t; a circuit that never stops, such as
+     *  an oscillator, needs this or -events or -oscillation.  This and
+     *  -events only work with the objects, kernel and offheap engines, and
+     *  -oscillation only with the objects and kernel engines.
+     *  <li>-events n -- stop simulating after n events, or stop each of the
+     *  -runs simulations after n events
+     *  <li>-oscillation stop -- watch for the circuit settling into a cycle
+     *  of states that repeats forever, as an oscillator does, and if it
+     *  does, report its period and the gates that oscillate and stop, see
+     *  {@link Oscillation Oscillation}; this simulates with the kernel,
+     *  whose trace is the same as the objects engine's
+     *  <li>-oscillation skip -- as stop, but with -until, skip all but the
+     *  last whole period before the time limit instead of stopping, then
+     *  simulate on to the limit; the skipped periods are not traced, and
+     *  separate oscillators, with periods of their own, are not skipped
+     *  <li>-settle changes -- instead of simulating in time, print the
+     *  values the circuit settles to, then apply each set of changes in
+     *  the file and print what changes, with a {@link LevelizedSimulator
+     *  LevelizedSimulator}
+     *  </ul>
      */ 
     public static void main( String[] args ) {
-	if (args.length < 1) {
+	String fileName = null;
+	ArrayList <String> extraProbes = new ArrayList <String> ();
+	int i = 0;
+	while (i < args.length) {
+	    String arg = args[i];
+	    if ("-scheduler".equals( arg )) {
+		scheduler = optionValue( args, i );
+		if (!"queue".equals( scheduler )
+		&&  !"heap".equals( scheduler )
+		&&  !"calendar".equals( scheduler )) {
+		    Errors.fatal( "Unknown scheduler: " + scheduler );
+		}
+		i = i + 2;
+	    } else if ("-reader".equals( arg )) {
+		reader = optionValue( args, i );
+		if (!"bytes".equals( reader )
+		&&  !"scanner".equals( reader )
+		&&  !"parallel".equals( reader )) {
+		    Errors.fatal( "Unknown reader: " + reader );
+		}
+		i = i + 2;
+	    } else if ("-trace".equals( arg )) {
+		trace = optionValue( args, i );
+		if (!"async".equals( trace )
+		&&  !"drop".equals( trace )
+		&&  !"sync".equals( trace )) {
+		    Errors.fatal( "Unknown trace mode: " + trace );
+		}
+		i = i + 2;
+	    } else if ("-seed".equals( arg )) {
+		String seed = optionValue( args, i );
+		try {
+		    PRNG.seed( Long.parseLong( seed ) );
+		} catch (NumberFormatException e) {
+		    Errors.fatal( "Bad seed: " + seed );
+		}
+		i = i + 2;
+	    } else if ("-probe".equals( arg )) {
+		extraProbes.add( optionValue( args, i ) );
+		i = i + 2;
+	    } else if ("-vcd".equals( arg )) {
+		vcdName = optionValue( args, i );
+		i = i + 2;
+	    } else if ("-compile".equals( arg )) {
+		compileName = optionValue( args, i );
+		i = i + 2;
+	    } else if ("-partition".equals( arg )) {
+		mapName = optionValue( args, i );
+		i = i + 2;
+	    } else if ("-patterns".equals( arg )) {
+		patternName = optionValue( args, i );
+		i = i + 2;
+	    } else if ("-evaluator".equals( arg )) {
+		evaluator = optionValue( args, i );
+		if (!"loop".equals( evaluator )
+		&&  !"generated".equals( evaluator )) {
+		    Errors.fatal( "Unknown evaluator: " + evaluator );
+		}
+		i = i + 2;
+	    } else if ("-runs".equals( arg )) {
+		String n = optionValue( args, i );
+		try {
+		    runs = Integer.parseInt( n );
+		} catch (NumberFormatException e) {
+		    runs = 0;
+		}
+		if (runs < 1) Errors.fatal( "Bad run count: " + n );
+		i = i + 2;
+	    } else if ("-until".equals( arg )) {
+		String t = optionValue( args, i );
+		try {
+		    until = Float.parseFloat( t );
+		} catch (NumberFormatException e) {
+		    until = Float.NaN;
+		}
+		if (!(until >= 0.0F)) Errors.fatal( "Bad time: " + t );
+		i = i + 2;
+	    } else if ("-events".equals( arg )) {
+		String n = optionValue( args, i );
+		try {
+		    most = Long.parseLong( n );
+		} catch (NumberFormatException e) {
+		    most = 0;
+		}
+		if (most < 1) Errors.fatal( "Bad event count: " + n );
+		i = i + 2;
+	    } else if ("-oscillation".equals( arg )) {
+		oscillation = optionValue( args, i );
+		if (!"stop".equals( oscillation )
+		&&  !"skip".equals( oscillation )) {
+		    Errors.fatal(
+			"Unknown oscillation action: " + oscillation
+		    );
+		}
+		i = i + 2;
+	    } else if ("-settle".equals( arg )) {
+		settleName = optionValue( args, i );
+		i = i + 2;
+	    } else if ("-image".equals( arg )) {
+		imageName = optionValue( args, i );
+		i = i + 2;
+	    } else if ("-store".equals( arg )) {
+		storeName = optionValue( args, i );
+		i = i + 2;
+	    } else if ("-engine".equals( arg )) {
+		engine = optionValue( args, i );
+		if (!"objects".equals( engine )
+		&&  !"kernel".equals( engine )
+		&&  !"conservative".equals( engine )
+		&&  !"optimistic".equals( engine )
+		&&  !"offheap".equals( engine )) {
+		    Errors.fatal( "Unknown engine: " + engine );
+		}
+		i = i + 2;
+	    } else if ("-delay".equals( arg )) {
+		String model = optionValue( args, i );
+		if ("inertial".equals( model )) {
+		    inertial = true;
+		} else if ("transport".equals( model )) {
+		    inertial = false;
+		} else {
+		    Errors.fatal( "Unknown delay model: " + model );
+		}
+		i = i + 2;
+	    } else if ("-threads".equals( arg )) {
+		String n = optionValue( args, i );
+		try {
+		    threads = Integer.parseInt( n );
+		} catch (NumberFormatException e) {
+		    threads = 0;
+		}
+		if (threads < 1) Errors.fatal( "Bad thread count: " + n );
+		i = i + 2;
+	    } else if (arg.startsWith( "-" )) {
+		Errors.fatal( "Unknown option: " + arg );
+	    } else if (fileName != null) {
+		Errors.fatal( "Too many arguments" );
+	    } else {
+		fileName = arg;
+		i = i + 1;
+	    }
+	}
+	boolean parallel
+	    = "conservative".equals( engine ) || "optimistic".equals( engine );
+	boolean offheap = "offheap".equals( engine );
+	if (inertial && (parallel || offheap)) {
+	    Errors.fatal( "Inertial delay needs -engine objects or kernel" );
+	}
+	if (parallel && ((until != Float.POSITIVE_INFINITY)
+		     ||  (most != Long.MAX_VALUE) || (oscillation != null))) {
+	    Errors.fatal(
+		"Run limits need -engine objects, kernel or offheap"
+	    );
+	}
+	if (offheap && (oscillation != null)) {
+	    Errors.fatal( "Oscillation needs -engine objects or kernel" );
+	}
+	if ((storeName != null) && !offheap) {
+	    Errors.fatal( "A store needs -engine offheap" );
+	}
+	if ((oscillation != null) && (runs > 0)) {
+	    Errors.fatal( "Oscillation is not watched for in -runs" );
+	}
+	if (fileName == null) {
 	    Errors.fatal( "Missing file name argument" );
-	} else if (args.length > 1) {
-	    Errors.fatal( "Too many arguments" );
 	} else try {
-	    readCircuit( new Scanner( new File( args[0] ) ) );
+	    if (simulateStore( fileName, extraProbes )) return;
+	    Simulator.useEventSet( makeEventSet() );
+	    Module.makeObjects(
+		("objects".equals( engine ) && (oscillation == null))
+		|| (compileName != null) || (mapName != null)
+		|| (patternName != null) || (settleName != null) || (runs > 0)
+	    );
+	    if ((imageName == null) || !loadImage( fileName )) {
+		readNetlist( fileName );
+	    }
+	    numberGates();
 	    sanityCheck();
-	    if (Errors.count() == 0) Simulator.run();
+	    if (Errors.count() != 0) {
+		// neither simulate nor compile a circuit with errors
+	    } else if (compileName != null) {
+		NetlistImage.write(
+		    compileName, new File( fileName ), gates, wires, probes
+		);
+	    } else if (mapName != null) {
+		NetlistKernel compiled = NetlistKernel.compile( gateTable, wires );
+		int[] part = Partitioner.partition( compiled, threads );
+		Errors.note( Partitioner.report( compiled, part, threads ) );
+		Partitioner.write( mapName, part );
+	    } else if (patternName != null) {
+		probes.addAll( extraProbes );
+		NetlistKernel compiled = NetlistKernel.compile( gateTable, wires );
+		new PatternSimulator(
+		    compiled, "generated".equals( evaluator )
+		).run(
+		    patternName, gateTable, probes
+		);
+	    } else if (settleName != null) {
+		probes.addAll( extraProbes );
+		NetlistKernel compiled = NetlistKernel.compile( gateTable, wires );
+		new LevelizedSimulator( compiled ).run(
+		    settleName, gateTable, probes
+		);
+	    } else if (runs > 0) {
+		probes.addAll( extraProbes );
+		NetlistKernel compiled = NetlistKernel.compile( gateTable, wires );
+		new MonteCarlo( compiled, gateTable, probes, runs ).run(
+		    threads, until, most, inertial
+		);
+	    } else {
+		// a store keeps the probes of the description alone
+		if ("offheap".equals( engine )) storeCircuit( fileName );
+		probes.addAll( extraProbes );
+		simulate();
+	    }
 	    // note that writeCircuit is no longer called anywhere
 	} catch (FileNotFoundException e) {
 	    Errors.fatal( "Can't open the file" );
+	} catch (IOException e) {
+	    Errors.fatal( "Can't read the file" );
 	}
     }
 }
@@ -0,0 +1,872 @@
+/* Module.java
+ * Subcircuits defined once and instantiated many times
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/** A module is a subcircuit, defined once in the circuit description and
+ *  then used as many times as needed by instances of it.
+ *  A definition is a block of lines:
+ *  <pre>
+ *  module NAME
+ *  gate ...
+ *  instance INSTANCE MODULE
+ *  wire ...
+ *  input PORT GATE PIN
+ *  output PORT GATE PIN
+ *  end
+ *  </pre>
+ *  where the gate and wire lines are as outside a module, but name only
+ *  gates and instances of the module itself, and the instance lines use
+ *  modules defined before.  Every line names only gates and instances
+ *  given on lines before it.  An input line makes PORT an input of the
+ *  module that goes to the input pin PIN of GATE, and may be repeated
+ *  to send one port to several pins; an output line makes PORT an
+ *  output of the module, the output pin PIN of GATE.  In either, GATE
+ *  may instead be an instance in the module, and PIN one of its ports.
+ *  <p>
+ *  Outside modules, <tt>instance U MODULE</tt> makes a copy of the
+ *  module named U, and a wire line may name an instance in place of a
+ *  gate, with a port of the module in place of the pin.  The gates of
+ *  an instance are named by their path from it, as <tt>U.GATE</tt> or
+ *  <tt>U.V.GATE</tt> for a gate of an instance V in the module, and
+ *  probes and patterns may use these names.
+ *  <p>
+ *  A definition is compiled, as it is read, into a template: arrays of
+ *  the kinds and delays of its gates, in order, with its instances laid
+ *  out in place as blocks of gates, and of its wires between them, by
+ *  their indices in this order.  Each instance then only makes the gates
+ *  and wires of the template, with ids in a block that the
+ *  {@link SymbolTable SymbolTable} sets aside for it, without reading
+ *  the definition again and without keeping the names of its gates; a
+ *  name is only made from the template when it is needed, and looked
+ *  up by following its path down the templates.
+ *  <p>
+ *  The objects engine needs a Gate and a Wire object for each gate and
+ *  wire, but the engines that compile the circuit into a {@link
+ *  NetlistKernel NetlistKernel} do not.  For them, the template is also
+ *  laid out flat, with pins by number, and an instance makes no objects
+ *  at all, see {@link #makeObjects makeObjects}: it keeps only its block
+ *  of ids and the input pins of its gates that wires from outside use.
+ *  The kernel is then compiled straight from the templates, so that an
+ *  instance costs little more than its gates' places in the kernel.
+ *  <p>
+ *  Errors in a definition are reported as it is read.  Errors that
+ *  depend on the kinds of gates, such as illegal pins, are only found
+ *  as gates are made, so they are reported for each instance; an
+ *  instance of a template that has such errors always makes objects.
+ */
+final class Module {
+    // the modules defined so far, by name
+    private static final HashMap <String, Module> modules
+	= new HashMap <String, Module> ();
+
+    // false if instances outside modules make no Gate or Wire objects
+    private static boolean objects = true;
+
+    // the instances that made no objects, in order of their blocks of ids
+    private static final ArrayList <Instance> bare
+	= new ArrayList <Instance> ();
+
+    // the wires that join a gate of such an instance to any other gate,
+    // by gate id and pin number, each with the number of Wire objects
+    // made before it, which gives its place among them
+    private static int[] linkSrc = new int[8];
+    private static int[] linkSrcPin = new int[8];
+    private static int[] linkDst = new int[8];
+    private static int[] linkDstPin = new int[8];
+    private static float[] linkDelay = new float[8];
+    private static int[] linkBefore = new int[8];
+    private static int links = 0;
+
+    /** An instance of a module, outside any module
+     */
+    static final class Instance {
+	final String name;
+	final Module module;
+	final int first;        // the id of its first gate
+
+	// for an instance that made no objects, the input pins of its
+	// gates used by wires from outside it, each as the index of the
+	// gate in the template times 2 to the 32, plus the pin number
+	private HashSet <Long> uses = null;
+
+	Instance( String name, Module module, int first ) {
+	    this.name = name;
+	    this.module = module;
+	    this.first = first;
+	}
+
+	// true if an input pin of a gate, by index in the template, is used
+	private boolean used( int g, int pin ) {
+	    if (module.usedWithin( g, pin )) return true;
+	    return (uses != null) && uses.contains( ((long)g << 32) | pin );
+	}
+
+	// record the use of an input pin of a gate from outside
+	private void use( int g, int pin ) {
+	    if (uses == null) uses = new HashSet <Long> ();
+	    uses.add( ((long)g << 32) | pin );
+	}
+    }
+
+    /** Receives the wires of a circuit, as {@link #wires wires} finds them
+     */
+    interface WireSink {
+	/** Take one wire
+	 *  @param s the id of the source gate
+	 *  @param sp the number of its output pin
+	 *  @param d the id of the destination gate
+	 *  @param dp the number of its input pin
+	 *  @param w the delay of the wire
+	 */
+	void wire( int s, int sp, int d, int dp, float w );
+    }
+
+    /** The pins a port connects, gates by their index in the template
+     */
+    private static final class Pins {
+	int[] gate = new int[1];
+	String[] pin = new String[1];
+	int count = 0;
+
+	void add( int g, String p ) {
+	    if (count == gate.length) {
+		gate = Arrays.copyOf( gate, count * 2 );
+		pin = Arrays.copyOf( pin, count * 2 );
+	    }
+	    gate[count] = g;
+	    pin[count] = p;
+	    count++;
+	}
+    }
+
+    /** the name of the module */
+    final String name;
+
+    // the gates and instances of the module, in order, by name, and for
+    // each, its name, where it starts in the template, and for a gate,
+    // its kind and delay, or for an instance, its module
+    private final HashMap <String, Integer> element
+	= new HashMap <String, Integer> ();
+    private String[] elementName = new String[8];
+    private int[] offset = new int[8];
+    private byte[] kind = new byte[8];
+    private float[] delay = new float[8];
+    private Module[] child = new Module[8];
+    private int elements = 0;
+
+    // the number of gates in the template, those of instances included
+    private int size = 0;
+
+    // the wires of the module, by the indices of the gates they join
+    private int[] wireSrc = new int[8];
+    private String[] wireSrcPin = new String[8];
+    private int[] wireDst = new int[8];
+    private String[] wireDstPin = new String[8];
+    private float[] wireDelay = new float[8];
+    private int wires = 0;
+
+    // the ports of the module
+    private final HashMap <String, Pins> inputs = new HashMap <String, Pins> ();
+    private final HashMap <String, Pins> outputs
+	= new HashMap <String, Pins> ();
+
+    // the template laid out flat when the definition ends, only if
+    // instances make no objects: the kind and delay of each gate, and
+    // each wire, with those of instances in the module, in the order in
+    // which an instance would make them, and with pins by number
+    private byte[] allKind;
+    private float[] allDelay;
+    private int[] allSrc;
+    private int[] allSrcPin;
+    private int[] allDst;
+    private int[] allDstPin;
+    private float[] allWireDelay;
+    private int allWires = 0;
+
+    // the input pins used by those wires, as slots numbered as in the
+    // kernel: those of gate g are used[usedAt[g]] to used[usedAt[g + 1]]
+    private int[] usedAt;
+    private boolean[] used;
+
+    // true if making an instance reports no error, so that it may make
+    // no objects: there are no illegal pins, pins used twice or wires
+    // with negative delays in the template
+    private boolean clean = false;
+
+    /** Begin the definition of a module
+     *  @param name the name of the module
+     *  A module that is already defined is reported; the new definition
+     *  is read, but it is not kept.
+     */
+    Module( String name ) {
+	this.name = name;
+	if (modules.containsKey( name )) {
+	    Errors.warn( "Redefinition: module " + name );
+	}
+    }
+
+    /** End the definition of this module, making it available for use
+     */
+    void end() {
+	if (!objects) flatten();
+	modules.putIfAbsent( name, this );
+    }
+
+    /** Choose whether instances outside modules make Gate and Wire
+     *  objects, as the objects engine and everything that reads the
+     *  objects needs, or only take ids, for engines that compile the
+     *  circuit into a kernel; this must be chosen before any module is
+     *  defined
+     *  @param make false to make no objects for instances
+     */
+    static void makeObjects( boolean make ) {
+	objects = make;
+    }
+
+    // lay the template out flat, and see if it is clean
+    private void flatten() {
+	int count = wires;
+	for (int e = 0; e < elements; e++) {
+	    if (child[e] != null) count = count + child[e].allWires;
+	}
+	allKind = new byte[size];
+	allDelay = new float[size];
+	allSrc = new int[count];
+	allSrcPin = new int[count];
+	allDst = new int[count];
+	allDstPin = new int[count];
+	allWireDelay = new float[count];
+	for (int e = 0; e < elements; e++) {
+	    Module c = child[e];
+	    int at = offset[e];
+	    if (c == null) {
+		allKind[at] = kind[e];
+		allDelay[at] = delay[e];
+		continue;
+	    }
+	    System.arraycopy( c.allKind, 0, allKind, at, c.size );
+	    System.arraycopy( c.allDelay, 0, allDelay, at, c.size );
+	    for (int w = 0; w < c.allWires; w++) {
+		flatWire( at + c.allSrc[w], c.allSrcPin[w],
+			  at + c.allDst[w], c.allDstPin[w], c.allWireDelay[w]
+		);
+	    }
+	}
+	for (int w = 0; w < wires; w++) {
+	    int s = wireSrc[w];
+	    int d = wireDst[w];
+	    flatWire( s, Gate.outputNumber( allKind[s], wireSrcPin[w] ),
+		      d, Gate.inputNumber( allKind[d], wireDstPin[w] ),
+		      wireDelay[w]
+	    );
+	}
+
+	// make room for the inputs of each gate up to the highest used,
+	// then mark each use, any pin used twice making it unclean
+	usedAt = new int[size + 1];
+	for (int w = 0; w < allWires; w++) {
+	    int d = allDst[w];
+	    if (allDstPin[w] < 0) continue;
+	    int slots = NetlistKernel.slotOf( allKind[d], allDstPin[w] ) + 1;
+	    usedAt[d + 1] = Math.max( usedAt[d + 1], slots );
+	}
+	for (int g = 0; g < size; g++) usedAt[g + 1] += usedAt[g];
+	used = new boolean[usedAt[size]];
+	clean = true;
+	for (int w = 0; w < allWires; w++) {
+	    int d = allDst[w];
+	    if ((allSrcPin[w] < 0) || (allDstPin[w] < 0)
+	    ||  (allWireDelay[w] < 0.0F)) {
+		clean = false;
+		continue;
+	    }
+	    int slot = NetlistKernel.slotOf( allKind[d], allDstPin[w] );
+	    slot = slot + usedAt[d];
+	    if (used[slot]) clean = false;
+	    used[slot] = true;
+	}
+    }
+
+    // add a wire to the flat template
+    private void flatWire( int s, int sp, int d, int dp, float w ) {
+	allSrc[allWires] = s;
+	allSrcPin[allWires] = sp;
+	allDst[allWires] = d;
+	allDstPin[allWires] = dp;
+	allWireDelay[allWires] = w;
+	allWires++;
+    }
+
+    // true if an input pin of a gate of the flat template is used in it
+    private boolean usedWithin( int g, int pin ) {
+	int slot = usedAt[g] + NetlistKernel.slotOf( allKind[g], pin );
+	return (slot < usedAt[g + 1]) && used[slot];
+    }
+
+    /** @return the number of gates in an instance of this module
+     */
+    int size() {
+	return size;
+    }
+
+    /** Add a gate to the module
+     *  @param g the name of the gate
+     *  @param k the kind of the gate, as given in the input file
+     *  @param d the delay of the gate
+     *  @return true if the gate was added
+     */
+    boolean gate( String g, String k, float d ) {
+	if (element.containsKey( g )) {
+	    Errors.warn( "Redefinition: gate " + g + " " + k );
+	    return false;
+	}
+	if (d < 0.0F) Errors.warn(
+	    "Negative delay: " + "gate " + g + " " + k + " " + d
+	);
+	byte code = Gate.kindCode( k );
+	if (code == Gate.UNKNOWN) {
+	    Errors.warn( "Unknown gate kind: gate " + g + " " + k );
+	    return false;
+	}
+	add( g, 1 );
+	kind[elements - 1] = code;
+	delay[elements - 1] = d;
+	return true;
+    }
+
+    /** Add an instance of another module to the module
+     *  @param i the name of the instance
+     *  @param m the name of the module it is an instance of
+     *  @return true if the instance was added
+     */
+    boolean instance( String i, String m ) {
+	Module c = modules.get( m );
+	if (c == null) {
+	    Errors.warn( "No such module: instance " + i + " " + m );
+	    return false;
+	}
+	if (element.containsKey( i )) {
+	    Errors.warn( "Redefinition: instance " + i + " " + m );
+	    return false;
+	}
+	add( i, c.size );
+	child[elements - 1] = c;
+	return true;
+    }
+
+    // add a gate or an instance of the given size to the template
+    private void add( String n, int gates ) {
+	if (elements == offset.length) {
+	    elementName = Arrays.copyOf( elementName, elements * 2 );
+	    offset = Arrays.copyOf( offset, elements * 2 );
+	    kind = Arrays.copyOf( kind, elements * 2 );
+	    delay = Arrays.copyOf( delay, elements * 2 );
+	    child = Arrays.copyOf( child, elements * 2 );
+	}
+	element.put( n, elements );
+	elementName[elements] = n;
+	offset[elements] = size;
+	elements++;
+	size = size + gates;
+    }
+
+    /** Add a wire to the module
+     *  A wire to an input port of an instance becomes a wire to each pin
+     *  that the port goes to.
+     *  @param s the name of the source gate or instance
+     *  @param sp the output pin or port of the source
+     *  @param d the name of the destination gate or instance
+     *  @param dp the input pin or port of the destination
+     *  @param w the delay of the wire
+     *  @return true if the wire was added
+     */
+    boolean wire( String s, String sp, String d, String dp, float w ) {
+	String names = s + " " + sp + " " + d + " " + dp;
+	Integer source = element.get( s );
+	Integer destination = element.get( d );
+	if (source == null) {
+	    Errors.warn( "No such source gate: wire " + names );
+	    return false;
+	}
+	if (destination == null) {
+	    Errors.warn( "No such destination gate: wire " + names );
+	    return false;
+	}
+	Pins from = pins( source, sp, true );
+	Pins to = pins( destination, dp, false );
+	if (from == null) {
+	    Errors.warn( "No such source port: wire " + names );
+	    return false;
+	}
+	if (to == null) {
+	    Errors.warn( "No such destination port: wire " + names );
+	    return false;
+	}
+	for (int i = 0; i < to.count; i++) {
+	    if (wires == wireSrc.length) {
+		wireSrc = Arrays.copyOf( wireSrc, wires * 2 );
+		wireSrcPin = Arrays.copyOf( wireSrcPin, wires * 2 );
+		wireDst = Arrays.copyOf( wireDst, wires * 2 );
+		wireDstPin = Arrays.copyOf( wireDstPin, wires * 2 );
+		wireDelay = Arrays.copyOf( wireDelay, wires * 2 );
+	    }
+	    wireSrc[wires] = from.gate[0];
+	    wireSrcPin[wires] = from.pin[0];
+	    wireDst[wires] = to.gate[i];
+	    wireDstPin[wires] = to.pin[i];
+	    wireDelay[wires] = w;
+	    wires++;
+	}
+	return true;
+    }
+
+    /** Add to an input port of the module
+     *  @param p the name of the port
+     *  @param g the name of the gate or instance the port goes to
+     *  @param pin the input pin of the gate, or the port of the instance
+     *  @return true if the port was added to
+     */
+    boolean input( String p, String g, String pin ) {
+	String line = "input " + p + " " + g + " " + pin;
+	Integer e = element.get( g );
+	if (e == null) {
+	    Errors.warn( "No such gate: " + line );
+	    return false;
+	}
+	if (outputs.containsKey( p )) {
+	    Errors.warn( "Redefinition: " + line );
+	    return false;
+	}
+	Pins to = pins( e, pin, false );
+	if (to == null) {
+	    Errors.warn( "No such port: " + line );
+	    return false;
+	}
+	Pins port = inputs.get( p );
+	if (port == null) {
+	    port = new Pins();
+	    inputs.put( p, port );
+	}
+	for (int i = 0; i < to.count; i++) port.add( to.gate[i], to.pin[i] );
+	return true;
+    }
+
+    /** Define an output port of the module
+     *  @param p the name of the port
+     *  @param g the name of the gate or instance the port comes from
+     *  @param pin the output pin of the gate, or the port of the instance
+     *  @return true if the port was defined
+     */
+    boolean output( String p, String g, String pin ) {
+	String line = "output " + p + " " + g + " " + pin;
+	Integer e = element.get( g );
+	if (e == null) {
+	    Errors.warn( "No such gate: " + line );
+	    return false;
+	}
+	if (outputs.containsKey( p ) || inputs.containsKey( p )) {
+	    Errors.warn( "Redefinition: " + line );
+	    return false;
+	}
+	Pins from = pins( e, pin, true );
+	if (from == null) {
+	    Errors.warn( "No such port: " + line );
+	    return false;
+	}
+	outputs.put( p, from );
+	return true;
+    }
+
+    /** Find the pins of a gate or instance in the template
+     *  @param e the index of the gate or instance in elementName
+     *  @param pin the pin of the gate or port of the instance
+     *  @param output true for an output, false for an input
+     *  @return the pins, or null if an instance has no such port
+     */
+    private Pins pins( int e, String pin, boolean output ) {
+	Pins p = new Pins();
+	if (child[e] == null) {
+	    p.add( offset[e], pin );
+	    return p;
+	}
+	Pins port = output ? child[e].outputs.get( pin )
+			   : child[e].inputs.get( pin );
+	if (port == null) return null;
+	for (int i = 0; i < port.count; i++) {
+	    p.add( offset[e] + port.gate[i], port.pin[i] );
+	}
+	return p;
+    }
+
+    /** Forget every module, so that another description may be read
+     */
+    static void clear() {
+	modules.clear();
+	bare.clear();
+	links = 0;
+    }
+
+    /** Make an instance of a module, outside any module
+     *  @param i the name of the instance
+     *  @param m the name of the module it is an instance of
+     *  @param gates the list to which its gates are added, indexed by id
+     *  @param wires the list to which its wires are added
+     *  @return true if the instance was made
+     */
+    static boolean instance( String i, String m,
+			     List <Gate> gates, List <Wire> wires ) {
+	Module c = modules.get( m );
+	if (c == null) {
+	    Errors.warn( "No such module: instance " + i + " " + m );
+	    return false;
+	}
+	if ((Logic.symbols.lookup( i ) >= 0)
+	||  (Logic.symbols.instance( i ) != null)) {
+	    Errors.warn( "Redefinition: instance " + i + " " + m );
+	    return false;
+	}
+	int first = Logic.symbols.block( i, c );
+	if (!objects && c.clean) {
+	    for (int g = 0; g < c.size; g++) gates.add( null );
+	    bare.add( Logic.symbols.instance( i ) );
+	} else {
+	    c.build( first, gates, wires );
+	}
+	return true;
+    }
+
+    // make the gates of the template, numbered from first, then its wires
+    private void build( int first, List <Gate> gates, List <Wire> wires ) {
+	for (int e = 0; e < elements; e++) {
+	    if (child[e] == null) {
+		gates.add( Gate.make( first + offset[e], kind[e], delay[e] ) );
+	    } else {
+		child[e].build( first + offset[e], gates, wires );
+	    }
+	}
+	for (int w = 0; w < this.wires; w++) {
+	    wires.add( new Wire(
+		gates.get( first + wireSrc[w] ), wireSrcPin[w],
+		gates.get( first + wireDst[w] ), wireDstPin[w], wireDelay[w]
+	    ) );
+	}
+    }
+
+    /** Make the wires of a wire line outside modules that names an
+     *  instance, with the checks and messages of {@link NetlistReader
+     *  NetlistReader}; a wire to an input port is made for each pin
+     *  that the port goes to
+     *  @param gates the list of gates, indexed by id
+     *  @param wires the list to which the new wires are added
+     *  @param s the name of the source gate or instance
+     *  @param sp the output pin or port of the source
+     *  @param d the name of the destination gate or instance
+     *  @param dp the input pin or port of the destination
+     *  @param w the delay of the wire
+     *  @param hasDelay false if the delay was missing
+     *  @return the description of the last wire made, or null if none
+     *  was added
+     */
+    static String connect( List <Gate> gates, List <Wire> wires,
+			 String s, String sp, String d, String dp,
+			 float w, boolean hasDelay ) {
+	ScanSupport.Message names = ()->s + " " + sp + " " + d + " " + dp;
+	Pins from = ids( s, sp, true );
+	Pins to = ids( d, dp, false );
+	if ((from == null) || (to == null)) {
+	    Errors.warn( (from == null ? "No such source gate: wire "
+				       : "No such destination gate: wire ")
+		+ names.myString()
+	    );
+	    return null;
+	}
+	if (from.count == 0) {
+	    Errors.warn( "No such source port: wire " + names.myString() );
+	    return null;
+	}
+	if (to.count == 0) {
+	    Errors.warn( "No such destination port: wire " + names.myString() );
+	    return null;
+	}
+
+	// as in NetlistReader, the pins are registered before a missing
+	// delay is reported
+	String last = null;
+	for (int i = 0; i < to.count; i++) {
+	    last = link( gates, wires, from.gate[0], from.pin[0],
+			 to.gate[i], to.pin[i], w, hasDelay
+	    );
+	}
+	if (!hasDelay) {
+	    Errors.warn( "Float expected: wire " + names.myString() + " ???" );
+	    return null;
+	}
+	return last;
+    }
+
+    /** Make one wire between gates given by id, with the messages of
+     *  {@link Wire Wire}'s constructor; it is a Wire object unless one of
+     *  the gates belongs to an instance that made no objects
+     *  @param gates the list of gates, indexed by id
+     *  @param wires the list to which a Wire object is added
+     *  @param s the id of the source gate
+     *  @param sp the output pin of the source
+     *  @param d the id of the destination gate
+     *  @param dp the input pin of the destination
+     *  @param w the delay of the wire
+     *  @param keep false if the wire is only checked, not added
+     *  @return the description of the wire
+     */
+    private static String link( List <Gate> gates, List <Wire> wires,
+				int s, String sp, int d, String dp,
+				float w, boolean keep ) {
+	Gate source = gates.get( s );
+	Gate destination = gates.get( d );
+	if ((source != null) && (destination != null)) {
+	    Wire made = new Wire( source, sp, destination, dp, w );
+	    if (keep) wires.add( made );
+	    return made.toString();
+	}
+
+	// check the pins in the order the gates would
+	byte sk = (source != null) ? source.kindCode() : bareKind( s );
+	byte dk = (destination != null) ? destination.kindCode()
+					: bareKind( d );
+	int srcPin = Gate.outputNumber( sk, sp );
+	if (srcPin < 0) {
+	    Errors.warn( "Illegal output pin: " + Logic.symbols.name( s )
+		+ " " + sp
+	    );
+	}
+	int dstPin;
+	if (destination != null) {
+	    dstPin = destination.registerInput( dp );
+	} else {
+	    dstPin = Gate.inputNumber( dk, dp );
+	    Instance in = holding( d );
+	    if (dstPin < 0) {
+		Errors.warn( "Illegal input pin: " + Logic.symbols.name( d )
+		    + " " + dp
+		);
+	    } else if (in.used( d - in.first, dstPin )) {
+		Errors.warn( "Multiple uses of input pin: "
+		    + Logic.symbols.name( d ) + " " + dp
+		);
+	    } else {
+		in.use( d - in.first, dstPin );
+	    }
+	}
+	String made = "wire "
+	    + Logic.symbols.name( s ) + " " + Gate.outputName( sk, srcPin )
+	    + " " + Logic.symbols.name( d ) + " " + Gate.inputName( dk, dstPin )
+	    + " " + w;
+	if (w < 0.0F) Errors.warn( "Negative delay: " + made );
+	if (!keep) return made;
+
+	if (links == linkSrc.length) {
+	    linkSrc = Arrays.copyOf( linkSrc, links * 2 );
+	    linkSrcPin = Arrays.copyOf( linkSrcPin, links * 2 );
+	    linkDst = Arrays.copyOf( linkDst, links * 2 );
+	    linkDstPin = Arrays.copyOf( linkDstPin, links * 2 );
+	    linkDelay = Arrays.copyOf( linkDelay, links * 2 );
+	    linkBefore = Arrays.copyOf( linkBefore, links * 2 );
+	}
+	linkSrc[links] = s;
+	linkSrcPin[links] = srcPin;
+	linkDst[links] = d;
+	linkDstPin[links] = dstPin;
+	linkDelay[links] = w;
+	linkBefore[links] = wires.size();
+	links++;
+	return made;
+    }
+
+    /** @return the instance that made no objects holding a gate
+     *  @param id the id of a gate in the block of such an instance
+     */
+    private static Instance holding( int id ) {
+	// the last such instance whose block starts at or before id
+	int low = 0;
+	int high = bare.size() - 1;
+	while (low < high) {
+	    int mid = (low + high + 1) >>> 1;
+	    if (bare.get( mid ).first <= id) {
+		low = mid;
+	    } else {
+		high = mid - 1;
+	    }
+	}
+	return bare.get( low );
+    }
+
+    /** @return the kind code of a gate of an instance that made no objects
+     *  @param id the id of the gate
+     */
+    private static byte bareKind( int id ) {
+	Instance in = holding( id );
+	return in.module.allKind[id - in.first];
+    }
+
+    /** Check the gates of an instance that made no objects, as their
+     *  checkSanity methods would: all input pins of a gate, up to the
+     *  highest used and at least two of a multi-input gate, must be used
+     *  @param first the id of the first gate of the instance
+     *  @return the number of gates checked
+     */
+    static int checkSanity( int first ) {
+	Instance in = holding( first );
+	Module m = in.module;
+
+	// the highest pin of each gate used from outside
+	int[] highest = new int[m.size];
+	if (in.uses != null) {
+	    for (long u: in.uses) {
+		int g = (int)(u >>> 32);
+		highest[g] = Math.max( highest[g], (int)u );
+	    }
+	}
+
+	for (int g = 0; g < m.size; g++) {
+	    byte k = m.allKind[g];
+	    if (k == Gate.CONST) {
+		// there are no input pins to check
+	    } else if (k == Gate.NOT) {
+		if (!in.used( g, 0 )) Errors.warn(
+		    "Unused input pin: " + Logic.symbols.name( first + g )
+		    + " in"
+		);
+	    } else {
+		int inputs = Math.max( 2, m.usedAt[g + 1] - m.usedAt[g] );
+		inputs = Math.max( inputs, highest[g] );
+		for (int pin = 1; pin <= inputs; pin++) {
+		    if (!in.used( g, pin )) Errors.warn(
+			"Unused input pin: " + Logic.symbols.name( first + g )
+			+ " in" + pin
+		    );
+		}
+	    }
+	}
+	return m.size;
+    }
+
+    /** Fill in the kind and delay of each gate of the instances that made
+     *  no objects
+     *  @param kind the kind codes, indexed by gate id
+     *  @param delay the delays, indexed by gate id
+     */
+    static void gates( byte[] kind, float[] delay ) {
+	for (Instance in: bare) {
+	    Module m = in.module;
+	    System.arraycopy( m.allKind, 0, kind, in.first, m.size );
+	    System.arraycopy( m.allDelay, 0, delay, in.first, m.size );
+	}
+    }
+
+    /** Give every wire of the circuit to a sink: those within instances
+     *  that made no objects, then the Wire objects and the wires that join
+     *  such instances to other gates, together in the order they were
+     *  made.  Each gate's wires are given in the order in which it would
+     *  pass changes along them, had all been made as objects.
+     *  @param wires the Wire objects
+     *  @param sink where each wire is given
+     */
+    static void wires( List <Wire> wires, WireSink sink ) {
+	for (Instance in: bare) {
+	    Module m = in.module;
+	    int at = in.first;
+	    for (int w = 0; w < m.allWires; w++) {
+		sink.wire( at + m.allSrc[w], m.allSrcPin[w],
+			   at + m.allDst[w], m.allDstPin[w], m.allWireDelay[w]
+		);
+	    }
+	}
+	int l = 0;
+	int made = 0;
+	for (Wire w: wires) {
+	    while ((l < links) && (linkBefore[l] == made)) {
+		give( l, sink );
+		l++;
+	    }
+	    sink.wire(
+		w.source.id, w.srcPin, w.destination.id, w.dstPin, w.delay
+	    );
+	    made++;
+	}
+	while (l < links) {
+	    give( l, sink );
+	    l++;
+	}
+    }
+
+    // give one wire that joins an instance that made no objects to a sink
+    private static void give( int l, WireSink sink ) {
+	sink.wire( linkSrc[l], linkSrcPin[l], linkDst[l], linkDstPin[l],
+		   linkDelay[l]
+	);
+    }
+
+    /** Find the pins, by gate id, of a gate or instance outside modules
+     *  @param n the name of the gate or instance
+     *  @param pin the pin of the gate or port of the instance
+     *  @param output true for an output, false for an input
+     *  @return the pins, none if an instance has no such port, or null if
+     *  there is no such gate or instance
+     */
+    private static Pins ids( String n, String pin, boolean output ) {
+	Pins p = new Pins();
+	int id = Logic.symbols.lookup( n );
+	if (id >= 0) {
+	    p.add( id, pin );
+	    return p;
+	}
+	Instance i = Logic.symbols.instance( n );
+	if (i == null) return null;
+	Pins port = output ? i.module.outputs.get( pin )
+			   : i.module.inputs.get( pin );
+	if (port == null) return p;
+	for (int j = 0; j < port.count; j++) {
+	    p.add( i.first + port.gate[j], port.pin[j] );
+	}
+	return p;
+    }
+
+    /** Make the name of a gate in the template
+     *  @param g the index of the gate in the template
+     *  @return its path from the module, as names joined by dots
+     */
+    String name( int g ) {
+	// the last gate or instance starting at or before g
+	int low = 0;
+	int high = elements - 1;
+	while (low < high) {
+	    int mid = (low + high + 1) >>> 1;
+	    if (offset[mid] <= g) {
+		low = mid;
+	    } else {
+		high = mid - 1;
+	    }
+	}
+	if (child[low] == null) return elementName[low];
+	return elementName[low] + "." + child[low].name( g - offset[low] );
+    }
+
+    /** Find a gate in the template by its path
+     *  @param path the names of instances and then a gate, joined by dots
+     *  @return the index of the gate in the template, or -1 if none
+     */
+    int lookup( String path ) {
+	int dot = path.indexOf( '.' );
+	Integer e = element.get( (dot < 0) ? path : path.substring( 0, dot ) );
+	if (e == null) return -1;
+	if (child[e] == null) return (dot < 0) ? offset[e] : -1;
+	if (dot < 0) return -1;
+	int g = child[e].lookup( path.substring( dot + 1 ) );
+	return (g < 0) ? -1 : offset[e] + g;
+    }
+}
@@ -0,0 +1,205 @@
+/* MonteCarlo.java
+ * Many timing runs of one circuit at once, each with its own jitter
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/** A Monte Carlo study of the timing of a circuit: many simulations of
+ *  it, each drawing its gate delay jitter from its own {@link PRNG PRNG}
+ *  family, split from the one seeded by -seed, with statistics of how
+ *  the runs differ.  The runs share the compiled {@link NetlistKernel
+ *  NetlistKernel}, which no run changes, and each keeps its own state
+ *  and pending events, so they run at once on a fork/join pool.
+ *  <p>
+ *  For each {@link Probes probed} gate, every run records how many times
+ *  its output changed and when it last changed, up to the time limit.
+ *  Changes beyond those needed to take the output from its first value
+ *  to its last come in pairs, pulses out and back, counted as glitches.
+ *  The report gives, per probed gate, the distribution over runs of its
+ *  number of changes and of the time of its last change, and its
+ *  glitches; then the seeds of outlier runs, those whose latest change
+ *  of any probed gate is more than 3 standard deviations from the mean,
+ *  or which glitch more than any other.  Given to -seed, the seed of a
+ *  run reproduces its trace.
+ */
+final class MonteCarlo {
+    // runs whose settling time is this many deviations out are outliers
+    private static final double OUTLIER = 3.0;
+
+    // the most outliers reported
+    private static final int OUTLIERS = 10;
+
+    // the circuit, and the gates whose changes are recorded
+    private final NetlistKernel k;
+    private final int[] probed;
+    private final int[] column;     // per gate id, its index in probed or -1
+
+    // the seed of each run
+    private final long[] seed;
+
+    // per run and probed gate, its changes, glitches and last change
+    private final int[][] changes;
+    private final int[][] glitches;
+    private final float[][] last;
+
+    /** Prepare a study
+     *  @param k the compiled circuit
+     *  @param gates the gates, such that gates[i].id == i
+     *  @param probes the probes naming the gates whose changes are recorded
+     *  @param runs the number of runs
+     */
+    MonteCarlo( NetlistKernel k, Gate[] gates, List <String> probes,
+		int runs ) {
+	this.k = k;
+	byte[] traced = Probes.select( gates, probes );
+	column = new int[k.gates];
+	int count = 0;
+	for (int g = 0; g < k.gates; g++) {
+	    column[g] = (traced[g] == 0) ? -1 : count++;
+	}
+	probed = new int[count];
+	for (int g = 0; g < k.gates; g++) {
+	    if (column[g] >= 0) probed[column[g]] = g;
+	}
+	seed = new long[runs];
+	PRNG base = PRNG.shared();
+	for (int r = 0; r < runs; r++) seed[r] = base.split( r ).seed();
+	changes = new int[runs][];
+	glitches = new int[runs][];
+	last = new float[runs][];
+    }
+
+    /** Do all the runs and print the report
+     *  @param threads the number of threads to run them on
+     *  @param limit each run stops at this time
+     *  @param most each run stops after this many events
+     *  @param inertial true for inertial delay
+     */
+    void run( int threads, float limit, long most, boolean inertial ) {
+	ForkJoinPool pool = new ForkJoinPool( threads );
+	try {
+	    pool.submit( () -> IntStream.range( 0, seed.length ).parallel()
+		.forEach( r -> simulate( r, limit, most, inertial ) ) ).join();
+	} finally {
+	    pool.shutdown();
+	}
+	System.out.print( report( limit ) );
+    }
+
+    /** Do one run
+     *  @param r the number of the run
+     *  @param limit the run stops at this time
+     *  @param most the run stops after this many events
+     *  @param inertial true for inertial delay
+     */
+    private void simulate( int r, float limit, long most, boolean inertial ) {
+	int n = probed.length;
+	int[] count = new int[n];
+	boolean[] first = new boolean[n];   // the value before any change
+	boolean[] now = new boolean[n];
+	float[] at = new float[n];
+	Arrays.fill( at, Float.NaN );
+	k.run(
+	    new EventHeap(), new PRNG( seed[r] ),
+	    ( time, gate, v ) -> {
+		int c = column[gate];
+		if (c < 0) return;
+		if (count[c] == 0) first[c] = !v;
+		count[c] = count[c] + 1;
+		now[c] = v;
+		at[c] = time;
+	    },
+	    limit, most, inertial, null
+	);
+	int[] pulses = new int[n];
+	for (int c = 0; c < n; c++) {
+	    pulses[c] = (count[c] - ((first[c] != now[c]) ? 1 : 0)) / 2;
+	}
+
+	// each run fills in its own rows only
+	changes[r] = count;
+	glitches[r] = pulses;
+	last[r] = at;
+    }
+
+    /** @return the report of the study
+     *  @param limit the time at which each run stopped
+     */
+    private String report( float limit ) {
+	int runs = seed.length;
+	StringBuilder b = new StringBuilder();
+	b.append( "Monte Carlo: " ).append( runs ).append( " runs to time " )
+	 .append( limit ).append( '\n' );
+	float[] times = new float[runs];
+	for (int c = 0; c < probed.length; c++) {
+	    long sum = 0;
+	    int min = Integer.MAX_VALUE;
+	    int max = 0;
+	    long pulses = 0;
+	    int glitchy = 0;
+	    int m = 0;
+	    for (int r = 0; r < runs; r++) {
+		int n = changes[r][c];
+		sum = sum + n;
+		min = Math.min( min, n );
+		max = Math.max( max, n );
+		pulses = pulses + glitches[r][c];
+		if (glitches[r][c] > 0) glitchy = glitchy + 1;
+		if (n > 0) times[m++] = last[r][c];
+	    }
+	    b.append( Logic.symbols.name( probed[c] ) ).append( ": changes " )
+	     .append( min ).append( " min " )
+	     .append( String.format( "%.2f", (double)sum / runs ) )
+	     .append( " mean " ).append( max ).append( " max" );
+	    if (m > 0) {
+		Arrays.sort( times, 0, m );
+		b.append( ", last at " ).append( times[0] ).append( " min " )
+		 .append( times[(m - 1) / 2] ).append( " median " )
+		 .append( times[(int)Math.ceil( 0.95 * m ) - 1] )
+		 .append( " 95th " ).append( times[m - 1] ).append( " max" );
+	    }
+	    b.append( ", " ).append( pulses ).append( " glitches in " )
+	     .append( glitchy ).append( " runs\n" );
+	}
+
+	// the time of the latest change of each run, and its glitches
+	double[] settle = new double[runs];
+	long[] pulses = new long[runs];
+	double sum = 0;
+	long most = 0;
+	for (int r = 0; r < runs; r++) {
+	    float t = 0.0F;
+	    for (int c = 0; c < probed.length; c++) {
+		if (changes[r][c] > 0) t = Math.max( t, last[r][c] );
+		pulses[r] = pulses[r] + glitches[r][c];
+	    }
+	    settle[r] = t;
+	    sum = sum + t;
+	    most = Math.max( most, pulses[r] );
+	}
+
+	// only a run that glitches more than every other is an outlier
+	int mostRuns = 0;
+	for (long p: pulses) if (p == most) mostRuns = mostRuns + 1;
+	double mean = sum / runs;
+	double squares = 0;
+	for (double t: settle) squares = squares + (t - mean) * (t - mean);
+	double deviation = Math.sqrt( squares / runs );
+	int outliers = 0;
+	for (int r = 0; (r < runs) && (outliers < OUTLIERS); r++) {
+	    boolean late = Math.abs( settle[r] - mean ) > OUTLIER * deviation;
+	    boolean glitchy = (most > 0) && (pulses[r] == most)
+			   && (mostRuns == 1);
+	    if (!late && !glitchy) continue;
+	    if (outliers == 0) b.append( "Outliers:\n" );
+	    outliers = outliers + 1;
+	    b.append( "-seed " ).append( seed[r] ).append( ": last change at " )
+	     .append( (float)settle[r] ).append( ", " ).append( pulses[r] )
+	     .append( " glitches\n" );
+	}
+	return b.toString();
+    }
+}
@@ -0,0 +1,598 @@
+/* NetlistGenerator.java
+ * Write synthetic circuit descriptions of any size, for testing at scale
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.SplittableRandom;
+
+/** Writes circuit descriptions of chosen shapes and sizes, in the
+ *  ordinary gate and wire format, to feed the readers and simulators
+ *  with circuits far bigger than anyone would write by hand.
+ *  The lines are written as they are made, and only a row of names is
+ *  ever kept, so a description of any size, 100 million elements or
+ *  more, is written in little memory.
+ *  The shapes are:
+ *  <ul>
+ *  <li>ripple -- a ripple carry adder of full adders, 5 gates each,
+ *  adding all ones to all zeros with a carry in of one, so that the
+ *  carry ripples the whole length
+ *  <li>cla -- a carry lookahead adder of 4 bit blocks, each computing
+ *  its carries from the generate and propagate signals of its bits
+ *  with and and or gates of up to 6 inputs, the carries rippling from
+ *  block to block; its inputs are as for ripple
+ *  <li>multiplier -- an array multiplier, a row of full adders per bit
+ *  of the multiplier adding its partial products, multiplying all ones
+ *  by all ones
+ *  <li>dag -- a random circuit of -depth levels, each gate taking its
+ *  inputs from random gates of the level before, -fanout of them on
+ *  average, so that each gate also drives -fanout gates on average;
+ *  gates are of every kind, not gates where they have one input
+ *  <li>ring -- ring oscillators of -length not gates each
+ *  <li>glitch -- blocks of -depth stages of reconvergent logic, each an
+ *  xor gate of the signal before and of the same signal delayed through
+ *  two not gates, so that each change becomes a pulse, and each pulse
+ *  two, all driven by a ring oscillator per block
+ *  </ul>
+ *  Inputs are const gates, true after their delay, or the false output
+ *  of the const gate K, which is always false.  The ring and glitch
+ *  shapes never stop by themselves; simulate them with -until or
+ *  -events.  The size is the number of elements, gate, wire and
+ *  instance lines, wanted; the shape is made as near to it as its
+ *  structure allows, and the numbers written are reported.
+ *  <p>
+ *  Usage: java NetlistGenerator [options] shape [file]
+ *  which writes the circuit to the file, or to standard output if none
+ *  is named.  The options are:
+ *  <ul>
+ *  <li>-size n -- about n elements, by default 10000
+ *  <li>-seed n -- seed the random choices with the long integer n, so
+ *  that the same seed gives the same circuit, by default 1
+ *  <li>-gatedelay d -- the distribution of gate delays, by default 1.0
+ *  <li>-wiredelay d -- the distribution of wire delays, by default 0.1
+ *  <li>-depth n -- the levels of a dag, by default 16, or the stages of
+ *  a glitch block, by default 4
+ *  <li>-fanout f -- the mean fanout of a dag, by default 2.0
+ *  <li>-length n -- the gates in a ring, odd, by default 3
+ *  <li>-modules -- write a ripple adder or a multiplier as instances of
+ *  a full adder {@link Module Module}, whose delays are drawn once for
+ *  the module, instead of as separate gates
+ *  </ul>
+ *  A distribution is one of a number, always that delay; uniform:lo,hi;
+ *  normal:mean,sd, drawn again while it is not positive, up to 16
+ *  times; or exponential:mean.  A normal distribution needs a positive
+ *  mean or sd.  Delays are written to 4 places, and are at least
+ *  0.0001, so that no loop has zero delay; so a normal delay still not
+ *  positive after 16 draws is 0.0001.
+ */
+public class NetlistGenerator {
+    // bytes of text gathered before they are written
+    private static final int BLOCK = 1 << 16;
+
+    // delays are written in units of 1 / UNITS
+    private static final int UNITS = 10000;
+
+    // the most draws of a normal delay before it is taken as the least
+    private static final int DRAWS = 16;
+
+    // the kinds of gates of two or more inputs in a dag
+    private static final String[] KINDS = {
+	"and", "or", "nand", "nor", "xor", "xnor"
+    };
+
+    /** A distribution of delays
+     */
+    static final class Delay {
+	private final String kind;
+	private final double a;
+	private final double b;
+
+	/** Make a distribution from its text
+	 *  @param text the distribution, as above
+	 *  @throws IllegalArgumentException if the text is not one
+	 */
+	Delay( String text ) {
+	    int colon = text.indexOf( ':' );
+	    kind = (colon < 0) ? "fixed" : text.substring( 0, colon );
+	    String[] p = text.substring( colon + 1 ).split( "," );
+	    int wanted = ("uniform".equals( kind ) || "normal".equals( kind ))
+		       ? 2 : 1;
+	    if ((!"fixed".equals( kind ) && !"uniform".equals( kind )
+	    &&   !"normal".equals( kind ) && !"exponential".equals( kind ))
+	    ||  (p.length != wanted)) {
+		throw new IllegalArgumentException( text );
+	    }
+	    a = Double.parseDouble( p[0] );
+	    b = (wanted == 2) ? Double.parseDouble( p[1] ) : 0.0;
+	    if (!(a >= 0) || !(b >= 0)
+	    ||  ("uniform".equals( kind ) && (b < a))
+	    ||  ("normal".equals( kind ) && (b == 0) && (a <= 0))) {
+		throw new IllegalArgumentException( text );
+	    }
+	}
+
+	/** @return a delay, in units of 1 / UNITS, at least 1
+	 *  @param rand the source of randomness
+	 */
+	long draw( SplittableRandom rand ) {
+	    double d;
+	    if ("uniform".equals( kind )) {
+		d = a + rand.nextDouble() * (b - a);
+	    } else if ("normal".equals( kind )) {
+		int tries = 0;
+		do {
+		    d = a + b * gaussian( rand );
+		    tries = tries + 1;
+		} while ((d <= 0.0) && (tries < DRAWS));
+	    } else if ("exponential".equals( kind )) {
+		d = -a * Math.log( 1.0 - rand.nextDouble() );
+	    } else {
+		d = a;
+	    }
+	    return Math.max( 1, Math.round( d * UNITS ) );
+	}
+
+	// a standard normal deviate, by the polar method
+	private static double gaussian( SplittableRandom rand ) {
+	    double u;
+	    double v;
+	    double s;
+	    do {
+		u = rand.nextDouble() * 2 - 1;
+		v = rand.nextDouble() * 2 - 1;
+		s = u * u + v * v;
+	    } while ((s >= 1) || (s == 0));
+	    return u * Math.sqrt( -2 * Math.log( s ) / s );
+	}
+    }
+
+    // the choices and distributions
+    private final SplittableRandom rand;
+    private final Delay gateDelay;
+    private final Delay wireDelay;
+    private final boolean modules;
+
+    // where the circuit goes, and the text not yet written there
+    private OutputStream out;
+    private final StringBuilder text = new StringBuilder( BLOCK + 256 );
+    private final byte[] bytes = new byte[BLOCK + 256];
+
+    /** the numbers of gates, wires and instances written */
+    long gates;
+    long wires;
+    long instances;
+
+    /** Make a generator
+     *  @param seed the seed of the random choices
+     *  @param gateDelay the distribution of gate delays
+     *  @param wireDelay the distribution of wire delays
+     *  @param modules true to write adders as instances of a module
+     */
+    NetlistGenerator( long seed, Delay gateDelay, Delay wireDelay,
+		      boolean modules ) {
+	rand = new SplittableRandom( seed );
+	this.gateDelay = gateDelay;
+	this.wireDelay = wireDelay;
+	this.modules = modules;
+    }
+
+    /** Write a circuit
+     *  @param shape the shape, as above
+     *  @param size about how many elements to write
+     *  @param depth the depth of a dag or glitch, 0 for the default
+     *  @param fanout the mean fanout of a dag
+     *  @param length the length of a ring
+     *  @param o where it is written, not closed
+     *  @throws IOException if it cannot be written
+     *  @throws IllegalArgumentException if the shape is unknown, or
+     *  modules are wanted for a shape not made of full adders
+     */
+    void generate( String shape, long size, int depth, double fanout,
+		   int length, OutputStream o ) throws IOException {
+	out = o;
+	gates = 0;
+	wires = 0;
+	instances = 0;
+	boolean adders = "ripple".equals( shape )
+		      || "multiplier".equals( shape );
+	if (modules && !adders) {
+	    throw new IllegalArgumentException(
+		"Modules are only written for ripple and multiplier"
+	    );
+	}
+	text.append( "-- " ).append( shape ).append( ", " ).append( size )
+	    .append( " elements, by NetlistGenerator\n" );
+	text.append( "gate K const 1.0\n" );
+	gates = 1;
+	if (modules) fullAdderModule();
+	if ("ripple".equals( shape )) {
+	    ripple( Math.max( 1, size / (modules ? 5 : 16) ) );
+	} else if ("cla".equals( shape )) {
+	    cla( Math.max( 1, size / 26 ) );
+	} else if ("multiplier".equals( shape )) {
+	    multiplier( (int)Math.max(
+		2, Math.sqrt( size / (modules ? 7.0 : 18.0) )
+	    ) );
+	} else if ("dag".equals( shape )) {
+	    dag( size, (depth > 0) ? depth : 16, fanout );
+	} else if ("ring".equals( shape )) {
+	    ring( Math.max( 1, size / (2L * length) ), length );
+	} else if ("glitch".equals( shape )) {
+	    int stages = (depth > 0) ? depth : 4;
+	    glitch( Math.max( 1, size / (6 + 7L * stages) ), stages );
+	} else {
+	    throw new IllegalArgumentException( "Unknown shape: " + shape );
+	}
+	flush();
+    }
+
+    // ---- shapes ----
+
+    // a ripple carry adder of n bits
+    private void ripple( long n ) throws IOException {
+	String carry = "K true";
+	for (long i = 0; i < n; i++) {
+	    gate( "A" + i, "const" );
+	    String[] sc = fullAdder( "F" + i, "A" + i + " true", "K false",
+				     carry );
+	    carry = sc[1];
+	}
+    }
+
+    // a carry lookahead adder of n bits, in blocks of 4
+    private void cla( long n ) throws IOException {
+	String carry = "K true";    // into the block
+	for (long first = 0; first < n; first = first + 4) {
+	    int bits = (int)Math.min( 4, n - first );
+	    for (int i = 0; i < bits; i++) {
+		String c = "C" + (first + i);
+		gate( "A" + (first + i), "const" );
+		gate( c + "g", "and" );
+		wire( "A" + (first + i) + " true", c + "g", 1 );
+		wire( "K false", c + "g", 2 );
+		gate( c + "p", "xor" );
+		wire( "A" + (first + i) + " true", c + "p", 1 );
+		wire( "K false", c + "p", 2 );
+	    }
+	    for (int i = 0; i < bits; i++) {
+		// carry i + 1 is g[i] | p[i] g[i - 1] | ... | p[i]..p[0] c
+		String c = "C" + (first + i);
+		for (int t = 0; t <= i; t++) {
+		    // the term of p[i] down to p[t], and g[t - 1] or c
+		    String term = c + "t" + t;
+		    gate( term, "and" );
+		    int pin = 1;
+		    for (int j = i; j >= t; j--) {
+			wire( "C" + (first + j) + "p out", term, pin++ );
+		    }
+		    wire( (t == 0) ? carry : ("C" + (first + t - 1) + "g out"),
+			  term, pin );
+		}
+		gate( c + "c", "or" );
+		wire( c + "g out", c + "c", 1 );
+		for (int t = 0; t <= i; t++) {
+		    wire( c + "t" + t + " out", c + "c", t + 2 );
+		}
+		gate( c + "s", "xor" );
+		wire( c + "p out", c + "s", 1 );
+		wire( (i == 0) ? carry : ("C" + (first + i - 1) + "c out"),
+		      c + "s", 2 );
+	    }
+	    carry = "C" + (first + bits - 1) + "c out";
+	}
+    }
+
+    // an n by n bit array multiplier
+    private void multiplier( int n ) throws IOException {
+	for (int i = 0; i < n; i++) {
+	    gate( "A" + i, "const" );
+	    gate( "B" + i, "const" );
+	}
+	// the row so far, bits 0 to n of the sum of the partial products
+	String[] row = new String[n + 1];
+	for (int j = 0; j < n; j++) row[j] = product( 0, j );
+	row[n] = "K false";
+	for (int i = 1; i < n; i++) {
+	    // add partial product i to the row shifted down a bit, leaving
+	    // bit 0 of the row as product bit i - 1
+	    String carry = "K false";
+	    String[] next = new String[n + 1];
+	    for (int j = 0; j < n; j++) {
+		String[] sc = fullAdder(
+		    "M" + i + "_" + j, row[j + 1], product( i, j ), carry
+		);
+		next[j] = sc[0];
+		carry = sc[1];
+	    }
+	    next[n] = carry;
+	    row = next;
+	}
+    }
+
+    // the and gate of partial product bit j of row i, as a signal
+    private String product( int i, int j ) throws IOException {
+	String p = "P" + i + "_" + j;
+	gate( p, "and" );
+	wire( "A" + j + " true", p, 1 );
+	wire( "B" + i + " true", p, 2 );
+	return p + " out";
+    }
+
+    // a random dag of about size elements, in depth levels
+    private void dag( long size, int depth, double fanout )
+	throws IOException
+    {
+	long width = Math.max( 1, (long)(size / (1 + fanout) / depth) );
+	for (long i = 0; i < width; i++) gate( "I" + i, "const" );
+	for (int level = 1; level < depth; level++) {
+	    String from = (level == 1) ? "I" : ("L" + (level - 1) + "_");
+	    String pin = (level == 1) ? " true" : " out";
+	    for (long i = 0; i < width; i++) {
+		String g = "L" + level + "_" + i;
+		// fanout inputs on average, as a whole number
+		int inputs = (int)fanout;
+		if (rand.nextDouble() < (fanout - inputs)) inputs++;
+		inputs = Math.max( 1, inputs );
+		gate( g, (inputs == 1)
+			 ? "not" : KINDS[rand.nextInt( KINDS.length )] );
+		for (int p = 1; p <= inputs; p++) {
+		    wire( from + rand.nextLong( width ) + pin, g,
+			  (inputs == 1) ? 0 : p );
+		}
+	    }
+	}
+    }
+
+    // n rings of length not gates each
+    private void ring( long n, int length ) throws IOException {
+	for (long r = 0; r < n; r++) {
+	    for (int i = 0; i < length; i++) gate( "R" + r + "_" + i, "not" );
+	    for (int i = 0; i < length; i++) {
+		wire( "R" + r + "_" + i + " out",
+		      "R" + r + "_" + ((i + 1) % length), 0 );
+	    }
+	}
+    }
+
+    // n blocks of stages of reconvergent logic, each with a ring
+    private void glitch( long n, int stages ) throws IOException {
+	for (long b = 0; b < n; b++) {
+	    String q = "Q" + b + "_";
+	    for (int i = 0; i < 3; i++) gate( q + i, "not" );
+	    for (int i = 0; i < 3; i++) {
+		wire( q + i + " out", q + ((i + 1) % 3), 0 );
+	    }
+	    String s = q + "0 out";
+	    for (int k = 1; k <= stages; k++) {
+		String st = q + "s" + k;
+		gate( st + "a", "not" );
+		gate( st + "b", "not" );
+		gate( st + "x", "xor" );
+		wire( s, st + "a", 0 );
+		wire( st + "a out", st + "b", 0 );
+		wire( s, st + "x", 1 );
+		wire( st + "b out", st + "x", 2 );
+		s = st + "x out";
+	    }
+	}
+    }
+
+    // ---- full adders ----
+
+    // the full adder module, FA, ports a, b, cin, s and cout
+    private void fullAdderModule() throws IOException {
+	text.append( "module FA\n" );
+	fullAdderGates( "" );
+	fullAdderWires( "" );
+	text.append( "input a x1 in1\ninput a a1 in1\n" )
+	    .append( "input b x1 in2\ninput b a1 in2\n" )
+	    .append( "input cin x2 in2\ninput cin a2 in2\n" )
+	    .append( "output s x2 out\noutput cout o out\n" )
+	    .append( "end\n" );
+    }
+
+    // a full adder, giving its sum and carry out signals
+    private String[] fullAdder( String name, String a, String b, String c )
+	throws IOException
+    {
+	if (modules) {
+	    text.append( "instance " ).append( name ).append( " FA\n" );
+	    instances = instances + 1;
+	    wire( a, name + " a" );
+	    wire( b, name + " b" );
+	    wire( c, name + " cin" );
+	    return new String[] { name + " s", name + " cout" };
+	}
+	String p = name + "_";
+	fullAdderGates( p );
+	wire( a, p + "x1", 1 );
+	wire( b, p + "x1", 2 );
+	wire( a, p + "a1", 1 );
+	wire( b, p + "a1", 2 );
+	wire( c, p + "x2", 2 );
+	wire( c, p + "a2", 2 );
+	fullAdderWires( p );
+	return new String[] { p + "x2 out", p + "o out" };
+    }
+
+    // the gates of a full adder, s = a ^ b ^ c, cout = a b | c (a ^ b)
+    private void fullAdderGates( String p ) throws IOException {
+	gate( p + "x1", "xor" );
+	gate( p + "x2", "xor" );
+	gate( p + "a1", "and" );
+	gate( p + "a2", "and" );
+	gate( p + "o", "or" );
+    }
+
+    // the wires within a full adder
+    private void fullAdderWires( String p ) throws IOException {
+	wire( p + "x1 out", p + "x2", 1 );
+	wire( p + "x1 out", p + "a2", 1 );
+	wire( p + "a1 out", p + "o", 1 );
+	wire( p + "a2 out", p + "o", 2 );
+    }
+
+    // ---- lines ----
+
+    // a gate line, with a delay drawn for it, or 1.0 for a const gate
+    private void gate( String name, String kind ) throws IOException {
+	text.append( "gate " ).append( name ).append( ' ' ).append( kind )
+	    .append( ' ' );
+	if ("const".equals( kind )) {
+	    text.append( "1.0" );
+	} else {
+	    delay( gateDelay.draw( rand ) );
+	}
+	line();
+	gates = gates + 1;
+    }
+
+    // a wire line from a signal, gate and pin, to input pin of a gate,
+    // in for pin 0
+    private void wire( String from, String to, int pin ) throws IOException {
+	wire( from, to + ((pin == 0) ? " in" : (" in" + pin)) );
+    }
+
+    // a wire line from a signal to a gate and pin, or instance and port
+    private void wire( String from, String to ) throws IOException {
+	text.append( "wire " ).append( from ).append( ' ' ).append( to )
+	    .append( ' ' );
+	delay( wireDelay.draw( rand ) );
+	line();
+	wires = wires + 1;
+    }
+
+    // a delay in units, to 4 places without trailing zeros
+    private void delay( long units ) {
+	text.append( units / UNITS ).append( '.' );
+	long f = units % UNITS;
+	if (f == 0) {
+	    text.append( '0' );
+	    return;
+	}
+	int digits = 4;
+	while (f % 10 == 0) {
+	    f = f / 10;
+	    digits = digits - 1;
+	}
+	for (long p = 10; digits > 1; digits--, p = p * 10) {
+	    if (f < p) text.append( '0' );
+	}
+	text.append( f );
+    }
+
+    // end a line, writing the text if there is a block of it
+    private void line() throws IOException {
+	text.append( '\n' );
+	if (text.length() >= BLOCK) flush();
+    }
+
+    // write all the text
+    private void flush() throws IOException {
+	int n = text.length();
+	byte[] b = (n <= bytes.length) ? bytes : new byte[n];
+	for (int i = 0; i < n; i++) b[i] = (byte)text.charAt( i );
+	out.write( b, 0, n );
+	text.setLength( 0 );
+    }
+
+    /** Get the value that follows an option on the command line
+     *  @param args the command line arguments
+     *  @param i the index of the option in args
+     *  @return the argument following the option
+     */
+    private static String optionValue( String[] args, int i ) {
+	if (i + 1 >= args.length) {
+	    Errors.fatal( "Missing value for option: " + args[i] );
+	}
+	return args[i + 1];
+    }
+
+    /** Main program
+     *  @param args options, the shape and the file, as above
+     */
+    public static void main( String[] args ) {
+	long size = 10000;
+	long seed = 1;
+	Delay gateDelay = new Delay( "1.0" );
+	Delay wireDelay = new Delay( "0.1" );
+	int depth = 0;
+	double fanout = 2.0;
+	int length = 3;
+	boolean modules = false;
+	String shape = null;
+	String fileName = null;
+	int i = 0;
+	while (i < args.length) {
+	    String arg = args[i];
+	    try {
+		if ("-size".equals( arg )) {
+		    size = Long.parseLong( optionValue( args, i ) );
+		    if (size < 1) Errors.fatal( "Bad size: " + size );
+		    i = i + 2;
+		} else if ("-seed".equals( arg )) {
+		    seed = Long.parseLong( optionValue( args, i ) );
+		    i = i + 2;
+		} else if ("-gatedelay".equals( arg )) {
+		    gateDelay = new Delay( optionValue( args, i ) );
+		    i = i + 2;
+		} else if ("-wiredelay".equals( arg )) {
+		    wireDelay = new Delay( optionValue( args, i ) );
+		    i = i + 2;
+		} else if ("-depth".equals( arg )) {
+		    depth = Integer.parseInt( optionValue( args, i ) );
+		    if (depth < 2) Errors.fatal( "Bad depth: " + depth );
+		    i = i + 2;
+		} else if ("-fanout".equals( arg )) {
+		    fanout = Double.parseDouble( optionValue( args, i ) );
+		    if (!(fanout >= 1.0)
+		    ||  (fanout > Gate.MAX_INPUTS)) {
+			Errors.fatal( "Bad fanout: " + fanout );
+		    }
+		    i = i + 2;
+		} else if ("-length".equals( arg )) {
+		    length = Integer.parseInt( optionValue( args, i ) );
+		    if ((length < 1) || ((length & 1) == 0)) {
+			Errors.fatal( "Ring length must be odd: " + length );
+		    }
+		    i = i + 2;
+		} else if ("-modules".equals( arg )) {
+		    modules = true;
+		    i = i + 1;
+		} else if (arg.startsWith( "-" )) {
+		    Errors.fatal( "Unknown option: " + arg );
+		} else if (shape == null) {
+		    shape = arg;
+		    i = i + 1;
+		} else if (fileName == null) {
+		    fileName = arg;
+		    i = i + 1;
+		} else {
+		    Errors.fatal( "Too many arguments" );
+		}
+	    } catch (NumberFormatException e) {
+		Errors.fatal( "Bad number: " + args[i + 1] );
+	    } catch (IllegalArgumentException e) {
+		Errors.fatal( "Bad delay distribution: " + args[i + 1] );
+	    }
+	}
+	if (shape == null) Errors.fatal( "Missing shape argument" );
+
+	NetlistGenerator g
+	    = new NetlistGenerator( seed, gateDelay, wireDelay, modules );
+	try (OutputStream out = (fileName == null)
+	    ? new BufferedOutputStream( System.out, BLOCK )
+	    : new FileOutputStream( fileName )
+	) {
+	    g.generate( shape, size, depth, fanout, length, out );
+	} catch (IllegalArgumentException e) {
+	    Errors.fatal( e.getMessage() );
+	} catch (IOException e) {
+	    Errors.fatal( "Can't write the circuit" );
+	}
+	Errors.note( "Wrote " + g.gates + " gates, " + g.instances
+		   + " instances and " + g.wires + " wires" );
+    }
+}
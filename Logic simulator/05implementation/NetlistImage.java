@@ -0,0 +1,292 @@
+/* NetlistImage.java
+ * Precompiled binary images of checked circuits
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/** A circuit that has been read and checked, saved as a binary image.
+ *  The image holds the gate names, kinds and delays, the wires as
+ *  fanout tables and the probes, so loading it involves no parsing at
+ *  all.  Images are
+ *  written and read through memory maps.
+ *  <p>
+ *  The image begins with a header: a magic number, a version, the length
+ *  and modification time of the circuit description it was compiled
+ *  from, the sizes of its sections and a CRC-32 of everything after the
+ *  header.  An image whose magic number, version or checksum is wrong,
+ *  or whose circuit description has changed since, is rejected, and the
+ *  caller is expected to read the description instead.
+ *  <p>
+ *  After the header come these sections, each but the last padded to a
+ *  multiple of 4 bytes, all little-endian:
+ *  <ul>
+ *  <li>int[gates], where the name of each gate ends in the names section
+ *  <li>byte[], the names, end to end
+ *  <li>byte[gates], the kind code of each gate, as in {@link Gate#make}
+ *  <li>float[gates], the delay of each gate
+ *  <li>int[gates + 1], where the wires from each gate begin
+ *  <li>int[wires], the source pin of each wire
+ *  <li>int[wires], the destination gate of each wire
+ *  <li>int[wires], the destination pin of each wire
+ *  <li>float[wires], the delay of each wire
+ *  <li>int[probes], where each probe ends in the probes section
+ *  <li>byte[], the probes, end to end
+ *  </ul>
+ *  Gates are in id order, and the wires from each gate are in the order
+ *  they were read, so a loaded circuit simulates exactly as a read one.
+ */
+final class NetlistImage {
+    // identifies image files, "LSIM" when read as bytes
+    private static final int MAGIC = 0x4D49534C;
+
+    // the format version, changed whenever the format changes
+    private static final int VERSION = 3;
+
+    // the header: magic, version, source length and time, gates, wires,
+    // bytes of names, probes, bytes of probes, CRC-32
+    private static final int HEADER = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 4;
+    private static final int CRC_AT = HEADER - 4;
+
+    /** Write the image of a circuit
+     *  @param imageName the name of the image file
+     *  @param source the circuit description the circuit was read from
+     *  @param gates the gates, indexed by id
+     *  @param wires the wires
+     *  @param probes the probes
+     *  @throws IOException if the image cannot be written
+     */
+    static void write( String imageName, File source,
+		       List <Gate> gates, List <Wire> wires,
+		       List <String> probes )
+	throws IOException
+    {
+	int n = gates.size();
+	int w = wires.size();
+
+	byte[][] names = new byte[n][];
+	long nameBytes = 0;
+	for (int i = 0; i < n; i++) {
+	    names[i] = Logic.symbols.name( i ).getBytes(
+		StandardCharsets.ISO_8859_1
+	    );
+	    nameBytes = nameBytes + names[i].length;
+	}
+
+	// the fanout tables, with the wires from each gate in list order
+	int[] fanout = new int[n + 1];
+	for (Wire r: wires) fanout[r.source.id + 1]++;
+	for (int i = 0; i < n; i++) fanout[i + 1] = fanout[i + 1] + fanout[i];
+	Wire[] bySource = new Wire[w];
+	int[] next = fanout.clone();
+	for (Wire r: wires) {
+	    bySource[next[r.source.id]] = r;
+	    next[r.source.id]++;
+	}
+
+	int p = probes.size();
+	byte[][] probeText = new byte[p][];
+	long probeBytes = 0;
+	for (int i = 0; i < p; i++) {
+	    probeText[i] = probes.get( i ).getBytes(
+		StandardCharsets.ISO_8859_1
+	    );
+	    probeBytes = probeBytes + probeText[i].length;
+	}
+
+	long size = size( n, w, nameBytes, p, probeBytes );
+	if (size > Integer.MAX_VALUE) {
+	    throw new IOException( "circuit too large for an image" );
+	}
+
+	try (FileChannel f = FileChannel.open( Paths.get( imageName ),
+		StandardOpenOption.CREATE, StandardOpenOption.READ,
+		StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+	)) {
+	    MappedByteBuffer b = f.map( FileChannel.MapMode.READ_WRITE, 0, size );
+	    b.order( ByteOrder.LITTLE_ENDIAN );
+
+	    b.putInt( MAGIC );
+	    b.putInt( VERSION );
+	    b.putLong( source.length() );
+	    b.putLong( source.lastModified() );
+	    b.putInt( n );
+	    b.putInt( w );
+	    b.putInt( (int)nameBytes );
+	    b.putInt( p );
+	    b.putInt( (int)probeBytes );
+	    b.putInt( 0 ); // the CRC, filled in last
+
+	    int end = 0;
+	    for (int i = 0; i < n; i++) {
+		end = end + names[i].length;
+		b.putInt( end );
+	    }
+	    for (int i = 0; i < n; i++) b.put( names[i] );
+	    pad( b );
+	    for (Gate g: gates) b.put( g.kindCode() );
+	    pad( b );
+	    for (Gate g: gates) b.putFloat( g.delay );
+	    for (int i = 0; i <= n; i++) b.putInt( fanout[i] );
+	    for (Wire r: bySource) b.putInt( r.srcPin );
+	    for (Wire r: bySource) b.putInt( r.destination.id );
+	    for (Wire r: bySource) b.putInt( r.dstPin );
+	    for (Wire r: bySource) b.putFloat( r.delay );
+	    end = 0;
+	    for (int i = 0; i < p; i++) {
+		end = end + probeText[i].length;
+		b.putInt( end );
+	    }
+	    for (int i = 0; i < p; i++) b.put( probeText[i] );
+
+	    b.putInt( CRC_AT, checksum( b ) );
+	    b.force();
+	}
+    }
+
+    /** Load the image of a circuit, if it is a good one
+     *  Nothing is added to gates or wires unless the whole image is good.
+     *  @param imageName the name of the image file
+     *  @param source the circuit description the image should match
+     *  @param gates the list to which the gates are added, indexed by id
+     *  @param wires the list to which the wires are added
+     *  @param probes the list to which the probes are added
+     *  @return null if the circuit was loaded, or why the image was rejected
+     *  @throws IOException if the image exists but cannot be read
+     */
+    static String load( String imageName, File source,
+			List <Gate> gates, List <Wire> wires,
+			List <String> probes )
+	throws IOException
+    {
+	MappedByteBuffer b;
+	try (FileChannel f = FileChannel.open( Paths.get( imageName ) )) {
+	    if (f.size() < HEADER) return "not a circuit image";
+	    if (f.size() > Integer.MAX_VALUE) return "not a circuit image";
+	    b = f.map( FileChannel.MapMode.READ_ONLY, 0, f.size() );
+	} catch (NoSuchFileException e) {
+	    return "no such file";
+	}
+	b.order( ByteOrder.LITTLE_ENDIAN );
+
+	if (b.getInt() != MAGIC) return "not a circuit image";
+	int version = b.getInt();
+	if (version != VERSION) {
+	    return "version " + version + ", expected " + VERSION;
+	}
+	if ((b.getLong() != source.length())
+	||  (b.getLong() != source.lastModified())) {
+	    return "out of date";
+	}
+	int n = b.getInt();
+	int w = b.getInt();
+	int nameBytes = b.getInt();
+	int p = b.getInt();
+	int probeBytes = b.getInt();
+	if ((n < 0) || (w < 0) || (nameBytes < 0) || (p < 0) || (probeBytes < 0)
+	||  (size( n, w, nameBytes, p, probeBytes ) != b.capacity())) {
+	    return "damaged";
+	}
+	if (b.getInt( CRC_AT ) != checksum( b )) return "damaged";
+
+	// the image is good; read it in bulk into arrays
+	b.position( HEADER );
+	int[] nameEnds = ints( b, n );
+	byte[] names = new byte[nameBytes];
+	b.get( names );
+	skipPad( b );
+	byte[] kinds = new byte[n];
+	b.get( kinds );
+	skipPad( b );
+	float[] delays = floats( b, n );
+	int[] fanout = ints( b, n + 1 );
+	int[] srcPins = ints( b, w );
+	int[] dsts = ints( b, w );
+	int[] dstPins = ints( b, w );
+	float[] wireDelays = floats( b, w );
+	int[] probeEnds = ints( b, p );
+	byte[] probeText = new byte[probeBytes];
+	b.get( probeText );
+
+	int start = 0;
+	for (int i = 0; i < n; i++) {
+	    int id = Logic.symbols.intern( names, start, nameEnds[i] - start );
+	    gates.add( Gate.make( id, kinds[i], delays[i] ) );
+	    start = nameEnds[i];
+	}
+	for (int i = 0; i < n; i++) {
+	    Gate g = gates.get( i );
+	    for (int j = fanout[i]; j < fanout[i + 1]; j++) {
+		Gate d = gates.get( dsts[j] );
+		wires.add( new Wire(
+		    g, g.outPinName( srcPins[j] ),
+		    d, d.inPinName( dstPins[j] ), wireDelays[j]
+		) );
+	    }
+	}
+	start = 0;
+	for (int i = 0; i < p; i++) {
+	    probes.add( new String(
+		probeText, start, probeEnds[i] - start,
+		StandardCharsets.ISO_8859_1
+	    ) );
+	    start = probeEnds[i];
+	}
+	return null;
+    }
+
+    // the size of an image with n gates, w wires and p probes
+    private static long size( long n, long w, long nameBytes,
+			      long p, long probeBytes ) {
+	return HEADER + 4 * n + align( nameBytes ) + align( n )
+	     + 4 * n + 4 * (n + 1) + 4 * 4 * w + 4 * p + probeBytes;
+    }
+
+    // the CRC-32 of everything in b after the header
+    private static int checksum( ByteBuffer b ) {
+	CRC32 crc = new CRC32();
+	crc.update( b.duplicate().position( HEADER ).limit( b.capacity() ) );
+	return (int)crc.getValue();
+    }
+
+    // bytes, rounded up to a multiple of 4
+    private static long align( long bytes ) {
+	return (bytes + 3) & ~3L;
+    }
+
+    // write zeros up to a multiple of 4 bytes
+    private static void pad( ByteBuffer b ) {
+	while ((b.position() & 3) != 0) b.put( (byte)0 );
+    }
+
+    // skip up to a multiple of 4 bytes
+    private static void skipPad( ByteBuffer b ) {
+	b.position( (int)align( b.position() ) );
+    }
+
+    // read n ints from b
+    private static int[] ints( ByteBuffer b, int n ) {
+	int[] a = new int[n];
+	b.asIntBuffer().get( a );
+	b.position( b.position() + 4 * n );
+	return a;
+    }
+
+    // read n floats from b
+    private static float[] floats( ByteBuffer b, int n ) {
+	float[] a = new float[n];
+	b.asFloatBuffer().get( a );
+	b.position( b.position() + 4 * n );
+	return a;
+    }
+}
@@ -0,0 +1,454 @@
+/* NetlistKernel.java
+ * The circuit compiled into flat arrays, with a simulation loop over them
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** A circuit lowered from linked Gate and Wire objects into flat arrays.
+ *  Gates are numbered by {@link Gate#id Gate.id}; each gate has a kind
+ *  code and a delay, and the wires out of each gate are stored together,
+ *  in compressed sparse row form, as destination gate, destination input
+ *  slot and wire delay.  Input slots number the inputs of each gate from
+ *  zero, and the slots of all the gates are numbered together, gate by
+ *  gate, so that each input has a place in an array of all of them.
+ *  <p>
+ *  A gate's value depends only on how many of its inputs are true, so
+ *  simulation keeps that count rather than the inputs themselves.  Each
+ *  event at an input changes it, since a gate only passes changes of its
+ *  output along its wires, so each event adds or takes one from the
+ *  count, however many inputs the gate has.
+ *  <p>
+ *  The arrays describe the circuit only and are never changed after
+ *  compilation; all simulation state lives in the run method, so one
+ *  kernel may be shared by many simulations.
+ *  Simulation over the kernel does exactly what the Gate and Wire
+ *  objects do, event for event and in the same order, so it draws the
+ *  same random delays and prints the same trace.
+ *  @see Gate
+ *  @see Wire
+ */
+final class NetlistKernel {
+    // gate kind codes
+    static final byte CONST = Gate.CONST;
+    static final byte AND = Gate.AND;
+    static final byte OR = Gate.OR;
+    static final byte NOT = Gate.NOT;
+    static final byte NAND = Gate.NAND;
+    static final byte NOR = Gate.NOR;
+    static final byte XOR = Gate.XOR;
+    static final byte XNOR = Gate.XNOR;
+
+    // the number of gates
+    final int gates;
+
+    // per gate, indexed by gate id
+    final byte[] kind;
+    final float[] delay;
+
+    // the gates compiled, only used for messages and traces; null for
+    // the gates of instances of modules that made no Gate objects
+    private final Gate[] table;
+
+    // wires out of gate g are wires fanout[g] up to fanout[g + 1]
+    final int[] fanout;
+
+    // the inputs of gate g are slots 0 up to fanin[g + 1] - fanin[g], and
+    // numbered together, inputs fanin[g] up to fanin[g + 1]
+    final int[] fanin;
+
+    // per wire, in order of fanout
+    final int[] wireDst;    // the destination gate id
+    final int[] wireSlot;   // the input slot of the destination gate
+    final float[] wireDelay;
+
+    /** construct a kernel from its arrays, only used by compile
+     */
+    private NetlistKernel(
+	byte[] kind, float[] delay, Gate[] table, int[] fanout, int[] fanin,
+	int[] wireDst, int[] wireSlot, float[] wireDelay
+    ) {
+	this.gates = kind.length;
+	this.kind = kind;
+	this.delay = delay;
+	this.table = table;
+	this.fanout = fanout;
+	this.fanin = fanin;
+	this.wireDst = wireDst;
+	this.wireSlot = wireSlot;
+	this.wireDelay = wireDelay;
+    }
+
+    /** Compile a checked circuit into a kernel
+     *  The gates and wires of instances of modules that made no Gate or
+     *  Wire objects are taken from their {@link Module Module}s.
+     *  @param table all the gates, such that table[i].id == i, or null
+     *  for the gates of such instances
+     *  @param wires all the wires, in the order they were read
+     *  @return the new kernel
+     */
+    static NetlistKernel compile( Gate[] table, List <Wire> wires ) {
+	int n = table.length;
+	byte[] kind = new byte[n];
+	float[] delay = new float[n];
+	gates( table, kind, delay );
+
+	// count the wires that can carry a change out of each gate;
+	// the false output of a const gate never changes, so it is left
+	// out; in a checked circuit, every input of a gate has one wire
+	int[] fanout = new int[n + 1];
+	int[] fanin = new int[n + 1];
+	Module.wires( wires, ( s, sp, d, dp, w ) -> {
+	    if (Gate.canChange( kind[s], sp )) fanout[s + 1]++;
+	    fanin[d + 1]++;
+	} );
+	for (int g = 0; g < n; g++) fanout[g + 1] += fanout[g];
+	for (int g = 0; g < n; g++) fanin[g + 1] += fanin[g];
+
+	// place the wires, keeping the order in which they were read,
+	// which is the order in which the gates pass changes along them
+	int[] fill = fanout.clone();
+	int[] wireDst = new int[fanout[n]];
+	int[] wireSlot = new int[fanout[n]];
+	float[] wireDelay = new float[fanout[n]];
+	Module.wires( wires, ( s, sp, d, dp, w ) -> {
+	    if (!Gate.canChange( kind[s], sp )) return;
+	    int i = fill[s]++;
+	    wireDst[i] = d;
+	    wireSlot[i] = slotOf( kind[d], dp );
+	    wireDelay[i] = w;
+	} );
+
+	return new NetlistKernel(
+	    kind, delay, table, fanout, fanin, wireDst, wireSlot, wireDelay
+	);
+    }
+
+    /** Gather the kind code and delay of each gate of a checked circuit
+     *  @param table all the gates, as compile takes them
+     *  @param kind filled in with the kind codes, indexed by gate id
+     *  @param delay filled in with the delays, indexed by gate id
+     */
+    static void gates( Gate[] table, byte[] kind, float[] delay ) {
+	for (int g = 0; g < table.length; g++) {
+	    if (table[g] == null) continue;
+	    kind[g] = table[g].kindCode();
+	    delay[g] = table[g].delay;
+	}
+	Module.gates( kind, delay );
+    }
+
+    /** @return the value of a logic gate
+     *  @param kind the kind code of the gate, not CONST
+     *  @param trueInputs how many of its inputs are true
+     *  @param inputs how many inputs it has
+     */
+    static boolean value( byte kind, int trueInputs, int inputs ) {
+	switch (kind) {
+	    case AND: return trueInputs == inputs;
+	    case OR: return trueInputs != 0;
+	    case NAND: return trueInputs != inputs;
+	    case XOR: return (trueInputs & 1) != 0;
+	    case XNOR: return (trueInputs & 1) == 0;
+	    default: return trueInputs == 0;    // NOT and NOR
+	}
+    }
+
+    /** @return true for a kind of gate whose value is the inverse of an
+     *  and, or, xor or of its one input: not, nand, nor and xnor
+     *  @param kind the kind code
+     */
+    static boolean inverting( byte kind ) {
+	return (kind == NOT) || (kind == NAND) || (kind == NOR)
+	    || (kind == XNOR);
+    }
+
+    /** @return true if a gate is launched, scheduling its first output
+     *  change when the simulation starts, as Gate.checkSanity does; const
+     *  gates are, and so are logic gates that are true with their inputs
+     *  all false
+     *  @param g the gate
+     */
+    boolean launched( int g ) {
+	if (kind[g] == CONST) return true;
+	return value( kind[g], 0, fanin[g + 1] - fanin[g] );
+    }
+
+    /** @return the input slot of a pin number returned by registerInput
+     *  @param kind the kind code of the gate
+     *  @param pin the pin number
+     */
+    static int slotOf( byte kind, int pin ) {
+	if ((kind == NOT) || (kind == CONST)) return pin;
+	return pin - 1;
+    }
+
+    /** Order the gates so that each comes after every gate that drives it
+     *  @return the gate ids in that order, or null if the circuit has a
+     *  loop, in which case no such order exists
+     */
+    int[] topologicalOrder() {
+	int[] order = new int[gates];
+	if (order( order, new int[gates] ) < gates) return null;
+	return order;
+    }
+
+    /** Find a loop in a circuit for which topologicalOrder gives null
+     *  @return the gates around one loop, each driving the next and the
+     *  last driving the first, or an empty list if there is no loop
+     */
+    List <Gate> loop() {
+	int[] waiting = new int[gates];
+	order( new int[gates], waiting );
+
+	// each gate left unordered has an unordered driver; following
+	// such drivers back from any of them must come around a loop
+	int[] driver = new int[gates];
+	int start = -1;
+	for (int g = 0; g < gates; g++) {
+	    if (waiting[g] == 0) continue;
+	    start = g;
+	    for (int w = fanout[g]; w < fanout[g + 1]; w++) {
+		if (waiting[wireDst[w]] > 0) driver[wireDst[w]] = g;
+	    }
+	}
+	List <Gate> loop = new ArrayList <Gate> ();
+	if (start < 0) return loop;
+	for (int i = 0; i < gates; i++) start = driver[start];
+	int g = start;
+	do {
+	    loop.add( table[g] );
+	    g = driver[g];
+	} while (g != start);
+	Collections.reverse( loop );
+	return loop;
+    }
+
+    /** Order as many gates as can be ordered topologically
+     *  @param order filled in with the ordered gate ids
+     *  @param waiting filled in with the number of inputs of each gate
+     *  driven by gates left unordered
+     *  @return the number of gates ordered, all of them unless there is
+     *  a loop
+     */
+    private int order( int[] order, int[] waiting ) {
+	for (int w = 0; w < fanout[gates]; w++) waiting[wireDst[w]]++;
+	int tail = 0;
+	for (int g = 0; g < gates; g++) {
+	    if (waiting[g] == 0) order[tail++] = g;
+	}
+	for (int head = 0; head < tail; head++) {
+	    int g = order[head];
+	    for (int w = fanout[g]; w < fanout[g + 1]; w++) {
+		int d = wireDst[w];
+		waiting[d] = waiting[d] - 1;
+		if (waiting[d] == 0) order[tail++] = d;
+	    }
+	}
+	return tail;
+    }
+
+    /** Append the trace line of a change, as Gate.traceLine does, also
+     *  for a gate that has no Gate object
+     *  @param b where the line is appended
+     *  @param g the gate
+     *  @param time when its output changed
+     *  @param v the new value
+     */
+    void traceLine( StringBuilder b, int g, float time, boolean v ) {
+	if (table[g] != null) {
+	    table[g].traceLine( b, time, v );
+	    return;
+	}
+	b.append( "At " ).append( time ).append( " gate " )
+	 .append( Logic.symbols.name( g ) ).append( " " )
+	 .append( Gate.kindName( kind[g] ) ).append( " " ).append( delay[g] );
+	if (kind[g] == CONST) {
+	    b.append( " true " ).append( " changes to true" );
+	} else {
+	    b.append( " out " ).append( " changes to " ).append( v );
+	}
+    }
+
+    /** Receives the output changes of a simulation over a kernel
+     */
+    interface Observer {
+	/** Report a change of a gate's output
+	 *  @param time when the output changed
+	 *  @param gate the id of the gate
+	 *  @param value the new output value
+	 */
+	void change( float time, int gate, boolean value );
+    }
+
+    /** Simulate the circuit, printing the same trace as Simulator.run()
+     *  @param events an empty event set to hold the pending events, an
+     *  EventHeap if inertial
+     *  @param limit the simulation stops before any event after this time
+     *  @param most the simulation stops after this many events
+     *  @param inertial true for inertial delay, see {@link LogicGate}
+     *  @param watch watches for oscillation, or null not to
+     */
+    void run( EventSet events, float limit, long most, boolean inertial,
+	      Oscillation watch ) {
+	run(
+	    events, PRNG.shared(), Trace::change, limit, most, inertial,
+	    watch
+	);
+    }
+
+    /** Simulate the circuit, with its own random delays and observer
+     *  Any number of simulations may run at once on different threads.
+     *  @param events an empty event set to hold the pending events, an
+     *  EventHeap if inertial
+     *  @param prng the family of streams the gates draw from
+     *  @param observer told of each output change
+     *  @param limit the simulation stops before any event after this time
+     *  @param most the simulation stops after this many events
+     *  @param inertial true for inertial delay, see {@link LogicGate}
+     *  @param watch watches for oscillation, or null not to; once one is
+     *  confirmed, it is reported, and the simulation stops or, if there is
+     *  a time limit, skips to near it, as the watch says
+     */
+    void run( EventSet events, PRNG prng, Observer observer, float limit,
+	      long most, boolean inertial, Oscillation watch ) {
+	// the simulation state, as kept by the gates
+	int[] inputs = new int[gates];          // inputs that are true
+	boolean[] value = new boolean[gates];   // value computed from inputs
+	boolean[] outValue = new boolean[gates];// most recent output value
+	long[] scheduled = new long[gates];     // events each has scheduled
+
+	// with inertial delay, the events of pending output changes
+	EventHeap heap = null;
+	boolean[] pending = null;
+	if (inertial) {
+	    heap = (EventHeap)events;
+	    heap.indexOutputs( gates );
+	    pending = new boolean[gates];
+	}
+	if (watch != null) watch.start( this, prng, scheduled );
+
+	// launch the simulation as Gate.checkSanity does
+	for (int g = 0; g < gates; g++) {
+	    if (!launched( g )) continue;
+	    if (inertial) pending[g] = true;
+	    if (kind[g] != CONST) value[g] = true;
+	    events.add(
+		delay[g], EventSet.key( g, scheduled[g]++ ),
+		g, Simulator.OUTPUT, false
+	    );
+	    if (watch != null) {
+		int s = state( g, inputs, value, outValue, pending );
+		watch.gate( g, 0, s );
+		watch.add( g, Simulator.OUTPUT, false );
+	    }
+	}
+
+	long count = 0;     // events simulated
+	int last = -1;      // the gate of the last event, when watching
+	int before = 0;     // and its state before it
+	while (!events.isEmpty() && (count < most)) {
+	    if (last >= 0) {
+		// the last event is done, so look at the state it left
+		int after = state( last, inputs, value, outValue, pending );
+		watch.gate( last, before, after );
+		if (watch.step( last, events.time )) {
+		    Errors.note( watch.report() );
+		    if ((watch.action == Oscillation.STOP)
+		    ||  (limit == Float.POSITIVE_INFINITY)) break;
+		    long skipped = watch.skip( events, limit );
+		    Errors.note( "Skipped " + skipped + " periods" );
+		    watch = null;
+		    last = -1;
+		}
+	    }
+
+	    events.removeFirst();
+	    float time = events.time;
+	    if (time > limit) break;
+	    count = count + 1;
+	    int g = events.target;
+	    byte k = kind[g];
+	    if (watch != null) {
+		watch.remove( g, events.pin, events.value );
+		last = g;
+		before = state( g, inputs, value, outValue, pending );
+	    }
+
+	    if (events.pin == Simulator.OUTPUT) {
+		boolean v;
+		if (inertial) pending[g] = false;
+		if (k == CONST) {
+		    v = true;
+		} else {
+		    v = value[g];
+		    if (v == outValue[g]) continue;
+		    outValue[g] = v;
+		}
+		observer.change( time, g, v );
+		if (watch != null) watch.change( g, v );
+		for (int w = fanout[g]; w < fanout[g + 1]; w++) {
+		    events.add(
+			time + wireDelay[w], EventSet.key( g, scheduled[g]++ ),
+			wireDst[w], wireSlot[w], v
+		    );
+		    if (watch != null) watch.add( wireDst[w], wireSlot[w], v );
+		}
+	    } else {
+		if (k == CONST) {
+		    Errors.fatal(
+			"Input should never change: " + table[g]
+		    );
+		    return;
+		}
+		int in = inputs[g] + (events.value ? 1 : -1);
+		inputs[g] = in;
+		boolean newVal = value( k, in, fanin[g + 1] - fanin[g] );
+
+		if (inertial) {
+		    // a change that undoes a pending one cancels it instead
+		    if (pending[g]) {
+			if (newVal == value[g]) continue;
+			heap.cancelOutput( g );
+			if (watch != null) {
+			    watch.remove( g, Simulator.OUTPUT, false );
+			}
+			pending[g] = false;
+		    }
+		    value[g] = newVal;
+		    if (newVal == outValue[g]) continue;
+		    pending[g] = true;
+		} else {
+		    // not gates schedule an output event on every input change
+		    if ((newVal == value[g]) && (k != NOT)) continue;
+		    value[g] = newVal;
+		}
+		float d = delay[g];
+		events.add(
+		    time + (d * 0.95f) + prng.nextFloat( g, d * 0.1f ),
+		    EventSet.key( g, scheduled[g]++ ),
+		    g, Simulator.OUTPUT, false
+		);
+		if (watch != null) watch.add( g, Simulator.OUTPUT, false );
+	    }
+	}
+    }
+
+    /** @return all that a gate holds during a simulation, as one int
+     *  @param g the gate
+     *  @param inputs per gate, its input values
+     *  @param value per gate, the value computed from its inputs
+     *  @param outValue per gate, its most recent output value
+     *  @param pending per gate, true if an output change is pending, or
+     *  null without inertial delay
+     */
+    private static int state( int g, int[] inputs, boolean[] value,
+			      boolean[] outValue, boolean[] pending ) {
+	int s = inputs[g] << 3;
+	if (value[g]) s = s | 1;
+	if (outValue[g]) s = s | 2;
+	if ((pending != null) && pending[g]) s = s | 4;
+	return s;
+    }
+}
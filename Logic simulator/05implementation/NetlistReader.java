@@ -0,0 +1,892 @@
+/* NetlistReader.java
+ * Fast reading of circuit descriptions, tokenizing bytes directly
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Reads a circuit description in the same language as
+ *  {@link Logic#readCircuit Logic.readCircuit}, but without a Scanner.
+ *  The input is read in large blocks into a byte buffer and split into
+ *  lines there; names are matched and looked up in the
+ *  {@link SymbolTable SymbolTable} as bytes, and delays are converted
+ *  to float directly from their digits.  No String is made for a field
+ *  unless it has to appear in an error message.
+ *  <p>
+ *  Errors are reported through {@link Errors Errors} with exactly the
+ *  text and in exactly the order that the Scanner-based code in
+ *  {@link Gate#factory Gate.factory} and the {@link Wire Wire}
+ *  constructor report them.  The one difference is that a last line
+ *  without a newline is accepted instead of throwing an exception.
+ *  <p>
+ *  A reader can also be given one chunk of a file that is already in
+ *  memory, for {@link ParallelLoader ParallelLoader}.  Then
+ *  {@link #scan scan} only tokenizes the lines, keeping a record of each
+ *  gate and wire, and the gates and wires are made in later passes.
+ *  Messages are held, keyed by where in the file their line begins,
+ *  instead of being output.  A chunk that uses {@link Module modules}
+ *  is not scanned, since it cannot be read apart from the lines before.
+ *  @see ScanSupport
+ */
+final class NetlistReader {
+    // the input, read in blocks into buf[0] to buf[limit - 1]
+    private final InputStream in;
+    private byte[] buf;
+    private int limit = 0;
+    private boolean eof = false;
+
+    // for a chunk read by ParallelLoader, the file offset of buf[0] and
+    // where messages are held, otherwise null
+    private final long base;
+    private final ParallelLoader.Messages messages;
+
+    // the next line begins at buf[next]
+    private int next = 0;
+
+    // the current line is buf[line] to buf[end - 1], without its line end;
+    // scanning of the line has reached buf[at]
+    private int line;
+    private int end;
+    private int at;
+
+    // the most recent token found by name() or number()
+    private int tokenStart;
+    private int tokenLength;
+    private float number;
+
+    // the start and length of each name on the line found by gateFields()
+    // or wireFields(), in order
+    private final int[] field = new int[8];
+
+    // for a chunk, the records kept by scan() of its gate lines and wire
+    // lines, GATE and WIRE ints each, and the delay of each
+    private int[] gateRecords = new int[GATE * 64];
+    private float[] gateDelays = new float[64];
+    private int gateCount = 0;
+    private int[] wireRecords = new int[WIRE * 64];
+    private float[] wireDelays = new float[64];
+    private int wireCount = 0;
+
+    // a record holds line, end and at, where at is where the line's fields
+    // end, or -1 if a wire has no delay, then field[0] onward; wire records
+    // end with the ids of the source and destination gates, -1 if unknown
+    private static final int GATE = 3 + 4;
+    private static final int WIRE = 3 + 8 + 2;
+
+    // kinds of line, as found by command()
+    private static final int OTHER = 0;
+    private static final int GATE_LINE = 1;
+    private static final int WIRE_LINE = 2;
+    private static final int PROBE_LINE = 3;
+    private static final int MODULE_LINE = 4;
+    private static final int END_LINE = 5;
+    private static final int INSTANCE_LINE = 6;
+    private static final int INPUT_LINE = 7;
+    private static final int OUTPUT_LINE = 8;
+
+    // the module being defined, if any
+    private Module defining = null;
+
+    // for a chunk, true if scan() stopped at a line that uses modules
+    private boolean hierarchical = false;
+
+    // for a chunk, the probes found by scan(), in order
+    private final ArrayList <String> probes = new ArrayList <String> ();
+
+    // exact powers of ten as floats
+    private static final float[] POWERS = {
+	1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    /** construct a reader
+     *  @param in the stream from which the circuit description is read
+     */
+    NetlistReader( InputStream in ) {
+	this.in = in;
+	buf = new byte[1 << 22];
+	base = 0;
+	messages = null;
+    }
+
+    /** construct a reader for one chunk of a file that is already in memory
+     *  @param buf the chunk, which ends at a line end or at end of file
+     *  @param length how many bytes of buf hold the chunk
+     *  @param base the offset in the file of buf[0]
+     *  @param messages where the chunk's messages are held
+     *  @see ParallelLoader
+     */
+    NetlistReader( byte[] buf, int length, long base,
+		   ParallelLoader.Messages messages ) {
+	this.in = null;
+	this.buf = buf;
+	limit = length;
+	eof = true;
+	this.base = base;
+	this.messages = messages;
+    }
+
+    /** Read the whole circuit description
+     *  @param gates the list to which new gates are added, indexed by id
+     *  @param wires the list to which new wires are added
+     *  @param probes the list to which probes are added
+     *  @throws IOException if the input cannot be read
+     */
+    void read( List <Gate> gates, List <Wire> wires, List <String> probes )
+	throws IOException
+    {
+	while (nextLine()) {
+	    int command = command();
+	    if ((command == GATE_LINE) && (defining != null)) {
+		readModuleGate();
+	    } else if (command == GATE_LINE) {
+		readGate( gates );
+	    } else if ((command == WIRE_LINE) && (defining != null)) {
+		readModuleWire();
+	    } else if (command == WIRE_LINE) {
+		readWire( gates, wires );
+	    } else if (command == PROBE_LINE) {
+		readProbe( probes );
+	    } else if (command != OTHER) {
+		readHierarchy( command, gates, wires );
+	    }
+	}
+	if (defining != null) {
+	    Errors.warn( "Missing end: module " + defining.name );
+	}
+    }
+
+    /** Tokenize every line of a chunk, keeping a record of each gate and
+     *  wire; only errors that can be found from the line alone are reported
+     */
+    void scan() {
+	while (nextLine()) {
+	    int command = command();
+	    if (command >= MODULE_LINE) {
+		hierarchical = true;
+		return;
+	    } else if ((command == GATE_LINE) && gateFields()) {
+		if (gateCount == gateDelays.length) {
+		    gateRecords = Arrays.copyOf(
+			gateRecords, gateRecords.length * 2
+		    );
+		    gateDelays = Arrays.copyOf(
+			gateDelays, gateDelays.length * 2
+		    );
+		}
+		int r = gateCount * GATE;
+		gateRecords[r] = line;
+		gateRecords[r + 1] = end;
+		gateRecords[r + 2] = at;
+		System.arraycopy( field, 0, gateRecords, r + 3, 4 );
+		gateDelays[gateCount] = number;
+		gateCount++;
+	    } else if ((command == WIRE_LINE) && wireFields()) {
+		if (wireCount == wireDelays.length) {
+		    wireRecords = Arrays.copyOf(
+			wireRecords, wireRecords.length * 2
+		    );
+		    wireDelays = Arrays.copyOf(
+			wireDelays, wireDelays.length * 2
+		    );
+		}
+		boolean hasDelay = number();
+		int r = wireCount * WIRE;
+		wireRecords[r] = line;
+		wireRecords[r + 1] = end;
+		wireRecords[r + 2] = hasDelay ? at : -1;
+		System.arraycopy( field, 0, wireRecords, r + 3, 8 );
+		wireDelays[wireCount] = hasDelay ? number : 0.0F;
+		wireCount++;
+	    } else if (command == PROBE_LINE) {
+		readProbe( probes );
+	    }
+	}
+    }
+
+    /** Make the gates of a chunk that was scanned, in order
+     *  Gates must be made one chunk at a time in the order of the chunks,
+     *  so that names are defined and given ids just as read() would.
+     *  @param gates the list to which new gates are added, indexed by id
+     *  @param defined set to the file offset of the line defining each
+     *  gate made, indexed by id
+     */
+    void makeGates( List <Gate> gates, long[] defined ) {
+	for (int i = 0; i < gateCount; i++) {
+	    int r = i * GATE;
+	    line = gateRecords[r];
+	    end = gateRecords[r + 1];
+	    at = gateRecords[r + 2];
+	    System.arraycopy( gateRecords, r + 3, field, 0, 4 );
+	    Gate g = makeGate( gateDelays[i] );
+	    if (g != null) {
+		gates.add( g );
+		defined[g.id] = base + line;
+		lineEnd( g );
+	    }
+	}
+    }
+
+    /** Find the gates that each wire of a scanned chunk connects
+     *  A gate is only found if it was defined on an earlier line, as
+     *  read() would find it.  Chunks may do this at the same time.
+     *  @param defined the file offset of the line defining each gate
+     */
+    void findWireGates( long[] defined ) {
+	for (int i = 0; i < wireCount; i++) {
+	    int r = i * WIRE;
+	    line = wireRecords[r];
+	    System.arraycopy( wireRecords, r + 3, field, 0, 8 );
+	    int source = Logic.symbols.lookup( buf, field[0], field[1] );
+	    int destination = Logic.symbols.lookup( buf, field[4], field[5] );
+	    if ((source >= 0) && (defined[source] > base + line)) {
+		source = -1;
+	    }
+	    if ((destination >= 0) && (defined[destination] > base + line)) {
+		destination = -1;
+	    }
+	    if ((source < 0) || (destination < 0)) noSuchGate( source < 0 );
+	    wireRecords[r + 11] = source;
+	    wireRecords[r + 12] = destination;
+	}
+    }
+
+    // The following methods describe the wires of a chunk after
+    // findWireGates; each may be used from many threads at once
+
+    /** @return true if a chunk uses modules, so it was not scanned */
+    boolean hierarchical() {
+	return hierarchical;
+    }
+
+    /** @return the probes of a scanned chunk, in order */
+    List <String> probes() {
+	return probes;
+    }
+
+    /** @return how many gate lines the chunk has, made or not */
+    int gateCount() {
+	return gateCount;
+    }
+
+    /** @return how many wire lines the chunk has */
+    int wireCount() {
+	return wireCount;
+    }
+
+    /** @return the file offset of the line of wire i, for ordering */
+    long wireLine( int i ) {
+	return base + wireRecords[i * WIRE];
+    }
+
+    /** @return the id of the source gate of wire i, -1 if none */
+    int wireSource( int i ) {
+	return wireRecords[i * WIRE + 11];
+    }
+
+    /** @return the id of the destination gate of wire i, -1 if none */
+    int wireDestination( int i ) {
+	return wireRecords[i * WIRE + 12];
+    }
+
+    /** @return the name of the source pin of wire i */
+    String wireSrcPin( int i ) {
+	int r = i * WIRE;
+	return pinName( wireRecords[r + 5], wireRecords[r + 6] );
+    }
+
+    /** @return the name of the destination pin of wire i */
+    String wireDstPin( int i ) {
+	int r = i * WIRE;
+	return pinName( wireRecords[r + 9], wireRecords[r + 10] );
+    }
+
+    /** @return true if wire i has a delay */
+    boolean wireHasDelay( int i ) {
+	return wireRecords[i * WIRE + 2] >= 0;
+    }
+
+    /** @return the delay of wire i, 0 if it has none */
+    float wireDelay( int i ) {
+	return wireDelays[i];
+    }
+
+    /** @return the four names of wire i, as they appear in messages */
+    String wireNames( int i ) {
+	int r = i * WIRE;
+	return text( wireRecords[r + 3], wireRecords[r + 4] ) + " "
+	    + text( wireRecords[r + 5], wireRecords[r + 6] ) + " "
+	    + text( wireRecords[r + 7], wireRecords[r + 8] ) + " "
+	    + text( wireRecords[r + 9], wireRecords[r + 10] );
+    }
+
+    /** @return what follows the delay of wire i that should not, or null */
+    String wireJunk( int i ) {
+	int r = i * WIRE;
+	return junk( wireRecords[r + 2], wireRecords[r + 1] );
+    }
+
+    /** Find the command that starts the current line, as Scanner.next()
+     *  would, and complain if it is not one
+     *  @return GATE_LINE, WIRE_LINE, PROBE_LINE, one of the lines of
+     *  modules, or OTHER
+     */
+    private int command() {
+	while ((at < end) && isSpace( buf[at] )) at++;
+	if (at == end) return OTHER; // blank line
+	int command = at;
+	while ((at < end) && !isSpace( buf[at] )) at++;
+
+	if (matches( command, at - command, "gate" )) return GATE_LINE;
+	if (matches( command, at - command, "wire" )) return WIRE_LINE;
+	if (matches( command, at - command, "probe" )) return PROBE_LINE;
+	if (matches( command, at - command, "module" )) return MODULE_LINE;
+	if (matches( command, at - command, "end" )) return END_LINE;
+	if (matches( command, at - command, "instance" )) return INSTANCE_LINE;
+	if (matches( command, at - command, "input" )) return INPUT_LINE;
+	if (matches( command, at - command, "output" )) return OUTPUT_LINE;
+	if (!matches( command, at - command, "--" )) {
+	    report( 0, "unknown command: " + textBetween( command, at ) );
+	}
+	return OTHER;
+    }
+
+    /** Read the rest of a gate definition
+     *  @param gates the list to which the new gate is added
+     */
+    private void readGate( List <Gate> gates ) {
+	if (!gateFields()) return;
+	Gate g = makeGate( number );
+	if (g != null) {
+	    gates.add( g );
+	    lineEnd( g );
+	}
+    }
+
+    /** Match the fields of a gate definition, leaving its name and kind
+     *  in field[0] to field[3] and its delay in number
+     *  @return false, after complaining, if a field is missing
+     */
+    private boolean gateFields() {
+	if (!name()) {
+	    report( 0, "name expected: gate ???" );
+	    return false;
+	}
+	field[0] = tokenStart;
+	field[1] = tokenLength;
+
+	if (!name()) {
+	    report( 0, "name expected: gate "
+		+ text( field[0], field[1] ) + " ???"
+	    );
+	    return false;
+	}
+	field[2] = tokenStart;
+	field[3] = tokenLength;
+
+	if (!number()) {
+	    report( 0, "Float expected: gate "
+		+ text( field[0], field[1] ) + " "
+		+ text( field[2], field[3] ) + " ???"
+	    );
+	    return false;
+	}
+	return true;
+    }
+
+    /** Check the fields of a gate definition and make the gate
+     *  @param delay the delay of the gate; its names are in field[]
+     *  @return the new gate, or null, after complaining, if there is none
+     */
+    private Gate makeGate( float delay ) {
+	int nameStart = field[0];
+	int nameLength = field[1];
+	int kindStart = field[2];
+	int kindLength = field[3];
+
+	if ((Logic.symbols.lookup( buf, nameStart, nameLength ) >= 0)
+	||  (Logic.symbols.hasInstances()
+	     && (Logic.symbols.instance( text( nameStart, nameLength ) )
+		 != null))) {
+	    report( 1, "Redefinition: gate "
+		+ text( nameStart, nameLength ) + " "
+		+ text( kindStart, kindLength )
+	    );
+	    return null;
+	}
+
+	if (delay < 0.0F) report( 1,
+	    "Negative delay: " + "gate "
+	    + text( nameStart, nameLength ) + " "
+	    + text( kindStart, kindLength ) + " " + delay
+	);
+
+	byte kind = Gate.UNKNOWN;
+	if (matches( kindStart, kindLength, "and" )) {
+	    kind = Gate.AND;
+	} else if (matches( kindStart, kindLength, "or" )) {
+	    kind = Gate.OR;
+	} else if (matches( kindStart, kindLength, "not" )) {
+	    kind = Gate.NOT;
+	} else if (matches( kindStart, kindLength, "nand" )) {
+	    kind = Gate.NAND;
+	} else if (matches( kindStart, kindLength, "nor" )) {
+	    kind = Gate.NOR;
+	} else if (matches( kindStart, kindLength, "xor" )) {
+	    kind = Gate.XOR;
+	} else if (matches( kindStart, kindLength, "xnor" )) {
+	    kind = Gate.XNOR;
+	} else if (matches( kindStart, kindLength, "const" )) {
+	    kind = Gate.CONST;
+	} else {
+	    report( 1, "Unknown gate kind: gate "
+		+ text( nameStart, nameLength ) + " "
+		+ text( kindStart, kindLength )
+	    );
+	    return null;
+	}
+
+	return Gate.make(
+	    Logic.symbols.intern( buf, nameStart, nameLength ), kind, delay
+	);
+    }
+
+    /** Read the rest of a wire definition
+     *  @param gates the list of gates, indexed by id
+     *  @param wires the list to which the new wire is added
+     */
+    private void readWire( List <Gate> gates, List <Wire> wires ) {
+	if (!wireFields()) return;
+
+	int source = Logic.symbols.lookup( buf, field[0], field[1] );
+	int destination = Logic.symbols.lookup( buf, field[4], field[5] );
+	boolean made = (source >= 0) && (destination >= 0)
+		    && (gates.get( source ) != null)
+		    && (gates.get( destination ) != null);
+	if (!made && Logic.symbols.hasInstances()) {
+	    // it may name instances of modules, or gates of instances
+	    // that made no Gate objects
+	    boolean hasDelay = number();
+	    String w = Module.connect( gates, wires,
+		text( field[0], field[1] ), pinName( field[2], field[3] ),
+		text( field[4], field[5] ), pinName( field[6], field[7] ),
+		hasDelay ? number : 0.0F, hasDelay
+	    );
+	    if (w != null) lineEnd( w );
+	    return;
+	}
+	if ((source < 0) || (destination < 0)) {
+	    noSuchGate( source < 0 );
+	    return;
+	}
+
+	// the pins are registered before a missing delay is reported
+	boolean hasDelay = number();
+	Wire w = new Wire(
+	    gates.get( source ), pinName( field[2], field[3] ),
+	    gates.get( destination ), pinName( field[6], field[7] ),
+	    hasDelay ? number : 0.0F
+	);
+	if (!hasDelay) {
+	    Errors.warn( "Float expected: wire "
+		+ text( field[0], field[1] ) + " "
+		+ text( field[2], field[3] ) + " "
+		+ text( field[4], field[5] ) + " "
+		+ text( field[6], field[7] ) + " ???"
+	    );
+	    return;
+	}
+	wires.add( w );
+	lineEnd( w );
+    }
+
+    /** Read the rest of a gate definition in a module
+     */
+    private void readModuleGate() {
+	if (!gateFields()) return;
+	String g = text( field[0], field[1] );
+	String k = text( field[2], field[3] );
+	if (defining.gate( g, k, number )) {
+	    lineEnd( "gate " + g + " " + k + " " + number );
+	}
+    }
+
+    /** Read the rest of a wire definition in a module
+     */
+    private void readModuleWire() {
+	if (!wireFields()) return;
+	String names = text( field[0], field[1] ) + " "
+	    + text( field[2], field[3] ) + " "
+	    + text( field[4], field[5] ) + " "
+	    + text( field[6], field[7] );
+	if (!number()) {
+	    Errors.warn( "Float expected: wire " + names + " ???" );
+	    return;
+	}
+	if (defining.wire(
+	    text( field[0], field[1] ), pinName( field[2], field[3] ),
+	    text( field[4], field[5] ), pinName( field[6], field[7] ), number
+	)) {
+	    lineEnd( "wire " + names + " " + number );
+	}
+    }
+
+    /** Read the rest of a line that defines or uses modules
+     *  @param command the kind of line, MODULE_LINE or one after it
+     *  @param gates the list to which the gates of an instance are added
+     *  @param wires the list to which the wires of an instance are added
+     *  @see Module
+     */
+    private void readHierarchy( int command, List <Gate> gates,
+				List <Wire> wires ) {
+	String keyword = (command == MODULE_LINE) ? "module"
+		       : (command == END_LINE) ? "end"
+		       : (command == INSTANCE_LINE) ? "instance"
+		       : (command == INPUT_LINE) ? "input" : "output";
+	int count = (command == MODULE_LINE) ? 1
+		  : (command == END_LINE) ? 0
+		  : (command == INSTANCE_LINE) ? 2 : 3;
+
+	// the names on the line, with the text so far for messages
+	String[] name = new String[count];
+	String line = keyword;
+	for (int i = 0; i < count; i++) {
+	    if (!name()) {
+		report( 0, "name expected: " + line + " ???" );
+		return;
+	    }
+	    name[i] = text( tokenStart, tokenLength );
+	    line = line + " " + name[i];
+	}
+
+	if (command == MODULE_LINE) {
+	    if (defining != null) {
+		report( 0, "Nested module: " + line );
+		return;
+	    }
+	    defining = new Module( name[0] );
+	} else if (command == END_LINE) {
+	    if (defining == null) {
+		report( 0, "Unmatched end" );
+		return;
+	    }
+	    defining.end();
+	    defining = null;
+	} else if (command == INSTANCE_LINE) {
+	    if (defining != null) {
+		if (!defining.instance( name[0], name[1] )) return;
+	    } else {
+		if (!Module.instance( name[0], name[1], gates, wires )) return;
+	    }
+	} else if (defining == null) {
+	    report( 0, "Port outside module: " + line );
+	    return;
+	} else if (command == INPUT_LINE) {
+	    if (!defining.input( name[0], name[1], name[2] )) return;
+	} else {
+	    if (!defining.output( name[0], name[1], name[2] )) return;
+	}
+	lineEnd( line );
+    }
+
+    /** Read the rest of a probe line
+     *  @param probes the list to which the probe is added
+     *  @see Probes
+     */
+    private void readProbe( List <String> probes ) {
+	skipBlanks();
+	int start = at;
+	while ((at < end) && Probes.isProbeChar( buf[at] )) at++;
+	if (at == start) {
+	    report( 0, "name expected: probe ???" );
+	    return;
+	}
+	String p = text( start, at - start );
+	probes.add( p );
+	lineEnd( "probe " + p );
+    }
+
+    /** Match the four names of a wire definition into field[0] to field[7]
+     *  @return false, after complaining, if a name is missing
+     */
+    private boolean wireFields() {
+	if (!name()) {
+	    report( 0, "name expected: wire ???" );
+	    return false;
+	}
+	field[0] = tokenStart;
+	field[1] = tokenLength;
+
+	if (!name()) {
+	    report( 0, "name expected: wire "
+		+ text( field[0], field[1] ) + " ???"
+	    );
+	    return false;
+	}
+	field[2] = tokenStart;
+	field[3] = tokenLength;
+
+	// these two messages leave out the source name, as Wire's do
+	if (!name()) {
+	    report( 0, "name expected: wire " + " "
+		+ text( field[2], field[3] ) + " ???"
+	    );
+	    return false;
+	}
+	field[4] = tokenStart;
+	field[5] = tokenLength;
+
+	if (!name()) {
+	    report( 0, "name expected: wire " + " "
+		+ text( field[2], field[3] ) + " "
+		+ text( field[4], field[5] ) + " ???"
+	    );
+	    return false;
+	}
+	field[6] = tokenStart;
+	field[7] = tokenLength;
+	return true;
+    }
+
+    // complain that a wire's source or destination gate, in field[], is
+    // not defined
+    private void noSuchGate( boolean source ) {
+	report( 0,
+	    (source ? "No such source gate: wire "
+		    : "No such destination gate: wire ")
+	    + text( field[0], field[1] ) + " "
+	    + text( field[2], field[3] ) + " "
+	    + text( field[4], field[5] ) + " "
+	    + text( field[6], field[7] )
+	);
+    }
+
+    /** Complain if there is junk at the end of the line
+     *  @param o the gate or wire just read, named in the message
+     *  @see ScanSupport#lineEnd
+     */
+    private void lineEnd( Object o ) {
+	String junk = junk( at, end );
+	if (junk != null) {
+	    report( 1, o.toString() + " followed unexpected by '" + junk + "'" );
+	}
+    }
+
+    /** @return the text from buf[from] up to buf[to], unless after blanks
+     *  it is empty or a comment; then null
+     */
+    private String junk( int from, int to ) {
+	while ((from < to) && ((buf[from] == ' ') || (buf[from] == '\t'))) {
+	    from++;
+	}
+	if ((from < to) && !matches( from, Math.min( 2, to - from ), "--" )) {
+	    return textBetween( from, to );
+	}
+	return null;
+    }
+
+    /** Report a problem with the current line, or, for a chunk, hold it
+     *  @param order orders the messages about one line of a chunk
+     *  @param message the message
+     */
+    private void report( int order, String message ) {
+	if (messages == null) {
+	    Errors.warn( message );
+	} else {
+	    messages.add( base + line, order, message );
+	}
+    }
+
+    /** Match a name, [a-zA-Z0-9_]*, after skipping blanks
+     *  @return true if the name is not empty
+     */
+    private boolean name() {
+	skipBlanks();
+	tokenStart = at;
+	while ((at < end) && isNameChar( buf[at] )) at++;
+	tokenLength = at - tokenStart;
+	return tokenLength > 0;
+    }
+
+    /** Match a number after skipping blanks, leaving its value in number
+     *  This accepts the same text as the pattern used by
+     *  {@link ScanSupport#nextFloat ScanSupport.nextFloat}, that is
+     *  -?[0-9][0-9]*\.?[0-9]* or \.[0-9][0-9]*
+     *  @return true if there was a number
+     */
+    private boolean number() {
+	skipBlanks();
+	int p = at;
+	boolean negative = false;
+	if ((p + 1 < end) && (buf[p] == '-') && isDigit( buf[p + 1] )) {
+	    negative = true;
+	    p++;
+	}
+	if ((p < end) && isDigit( buf[p] )) {
+	    // the first form
+	} else if ((p + 1 < end) && (buf[p] == '.') && isDigit( buf[p + 1] )) {
+	    // the second form, negative is false here
+	} else {
+	    return false;
+	}
+
+	// accumulate the digits, counting those after the point
+	long mantissa = 0;
+	int digits = 0;         // significant digits in mantissa
+	int fraction = -1;      // digits after the point, -1 if no point
+	boolean exact = true;   // false if mantissa lost digits
+	while (p < end) {
+	    byte c = buf[p];
+	    if (isDigit( c )) {
+		if (digits < 18) {
+		    mantissa = mantissa * 10 + (c - '0');
+		    if (mantissa != 0) digits++;
+		} else {
+		    exact = false;
+		}
+		if (fraction >= 0) fraction++;
+	    } else if ((c == '.') && (fraction < 0)) {
+		fraction = 0;
+	    } else {
+		break;
+	    }
+	    p++;
+	}
+	if (fraction < 0) fraction = 0;
+
+	// trailing zeros after the point do not change the value
+	while ((fraction > 0) && (mantissa % 10 == 0) && exact) {
+	    mantissa = mantissa / 10;
+	    fraction--;
+	}
+
+	// one float division is correctly rounded, as Float.parseFloat is,
+	// when both operands are exact floats
+	if (exact && (mantissa < (1 << 24)) && (fraction < POWERS.length)) {
+	    number = (float)mantissa / POWERS[fraction];
+	    if (negative) number = -number;
+	} else {
+	    number = Float.parseFloat(
+		new String( buf, at, p - at, StandardCharsets.ISO_8859_1 )
+	    );
+	}
+	at = p;
+	return true;
+    }
+
+    /** Advance to the next line of input, reading more input as needed
+     *  @return false at the end of the input
+     */
+    private boolean nextLine() {
+	int scan = next;
+	for (;;) {
+	    while (scan < limit) {
+		byte c = buf[scan];
+		if ((c == '\n') || (c == '\r')) {
+		    if ((c == '\r') && (scan + 1 == limit) && !eof) {
+			break; // can't yet tell if \n follows
+		    }
+		    line = next;
+		    end = scan;
+		    next = scan + 1;
+		    if ((c == '\r') && (next < limit) && (buf[next] == '\n')) {
+			next++;
+		    }
+		    at = line;
+		    return true;
+		}
+		scan++;
+	    }
+	    if (eof) {
+		if (next == limit) return false;
+		// a last line without a line end
+		line = next;
+		end = limit;
+		next = limit;
+		at = line;
+		return true;
+	    }
+	    scan = scan - next;
+	    fill();
+	}
+    }
+
+    /** Move the unread part of the buffer down and read more after it
+     */
+    private void fill() {
+	int unread = limit - next;
+	if (unread == buf.length) {
+	    byte[] bigger = new byte[buf.length * 2];
+	    System.arraycopy( buf, next, bigger, 0, unread );
+	    buf = bigger;
+	} else {
+	    System.arraycopy( buf, next, buf, 0, unread );
+	}
+	next = 0;
+	limit = unread;
+	try {
+	    int n = in.read( buf, limit, buf.length - limit );
+	    if (n < 0) {
+		eof = true;
+	    } else {
+		limit = limit + n;
+	    }
+	} catch (IOException e) {
+	    Errors.fatal( "Can't read the file" );
+	}
+    }
+
+    // skip blanks, which are only spaces and tabs as in ScanSupport
+    private void skipBlanks() {
+	while ((at < end) && ((buf[at] == ' ') || (buf[at] == '\t'))) at++;
+    }
+
+    // true if buf[off] to buf[off + len - 1] holds exactly the ASCII s
+    private boolean matches( int off, int len, String s ) {
+	if (len != s.length()) return false;
+	for (int i = 0; i < len; i++) {
+	    if (buf[off + i] != s.charAt( i )) return false;
+	}
+	return true;
+    }
+
+    // the pin name held in buf, using constant Strings for the usual ones
+    private String pinName( int off, int len ) {
+	if (matches( off, len, "out" )) return "out";
+	if (matches( off, len, "in" )) return "in";
+	if (matches( off, len, "in1" )) return "in1";
+	if (matches( off, len, "in2" )) return "in2";
+	if (matches( off, len, "true" )) return "true";
+	if (matches( off, len, "false" )) return "false";
+	return text( off, len );
+    }
+
+    // a String of a name of len bytes at buf[off], for messages
+    private String text( int off, int len ) {
+	return new String( buf, off, len, StandardCharsets.ISO_8859_1 );
+    }
+
+    // a String of the text from buf[from] up to buf[to], for messages;
+    // decoded as the Scanner would decode it
+    private String textBetween( int from, int to ) {
+	return new String( buf, from, to - from );
+    }
+
+    // the whitespace that separates commands, as in Scanner.next()
+    private static boolean isSpace( byte c ) {
+	return (c == ' ') || (c == '\t') || (c == '\f') || (c == 0x0B)
+	    || ((c >= 0x1C) && (c <= 0x1F));
+    }
+
+    private static boolean isDigit( byte c ) {
+	return (c >= '0') && (c <= '9');
+    }
+
+    private static boolean isNameChar( byte c ) {
+	return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))
+	    || ((c >= '0') && (c <= '9')) || (c == '_');
+    }
+}
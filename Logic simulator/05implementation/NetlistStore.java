@@ -0,0 +1,549 @@
+/* NetlistStore.java
+ * The compiled circuit kept off the heap, in direct or mapped memory
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/** A {@link NetlistKernel NetlistKernel} laid out in memory off the Java
+ *  heap, so that the garbage collector never scans or copies the circuit.
+ *  <p>
+ *  The store is built straight from the Gate and Wire objects and the
+ *  templates of {@link Module Module}s, never as a kernel on the heap.
+ *  Still, every gate and wire outside instances of modules must fit on
+ *  the heap once, as objects, while the store is built, and so must the
+ *  kind and delay of every gate; only the gates and wires of instances,
+ *  which make no objects for this engine, go to the store without.  A
+ *  store file that is already built needs none of this.
+ *  <p>
+ *  The store holds the same arrays as the kernel, with the names of the
+ *  gates and the probes of the description, each in {@link ByteBuffer
+ *  ByteBuffer} segments of at most 1 GB, so that an array may hold more
+ *  elements than a Java array can.  Gates are numbered by int, as
+ *  everywhere, but wires and bytes of names are numbered by long, since
+ *  the instances of a module may have more wires than an int can count,
+ *  and more bytes of names than a String can hold.  The
+ *  segments are either allocated directly, which -XX:MaxDirectMemorySize
+ *  limits, or mapped from a store file, which the operating system pages
+ *  in and out as needed and which may be bigger than memory.
+ *  <p>
+ *  A store file begins with a header: a magic number, a version, the
+ *  length and modification time of the circuit description it was made
+ *  from, and the numbers of gates, wires, bytes of names, probes and
+ *  bytes of probes, as longs.  After it come these sections, each padded
+ *  to a multiple of 8 bytes, all little-endian:
+ *  <ul>
+ *  <li>byte[gates], the kind code of each gate
+ *  <li>float[gates], the delay of each gate
+ *  <li>int[gates], the number of inputs of each gate
+ *  <li>long[gates + 1], where the wires from each gate begin
+ *  <li>int[wires], the destination gate of each wire
+ *  <li>int[wires], the input slot of the destination of each wire
+ *  <li>float[wires], the delay of each wire
+ *  <li>long[gates], where the name of each gate ends in the names
+ *  <li>byte[], the names, end to end
+ *  <li>long[probes], where each probe ends in the probes
+ *  <li>byte[], the probes, end to end
+ *  </ul>
+ *  Only wires that can carry a change are kept, as in the kernel.  A
+ *  store file that does not match its description is rejected, as an
+ *  image is, but there is no checksum, since checking one would read
+ *  the whole file before the simulation needs it.
+ *  <p>
+ *  The store is simulated with transport delay by its own loop, which
+ *  does what {@link NetlistKernel#run NetlistKernel.run} does, event for
+ *  event, and keeps its per gate state off the heap too.  The pending
+ *  events and the random streams of the gates are on the heap.
+ */
+final class NetlistStore {
+    // identifies store files, "LSTO" when read as bytes
+    private static final int MAGIC = 0x4F54534C;
+
+    // the format version, changed whenever the format changes
+    private static final int VERSION = 1;
+
+    // the header: magic, version, source length and time, gates, wires,
+    // bytes of names, probes, bytes of probes
+    private static final int HEADER = 4 + 4 + 8 + 8 + 8 + 8 + 8 + 8 + 8;
+
+    // a segment holds at most 1 << SEGMENT bytes
+    private static final int SEGMENT = 30;
+
+    /** An array of numbers off the heap, in segments
+     */
+    private static final class Segments {
+	private final ByteBuffer[] b;
+	private final int shift;    // log2 of the element size
+	private final int per;      // log2 of the elements per segment
+	private final long mask;
+
+	/** Allocate a direct array of zeros
+	 *  @param n the number of elements
+	 *  @param shift log2 of the size of an element in bytes
+	 */
+	Segments( long n, int shift ) {
+	    this.shift = shift;
+	    per = SEGMENT - shift;
+	    mask = (1L << per) - 1;
+	    b = new ByteBuffer[(int)((n + mask) >>> per)];
+	    for (int i = 0; i < b.length; i++) {
+		long left = n - ((long)i << per);
+		b[i] = ByteBuffer.allocateDirect(
+		    (int)(Math.min( left, 1L << per ) << shift)
+		).order( ByteOrder.LITTLE_ENDIAN );
+	    }
+	}
+
+	/** Map an array from a file
+	 *  @param f the file
+	 *  @param mode READ_ONLY or READ_WRITE
+	 *  @param at where in the file the array begins
+	 *  @param n the number of elements
+	 *  @param shift log2 of the size of an element in bytes
+	 *  @throws IOException if the file cannot be mapped
+	 */
+	Segments( FileChannel f, FileChannel.MapMode mode, long at, long n,
+		  int shift ) throws IOException {
+	    this.shift = shift;
+	    per = SEGMENT - shift;
+	    mask = (1L << per) - 1;
+	    b = new ByteBuffer[(int)((n + mask) >>> per)];
+	    for (int i = 0; i < b.length; i++) {
+		long left = n - ((long)i << per);
+		b[i] = f.map(
+		    mode, at + ((long)i << SEGMENT),
+		    Math.min( left, 1L << per ) << shift
+		).order( ByteOrder.LITTLE_ENDIAN );
+	    }
+	}
+
+	byte getByte( long i ) {
+	    return b[(int)(i >>> per)].get( (int)(i & mask) );
+	}
+
+	int getInt( long i ) {
+	    return b[(int)(i >>> per)].getInt( (int)(i & mask) << 2 );
+	}
+
+	float getFloat( long i ) {
+	    return b[(int)(i >>> per)].getFloat( (int)(i & mask) << 2 );
+	}
+
+	long getLong( long i ) {
+	    return b[(int)(i >>> per)].getLong( (int)(i & mask) << 3 );
+	}
+
+	void put( long i, byte v ) {
+	    b[(int)(i >>> per)].put( (int)(i & mask), v );
+	}
+
+	void put( long i, int v ) {
+	    b[(int)(i >>> per)].putInt( (int)(i & mask) << 2, v );
+	}
+
+	void put( long i, float v ) {
+	    b[(int)(i >>> per)].putFloat( (int)(i & mask) << 2, v );
+	}
+
+	void put( long i, long v ) {
+	    b[(int)(i >>> per)].putLong( (int)(i & mask) << 3, v );
+	}
+    }
+
+    /** the number of gates */
+    final int gates;
+
+    // the number of wires, bytes of names, probes and bytes of probes
+    private final long wires;
+    private final long nameBytes;
+    private final long probeCount;
+    private final long probeBytes;
+
+    // the sections, as listed above
+    private final Segments kind;
+    private final Segments delay;
+    private final Segments inputs;
+    private final Segments fanout;
+    private final Segments wireDst;
+    private final Segments wireSlot;
+    private final Segments wireDelay;
+    private final Segments nameEnds;
+    private final Segments names;
+    private final Segments probeEnds;
+    private final Segments probes;
+
+    /** Make the sections of a store, mapped from a file or, if f is
+     *  null, allocated directly
+     */
+    private NetlistStore( FileChannel f, FileChannel.MapMode mode,
+			  int gates, long wires, long nameBytes,
+			  long probeCount, long probeBytes )
+	throws IOException
+    {
+	this.gates = gates;
+	this.wires = wires;
+	this.nameBytes = nameBytes;
+	this.probeCount = probeCount;
+	this.probeBytes = probeBytes;
+	long[] at = { HEADER };
+	kind = section( f, mode, at, gates, 0 );
+	delay = section( f, mode, at, gates, 2 );
+	inputs = section( f, mode, at, gates, 2 );
+	fanout = section( f, mode, at, gates + 1L, 3 );
+	wireDst = section( f, mode, at, wires, 2 );
+	wireSlot = section( f, mode, at, wires, 2 );
+	wireDelay = section( f, mode, at, wires, 2 );
+	nameEnds = section( f, mode, at, gates, 3 );
+	names = section( f, mode, at, nameBytes, 0 );
+	probeEnds = section( f, mode, at, probeCount, 3 );
+	probes = section( f, mode, at, probeBytes, 0 );
+    }
+
+    // make the section at at[0], and advance at[0] past it
+    private static Segments section( FileChannel f, FileChannel.MapMode mode,
+				     long[] at, long n, int shift )
+	throws IOException
+    {
+	Segments s = (f == null) ? new Segments( n, shift )
+				 : new Segments( f, mode, at[0], n, shift );
+	at[0] = at[0] + align( n << shift );
+	return s;
+    }
+
+    // the size of a store file
+    private static long size( long gates, long wires, long nameBytes,
+			      long probeCount, long probeBytes ) {
+	return HEADER + align( gates ) + 2 * align( 4 * gates )
+	     + 8 * (gates + 1) + 3 * align( 4 * wires ) + 8 * gates
+	     + align( nameBytes ) + 8 * probeCount + align( probeBytes );
+    }
+
+    // bytes, rounded up to a multiple of 8
+    private static long align( long bytes ) {
+	return (bytes + 7) & ~7L;
+    }
+
+    /** Lay a checked circuit out in a store, placing its wires as
+     *  {@link NetlistKernel#compile NetlistKernel.compile} does, without
+     *  making the kernel first
+     *  @param table all the gates, such that table[i].id == i, or null
+     *  for the gates of instances that made no Gate objects
+     *  @param wireList all the Wire objects, in the order they were read
+     *  @param probeList the probes of the circuit description
+     *  @param fileName the store file to write, or null to allocate the
+     *  store directly
+     *  @param source the circuit description, whose length and time are
+     *  written to the file
+     *  @return the store
+     *  @throws IOException if the file cannot be written
+     */
+    static NetlistStore build( Gate[] table, List <Wire> wireList,
+			       List <String> probeList,
+			       String fileName, File source )
+	throws IOException
+    {
+	int n = table.length;
+	byte[] kind = new byte[n];
+	float[] delay = new float[n];
+	NetlistKernel.gates( table, kind, delay );
+
+	// only wires that can carry a change are kept, as in the kernel
+	long[] live = { 0 };
+	Module.wires( wireList, ( src, sp, dst, dp, d ) -> {
+	    if (Gate.canChange( kind[src], sp )) live[0]++;
+	} );
+	long w = live[0];
+	long nb = 0;
+	for (int g = 0; g < n; g++) nb = nb + Logic.symbols.name( g ).length();
+	long pb = 0;
+	for (String p: probeList) pb = pb + p.length();
+
+	NetlistStore s;
+	if (fileName == null) {
+	    s = new NetlistStore( null, null, n, w, nb, probeList.size(), pb );
+	} else {
+	    try (FileChannel f = FileChannel.open( Paths.get( fileName ),
+		StandardOpenOption.READ, StandardOpenOption.WRITE,
+		StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING
+	    )) {
+		ByteBuffer h = ByteBuffer.allocate( HEADER )
+		    .order( ByteOrder.LITTLE_ENDIAN );
+		h.putInt( MAGIC ).putInt( VERSION )
+		 .putLong( source.length() ).putLong( source.lastModified() )
+		 .putLong( n ).putLong( w ).putLong( nb )
+		 .putLong( probeList.size() ).putLong( pb ).flip();
+		while (h.hasRemaining()) f.write( h, h.position() );
+		// mapping empty or padded sections would not extend it
+		f.write( ByteBuffer.allocate( 1 ),
+			 size( n, w, nb, probeList.size(), pb ) - 1 );
+		s = new NetlistStore( f, FileChannel.MapMode.READ_WRITE,
+		    n, w, nb, probeList.size(), pb
+		);
+	    }
+	}
+
+	for (int g = 0; g < n; g++) {
+	    s.kind.put( g, kind[g] );
+	    s.delay.put( g, delay[g] );
+	}
+
+	// count the wires out of and into each gate, the sections start
+	// as zeros, then make fanout[g] where the wires from g begin
+	Module.wires( wireList, ( src, sp, dst, dp, d ) -> {
+	    if (Gate.canChange( kind[src], sp )) {
+		s.fanout.put( src, s.fanout.getLong( src ) + 1 );
+	    }
+	    s.inputs.put( dst, s.inputs.getInt( dst ) + 1 );
+	} );
+	long end = 0;
+	for (int g = 0; g < n; g++) {
+	    long count = s.fanout.getLong( g );
+	    s.fanout.put( g, end );
+	    end = end + count;
+	}
+
+	// place the wires in the order they were read, as the kernel
+	// does, which leaves fanout[g] where the wires from g end, that
+	// is, where those from g + 1 begin
+	Module.wires( wireList, ( src, sp, dst, dp, d ) -> {
+	    if (!Gate.canChange( kind[src], sp )) return;
+	    long i = s.fanout.getLong( src );
+	    s.fanout.put( src, i + 1 );
+	    s.wireDst.put( i, dst );
+	    s.wireSlot.put( i, NetlistKernel.slotOf( kind[dst], dp ) );
+	    s.wireDelay.put( i, d );
+	} );
+	for (int g = n; g > 0; g--) {
+	    s.fanout.put( g, s.fanout.getLong( g - 1 ) );
+	}
+	s.fanout.put( 0, 0L );
+
+	end = 0;
+	for (int g = 0; g < n; g++) {
+	    String name = Logic.symbols.name( g );
+	    for (int c = 0; c < name.length(); c++) {
+		s.names.put( end++, (byte)name.charAt( c ) );
+	    }
+	    s.nameEnds.put( g, end );
+	}
+	end = 0;
+	for (int i = 0; i < probeList.size(); i++) {
+	    String p = probeList.get( i );
+	    for (int c = 0; c < p.length(); c++) {
+		s.probes.put( end++, (byte)p.charAt( c ) );
+	    }
+	    s.probeEnds.put( i, end );
+	}
+	return s;
+    }
+
+    /** Load a store file, if it is a good one
+     *  The sections are mapped, not read; they are paged in as used.
+     *  @param fileName the name of the store file
+     *  @param source the circuit description the store should match
+     *  @param why set to why the store was rejected, if it was, or to
+     *  null if there is no store file yet
+     *  @return the store, or null if it was rejected or there is none
+     *  @throws IOException if the file exists but cannot be read
+     */
+    static NetlistStore load( String fileName, File source, String[] why )
+	throws IOException
+    {
+	try (FileChannel f = FileChannel.open( Paths.get( fileName ) )) {
+	    if (f.size() < HEADER) {
+		why[0] = "not a circuit store";
+		return null;
+	    }
+	    ByteBuffer h = ByteBuffer.allocate( HEADER )
+		.order( ByteOrder.LITTLE_ENDIAN );
+	    while (h.hasRemaining()) {
+		if (f.read( h, h.position() ) < 0) break;
+	    }
+	    h.flip();
+	    if (h.getInt() != MAGIC) {
+		why[0] = "not a circuit store";
+		return null;
+	    }
+	    int version = h.getInt();
+	    if (version != VERSION) {
+		why[0] = "version " + version + ", expected " + VERSION;
+		return null;
+	    }
+	    if ((h.getLong() != source.length())
+	    ||  (h.getLong() != source.lastModified())) {
+		why[0] = "out of date";
+		return null;
+	    }
+	    long n = h.getLong();
+	    long w = h.getLong();
+	    long nb = h.getLong();
+	    long p = h.getLong();
+	    long pb = h.getLong();
+	    if ((n < 0) || (n > Integer.MAX_VALUE) || (w < 0) || (nb < 0)
+	    ||  (p < 0) || (pb < 0) || (size( n, w, nb, p, pb ) != f.size())) {
+		why[0] = "damaged";
+		return null;
+	    }
+	    return new NetlistStore(
+		f, FileChannel.MapMode.READ_ONLY, (int)n, w, nb, p, pb
+	    );
+	} catch (NoSuchFileException e) {
+	    // the store is about to be made, which is nothing to report
+	    why[0] = null;
+	    return null;
+	}
+    }
+
+    /** @return the probes of the circuit description
+     *  @param into the list to which they are added
+     */
+    void probes( List <String> into ) {
+	long start = 0;
+	for (long i = 0; i < probeCount; i++) {
+	    long end = probeEnds.getLong( i );
+	    into.add( text( probes, start, end ) );
+	    start = end;
+	}
+    }
+
+    /** @return the name of a gate
+     *  @param g the gate
+     */
+    String name( int g ) {
+	long start = (g == 0) ? 0 : nameEnds.getLong( g - 1 );
+	return text( names, start, nameEnds.getLong( g ) );
+    }
+
+    // the text of bytes start up to end of s
+    private static String text( Segments s, long start, long end ) {
+	byte[] b = new byte[(int)(end - start)];
+	for (int i = 0; i < b.length; i++) b[i] = s.getByte( start + i );
+	return new String( b, StandardCharsets.ISO_8859_1 );
+    }
+
+    /** @return a gate described as Gate.toString() does
+     *  @param g the gate
+     */
+    String describe( int g ) {
+	return "gate " + name( g ) + " " + Gate.kindName( kind.getByte( g ) )
+	    + " " + delay.getFloat( g );
+    }
+
+    /** Append the trace line of a change, as Gate.traceLine does
+     *  @param b where the line is appended
+     *  @param g the gate
+     *  @param time when its output changed
+     *  @param v the new value
+     */
+    void traceLine( StringBuilder b, int g, float time, boolean v ) {
+	b.append( "At " ).append( time ).append( " " )
+	 .append( describe( g ) );
+	if (kind.getByte( g ) == NetlistKernel.CONST) {
+	    b.append( " true " ).append( " changes to true" );
+	} else {
+	    b.append( " out " ).append( " changes to " ).append( v );
+	}
+    }
+
+    // per gate state bits, in the state array of run
+    private static final byte VALUE = 1;       // value computed from inputs
+    private static final byte OUT_VALUE = 2;   // most recent output value
+
+    /** Simulate the circuit with transport delay, printing the same trace
+     *  as NetlistKernel.run
+     *  @param events an empty event set to hold the pending events
+     *  @param prng the family of streams the gates draw from
+     *  @param observer told of each output change
+     *  @param limit the simulation stops before any event after this time
+     *  @param most the simulation stops after this many events
+     */
+    void run( EventSet events, PRNG prng, NetlistKernel.Observer observer,
+	      float limit, long most ) {
+	// the simulation state, as kept by the gates
+	Segments trueInputs = new Segments( gates, 2 );
+	Segments state = new Segments( gates, 0 );
+	Segments scheduled = new Segments( gates, 3 );
+	prng.streams( gates );
+
+	// launch the simulation as Gate.checkSanity does
+	for (int g = 0; g < gates; g++) {
+	    byte k = kind.getByte( g );
+	    if ((k != NetlistKernel.CONST)
+	    &&  !NetlistKernel.value( k, 0, inputs.getInt( g ) )) continue;
+	    if (k != NetlistKernel.CONST) state.put( g, VALUE );
+	    events.add(
+		delay.getFloat( g ), EventSet.key( g, next( scheduled, g ) ),
+		g, Simulator.OUTPUT, false
+	    );
+	}
+
+	long count = 0;     // events simulated
+	while (!events.isEmpty() && (count < most)) {
+	    events.removeFirst();
+	    float time = events.time;
+	    if (time > limit) break;
+	    count = count + 1;
+	    int g = events.target;
+	    byte k = kind.getByte( g );
+	    byte s = state.getByte( g );
+
+	    if (events.pin == Simulator.OUTPUT) {
+		boolean v;
+		if (k == NetlistKernel.CONST) {
+		    v = true;
+		} else {
+		    v = (s & VALUE) != 0;
+		    if (v == ((s & OUT_VALUE) != 0)) continue;
+		    s = (byte)(v ? (s | OUT_VALUE) : (s & ~OUT_VALUE));
+		    state.put( g, s );
+		}
+		observer.change( time, g, v );
+		long last = fanout.getLong( g + 1 );
+		for (long w = fanout.getLong( g ); w < last; w++) {
+		    events.add(
+			time + wireDelay.getFloat( w ),
+			EventSet.key( g, next( scheduled, g ) ),
+			wireDst.getInt( w ), wireSlot.getInt( w ), v
+		    );
+		}
+	    } else {
+		if (k == NetlistKernel.CONST) {
+		    Errors.fatal(
+			"Input should never change: " + describe( g )
+		    );
+		    return;
+		}
+		int in = trueInputs.getInt( g ) + (events.value ? 1 : -1);
+		trueInputs.put( g, in );
+		boolean newVal
+		    = NetlistKernel.value( k, in, inputs.getInt( g ) );
+		boolean value = (s & VALUE) != 0;
+
+		// not gates schedule an output event on every input change
+		if ((newVal == value) && (k != NetlistKernel.NOT)) continue;
+		state.put( g, (byte)(newVal ? (s | VALUE) : (s & ~VALUE)) );
+		float d = delay.getFloat( g );
+		events.add(
+		    time + (d * 0.95f) + prng.nextFloat( g, d * 0.1f ),
+		    EventSet.key( g, next( scheduled, g ) ),
+		    g, Simulator.OUTPUT, false
+		);
+	    }
+	}
+    }
+
+    // the count of events a gate has scheduled, then counted one more
+    private static long next( Segments scheduled, int g ) {
+	long n = scheduled.getLong( g );
+	scheduled.put( g, n + 1 );
+	return n;
+    }
+}
@@ -0,0 +1,550 @@
+/* OptimisticEngine.java
+ * Optimistic parallel simulation of a compiled circuit, with rollback
+ * After D. R. Jefferson, Virtual Time, ACM TOPLAS 7, 3 (July 1985)
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Simulates a {@link NetlistKernel NetlistKernel} on several threads by
+ *  Time Warp.
+ *  The gates are partitioned among logical processes as for the {@link
+ *  ConservativeEngine ConservativeEngine}, but a process does not wait
+ *  to be sure no earlier message will arrive: it simulates its pending
+ *  events as fast as it can, and keeps a history of what it did.  When
+ *  a straggler arrives, a message that should have come before events
+ *  already simulated, the process rolls back those events and simulates
+ *  them again.  Rolling back an event that sent messages sends an
+ *  anti-message for each, which annihilates the message if it is still
+ *  pending at the receiver, or rolls the receiver back if not.
+ *  <p>
+ *  State is saved incrementally: each event only changes the state of
+ *  its own gate, so the history keeps, per event, the value and output
+ *  value of that gate before the event, and whether it drew a random
+ *  delay, which is given back to the gate's {@link PRNG PRNG} stream on
+ *  rollback.  The count of true inputs needs no saving, since an input
+ *  event changes it by one, which rollback takes back.
+ *  <p>
+ *  From time to time the processes meet to compute the global virtual
+ *  time, the time of the earliest event pending anywhere once no message
+ *  is in transit.  Nothing earlier than that can be rolled back, so
+ *  history before it is committed: its changes are logged to the trace
+ *  and its records are discarded.  Only committed changes reach the
+ *  trace, merged by {@link ChangeLog ChangeLog}, so the trace is the same
+ *  as that of {@link NetlistKernel#run NetlistKernel.run}.
+ */
+final class OptimisticEngine {
+    // events a process simulates between computations of global time
+    private static final int EPOCH = 1 << 12;
+
+    // events a process simulates between sending and receiving messages
+    private static final int BURST = 64;
+
+    // the bits of the state saved with each event in the history
+    private static final int VALUE = 1;         // value before
+    private static final int OUT_VALUE = 2;     // output value before
+    private static final int DREW = 4;          // a random delay was drawn
+    private static final int CHANGED = 8;       // the output changed
+    private static final int CHANGED_TRUE = 16; // it changed to true
+
+    // the circuit
+    private final NetlistKernel k;
+
+    // per gate, the number of the process that simulates it
+    private final int[] part;
+
+    // the simulation state, as kept by the gates; each element is only
+    // used by the process that simulates its gate
+    private final int[] inputs;
+    private final boolean[] value;
+    private final boolean[] outValue;
+    private final long[] scheduled;
+
+    // the streams the gates draw their delays from
+    private final PRNG prng = PRNG.shared();
+
+    // the logical processes
+    private final LogicalProcess[] processes;
+
+    // messages sent but not yet handled by their receivers
+    private final AtomicLong inFlight = new AtomicLong();
+
+    // where the processes meet to compute global virtual time, and the
+    // earliest event pending in each when they do
+    private final Phaser meeting;
+    private final float[] earliest;
+
+    /** Prepare to simulate a circuit
+     *  @param k the compiled circuit
+     *  @param parts the number of processes, each with its own thread
+     */
+    OptimisticEngine( NetlistKernel k, int parts ) {
+	int n = k.gates;
+	this.k = k;
+	parts = Math.max( 1, Math.min( parts, n ) );
+	part = Partitioner.partition( k, parts );
+	inputs = new int[n];
+	value = new boolean[n];
+	outValue = new boolean[n];
+	scheduled = new long[n];
+
+	int[] size = new int[parts];
+	for (int g = 0; g < n; g++) size[part[g]]++;
+	processes = new LogicalProcess[parts];
+	for (int p = 0; p < parts; p++) {
+	    processes[p] = new LogicalProcess( p, new int[size[p]], parts );
+	    size[p] = 0;
+	}
+	for (int g = 0; g < n; g++) {
+	    LogicalProcess p = processes[part[g]];
+	    p.members[size[p.id]++] = g;
+	}
+	meeting = new Phaser( parts );
+	earliest = new float[parts];
+    }
+
+    /** Simulate the circuit, printing the same trace as NetlistKernel.run
+     *  The calling thread merges the trace while the processes run.
+     */
+    void run() {
+	for (LogicalProcess p: processes) p.launch();
+	for (LogicalProcess p: processes) {
+	    p.thread = new Thread( p, "simulation process " + p.id );
+	    p.thread.setDaemon( true );
+	    p.thread.start();
+	}
+	ChangeLog[] logs = new ChangeLog[processes.length];
+	for (LogicalProcess p: processes) logs[p.id] = p.log;
+	ChangeLog.merge( logs );
+	for (LogicalProcess p: processes) {
+	    try {
+		p.thread.join();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    // the pin field of the anti-message for a message to a pin, and back
+    private static int anti( int pin ) {
+	return -2 - pin;
+    }
+
+    /** An event, as the key of an event that is to be annihilated
+     */
+    private static final class Cancel {
+	final float time;
+	final long key;
+	final int target;
+	final int pin;
+	final boolean value;
+
+	Cancel( float time, long key, int target, int pin, boolean value ) {
+	    this.time = time;
+	    this.key = key;
+	    this.target = target;
+	    this.pin = pin;
+	    this.value = value;
+	}
+
+	public boolean equals( Object o ) {
+	    if (!(o instanceof Cancel)) return false;
+	    Cancel c = (Cancel)o;
+	    return (time == c.time) && (key == c.key) && (target == c.target)
+		&& (pin == c.pin) && (value == c.value);
+	}
+
+	public int hashCode() {
+	    return Objects.hash( time, key, target, pin, value );
+	}
+    }
+
+    /** A logical process, simulating its share of the gates
+     */
+    private final class LogicalProcess implements Runnable {
+	final int id;
+	final int[] members;
+
+	// messages from other processes, and those being sent to them
+	final ConcurrentLinkedQueue <EventBatch> inbox
+	    = new ConcurrentLinkedQueue <EventBatch> ();
+	private final EventBatch[] outbox;
+
+	// pending events, and events to skip when they come out, counted
+	private final EventHeap pending = new EventHeap();
+	private final HashMap <Cancel, Integer> cancelled
+	    = new HashMap <Cancel, Integer> ();
+
+	// the history of events simulated since the last commit, in the
+	// order simulated, with the saved state and where in the sent
+	// log the events each of them scheduled begin
+	private int history = 0;
+	private float[] hTime = new float[1024];
+	private long[] hKey = new long[1024];
+	private int[] hTarget = new int[1024];
+	private int[] hPin = new int[1024];
+	private boolean[] hValue = new boolean[1024];
+	private byte[] hSaved = new byte[1024];
+	private long[] hLatest = new long[1024];
+	private int[] hSent = new int[1024];
+
+	// the events scheduled by the events in the history
+	private final EventBatch sent = new EventBatch();
+
+	// the time of the latest event, and the latest key at that time,
+	// and the same for the last event committed
+	private float now = -1.0F;
+	private long latest = 0;
+	private float committedNow = -1.0F;
+	private long committedLatest = 0;
+
+	// committed changes
+	final ChangeLog log = new ChangeLog();
+
+	Thread thread;
+
+	LogicalProcess( int id, int[] members, int parts ) {
+	    this.id = id;
+	    this.members = members;
+	    this.outbox = new EventBatch[parts];
+	}
+
+	/** schedule the first events, as Gate.checkSanity does
+	 */
+	void launch() {
+	    for (int g: members) {
+		if (k.launched( g )) {
+		    if (k.kind[g] != NetlistKernel.CONST) value[g] = true;
+		    pending.add(
+			k.delay[g], EventSet.key( g, scheduled[g]++ ),
+			g, Simulator.OUTPUT, false
+		    );
+		}
+	    }
+	}
+
+	public void run() {
+	    try {
+		for (;;) {
+		    advance();
+		    float gvt = agree();
+		    commit( gvt );
+		    if (gvt == Float.POSITIVE_INFINITY) break;
+		}
+	    } catch (RuntimeException | Error e) {
+		Errors.fatal( "Simulation process failed: " + e );
+	    }
+	}
+
+	// simulate optimistically for one epoch, or until out of events
+	private void advance() {
+	    for (int n = 0; n < EPOCH; n++) {
+		if (n % BURST == 0) {
+		    send();
+		    receive();
+		}
+		if (!next()) break;
+		simulate();
+	    }
+	    send();
+	}
+
+	/** meet the other processes and agree on the global virtual time
+	 *  @return the time, no later event will ever be rolled back
+	 */
+	private float agree() {
+	    // all have sent all they will send until all is received
+	    meeting.arriveAndAwaitAdvance();
+	    while (inFlight.get() != 0) {
+		receive();
+		Thread.yield();
+	    }
+	    earliest[id] = pending.isEmpty()
+			 ? Float.POSITIVE_INFINITY : pending.firstTime();
+	    meeting.arriveAndAwaitAdvance();
+	    float gvt = Float.POSITIVE_INFINITY;
+	    for (float t: earliest) gvt = Math.min( gvt, t );
+	    return gvt;
+	}
+
+	// send the messages gathered for other processes
+	private void send() {
+	    for (int p = 0; p < outbox.length; p++) {
+		EventBatch b = outbox[p];
+		if ((b == null) || (b.count == 0)) continue;
+		inFlight.addAndGet( b.count );
+		processes[p].inbox.add( b );
+		outbox[p] = new EventBatch();
+	    }
+	}
+
+	// take the messages that have arrived, rolling back as needed
+	private void receive() {
+	    for (;;) {
+		EventBatch b = inbox.poll();
+		if (b == null) return;
+		for (int i = 0; i < b.count; i++) {
+		    float t = b.time[i];
+		    long key = b.key[i];
+		    if (b.pin[i] >= 0) {
+			rollBack( firstAfter( t, key ) );
+			pending.add( t, key, b.target[i], b.pin[i], b.value[i] );
+		    } else {
+			annihilate( new Cancel(
+			    t, key, b.target[i], anti( b.pin[i] ), b.value[i]
+			) );
+		    }
+		}
+		// any anti-messages go out before this batch counts as done
+		send();
+		inFlight.addAndGet( -b.count );
+	    }
+	}
+
+	/** find where an event that arrives late belongs in the history
+	 *  The process always simulates its earliest pending event, so the
+	 *  event would have been simulated instead of the first event in
+	 *  the history that comes after it.
+	 *  @param t the time of the event
+	 *  @param key its key
+	 *  @return the index of that first event, or history if none
+	 */
+	private int firstAfter( float t, long key ) {
+	    int i = history;
+	    while ((i > 0) && (hTime[i - 1] >= t)) i--;
+	    while ((i < history) && (hTime[i] == t) && (hKey[i] < key)) i++;
+	    return i;
+	}
+
+	// make sure an event never happens, whether simulated or pending
+	private void annihilate( Cancel c ) {
+	    int i = history;
+	    while ((i > 0) && (hTime[i - 1] >= c.time)) {
+		i--;
+		if ((hKey[i] == c.key) && (hTime[i] == c.time)
+		&&  (hTarget[i] == c.target) && (hPin[i] == c.pin)
+		&&  (hValue[i] == c.value)) {
+		    // simulated; undo it, which makes it pending again
+		    rollBack( i );
+		    break;
+		}
+	    }
+	    cancelled.merge( c, 1, Integer::sum );
+	}
+
+	// take the next pending event that was not annihilated
+	private boolean next() {
+	    for (;;) {
+		if (pending.isEmpty()) return false;
+		pending.removeFirst();
+		if (cancelled.isEmpty()) return true;
+		Cancel c = new Cancel(
+		    pending.time, pending.key,
+		    pending.target, pending.pin, pending.value
+		);
+		Integer n = cancelled.get( c );
+		if (n == null) return true;
+		if (n == 1) {
+		    cancelled.remove( c );
+		} else {
+		    cancelled.put( c, n - 1 );
+		}
+	    }
+	}
+
+	/** simulate the event just taken from pending, as NetlistKernel.run
+	 *  does, and add it to the history
+	 */
+	private void simulate() {
+	    float time = pending.time;
+	    int g = pending.target;
+	    int pin = pending.pin;
+	    byte kind = k.kind[g];
+	    if (time != now) {
+		now = time;
+		latest = pending.key;
+	    } else if (pending.key > latest) {
+		latest = pending.key;
+	    }
+
+	    int saved = 0;
+	    if (value[g]) saved = saved | VALUE;
+	    if (outValue[g]) saved = saved | OUT_VALUE;
+	    int h = remember( time, pending.key, g, pin, pending.value );
+
+	    if (pin == Simulator.OUTPUT) {
+		boolean v;
+		if (kind == NetlistKernel.CONST) {
+		    v = true;
+		} else {
+		    v = value[g];
+		    if (v == outValue[g]) {
+			hSaved[h] = (byte)saved;
+			return;
+		    }
+		    outValue[g] = v;
+		}
+		saved = saved | CHANGED;
+		if (v) saved = saved | CHANGED_TRUE;
+		for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		    schedule(
+			time + k.wireDelay[w], g, k.wireDst[w], k.wireSlot[w], v
+		    );
+		}
+	    } else {
+		// wires never lead to const gates in a circuit without errors
+		int in = inputs[g] + (pending.value ? 1 : -1);
+		inputs[g] = in;
+		boolean newVal = NetlistKernel.value(
+		    kind, in, k.fanin[g + 1] - k.fanin[g]
+		);
+
+		// not gates schedule an output event on every input change
+		if ((newVal != value[g]) || (kind == NetlistKernel.NOT)) {
+		    value[g] = newVal;
+		    float d = k.delay[g];
+		    saved = saved | DREW;
+		    schedule(
+			time + (d * 0.95f) + prng.nextFloat( g, d * 0.1f ),
+			g, g, Simulator.OUTPUT, false
+		    );
+		}
+	    }
+	    hSaved[h] = (byte)saved;
+	}
+
+	// add an event to the end of the history, returning its index
+	private int remember( float t, long key, int g, int pin, boolean v ) {
+	    if (history == hTime.length) {
+		int n = history * 2;
+		hTime = Arrays.copyOf( hTime, n );
+		hKey = Arrays.copyOf( hKey, n );
+		hTarget = Arrays.copyOf( hTarget, n );
+		hPin = Arrays.copyOf( hPin, n );
+		hValue = Arrays.copyOf( hValue, n );
+		hSaved = Arrays.copyOf( hSaved, n );
+		hLatest = Arrays.copyOf( hLatest, n );
+		hSent = Arrays.copyOf( hSent, n );
+	    }
+	    int h = history;
+	    hTime[h] = t;
+	    hKey[h] = key;
+	    hTarget[h] = g;
+	    hPin[h] = pin;
+	    hValue[h] = v;
+	    hLatest[h] = latest;
+	    hSent[h] = sent.count;
+	    history = h + 1;
+	    return h;
+	}
+
+	// schedule an event for gate d, here or in its own process
+	private void schedule( float t, int g, int d, int pin, boolean v ) {
+	    long key = EventSet.key( g, scheduled[g]++ );
+	    int p = part[d];
+	    sent.add( t, key, d, pin, v );
+	    if (p == id) {
+		pending.add( t, key, d, pin, v );
+	    } else {
+		if (outbox[p] == null) outbox[p] = new EventBatch();
+		outbox[p].add( t, key, d, pin, v );
+	    }
+	}
+
+	/** undo the events in the history from index to the end, latest
+	 *  first, making them pending again
+	 *  @param index the first event undone
+	 */
+	private void rollBack( int index ) {
+	    while (history > index) {
+		int h = history - 1;
+		int g = hTarget[h];
+		int saved = hSaved[h];
+		if (hPin[h] != Simulator.OUTPUT) {
+		    // the event added or took one from the true inputs
+		    inputs[g] = inputs[g] - (hValue[h] ? 1 : -1);
+		}
+		value[g] = (saved & VALUE) != 0;
+		outValue[g] = (saved & OUT_VALUE) != 0;
+		if ((saved & DREW) != 0) prng.undraw( g );
+
+		// annihilate what it scheduled, here or by anti-message
+		int first = hSent[h];
+		scheduled[g] = scheduled[g] - (sent.count - first);
+		for (int s = sent.count - 1; s >= first; s--) {
+		    int p = part[sent.target[s]];
+		    if (p == id) {
+			cancelled.merge( new Cancel(
+			    sent.time[s], sent.key[s],
+			    sent.target[s], sent.pin[s], sent.value[s]
+			), 1, Integer::sum );
+		    } else {
+			if (outbox[p] == null) outbox[p] = new EventBatch();
+			outbox[p].add(
+			    sent.time[s], sent.key[s], sent.target[s],
+			    anti( sent.pin[s] ), sent.value[s]
+			);
+		    }
+		}
+		sent.count = first;
+
+		pending.add( hTime[h], hKey[h], g, hPin[h], hValue[h] );
+		history = h;
+	    }
+	    if (history > 0) {
+		now = hTime[history - 1];
+		latest = hLatest[history - 1];
+	    } else {
+		now = committedNow;
+		latest = committedLatest;
+	    }
+	}
+
+	/** commit the history before the global virtual time, logging its
+	 *  changes and discarding it
+	 *  @param gvt the global virtual time
+	 */
+	private void commit( float gvt ) {
+	    int n = 0;
+	    while ((n < history) && (hTime[n] < gvt)) {
+		int saved = hSaved[n];
+		if ((saved & CHANGED) != 0) {
+		    log.add(
+			hTime[n], hLatest[n], hTarget[n],
+			(saved & CHANGED_TRUE) != 0
+		    );
+		}
+		n++;
+	    }
+	    log.publish( gvt );
+	    if (n == 0) return;
+	    committedNow = hTime[n - 1];
+	    committedLatest = hLatest[n - 1];
+
+	    // slide what remains of the history and sent log down
+	    int s = (n < history) ? hSent[n] : sent.count;
+	    int rest = history - n;
+	    System.arraycopy( hTime, n, hTime, 0, rest );
+	    System.arraycopy( hKey, n, hKey, 0, rest );
+	    System.arraycopy( hTarget, n, hTarget, 0, rest );
+	    System.arraycopy( hPin, n, hPin, 0, rest );
+	    System.arraycopy( hValue, n, hValue, 0, rest );
+	    System.arraycopy( hSaved, n, hSaved, 0, rest );
+	    System.arraycopy( hLatest, n, hLatest, 0, rest );
+	    System.arraycopy( hSent, n, hSent, 0, rest );
+	    for (int h = 0; h < rest; h++) hSent[h] = hSent[h] - s;
+	    history = rest;
+	    int moved = sent.count - s;
+	    System.arraycopy( sent.time, s, sent.time, 0, moved );
+	    System.arraycopy( sent.key, s, sent.key, 0, moved );
+	    System.arraycopy( sent.target, s, sent.target, 0, moved );
+	    System.arraycopy( sent.pin, s, sent.pin, 0, moved );
+	    System.arraycopy( sent.value, s, sent.value, 0, moved );
+	    sent.count = moved;
+	}
+    }
+}
@@ -0,0 +1,402 @@
+/* Oscillation.java
+ * Recognizing a simulation that has settled into a repeating cycle
+ */
+
+import java.util.Arrays;
+
+/** Watches a simulation over a {@link NetlistKernel NetlistKernel} for a
+ *  cycle of states that repeats forever, as a ring oscillator does, so
+ *  that a simulation that would never end can be stopped or hurried on.
+ *  <p>
+ *  The gates fall into parts that no wire connects, and each part is
+ *  watched on its own, since events in one never affect another.
+ *  The state of a part is what each of its gates holds and its pending
+ *  events, but not their times, which the jitter in gate delays makes
+ *  different in every period.  It is summarized by a hash kept up to
+ *  date as it changes: each gate's state and each pending event add a
+ *  well mixed number to the hash of its part, and take it away when
+ *  they change or go, so keeping it costs a few operations per event.
+ *  After each event, the hash of its part is compared with the hash
+ *  saved after the most recent power of two events in that part, saving
+ *  it again at the next power of two, after R. P. Brent, An improved
+ *  Monte Carlo factorization algorithm, BIT 20 (1980); a cycle of p
+ *  events is noticed within a few times as many events as it takes to
+ *  enter it, plus p, without keeping anything per event.
+ *  <p>
+ *  Since times are left out of the state, and since different states
+ *  may hash alike, a cycle found this way is only a candidate.  It is
+ *  confirmed when the hash comes back at the end of each of {@link
+ *  #REPEATS REPEATS} more periods, and the output changes in each of
+ *  those periods are the same, in the same order, as in the one before.
+ *  The period reported is the mean over those periods.  The circuit
+ *  oscillates once every part that still has pending events is
+ *  confirmed, so several separate oscillators, each in a part of its
+ *  own, are found as soon as each is running.  Loops in one part, where
+ *  one drives another or both drive one gate, are only found once they
+ *  happen to fall in step, since the jitter keeps changing the order in
+ *  which their events interleave.
+ *  <p>
+ *  Once an oscillation is confirmed, it may be skipped: given a time
+ *  limit, all but the last whole period before it are jumped over at
+ *  once, by delaying the pending events by that many periods, and by
+ *  advancing each gate's random stream and event count as if it had
+ *  drawn and scheduled again what it did in the last period, that many
+ *  times.  The jitter of the skipped periods is not drawn, so the result
+ *  is what the periods would give on average, not what simulating them
+ *  would give exactly; their changes are not traced.  Only an
+ *  oscillation in one part is skipped; separate oscillators have
+ *  periods of their own, so they are simulated on to the limit.
+ */
+final class Oscillation {
+    /** what to do once an oscillation is confirmed, stop simulating */
+    static final int STOP = 0;
+
+    /** what to do once an oscillation is confirmed, skip to the limit */
+    static final int SKIP = 1;
+
+    /** the number of periods a candidate cycle must repeat */
+    static final int REPEATS = 3;
+
+    // the most oscillating gates named in the report
+    private static final int NAMED = 20;
+
+    // the action taken once an oscillation is confirmed
+    final int action;
+
+    // the part of each gate
+    private int[] part;
+
+    // per part, its pending events, and the parts with any and those
+    // confirmed to oscillate
+    private int[] pending;
+    private int active = 0;
+    private int confirmed = 0;
+
+    // per part, the hash of its state
+    private long[] hash;
+
+    // per part, Brent's cycle finding, the saved hash and events since
+    // it was saved
+    private long[] saved;
+    private long[] power;
+    private long[] since;
+
+    // per part, events watched
+    private long[] events;
+
+    // per part, the candidate period in events, 0 while searching for one
+    private long[] period;
+
+    // per part, the event count and time at the start of the candidate,
+    // and at the most recent period boundary since, and the periods
+    // confirmed
+    private long[] boundary;
+    private float[] start;
+    private float[] last;
+    private int[] repeats;
+
+    // per part, the hash of the sequence of changes in this period and
+    // the last
+    private long[] changes;
+    private long[] lastChanges;
+
+    // per part, the gates that changed since the candidate was found, in
+    // order, as a list linked through next
+    private int[] first;
+    private int[] tail;
+    private int[] count;
+    private int[] next;
+    private boolean[] seen;
+
+    // the random streams and event counts of the simulation, and where
+    // they were at a period boundary, the boundary of the part marked
+    private PRNG prng;
+    private long[] scheduled;
+    private long[] prngMark;
+    private long[] scheduledMark;
+    private int markedPart = -1;
+    private long marked;
+
+    // true if the oscillation confirmed can be skipped
+    private boolean skippable = false;
+
+    /** Make a watch
+     *  @param action {@link #STOP STOP} or {@link #SKIP SKIP}
+     */
+    Oscillation( int action ) {
+	this.action = action;
+    }
+
+    /** Begin watching a simulation, before it schedules any event
+     *  @param k the circuit, whose wires divide its gates into parts
+     *  @param prng the random streams the gates draw from
+     *  @param scheduled per gate, the number of events it has scheduled
+     */
+    void start( NetlistKernel k, PRNG prng, long[] scheduled ) {
+	this.prng = prng;
+	this.scheduled = scheduled;
+	int n = scheduled.length;
+	prng.streams( n );
+	seen = new boolean[n];
+	next = new int[n];
+
+	// find the parts, joining the ends of every wire
+	part = new int[n];
+	for (int g = 0; g < n; g++) part[g] = g;
+	for (int g = 0; g < n; g++) {
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		int a = root( g );
+		int b = root( k.wireDst[w] );
+		if (a != b) part[Math.max( a, b )] = Math.min( a, b );
+	    }
+	}
+	for (int g = 0; g < n; g++) part[g] = root( g );
+	int parts = 0;
+	for (int g = 0; g < n; g++) {
+	    // the root of a part is its lowest gate, so numbered first
+	    part[g] = (part[g] == g) ? parts++ : part[part[g]];
+	}
+
+	pending = new int[parts];
+	hash = new long[parts];
+	saved = new long[parts];
+	power = new long[parts];
+	since = new long[parts];
+	events = new long[parts];
+	period = new long[parts];
+	boundary = new long[parts];
+	start = new float[parts];
+	last = new float[parts];
+	repeats = new int[parts];
+	changes = new long[parts];
+	lastChanges = new long[parts];
+	first = new int[parts];
+	tail = new int[parts];
+	count = new int[parts];
+	for (int p = 0; p < parts; p++) {
+	    power[p] = 1;
+	    first[p] = -1;
+	}
+    }
+
+    // while finding parts, the lowest gate of the part of gate g
+    private int root( int g ) {
+	while (part[g] != g) {
+	    part[g] = part[part[g]];
+	    g = part[g];
+	}
+	return g;
+    }
+
+    /** Note the change of a gate's state
+     *  @param g the gate
+     *  @param before its state before, any int that says all it holds
+     *  @param after its state after
+     */
+    void gate( int g, int before, int after ) {
+	int p = part[g];
+	hash[p] = hash[p] + state( g, after ) - state( g, before );
+    }
+
+    /** Note an event becoming pending
+     *  @param target the gate it goes to
+     *  @param pin the input pin, or Simulator.OUTPUT
+     *  @param value the value it carries
+     */
+    void add( int target, int pin, boolean value ) {
+	int p = part[target];
+	hash[p] = hash[p] + event( target, pin, value );
+	if (pending[p] == 0) active = active + 1;
+	pending[p] = pending[p] + 1;
+    }
+
+    /** Note an event that is no longer pending, taken or cancelled
+     *  @param target the gate it went to
+     *  @param pin the input pin, or Simulator.OUTPUT
+     *  @param value the value it carried
+     */
+    void remove( int target, int pin, boolean value ) {
+	int p = part[target];
+	hash[p] = hash[p] - event( target, pin, value );
+	pending[p] = pending[p] - 1;
+	if (pending[p] == 0) active = active - 1;
+    }
+
+    /** Note a change of a gate's output
+     *  @param g the gate
+     *  @param value the new output value
+     */
+    void change( int g, boolean value ) {
+	int p = part[g];
+	if (period[p] == 0) return;
+	changes[p] = changes[p] * 31 + state( g, value ? 1 : 0 );
+	if (seen[g]) return;
+	seen[g] = true;
+	next[g] = -1;
+	if (first[p] < 0) {
+	    first[p] = g;
+	} else {
+	    next[tail[p]] = g;
+	}
+	tail[p] = g;
+	count[p] = count[p] + 1;
+    }
+
+    /** Look for a cycle after an event has been simulated
+     *  @param g the gate the event went to
+     *  @param time the time of the event
+     *  @return true once an oscillation is confirmed
+     */
+    boolean step( int g, float time ) {
+	int p = part[g];
+	events[p] = events[p] + 1;
+	if (pending[p] == 0) {
+	    // the part has settled, so it is no oscillator
+	    search( p );
+	    return false;
+	}
+	if (period[p] == 0) {
+	    since[p] = since[p] + 1;
+	    if (hash[p] == saved[p]) {
+		// a candidate, the state since the hash was saved
+		period[p] = since[p];
+		boundary[p] = events[p];
+		start[p] = time;
+		last[p] = time;
+		repeats[p] = 0;
+		changes[p] = 0;
+		mark( p );
+	    } else if (since[p] == power[p]) {
+		saved[p] = hash[p];
+		power[p] = power[p] * 2;
+		since[p] = 0;
+	    }
+	    return false;
+	}
+
+	if ((events[p] - boundary[p]) < period[p]) return false;
+	if ((hash[p] != saved[p])
+	||  ((repeats[p] > 0) && (changes[p] != lastChanges[p]))) {
+	    // not a cycle after all, so search again from here
+	    search( p );
+	    return false;
+	}
+	repeats[p] = repeats[p] + 1;
+	if (repeats[p] == REPEATS + 1) confirmed = confirmed + 1;
+	long previous = boundary[p];
+	boundary[p] = events[p];
+	last[p] = time;
+	lastChanges[p] = changes[p];
+	changes[p] = 0;
+	if ((repeats[p] > REPEATS) && (confirmed == active)) {
+	    // the mark is kept from the start of the period just ended
+	    skippable = (active == 1) && (markedPart == p)
+		     && (marked == previous);
+	    return true;
+	}
+	mark( p );
+	return false;
+    }
+
+    /** @return a report of a confirmed oscillation
+     */
+    String report() {
+	int loops = 0;
+	int gates = 0;
+	int one = 0;
+	float by = 0.0F;
+	float least = Float.POSITIVE_INFINITY;
+	float most = 0.0F;
+	for (int p = 0; p < pending.length; p++) {
+	    if (pending[p] == 0) continue;
+	    loops = loops + 1;
+	    gates = gates + count[p];
+	    one = p;
+	    by = Math.max( by, last[p] );
+	    least = Math.min( least, period( p ) );
+	    most = Math.max( most, period( p ) );
+	}
+	StringBuilder b = new StringBuilder( "Oscillation by time " );
+	b.append( by );
+	if (loops == 1) {
+	    b.append( ", period " ).append( period( one ) )
+	     .append( " (" ).append( period[one] ).append( " events), " );
+	} else {
+	    b.append( ", " ).append( loops ).append( " separate parts" )
+	     .append( ", periods " ).append( least ).append( " to " )
+	     .append( most ).append( ", " );
+	}
+	b.append( gates ).append( " gates:" );
+	int named = 0;
+	for (int p = 0; (p < pending.length) && (named < NAMED); p++) {
+	    if (pending[p] == 0) continue;
+	    for (int g = first[p]; (g >= 0) && (named < NAMED); g = next[g]) {
+		b.append( ' ' ).append( Logic.symbols.name( g ) );
+		named = named + 1;
+	    }
+	}
+	if (gates > NAMED) b.append( " ..." );
+	return b.toString();
+    }
+
+    /** Skip whole periods of a confirmed oscillation, just after the end
+     *  of one, leaving the last whole period before a limit to simulate
+     *  @param events the pending events, delayed by the periods skipped
+     *  @param limit the time limit
+     *  @return the number of periods skipped, maybe none
+     */
+    long skip( EventSet events, float limit ) {
+	if (!skippable) return 0;
+	int p = markedPart;
+	double t = period( p );
+	long times = (long)Math.floor( (limit - last[p]) / t ) - 1;
+	if (times <= 0) return 0;
+	events.shift( (float)(times * t) );
+	prng.repeat( prngMark, times );
+	for (int g = 0; g < scheduled.length; g++) {
+	    scheduled[g] = scheduled[g]
+			 + (scheduled[g] - scheduledMark[g]) * times;
+	}
+	return times;
+    }
+
+    // the period of a part confirmed to oscillate, in time
+    private float period( int p ) {
+	return (last[p] - start[p]) / repeats[p];
+    }
+
+    // give up a part's candidate, and search for a cycle again from here
+    private void search( int p ) {
+	if (repeats[p] > REPEATS) confirmed = confirmed - 1;
+	period[p] = 0;
+	repeats[p] = 0;
+	saved[p] = hash[p];
+	power[p] = 1;
+	since[p] = 0;
+	for (int g = first[p]; g >= 0; g = next[g]) seen[g] = false;
+	first[p] = -1;
+	count[p] = 0;
+    }
+
+    // remember where the streams and counts are at a period boundary of
+    // part p, if that part is all there is to skip
+    private void mark( int p ) {
+	if ((action != SKIP) || (active != 1)) return;
+	prngMark = prng.position();
+	scheduledMark = scheduled.clone();
+	markedPart = p;
+	marked = boundary[p];
+    }
+
+    // the number a gate's state adds to the hash
+    private static long state( int g, int s ) {
+	return PRNG.mix( ((long)g << 32) + s );
+    }
+
+    // the number a pending event adds to the hash
+    private static long event( int target, int pin, boolean value ) {
+	return PRNG.mix(
+	    ~(((long)target << 32) + ((long)(pin + 1) << 1) + (value ? 1 : 0))
+	);
+    }
+}
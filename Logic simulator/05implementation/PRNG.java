@@ -1,8 +1,152 @@
-import java.util.Random;
+/* PRNG.java
+ * Pseudo-random jitter for gate delays, reproducible from a seed
+ */
 
+import java.util.Arrays;
+
+/** Pseudo-random number streams for the jitter in gate delays.
+ *  Each gate draws from its own stream, numbered by its id, so the
+ *  numbers a gate gets depend only on the seed and on how many it has
+ *  drawn before, not on what other gates did in between.  That makes a
+ *  trace reproducible from its seed with any event set or engine, and
+ *  lets gates simulated on different threads draw without sharing.
+ *  <p>
+ *  The generator is SplitMix64 (Steele, Lea and Flood, "Fast splittable
+ *  pseudorandom number generators", OOPSLA 2014), the generator of
+ *  java.util.SplittableRandom: each stream is a 64-bit counter advanced
+ *  by a fixed odd gamma, and each number is a mix of the counter.
+ *  Independent families of streams, for instance one per run of a
+ *  Monte Carlo study, are made with {@link #split split}.
+ *  <p>
+ *  A PRNG is not synchronized.  Each of its streams must only be used by
+ *  one thread at a time.
+ */
 public class PRNG {
-    public static float randomFloat(float i) {
-	Random rand = new Random();
-	return rand.nextFloat() * (i - 0) + 0;
+    // the increment of each stream's counter, the golden ratio in 64 bits
+    private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+    // the PRNG used by the gates, replaced by seed()
+    private static PRNG shared = new PRNG( System.nanoTime() );
+
+    // the seed of this family of streams
+    private final long seed;
+
+    // the counter of each stream, made as streams are first used
+    private long[] state = new long[0];
+
+    /** make a family of streams
+     *  @param seed the seed from which all of its streams follow
+     */
+    PRNG( long seed ) {
+	this.seed = seed;
+    }
+
+    /** Seed the streams the gates draw from
+     *  Call this before simulating; a given seed gives a given trace.
+     *  @param seed the seed
+     */
+    public static void seed( long seed ) {
+	shared = new PRNG( seed );
+    }
+
+    /** @return the family of streams the gates draw from
+     */
+    static PRNG shared() {
+	return shared;
+    }
+
+    /** @return the seed of this family, which {@link #seed(long) seed} takes
+     *  to draw the same numbers again
+     */
+    long seed() {
+	return seed;
+    }
+
+    /** Make a family of streams independent of this one
+     *  Families split with different indices are independent of each other
+     *  and of this family, and splitting gives the same family every time.
+     *  @param index which family, for instance the number of a run
+     *  @return the new family
+     */
+    PRNG split( long index ) {
+	return new PRNG( mix( seed + GAMMA * (index + 1) ) ^ GAMMA );
+    }
+
+    /** Draw a number from a stream of this family
+     *  @param stream the stream, by convention the id of a gate
+     *  @param range the range of the result
+     *  @return a float uniformly distributed in 0 up to range
+     */
+    float nextFloat( int stream, float range ) {
+	if (stream >= state.length) grow( stream );
+	long s = state[stream] + GAMMA;
+	state[stream] = s;
+	// the top 24 bits, as many as a float holds exactly
+	return (mix( s ) >>> 40) * 0x1.0p-24f * range;
+    }
+
+    /** Take back the last number drawn from a stream of this family, so
+     *  that the next draw gives it again; simulations that roll back use
+     *  this to undo the draws of the events they undo
+     *  @param stream the stream
+     */
+    void undraw( int stream ) {
+	state[stream] = state[stream] - GAMMA;
+    }
+
+    /** @return the position of every stream, for {@link #repeat repeat}
+     */
+    long[] position() {
+	return state.clone();
+    }
+
+    /** Advance every stream as if the numbers it gave since a position
+     *  were drawn again some number of times more, skipping them all at
+     *  once, since a stream's position only ever moves by adding gamma
+     *  @param since the position, from {@link #position position}
+     *  @param times how many more times
+     */
+    void repeat( long[] since, long times ) {
+	for (int i = 0; i < since.length; i++) {
+	    state[i] = state[i] + (state[i] - since[i]) * times;
+	}
+    }
+
+    /** Draw a random float for a gate, from the shared family
+     *  @param stream the stream, the id of the gate
+     *  @param i the range of the result
+     *  @return a float uniformly distributed in 0 up to i
+     */
+    public static float randomFloat( int stream, float i ) {
+	return shared.nextFloat( stream, i );
+    }
+
+    /** Make sure there are streams up to a given one
+     *  Streams are made here rather than as they are drawn from, so that
+     *  streams of different gates can be drawn from by different threads;
+     *  call this before starting the threads.
+     *  @param n the number of streams needed
+     */
+    void streams( int n ) {
+	if (n > state.length) grow( n - 1 );
+    }
+
+    // make the streams up to stream, each starting from its own counter
+    private void grow( int stream ) {
+	int old = state.length;
+	state = Arrays.copyOf(
+	    state, Math.max( stream + 1, old * 2 )
+	);
+	for (int i = old; i < state.length; i++) {
+	    state[i] = mix( seed ^ (GAMMA * (i + 1)) );
+	}
+    }
+
+    // the SplitMix64 finalizer, after Stafford's variant 13, also a good
+    // hash of a long
+    static long mix( long z ) {
+	z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+	z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+	return z ^ (z >>> 31);
     }
 }
@@ -0,0 +1,330 @@
+/* ParallelLoader.java
+ * Reading of circuit descriptions on all processors
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+/** Reads a circuit description with many threads, making exactly the
+ *  gates, wires and messages that {@link NetlistReader#read
+ *  NetlistReader.read} would.
+ *  <p>
+ *  The file is split into chunks that begin and end at line ends, and
+ *  the work is done in passes, each but one run as fork/join tasks:
+ *  <ol>
+ *  <li>each chunk is read and its lines are tokenized;
+ *  <li>the gates are made, chunk by chunk in file order, so that each
+ *  gate gets the same id it would get from a sequential read;
+ *  this pass is not parallel, but it is only a symbol table insertion
+ *  per gate;
+ *  <li>the gates that each wire connects are looked up, chunk by chunk;
+ *  <li>input pins are registered, with the wires grouped by destination
+ *  gate, so that each gate's inputs are handled by one task in file order;
+ *  <li>wires are made and output pins registered, with the wires grouped
+ *  by source gate, so that each gate's outgoing wires are in file order.
+ *  </ol>
+ *  Messages are not output as they are found.  Each is held with the
+ *  offset of the line it is about and its order among the messages about
+ *  that line, and all of them are output at the end, sorted.
+ *  <p>
+ *  A description that uses {@link Module modules} is not read this way,
+ *  since each line of a definition depends on the lines before it; if
+ *  the first pass finds one, nothing is made and it is left to the
+ *  sequential reader.
+ */
+final class ParallelLoader {
+    // the nominal size of a chunk; each ends at the first line end after
+    private static final int CHUNK = 1 << 22;
+
+    // order of the messages about one wire line, as the sequential reader
+    // finds them, after those NetlistReader holds with order 0
+    private static final int OUTPUT_PIN = 1;
+    private static final int INPUT_PIN = 2;
+    private static final int DELAY = 3;
+
+    /** Messages held until they can be output in the order of the file
+     *  Each instance is only ever used by one thread at a time.
+     */
+    static final class Messages {
+	private long[] keys = new long[8];
+	private final ArrayList <String> texts = new ArrayList <String> ();
+
+	/** hold one message
+	 *  @param line the file offset of the line the message is about
+	 *  @param order orders the messages about one line, 0 to 3;
+	 *  messages with the same order are kept in the order added
+	 *  @param text the message
+	 */
+	void add( long line, int order, String text ) {
+	    int n = texts.size();
+	    if (n == keys.length) keys = Arrays.copyOf( keys, n * 2 );
+	    keys[n] = (line << 2) | order;
+	    texts.add( text );
+	}
+
+	/** hold messages that were collected from {@link Errors Errors}
+	 *  @param line the file offset of the line the messages are about
+	 *  @param order orders the messages about one line
+	 *  @param collected the messages, emptied by this
+	 */
+	void addAll( long line, int order, List <String> collected ) {
+	    for (String text: collected) add( line, order, text );
+	    collected.clear();
+	}
+    }
+
+    /** Read the whole circuit description
+     *  @param file the file from which the circuit is read
+     *  @param gates the list to which new gates are added, indexed by id
+     *  @param wires the list to which new wires are added
+     *  @param probes the list to which probes are added
+     *  @return false, having read nothing, if the description uses modules
+     *  @throws IOException if the input cannot be read
+     */
+    static boolean read( FileChannel file, List <Gate> gates,
+			 List <Wire> wires, List <String> probes )
+	throws IOException
+    {
+	// split the file into chunks at line ends
+	long size = file.size();
+	int count = (int)Math.max( 1, (size + CHUNK - 1) / CHUNK );
+	long[] bounds = new long[count + 1];
+	for (int i = 1; i < count; i++) {
+	    bounds[i] = lineStart(
+		file, Math.max( (long)i * CHUNK, bounds[i - 1] ), size
+	    );
+	}
+	bounds[count] = size;
+
+	// pass 1: read and tokenize the chunks
+	NetlistReader[] chunks = new NetlistReader[count];
+	Messages[] chunkMessages = new Messages[count];
+	inParallel( count, (int i) -> {
+	    int length = (int)(bounds[i + 1] - bounds[i]);
+	    byte[] buf = new byte[length];
+	    ByteBuffer b = ByteBuffer.wrap( buf );
+	    try {
+		while (b.hasRemaining()) {
+		    int n = file.read( b, bounds[i] + b.position() );
+		    if (n < 0) throw new IOException( "file changed size" );
+		}
+	    } catch (IOException e) {
+		throw new UncheckedIOException( e );
+	    }
+	    chunkMessages[i] = new Messages();
+	    chunks[i] = new NetlistReader(
+		buf, length, bounds[i], chunkMessages[i]
+	    );
+	    chunks[i].scan();
+	} );
+	for (NetlistReader c: chunks) if (c.hierarchical()) return false;
+
+	// pass 2: make the gates in file order
+	for (NetlistReader c: chunks) probes.addAll( c.probes() );
+	int gateLines = 0;
+	for (NetlistReader c: chunks) gateLines = gateLines + c.gateCount();
+	long[] defined = new long[gateLines];
+	for (NetlistReader c: chunks) c.makeGates( gates, defined );
+
+	// pass 3: find the gates each wire connects
+	inParallel( count, (int i) -> chunks[i].findWireGates( defined ) );
+
+	// list the wires that connect gates, in file order, by the chunk
+	// and the index in the chunk of each
+	int n = 0;
+	for (NetlistReader c: chunks) n = n + c.wireCount();
+	int[] chunkOf = new int[n];
+	int[] indexOf = new int[n];
+	n = 0;
+	for (int i = 0; i < count; i++) {
+	    NetlistReader c = chunks[i];
+	    for (int j = 0; j < c.wireCount(); j++) {
+		if ((c.wireSource( j ) >= 0) && (c.wireDestination( j ) >= 0)) {
+		    chunkOf[n] = i;
+		    indexOf[n] = j;
+		    n++;
+		}
+	    }
+	}
+	final int wireCount = n;
+
+	// wires are grouped into many more groups than there are threads,
+	// so that the groups balance, even when some gates have many wires
+	int groups = 4 * ForkJoinPool.getCommonPoolParallelism();
+
+	// pass 4: register input pins, grouped by destination gate
+	int[] dstPins = new int[wireCount];
+	int[] byDestination = group( wireCount, groups,
+	    (int k) -> chunks[chunkOf[k]].wireDestination( indexOf[k] )
+	);
+	Messages[] inputMessages = new Messages[groups];
+	inParallel( groups, (int g) -> {
+	    Messages m = new Messages();
+	    List <String> collected = new ArrayList <String> ();
+	    Errors.collect( collected );
+	    try {
+		for (int k: members( byDestination, wireCount, groups, g )) {
+		    NetlistReader c = chunks[chunkOf[k]];
+		    int j = indexOf[k];
+		    dstPins[k] = gates.get( c.wireDestination( j ) )
+			.registerInput( c.wireDstPin( j ) );
+		    m.addAll( c.wireLine( j ), INPUT_PIN, collected );
+		}
+	    } finally {
+		Errors.collect( null );
+	    }
+	    inputMessages[g] = m;
+	} );
+
+	// pass 5: make the wires, registering output pins, grouped by source
+	Wire[] made = new Wire[wireCount];
+	int[] bySource = group( wireCount, groups,
+	    (int k) -> chunks[chunkOf[k]].wireSource( indexOf[k] )
+	);
+	Messages[] outputMessages = new Messages[groups];
+	inParallel( groups, (int g) -> {
+	    Messages m = new Messages();
+	    List <String> collected = new ArrayList <String> ();
+	    Errors.collect( collected );
+	    try {
+		for (int k: members( bySource, wireCount, groups, g )) {
+		    NetlistReader c = chunks[chunkOf[k]];
+		    int j = indexOf[k];
+		    long line = c.wireLine( j );
+		    Wire w = new Wire(
+			gates.get( c.wireSource( j ) ), c.wireSrcPin( j ),
+			gates.get( c.wireDestination( j ) ), dstPins[k],
+			c.wireDelay( j )
+		    );
+		    m.addAll( line, OUTPUT_PIN, collected );
+		    if (!c.wireHasDelay( j )) {
+			m.add( line, DELAY,
+			    "Float expected: wire " + c.wireNames( j ) + " ???"
+			);
+			continue;
+		    }
+		    if (w.delay < 0.0F) {
+			m.add( line, DELAY, "Negative delay: " + w );
+		    }
+		    String junk = c.wireJunk( j );
+		    if (junk != null) m.add( line, DELAY,
+			w + " followed unexpected by '" + junk + "'"
+		    );
+		    made[k] = w;
+		}
+	    } finally {
+		Errors.collect( null );
+	    }
+	    outputMessages[g] = m;
+	} );
+	for (Wire w: made) if (w != null) wires.add( w );
+
+	// output all the messages in file order
+	List <Messages> all = new ArrayList <Messages> ();
+	all.addAll( Arrays.asList( chunkMessages ) );
+	all.addAll( Arrays.asList( inputMessages ) );
+	all.addAll( Arrays.asList( outputMessages ) );
+	report( all );
+	return true;
+    }
+
+    /** Find where the line holding a byte of a file begins, or the next
+     *  line if that byte begins a line
+     *  @param file the file
+     *  @param p the offset of the byte
+     *  @param size the size of the file
+     *  @return the offset of the first byte at or after p that follows
+     *  a line end, or size if there is none
+     */
+    private static long lineStart( FileChannel file, long p, long size )
+	throws IOException
+    {
+	ByteBuffer b = ByteBuffer.allocate( 1 << 12 );
+	long at = p - 1; // the byte before p may be a line end
+	while (at < size) {
+	    b.clear();
+	    int n = file.read( b, at );
+	    if (n < 0) break;
+	    for (int i = 0; i < n; i++) {
+		byte c = b.get( i );
+		if ((c == '\n') || (c == '\r')) return at + i + 1;
+	    }
+	    at = at + n;
+	}
+	return size;
+    }
+
+    /** Group the wires, keeping them in file order within each group
+     *  @param n the number of wires
+     *  @param groups the number of groups
+     *  @param gate gives the id of the gate that decides each wire's group
+     *  @return the wires of group 0, then those of group 1 and so on,
+     *  followed by groups + 1 entries that give where each group begins
+     */
+    private static int[] group( int n, int groups, IntUnaryOperator gate ) {
+	int[] groupOf = new int[n];
+	int[] result = new int[n + groups + 1];
+	int[] next = new int[groups + 1];
+	for (int k = 0; k < n; k++) {
+	    groupOf[k] = gate.applyAsInt( k ) % groups;
+	    next[groupOf[k] + 1]++;
+	}
+	for (int g = 0; g < groups; g++) next[g + 1] = next[g + 1] + next[g];
+	System.arraycopy( next, 0, result, n, groups + 1 );
+	for (int k = 0; k < n; k++) {
+	    result[next[groupOf[k]]] = k;
+	    next[groupOf[k]]++;
+	}
+	return result;
+    }
+
+    // the members of group g, from an array returned by group()
+    private static int[] members( int[] grouped, int n, int groups, int g ) {
+	return Arrays.copyOfRange(
+	    grouped, grouped[n + g], grouped[n + g + 1]
+	);
+    }
+
+    /** Run body for 0 up to n - 1, as fork/join tasks, and wait for all
+     *  @throws IOException if body threw an UncheckedIOException
+     */
+    private static void inParallel( int n, IntConsumer body )
+	throws IOException
+    {
+	try {
+	    IntStream.range( 0, n ).parallel().forEach( body );
+	} catch (UncheckedIOException e) {
+	    throw e.getCause();
+	}
+    }
+
+    /** Output held messages through {@link Errors Errors}, ordered by line
+     *  and then by their order within the line
+     *  @param all the held messages
+     */
+    private static void report( List <Messages> all ) {
+	List <long[]> keys = new ArrayList <long[]> ();
+	List <String> texts = new ArrayList <String> ();
+	for (Messages m: all) {
+	    for (int i = 0; i < m.texts.size(); i++) {
+		keys.add( new long[] { m.keys[i], keys.size() } );
+		texts.add( m.texts.get( i ) );
+	    }
+	}
+	// the second element keeps equal keys in the order they were held
+	keys.sort( (long[] a, long[] b) -> {
+	    int c = Long.compare( a[0], b[0] );
+	    return (c != 0) ? c : Long.compare( a[1], b[1] );
+	} );
+	for (long[] k: keys) Errors.warn( texts.get( (int)k[1] ) );
+    }
+}
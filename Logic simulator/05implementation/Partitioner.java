@@ -0,0 +1,455 @@
+/* Partitioner.java
+ * Multilevel partitioning of a circuit among parallel simulation processes
+ * After G. Karypis and V. Kumar, A Fast and High Quality Multilevel Scheme
+ * for Partitioning Irregular Graphs, SIAM J. Sci. Comput. 20, 1 (1998)
+ * and Multilevel k-way Partitioning Scheme for Irregular Graphs, J.
+ * Parallel Distrib. Comput. 48, 1 (1998)
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/** Partitions the gates of a compiled circuit among the logical
+ *  processes of a parallel simulation.
+ *  A good partition balances the events simulated by each process and
+ *  cuts few wires, above all few wires with little lookahead, since
+ *  those hold back conservative processes and cause most rollbacks in
+ *  optimistic ones.  The gates and wires are seen as a graph where each
+ *  gate weighs the events it simulates, one per input wire and one for
+ *  its output, and each wire weighs more the less lookahead it has, the
+ *  wire's delay plus 0.95 of its source gate's delay.
+ *  <p>
+ *  The graph is partitioned by the multilevel scheme: it is coarsened by
+ *  repeatedly contracting a matching of heavy edges, the coarsest graph
+ *  is split into parts of equal weight in breadth first order, and the
+ *  split is carried back down through the levels, refined at each by
+ *  greedy passes of k-way moves in the manner of Fiduccia and Mattheyses,
+ *  each gate moving only to cut less and only into a part with room.
+ *  Each level takes time linear in its size, and the levels shrink
+ *  geometrically, so all of this takes time linear in the circuit.
+ *  <p>
+ *  The gates at the two ends of a wire without delay are never
+ *  separated, since such a wire gives no lookahead at all.
+ */
+final class Partitioner {
+    // parts may outweigh the average by this fraction
+    private static final double IMBALANCE = 0.03;
+
+    // coarsening stops at this many vertices per part
+    private static final int COARSEST = 32;
+
+    // the most refinement passes at each level
+    private static final int PASSES = 8;
+
+    // passes stop once one gains less than 1/DWINDLE of the first pass's gain
+    private static final int DWINDLE = 20;
+
+    // the heaviest a wire can weigh, relative to the lightest
+    private static final int HEAVIEST = 16;
+
+    /** A level of the graph, undirected, in compressed sparse row form
+     */
+    private static final class Graph {
+	final int n;            // vertices
+	final int[] weight;     // per vertex
+	final int[] first;      // edges of v are first[v] up to first[v + 1]
+	final int[] to;         // per edge, the other end
+	final int[] cost;       // per edge, its weight
+
+	Graph( int[] weight, int[] first, int[] to, int[] cost ) {
+	    this.n = weight.length;
+	    this.weight = weight;
+	    this.first = first;
+	    this.to = to;
+	    this.cost = cost;
+	}
+    }
+
+    /** Partition a circuit
+     *  @param k the compiled circuit
+     *  @param parts the number of parts
+     *  @return for each gate, its part, from 0 up to parts
+     */
+    static int[] partition( NetlistKernel k, int parts ) {
+	int n = k.gates;
+	int[] part = new int[n];
+	if ((parts <= 1) || (n == 0)) return part;
+
+	// the graph of gates, and the same with wires without delay contracted
+	Graph gates = gateGraph( k );
+	int[] cluster = new int[n];
+	int clusters = clusters( k, cluster );
+	Graph g = contract( gates, cluster, clusters );
+
+	// coarsen, keeping each level and how its vertices map to the next
+	Graph[] levels = new Graph[64];
+	int[][] maps = new int[64][];
+	int depth = 0;
+	levels[0] = g;
+	long total = 0;
+	for (int w: g.weight) total = total + w;
+	int limit = (int)Math.max( 1, Math.min(
+	    Integer.MAX_VALUE, total / ((long)parts * 8)
+	) );
+	SplittableRandom random = new SplittableRandom( 1 );
+	while ((g.n > COARSEST * parts) && (depth + 1 < levels.length)) {
+	    int[] map = new int[g.n];
+	    int m = match( g, map, limit, random );
+	    if (m > g.n - g.n / 10) break; // too little progress to go on
+	    maps[depth] = map;
+	    g = contract( g, map, m );
+	    depth = depth + 1;
+	    levels[depth] = g;
+	}
+
+	// split the coarsest level, then refine on the way back down
+	long most = (long)Math.ceil( (1.0 + IMBALANCE) * total / parts );
+	int[] p = initial( g, parts, total );
+	refine( g, p, parts, most, random );
+	for (int d = depth - 1; d >= 0; d--) {
+	    int[] map = maps[d];
+	    int[] finer = new int[map.length];
+	    for (int v = 0; v < map.length; v++) finer[v] = p[map[v]];
+	    p = finer;
+	    refine( levels[d], p, parts, most, random );
+	}
+
+	for (int v = 0; v < n; v++) part[v] = p[cluster[v]];
+	return part;
+    }
+
+    /** Describe the quality of a partition
+     *  @param k the compiled circuit
+     *  @param part for each gate, its part
+     *  @param parts the number of parts
+     *  @return a line giving the wires cut, the balance of the events
+     *  simulated by each part, and the messages sent per change, summed
+     *  over all gates
+     */
+    static String report( NetlistKernel k, int[] part, int parts ) {
+	long[] load = new long[parts];
+	long cut = 0;
+	long cutCost = 0;
+	long volume = 0;
+	int[] seen = new int[parts];
+	Arrays.fill( seen, -1 );
+	float unit = unit( k );
+	for (int g = 0; g < k.gates; g++) {
+	    load[part[g]] = load[part[g]] + 1;
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		int d = k.wireDst[w];
+		load[part[d]] = load[part[d]] + 1;
+		if (part[d] == part[g]) continue;
+		cut = cut + 1;
+		cutCost = cutCost + cost( k, g, w, unit );
+		if (seen[part[d]] != g) {
+		    // one message per other part the gate's changes go to
+		    seen[part[d]] = g;
+		    volume = volume + 1;
+		}
+	    }
+	}
+	long total = 0;
+	long most = 0;
+	for (long l: load) {
+	    total = total + l;
+	    most = Math.max( most, l );
+	}
+	double balance = (total == 0) ? 1.0 : (double)most * parts / total;
+	return parts + " parts, " + cut + " of " + k.fanout[k.gates]
+	    + " wires cut, weighing " + cutCost + ", balance "
+	    + String.format( "%.3f", balance ) + ", communication volume "
+	    + volume + " messages per change of every gate";
+    }
+
+    /** Write a partition map, a line for each gate giving its name and
+     *  its part
+     *  @param fileName the name of the file
+     *  @param part for each gate, its part
+     *  @throws IOException if the file cannot be written
+     */
+    static void write( String fileName, int[] part ) throws IOException {
+	try (OutputStream out = new BufferedOutputStream(
+	    new FileOutputStream( fileName ), 1 << 16
+	)) {
+	    for (int g = 0; g < part.length; g++) {
+		String line = Logic.symbols.name( g ) + " " + part[g] + "\n";
+		out.write( line.getBytes( StandardCharsets.ISO_8859_1 ) );
+	    }
+	}
+    }
+
+    // the typical lookahead of a wire, against which wire weights are set
+    private static float unit( NetlistKernel k ) {
+	double sum = 0;
+	for (int g = 0; g < k.gates; g++) {
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		sum = sum + k.wireDelay[w] + k.delay[g] * 0.95f;
+	    }
+	}
+	int wires = k.fanout[k.gates];
+	return (wires == 0) ? 1.0F : (float)(sum / wires);
+    }
+
+    // the weight of wire w out of gate g, more the less lookahead it has
+    private static int cost( NetlistKernel k, int g, int w, float unit ) {
+	float lookahead = k.wireDelay[w] + k.delay[g] * 0.95f;
+	if (lookahead <= unit / (HEAVIEST - 1)) return HEAVIEST;
+	return 1 + (int)(unit / lookahead);
+    }
+
+    // the graph of all gates and wires, with an edge each way per wire
+    private static Graph gateGraph( NetlistKernel k ) {
+	int n = k.gates;
+	int[] weight = new int[n];
+	int[] first = new int[n + 1];
+	for (int g = 0; g < n; g++) {
+	    weight[g] = weight[g] + 1;
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		int d = k.wireDst[w];
+		weight[d] = weight[d] + 1;
+		first[g + 1]++;
+		first[d + 1]++;
+	    }
+	}
+	for (int v = 0; v < n; v++) first[v + 1] = first[v + 1] + first[v];
+	int[] fill = Arrays.copyOf( first, n );
+	int[] to = new int[first[n]];
+	int[] cost = new int[first[n]];
+	float unit = unit( k );
+	for (int g = 0; g < n; g++) {
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		int d = k.wireDst[w];
+		int c = cost( k, g, w, unit );
+		to[fill[g]] = d;
+		cost[fill[g]++] = c;
+		to[fill[d]] = g;
+		cost[fill[d]++] = c;
+	    }
+	}
+	return new Graph( weight, first, to, cost );
+    }
+
+    /** Group the gates joined by wires without delay
+     *  @param k the compiled circuit
+     *  @param cluster filled in with the group of each gate
+     *  @return the number of groups
+     */
+    private static int clusters( NetlistKernel k, int[] cluster ) {
+	int n = k.gates;
+	int[] root = new int[n];
+	for (int g = 0; g < n; g++) root[g] = g;
+	for (int g = 0; g < n; g++) {
+	    for (int w = k.fanout[g]; w < k.fanout[g + 1]; w++) {
+		if (k.wireDelay[w] > 0.0F) continue;
+		int a = find( root, g );
+		int b = find( root, k.wireDst[w] );
+		if (a != b) root[Math.max( a, b )] = Math.min( a, b );
+	    }
+	}
+	int count = 0;
+	for (int g = 0; g < n; g++) {
+	    int r = find( root, g );
+	    cluster[g] = (r == g) ? count++ : cluster[r];
+	}
+	return count;
+    }
+
+    // the root of the set that holds g, halving the path on the way
+    private static int find( int[] root, int g ) {
+	while (root[g] != g) {
+	    root[g] = root[root[g]];
+	    g = root[g];
+	}
+	return g;
+    }
+
+    /** Match vertices along heavy edges, visiting them in random order
+     *  @param g the graph
+     *  @param map filled in with the coarse vertex of each vertex
+     *  @param limit the heaviest a coarse vertex may be
+     *  @param random orders the visits
+     *  @return the number of coarse vertices
+     */
+    private static int match( Graph g, int[] map, int limit,
+			      SplittableRandom random ) {
+	int[] order = shuffled( g.n, random );
+	Arrays.fill( map, -1 );
+	int m = 0;
+	for (int v: order) {
+	    if (map[v] >= 0) continue;
+	    int best = -1;
+	    int bestCost = 0;
+	    for (int e = g.first[v]; e < g.first[v + 1]; e++) {
+		int u = g.to[e];
+		if ((map[u] >= 0) || (u == v)) continue;
+		if ((long)g.weight[v] + g.weight[u] > limit) continue;
+		if (g.cost[e] > bestCost) {
+		    best = u;
+		    bestCost = g.cost[e];
+		}
+	    }
+	    map[v] = m;
+	    if (best >= 0) map[best] = m;
+	    m = m + 1;
+	}
+	return m;
+    }
+
+    /** Contract a graph, merging the vertices mapped to the same coarse
+     *  vertex and the edges between the same coarse vertices
+     *  @param g the graph
+     *  @param map the coarse vertex of each vertex
+     *  @param m the number of coarse vertices
+     *  @return the coarse graph
+     */
+    private static Graph contract( Graph g, int[] map, int m ) {
+	// the vertices of each coarse vertex
+	int[] start = new int[m + 1];
+	for (int v = 0; v < g.n; v++) start[map[v] + 1]++;
+	for (int c = 0; c < m; c++) start[c + 1] = start[c + 1] + start[c];
+	int[] members = new int[g.n];
+	int[] fill = Arrays.copyOf( start, m );
+	for (int v = 0; v < g.n; v++) members[fill[map[v]]++] = v;
+
+	int[] weight = new int[m];
+	int[] first = new int[m + 1];
+	int[] to = new int[g.to.length];
+	int[] cost = new int[g.to.length];
+	int[] slot = new int[m];    // where each neighbor's edge is, or -1
+	Arrays.fill( slot, -1 );
+	int edges = 0;
+	for (int c = 0; c < m; c++) {
+	    first[c] = edges;
+	    for (int i = start[c]; i < start[c + 1]; i++) {
+		int v = members[i];
+		weight[c] = weight[c] + g.weight[v];
+		for (int e = g.first[v]; e < g.first[v + 1]; e++) {
+		    int d = map[g.to[e]];
+		    if (d == c) continue;
+		    if (slot[d] < 0) {
+			slot[d] = edges;
+			to[edges] = d;
+			cost[edges] = g.cost[e];
+			edges = edges + 1;
+		    } else {
+			cost[slot[d]] = cost[slot[d]] + g.cost[e];
+		    }
+		}
+	    }
+	    for (int e = first[c]; e < edges; e++) slot[to[e]] = -1;
+	}
+	first[m] = edges;
+	return new Graph(
+	    weight, first, Arrays.copyOf( to, edges ), Arrays.copyOf( cost, edges )
+	);
+    }
+
+    /** Split the coarsest graph into parts of equal weight, taking the
+     *  vertices in breadth first order so that each part is connected
+     *  as far as possible
+     *  @param g the graph
+     *  @param parts the number of parts
+     *  @param total the weight of all the vertices
+     *  @return the part of each vertex
+     */
+    private static int[] initial( Graph g, int parts, long total ) {
+	int[] p = new int[g.n];
+	Arrays.fill( p, -1 );
+	int[] queue = new int[g.n];
+	int head = 0;
+	int tail = 0;
+	int next = 0;       // the next vertex to start a search from
+	long done = 0;      // the weight of the vertices given parts
+	for (int taken = 0; taken < g.n; taken++) {
+	    if (head == tail) {
+		while (p[next] != -1) next++;
+		queue[tail++] = next;
+		p[next] = -2;
+	    }
+	    int v = queue[head++];
+	    p[v] = (int)Math.min( parts - 1, done * parts / total );
+	    done = done + g.weight[v];
+	    for (int e = g.first[v]; e < g.first[v + 1]; e++) {
+		int u = g.to[e];
+		if (p[u] != -1) continue;
+		p[u] = -2;
+		queue[tail++] = u;
+	    }
+	}
+	return p;
+    }
+
+    /** Refine a partition by greedy passes of k-way moves: each pass
+     *  visits the vertices in random order and moves each boundary vertex
+     *  to the neighboring part with room that it is most strongly joined
+     *  to, when that cuts less, or cuts as much and evens out the loads
+     *  @param g the graph
+     *  @param p the part of each vertex, improved in place
+     *  @param parts the number of parts
+     *  @param most the heaviest a part may become
+     *  @param random orders the visits
+     */
+    private static void refine( Graph g, int[] p, int parts, long most,
+				SplittableRandom random ) {
+	long[] load = new long[parts];
+	for (int v = 0; v < g.n; v++) load[p[v]] = load[p[v]] + g.weight[v];
+	long[] toPart = new long[parts];    // edge weight from v to each part
+	int[] touched = new int[parts];     // the parts v has edges to
+	int[] order = shuffled( g.n, random );
+	long first = 0;                     // the gain of the first pass
+	for (int pass = 0; pass < PASSES; pass++) {
+	    long gained = 0;
+	    for (int v: order) {
+		int own = p[v];
+		int n = 0;
+		for (int e = g.first[v]; e < g.first[v + 1]; e++) {
+		    int q = p[g.to[e]];
+		    if (toPart[q] == 0) touched[n++] = q;
+		    toPart[q] = toPart[q] + g.cost[e];
+		}
+		long inside = toPart[own];
+		int t = own;
+		long best = 0;
+		for (int i = 0; i < n; i++) {
+		    int q = touched[i];
+		    long gain = toPart[q] - inside;
+		    toPart[q] = 0;
+		    if ((q == own) || (load[q] + g.weight[v] > most)) continue;
+		    if ((gain > best)
+		    ||  ((gain == best) && (load[q] + g.weight[v] < load[t]))) {
+			t = q;
+			best = gain;
+		    }
+		}
+		toPart[own] = 0;
+		if (t == own) continue;
+		load[own] = load[own] - g.weight[v];
+		load[t] = load[t] + g.weight[v];
+		p[v] = t;
+		gained = gained + best;
+	    }
+	    // stop when passes no longer pay for themselves
+	    if (pass == 0) first = gained;
+	    if (gained * DWINDLE <= first) break;
+	}
+    }
+
+    // the numbers from 0 up to n, in random order
+    private static int[] shuffled( int n, SplittableRandom random ) {
+	int[] order = new int[n];
+	for (int v = 0; v < n; v++) order[v] = v;
+	for (int i = n - 1; i > 0; i--) {
+	    int j = random.nextInt( i + 1 );
+	    int t = order[i];
+	    order[i] = order[j];
+	    order[j] = t;
+	}
+	return order;
+    }
+}
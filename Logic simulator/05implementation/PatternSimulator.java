@@ -0,0 +1,249 @@
+/* PatternSimulator.java
+ * Zero-delay simulation of 64 input patterns at a time, one per bit
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Functional simulation of a circuit over a file of input patterns,
+ *  ignoring delays entirely.
+ *  The inputs of the circuit are const gates named in the pattern file;
+ *  the true output of each carries the pattern's bit for it, and the
+ *  false output stays false.  Const gates not named are true, as ever.
+ *  <p>
+ *  The gates are evaluated once each per batch of 64 patterns, in an
+ *  order in which every gate comes after the gates that drive it, with
+ *  each value a long holding one pattern per bit, so each input of a
+ *  gate costs one bitwise operation for all 64.  This needs a circuit
+ *  without loops; a loop, such as a ring oscillator, has no value
+ *  without timing and is a fatal error.  The gates may be evaluated by
+ *  a loop over the compiled circuit, or by a {@link GeneratedEvaluator
+ *  GeneratedEvaluator}, code generated for the circuit; the results are
+ *  the same.
+ *  <p>
+ *  A pattern file starts with a line naming the input gates, after
+ *  which each line is one pattern, a 0 or 1 for each input in the order
+ *  named; spaces are ignored, as are blank lines and lines starting
+ *  with <tt>--</tt>.  The results are printed as a line naming the gates
+ *  that are {@link Probes probed}, and then for each pattern, a line
+ *  with a 0 or 1 for each of them, in the same order.  Patterns are
+ *  read and results written one batch at a time, so files of any length
+ *  may be simulated.
+ */
+final class PatternSimulator {
+    // the patterns simulated together, one per bit of a long
+    private static final int BATCH = 64;
+
+    // the circuit
+    private final NetlistKernel k;
+
+    // the gates in order of evaluation
+    private final int[] order;
+
+    // where each wire delivers its value in inputs, as numbered by fanin
+    private final int[] inputAt;
+
+    // the values of all inputs, and the output of each gate
+    private final long[] inputs;
+    private final long[] value;
+
+    // the value each const gate drives, all true unless it is an input
+    private final long[] drive;
+
+    // true to evaluate with generated code
+    private final boolean generated;
+
+    /** Prepare to simulate a circuit
+     *  @param k the compiled circuit
+     *  @param generated true to generate code to evaluate the circuit
+     */
+    PatternSimulator( NetlistKernel k, boolean generated ) {
+	this.k = k;
+	this.generated = generated;
+	order = k.topologicalOrder();
+	if (order == null) {
+	    StringBuilder b = new StringBuilder( "Loop in circuit:" );
+	    for (Gate g: k.loop()) b.append( ' ' ).append( g.name() );
+	    Errors.fatal( b.toString() );
+	}
+	inputAt = new int[k.fanout[k.gates]];
+	for (int w = 0; w < inputAt.length; w++) {
+	    inputAt[w] = k.fanin[k.wireDst[w]] + k.wireSlot[w];
+	}
+	inputs = new long[k.fanin[k.gates]];
+	value = new long[k.gates];
+	drive = new long[k.gates];
+	for (int g = 0; g < k.gates; g++) drive[g] = -1L;
+    }
+
+    /** Simulate every pattern in a file, printing the results
+     *  @param fileName the name of the pattern file
+     *  @param gates the gates, such that gates[i].id == i
+     *  @param probes the probes naming the gates whose values are printed
+     *  @throws IOException if the pattern file cannot be read
+     */
+    void run( String fileName, Gate[] gates, List <String> probes )
+	throws IOException
+    {
+	byte[] traced = Probes.select( gates, probes );
+	int[] shown = new int[gates.length];
+	int count = 0;
+	StringBuilder header = new StringBuilder();
+	for (int g = 0; g < gates.length; g++) {
+	    if (traced[g] == 0) continue;
+	    if (count > 0) header.append( ' ' );
+	    header.append( gates[g].name() );
+	    shown[count++] = g;
+	}
+	header.append( '\n' );
+	GeneratedEvaluator code = null;
+	if (generated) {
+	    // the generated code takes const gate values from value
+	    code = GeneratedEvaluator.generate( k, order, traced );
+	    System.arraycopy( drive, 0, value, 0, k.gates );
+	}
+
+	OutputStream out = new BufferedOutputStream( System.out, 1 << 16 );
+	try (BufferedReader in = new BufferedReader(
+	    new FileReader( fileName ), 1 << 16
+	)) {
+	    int[] input = inputs( in );
+	    String names = header.toString();
+	    out.write( names.getBytes( StandardCharsets.ISO_8859_1 ) );
+	    byte[] line = new byte[count + 1];
+	    line[count] = '\n';
+	    long[] batch = new long[input.length];
+	    for (;;) {
+		int n = read( in, batch );
+		if (n == 0) break;
+		for (int i = 0; i < input.length; i++) {
+		    drive[input[i]] = batch[i];
+		    value[input[i]] = batch[i];
+		}
+		if (code == null) {
+		    evaluate();
+		} else {
+		    code.evaluate( value );
+		}
+		for (int p = 0; p < n; p++) {
+		    for (int i = 0; i < count; i++) {
+			line[i] = (byte)('0' + ((value[shown[i]] >>> p) & 1));
+		    }
+		    out.write( line );
+		}
+		if (n < BATCH) break;
+	    }
+	}
+	out.flush();
+    }
+
+    /** Evaluate every gate once, for all the patterns of a batch
+     */
+    private void evaluate() {
+	byte[] kind = k.kind;
+	int[] fanout = k.fanout;
+	int[] fanin = k.fanin;
+	for (int g: order) {
+	    long v;
+	    byte kg = kind[g];
+	    if (kg == NetlistKernel.CONST) {
+		v = drive[g];
+	    } else {
+		// fold the inputs together, then invert if need be
+		int first = fanin[g];
+		int last = fanin[g + 1];
+		v = inputs[first];
+		if ((kg == NetlistKernel.AND) || (kg == NetlistKernel.NAND)) {
+		    for (int i = first + 1; i < last; i++) v = v & inputs[i];
+		} else if ((kg == NetlistKernel.OR)
+		       ||  (kg == NetlistKernel.NOR)) {
+		    for (int i = first + 1; i < last; i++) v = v | inputs[i];
+		} else {
+		    for (int i = first + 1; i < last; i++) v = v ^ inputs[i];
+		}
+		if (NetlistKernel.inverting( kg )) v = ~v;
+	    }
+	    value[g] = v;
+	    for (int w = fanout[g]; w < fanout[g + 1]; w++) {
+		inputs[inputAt[w]] = v;
+	    }
+	}
+    }
+
+    /** Read the line naming the inputs
+     *  @param in the pattern file
+     *  @return the gate id of each input, in the order named
+     *  @throws IOException if the file cannot be read
+     */
+    private int[] inputs( BufferedReader in ) throws IOException {
+	String line = nextLine( in );
+	if (line == null) Errors.fatal( "No inputs named in pattern file" );
+	List <Integer> ids = new ArrayList <Integer> ();
+	for (String name: line.trim().split( "\\s+" )) {
+	    int id = Logic.symbols.lookup( name );
+	    if ((id < 0) || (id >= k.gates)) {
+		Errors.fatal( "No such gate: " + name );
+	    } else if (k.kind[id] != NetlistKernel.CONST) {
+		Errors.fatal( "Not a const gate: " + name );
+	    } else if (ids.contains( id )) {
+		Errors.fatal( "Input named twice: " + name );
+	    }
+	    ids.add( id );
+	}
+	int[] input = new int[ids.size()];
+	for (int i = 0; i < input.length; i++) input[i] = ids.get( i );
+	return input;
+    }
+
+    /** Read a batch of patterns, transposing them so that each input's
+     *  values for the whole batch are the bits of one long
+     *  @param in the pattern file
+     *  @param batch filled in with each input's values, pattern p in bit p
+     *  @return the number of patterns read, less than BATCH only at the
+     *  end of the file
+     *  @throws IOException if the file cannot be read
+     */
+    private static int read( BufferedReader in, long[] batch )
+	throws IOException
+    {
+	for (int i = 0; i < batch.length; i++) batch[i] = 0;
+	int p = 0;
+	while (p < BATCH) {
+	    String line = nextLine( in );
+	    if (line == null) break;
+	    int i = 0;
+	    for (int j = 0; j < line.length(); j++) {
+		char c = line.charAt( j );
+		if ((c == ' ') || (c == '\t')) continue;
+		if (((c != '0') && (c != '1')) || (i == batch.length)) {
+		    Errors.fatal( "Bad pattern: " + line );
+		}
+		if (c == '1') batch[i] = batch[i] | (1L << p);
+		i = i + 1;
+	    }
+	    if (i < batch.length) Errors.fatal( "Bad pattern: " + line );
+	    p = p + 1;
+	}
+	return p;
+    }
+
+    /** @return the next line that is neither blank nor a comment, or null
+     *  at the end of the file
+     *  @param in the pattern file
+     *  @throws IOException if the file cannot be read
+     */
+    private static String nextLine( BufferedReader in ) throws IOException {
+	for (;;) {
+	    String line = in.readLine();
+	    if (line == null) return null;
+	    String t = line.trim();
+	    if (!t.isEmpty() && !t.startsWith( "--" )) return line;
+	}
+    }
+}
@@ -0,0 +1,137 @@
+/* Probes.java
+ * Selection of the gates whose output changes are traced
+ */
+
+import java.util.Arrays;
+import java.util.List;
+
+/** Probes name the gates whose output changes are traced.
+ *  A probe is a gate name, or a pattern in which * matches any run of
+ *  characters and ? matches any one character; the gates of an instance
+ *  of a {@link Module Module} are matched by their paths, such as
+ *  <tt>U.*</tt> for all of instance U.  Probes come from
+ *  <tt>probe</tt> lines in the circuit description and from the
+ *  -probe option; if there are none at all, every gate is traced.
+ *  @see Trace
+ */
+final class Probes {
+
+    /** The characters allowed in a probe: those of names, the dots of
+     *  paths, and * and ?
+     *  @param c the character
+     *  @return true if c may appear in a probe
+     */
+    static boolean isProbeChar( int c ) {
+	return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))
+	    || ((c >= '0') && (c <= '9')) || (c == '_') || (c == '.')
+	    || (c == '*') || (c == '?');
+    }
+
+    /** Find which gates are traced
+     *  Probes that match no gate are noted, since they are likely typing
+     *  errors, but they are not errors.
+     *  @param gates the gates, such that gates[i].id == i
+     *  @param probes the probes
+     *  @return for each gate id, 1 if the gate is traced and 0 if not
+     */
+    static byte[] select( Gate[] gates, List <String> probes ) {
+	return select( gates.length, probes );
+    }
+
+    /** Find which gates are traced, by their names in the symbol table,
+     *  also for gates that were never made as Gate objects
+     *  @param gates the number of gates
+     *  @param probes the probes
+     *  @return for each gate id, 1 if the gate is traced and 0 if not
+     */
+    static byte[] select( int gates, List <String> probes ) {
+	byte[] traced = new byte[gates];
+	if (probes.isEmpty()) {
+	    Arrays.fill( traced, (byte)1 );
+	    return traced;
+	}
+	for (String p: probes) {
+	    boolean any = false;
+	    if ((p.indexOf( '*' ) < 0) && (p.indexOf( '?' ) < 0)) {
+		// a plain name is found directly
+		int id = Logic.symbols.lookup( p );
+		if ((id >= 0) && (id < gates)) {
+		    traced[id] = 1;
+		    any = true;
+		}
+	    } else {
+		for (int id = 0; id < gates; id++) {
+		    if (matches( p, Logic.symbols.name( id ) )) {
+			traced[id] = 1;
+			any = true;
+		    }
+		}
+	    }
+	    if (!any) Errors.note( "Probe matches no gate: " + p );
+	}
+	return traced;
+    }
+
+    /** Find which gates of a store are traced
+     *  The names are kept in the store, not the symbol table, so plain
+     *  names are found by the same pass over them as patterns are.
+     *  @param store the circuit
+     *  @param probes the probes
+     *  @return for each gate id, 1 if the gate is traced and 0 if not
+     */
+    static byte[] select( NetlistStore store, List <String> probes ) {
+	byte[] traced = new byte[store.gates];
+	if (probes.isEmpty()) {
+	    Arrays.fill( traced, (byte)1 );
+	    return traced;
+	}
+	boolean[] any = new boolean[probes.size()];
+	for (int g = 0; g < store.gates; g++) {
+	    String name = store.name( g );
+	    for (int i = 0; i < any.length; i++) {
+		if (matches( probes.get( i ), name )) {
+		    traced[g] = 1;
+		    any[i] = true;
+		}
+	    }
+	}
+	for (int i = 0; i < any.length; i++) {
+	    if (!any[i]) {
+		Errors.note( "Probe matches no gate: " + probes.get( i ) );
+	    }
+	}
+	return traced;
+    }
+
+    /** Match a name against a pattern
+     *  @param p the pattern, where * matches any run and ? any character
+     *  @param s the name
+     *  @return true if the whole of s matches p
+     */
+    static boolean matches( String p, String s ) {
+	int i = 0;          // in p
+	int j = 0;          // in s
+	int star = -1;      // in p, just after the last * passed
+	int resume = 0;     // in s, where that * stopped matching
+	while (j < s.length()) {
+	    if ((i < p.length())
+	    &&  ((p.charAt( i ) == '?') || (p.charAt( i ) == s.charAt( j )))) {
+		i++;
+		j++;
+	    } else if ((i < p.length()) && (p.charAt( i ) == '*')) {
+		i++;
+		star = i;
+		resume = j;
+	    } else if (star >= 0) {
+		// let the last * match one more character and retry
+		i = star;
+		resume++;
+		j = resume;
+	    } else {
+		return false;
+	    }
+	}
+	while ((i < p.length()) && (p.charAt( i ) == '*')) i++;
+	return i == p.length();
+    }
+}
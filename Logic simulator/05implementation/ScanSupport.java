@@ -12,6 +12,8 @@ class ScanSupport {
     // patterns needed for scanning
     private static final Pattern name
 	= Pattern.compile( "[a-zA-Z0-9_]*" );
+    private static final Pattern probe
+	= Pattern.compile( "[a-zA-Z0-9_.*?]*" );
     private static final Pattern intPattern
 	= Pattern.compile( "-?[0-9][0-9]*|");
     private static final Pattern floatPattern
@@ -42,6 +44,26 @@ class ScanSupport {
 	return s;
     }
 
+    /** Get next probe, a name that may hold * and ?, without skipping
+     *  to next line
+     *  @param sc the scanner from which end of line is scanned
+     *  @param message the context part of the missing probe error message
+     *  @return the probe if there was one.
+     *  @throws NotFound if there wasn't one
+     *  @see Probes
+     */
+    public static String nextProbe( Scanner sc, Message m ) throws NotFound {
+	sc.skip( whitespace );
+	sc.skip( probe );
+	String s = sc.match().group();
+	if ("".equals( s )) {
+	    Errors.warn( "name expected: " + m.myString() );
+	    sc.nextLine();
+	    throw new NotFound();
+	}
+	return s;
+    }
+
     /** Get next int without skipping to next line (unlike sc.nextInt())
      *  @param sc the scanner from which end of line is scanned
      *  @param message the message to output if there was no int
@@ -80,6 +102,19 @@ class ScanSupport {
 	return Float.parseFloat( s );
     }
 
+    /** Get next float if there is one, without complaining if not
+     *  @param sc the scanner from which the float is scanned
+     *  @return the value if there was one, or NaN if there wasn't,
+     *  leaving the rest of the line to the caller
+     */
+    public static float nextFloatIfAny( Scanner sc ) {
+	sc.skip( whitespace );
+	sc.skip( floatPattern );
+	String s = sc.match().group();
+	if ("".equals( s )) return Float.NaN;
+	return Float.parseFloat( s );
+    }
+
     /** Advance to next line and complain if is junk at the line end
      *  @see Errors
      *  @param sc the scanner from which end of line is scanned
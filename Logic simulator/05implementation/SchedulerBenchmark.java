@@ -0,0 +1,156 @@
+/* SchedulerBenchmark.java
+ * Compare the pending event sets available to Simulator
+ */
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/** Measures events per second through each pending event set.
+ *  The workload is the classic hold model: a fixed population of pending
+ *  events, where each event removed schedules one new event a short delay
+ *  later.  This is the steady state of a deep netlist in which every
+ *  gate output change travels down a long path of wires and gates.
+ *  Each path alternates between a fixed wire delay and a gate delay with
+ *  the same plus or minus five percent jitter that the gates use.
+ *  <p>
+ *  Usage: java SchedulerBenchmark [pending-events [events-to-run]]
+ */
+public class SchedulerBenchmark {
+
+    // the event objects held by the PriorityQueue, as in Simulator
+    private static final class QueuedEvent {
+	final float time;
+	final long serial;
+	final int target;
+	final boolean gateNext; // is the next hop through a gate
+
+	QueuedEvent( float time, long serial, int target, boolean gateNext ) {
+	    this.time = time;
+	    this.serial = serial;
+	    this.target = target;
+	    this.gateNext = gateNext;
+	}
+    }
+
+    // the delays used by the hold model, precomputed so that the cost
+    // of generating them is not measured
+    private static float[] wireDelays;
+    private static float[] gateDelays;
+    private static float[] startTimes;
+    private static final int DELAYS = 1 << 16; // a power of two
+
+    /** fill the delay tables
+     */
+    private static void makeDelays() {
+	Random rand = new Random( 1 );
+	wireDelays = new float[DELAYS];
+	gateDelays = new float[DELAYS];
+	startTimes = new float[DELAYS];
+	for (int i = 0; i < DELAYS; i++) {
+	    wireDelays[i] = (rand.nextInt( 4 ) + 1) * 0.5F;
+	    float delay = 1.0F;
+	    gateDelays[i] = delay * 0.95f + rand.nextFloat() * delay * 0.1f;
+	    startTimes[i] = rand.nextFloat() * 2.0F;
+	}
+    }
+
+    /** run the hold model through a PriorityQueue of event objects
+     *  @param pending the population of pending events
+     *  @param events the number of events to remove
+     *  @return a checksum of the targets removed
+     */
+    private static long runQueue( int pending, long events ) {
+	PriorityQueue <QueuedEvent> q = new PriorityQueue <QueuedEvent> (
+	    (QueuedEvent e1, QueuedEvent e2) -> {
+		int c = Float.compare( e1.time, e2.time );
+		if (c != 0) return c;
+		return Long.compare( e1.serial, e2.serial );
+	    }
+	);
+	long serial = 0;
+	for (int i = 0; i < pending; i++) {
+	    q.add( new QueuedEvent(
+		startTimes[i & (DELAYS - 1)], serial++, i, false
+	    ) );
+	}
+	long sum = 0;
+	int d = 0;
+	for (long n = 0; n < events; n++) {
+	    QueuedEvent e = q.remove();
+	    sum = sum + e.target;
+	    float delay = e.gateNext ? gateDelays[d] : wireDelays[d];
+	    q.add( new QueuedEvent(
+		e.time + delay, serial++, e.target, !e.gateNext
+	    ) );
+	    d = (d + 1) & (DELAYS - 1);
+	}
+	return sum;
+    }
+
+    /** run the hold model through a primitive event set
+     *  @param s the event set, initially empty
+     *  @param pending the population of pending events
+     *  @param events the number of events to remove
+     *  @return a checksum of the targets removed
+     */
+    private static long runSet( EventSet s, int pending, long events ) {
+	long serial = 0;
+	for (int i = 0; i < pending; i++) {
+	    s.add( startTimes[i & (DELAYS - 1)], serial++, i, 0, false );
+	}
+	long sum = 0;
+	int d = 0;
+	for (long n = 0; n < events; n++) {
+	    s.removeFirst();
+	    sum = sum + s.target;
+	    float delay = s.value ? gateDelays[d] : wireDelays[d];
+	    s.add( s.time + delay, serial++, s.target, s.pin, !s.value );
+	    d = (d + 1) & (DELAYS - 1);
+	}
+	return sum;
+    }
+
+    /** time one event set and report its rate
+     *  @param name the name of the event set
+     *  @param pending the population of pending events
+     *  @param events the number of events to remove
+     */
+    private static void measure( String name, int pending, long events ) {
+	long start = System.nanoTime();
+	long sum;
+	if ("queue".equals( name )) {
+	    sum = runQueue( pending, events );
+	} else if ("heap".equals( name )) {
+	    sum = runSet( new EventHeap(), pending, events );
+	} else {
+	    sum = runSet( new CalendarQueue(), pending, events );
+	}
+	double seconds = (System.nanoTime() - start) * 1e-9;
+	System.out.printf(
+	    "%-9s %10d pending %14.0f events/sec  (checksum %d)%n",
+	    name, pending, events / seconds, sum
+	);
+    }
+
+    /** Main program
+     *  @param args optional population of pending events and number of
+     *  events to run, defaults 100000 and 20000000
+     */
+    public static void main( String[] args ) {
+	int pending = 100000;
+	long events = 20000000;
+	if (args.length > 0) pending = Integer.parseInt( args[0] );
+	if (args.length > 1) events = Long.parseLong( args[1] );
+	makeDelays();
+
+	String[] sets = { "queue", "heap", "calendar" };
+	// the first round warms up the JIT and is not reported
+	for (String s: sets) {
+	    if ("queue".equals( s )) runQueue( pending, events / 10 );
+	    else if ("heap".equals( s )) {
+		runSet( new EventHeap(), pending, events / 10 );
+	    } else runSet( new CalendarQueue(), pending, events / 10 );
+	}
+	for (String s: sets) measure( s, pending, events );
+    }
+}
@@ -3,6 +3,8 @@
  * author Douglas W. Jones
  * version 2017-11-09
  * Brand new framework without lambda expressions
+ * The pending event set may be either a PriorityQueue of Event objects
+ * or an allocation-free EventSet of primitive event records
  */
 
 import java.util.PriorityQueue;
@@ -15,20 +17,112 @@ public class Simulator {
 	// time of event, always set by subclass constructor, effectively final
 	protected final float time;
 
+	// breaks ties between events at the same time, see EventSet.key
+	private final long key;
+
 	// constructor
-	Event( float t ) {
+	Event( float t, long k ) {
 	    time = t;
+	    key = k;
 	}
 
 	// each subclass must define how to trigger it
 	abstract void trigger();
     }
 
+    /** pin number used in primitive events that are output changes
+     *  By convention -1 is an illegal pin number, so this can never be
+     *  confused with a change at one of the gate's input pins.
+     */
+    public static final int OUTPUT = -1;
+
+    // events at the same time are taken in order of their keys
     private static PriorityQueue <Event> eventSet
 	= new PriorityQueue <Event> (
-	    (Event e1, Event e2) -> Float.compare( e1.time, e2.time )
+	    (Event e1, Event e2) -> {
+		int c = Float.compare( e1.time, e2.time );
+		if (c != 0) return c;
+		return Long.compare( e1.key, e2.key );
+	    }
 	);
 
+    // the primitive event set, if one was selected, otherwise null
+    private static EventSet primitiveSet = null;
+
+    // gates indexed by Gate.id, used to dispatch primitive events
+    private static Gate[] gates = null;
+
+    // per gate, indexed by Gate.id, how many events it has scheduled
+    private static long[] scheduled = null;
+
+    // true for inertial delay, in which case primitiveSet is an EventHeap
+    private static boolean inertial = false;
+
+    // the simulation stops before any event after until, or after most
+    private static float until = Float.POSITIVE_INFINITY;
+    private static long most = Long.MAX_VALUE;
+
+    /** select the primitive event set instead of the queue of Event objects
+     *  This must be called before any event is scheduled.
+     *  @param s the event set to use
+     */
+    public static void useEventSet( EventSet s ) {
+	primitiveSet = s;
+    }
+
+    /** select inertial delay, with which a gate cancels a pending output
+     *  change that a new value undoes, see {@link LogicGate#newValue}
+     *  This must be called before any event is scheduled.
+     *  @param heap the event set to use, which can cancel events
+     *  @param gates the number of gates
+     */
+    public static void useInertialDelay( EventHeap heap, int gates ) {
+	primitiveSet = heap;
+	heap.indexOutputs( gates );
+	inertial = true;
+    }
+
+    /** limit how long the simulation runs, by default it runs until
+     *  there are no more events, which for some circuits is never
+     *  @param time the simulation stops before any event after this time
+     *  @param events the simulation stops after this many events
+     */
+    public static void limit( float time, long events ) {
+	until = time;
+	most = events;
+    }
+
+    /** @return true if inertial delay was selected
+     */
+    static boolean inertial() {
+	return inertial;
+    }
+
+    /** cancel the pending output change of a gate, with inertial delay
+     *  @param g the gate
+     */
+    static void cancel( Gate g ) {
+	((EventHeap)primitiveSet).cancelOutput( g.id );
+    }
+
+    /** give the simulator the table of gates that primitive events name
+     *  @param g the gates, such that g[i].id == i
+     */
+    public static void setGates( Gate[] g ) {
+	gates = g;
+	scheduled = new long[g.length];
+    }
+
+    /** @return the key of the next event a gate schedules
+     *  @param from the gate that schedules the event
+     *  @see EventSet#key
+     */
+    private static long nextKey( Gate from ) {
+	long count = scheduled[from.id];
+	scheduled[from.id] = count + 1;
+	return EventSet.key( from.id, count );
+    }
+
     /** schedule one new event
      *  @param e the event to schedule
      */
@@ -36,13 +130,91 @@ public class Simulator {
 	eventSet.add( e );
     }
 
+    /** schedule the arrival of a new value at an input pin of a gate
+     *  @param time when the value arrives
+     *  @param from the gate whose output sends the value
+     *  @param g the gate that receives the value
+     *  @param pin the input pin of g that changes
+     *  @param v the new value
+     */
+    public static void schedule(
+	float time, Gate from, Gate g, int pin, boolean v
+    ) {
+	long key = nextKey( from );
+	if (primitiveSet != null) {
+	    primitiveSet.add( time, key, g.id, pin, v );
+	} else {
+	    schedule( new Event( time, key ) {
+		void trigger() {
+		    g.inputChangeEvent( this.time, pin, v );
+		}
+	    } );
+	}
+    }
+
+    /** schedule a change at the output of a gate
+     *  @param time when the output changes
+     *  @param g the gate whose output changes
+     */
+    public static void schedule( float time, Gate g ) {
+	long key = nextKey( g );
+	if (primitiveSet != null) {
+	    primitiveSet.add( time, key, g.id, OUTPUT, false );
+	} else {
+	    schedule( new Event( time, key ) {
+		void trigger() {
+		    g.outputChangeEvent( this.time );
+		}
+	    } );
+	}
+    }
+
+    /** forget every pending event and setting, as before any simulation,
+     *  so that another circuit may be simulated
+     */
+    static void reset() {
+	eventSet.clear();
+	primitiveSet = null;
+	gates = null;
+	scheduled = null;
+	inertial = false;
+	until = Float.POSITIVE_INFINITY;
+	most = Long.MAX_VALUE;
+    }
+
     /** main loop that runs the simulation
      *  This must be called after all initial events are scheduled.
+     *  @return the number of events simulated
      */
-    public static void run() {
-	while (!eventSet.isEmpty()) {
+    public static long run() {
+	if (primitiveSet != null) return runPrimitive( primitiveSet );
+	long count = 0;
+	while (!eventSet.isEmpty() && (count < most)) {
 	    Event e = eventSet.remove();
+	    if (e.time > until) break;
+	    count = count + 1;
 	    e.trigger();
 	}
+	return count;
+    }
+
+    /** main loop over primitive events, no objects are allocated per event
+     *  @param s the event set holding the pending events
+     *  @return the number of events simulated
+     */
+    private static long runPrimitive( EventSet s ) {
+	long count = 0;
+	while (!s.isEmpty() && (count < most)) {
+	    s.removeFirst();
+	    if (s.time > until) break;
+	    count = count + 1;
+	    Gate g = gates[s.target];
+	    if (s.pin == OUTPUT) {
+		g.outputChangeEvent( s.time );
+	    } else {
+		g.inputChangeEvent( s.time, s.pin, s.value );
+	    }
+	}
+	return count;
     }
 } // class Simulator
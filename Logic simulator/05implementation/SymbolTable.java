@@ -0,0 +1,277 @@
+/* SymbolTable.java
+ * Interned gate names with dense integer ids
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** The names of all gates, interned into one shared table.
+ *  Each distinct name gets a dense integer id, in order of interning,
+ *  and lookup by name takes constant expected time through an open
+ *  addressed hash table of ids.
+ *  The characters of all names are kept end to end in a single byte
+ *  arena instead of one String per gate; gate names are made of letters,
+ *  digits and underscores, so one byte per character suffices.
+ *  Later stages such as the kernel and the trace identify gates by these
+ *  ids, and only build a String when a name must be printed.
+ *  <p>
+ *  The gates of an instance of a {@link Module Module} take a block of
+ *  ids whose names are not kept at all.  Such a name is made from the
+ *  instance and the module when it is needed, and a name with dots in
+ *  it is looked up by following its path from the instance.
+ *  @see Gate
+ */
+final class SymbolTable {
+    // the characters of name i are arena[start[i]] to arena[start[i + 1] - 1]
+    private byte[] arena = new byte[4096];
+    private int[] start = new int[257];
+    private int[] hashes = new int[256];    // hash of name i
+    private int count = 0;
+
+    // the hash table, length a power of 2; a slot holds the hash of a
+    // name in its high half and the id + 1 in its low half, or 0 if empty,
+    // so most failed probes are rejected without touching the arena
+    private long[] slots = new long[512];
+
+    // the instances of modules, in order of their blocks of ids, and by
+    // name; the ids of a block have empty names in the arena
+    private Module.Instance[] instances = new Module.Instance[8];
+    private int instanceCount = 0;
+    private final HashMap <String, Module.Instance> instanceNamed
+	= new HashMap <String, Module.Instance> ();
+
+    /** Forget every name and instance, as a new table would
+     */
+    void clear() {
+	arena = new byte[4096];
+	start = new int[257];
+	hashes = new int[256];
+	count = 0;
+	slots = new long[512];
+	instances = new Module.Instance[8];
+	instanceCount = 0;
+	instanceNamed.clear();
+    }
+
+    /** @return the number of names in the table
+     */
+    int size() {
+	return count;
+    }
+
+    /** Find the id of a name
+     *  @param s the name
+     *  @return the id of s, or -1 if s has never been interned
+     */
+    int lookup( String s ) {
+	int h = hash( s );
+	int mask = slots.length - 1;
+	for (int i = h & mask; slots[i] != 0; i = (i + 1) & mask) {
+	    long slot = slots[i];
+	    int id = (int)slot - 1;
+	    if (((int)(slot >>> 32) == h) && equals( id, s )) return id;
+	}
+	int dot = s.indexOf( '.' );
+	if ((dot < 0) || (instanceCount == 0)) return -1;
+
+	// the name of a gate of an instance
+	Module.Instance in = instanceNamed.get( s.substring( 0, dot ) );
+	if (in == null) return -1;
+	int g = in.module.lookup( s.substring( dot + 1 ) );
+	return (g < 0) ? -1 : in.first + g;
+    }
+
+    /** Find the id of a name held as bytes, without making a String
+     *  @param b the buffer holding the name
+     *  @param off the index of the first byte of the name in b
+     *  @param len the length of the name
+     *  @return the id of the name, or -1 if it has never been interned
+     */
+    int lookup( byte[] b, int off, int len ) {
+	int h = hash( b, off, len );
+	int mask = slots.length - 1;
+	for (int i = h & mask; slots[i] != 0; i = (i + 1) & mask) {
+	    long slot = slots[i];
+	    int id = (int)slot - 1;
+	    if (((int)(slot >>> 32) == h) && equals( id, b, off, len )) return id;
+	}
+	return -1;
+    }
+
+    /** Find the id of a name, adding it to the table if it is new
+     *  @param s the name
+     *  @return the id of s
+     */
+    int intern( String s ) {
+	int id = lookup( s );
+	if (id >= 0) return id;
+
+	int len = s.length();
+	int at = reserve( len );
+	for (int i = 0; i < len; i++) arena[at + i] = (byte)s.charAt( i );
+	return add( at, len, hash( s ) );
+    }
+
+    /** Find the id of a name held as bytes, adding it if it is new
+     *  @param b the buffer holding the name
+     *  @param off the index of the first byte of the name in b
+     *  @param len the length of the name
+     *  @return the id of the name
+     */
+    int intern( byte[] b, int off, int len ) {
+	int id = lookup( b, off, len );
+	if (id >= 0) return id;
+
+	int at = reserve( len );
+	System.arraycopy( b, off, arena, at, len );
+	return add( at, len, hash( b, off, len ) );
+    }
+
+    /** Set aside a block of ids for the gates of an instance of a module
+     *  @param name the name of the instance
+     *  @param m the module
+     *  @return the first id of the block
+     */
+    int block( String name, Module m ) {
+	Module.Instance in = new Module.Instance( name, m, count );
+	if (instanceCount == instances.length) {
+	    instances = Arrays.copyOf( instances, instanceCount * 2 );
+	}
+	instances[instanceCount++] = in;
+	instanceNamed.put( name, in );
+
+	int end = count + m.size();
+	if (end > hashes.length) {
+	    int length = Math.max( hashes.length * 2, end );
+	    hashes = Arrays.copyOf( hashes, length );
+	    start = Arrays.copyOf( start, length + 1 );
+	}
+	Arrays.fill( start, count + 1, end + 1, start[count] );
+	count = end;
+	return in.first;
+    }
+
+    /** Find an instance of a module by name
+     *  @param name the name of the instance
+     *  @return the instance, or null if there is none by that name
+     */
+    Module.Instance instance( String name ) {
+	return (instanceCount == 0) ? null : instanceNamed.get( name );
+    }
+
+    /** @return true if any instance of a module has been made
+     */
+    boolean hasInstances() {
+	return instanceCount > 0;
+    }
+
+    // make room for one more name of len bytes, returning where it goes
+    private int reserve( int len ) {
+	if (count == hashes.length) {
+	    hashes = Arrays.copyOf( hashes, count * 2 );
+	    start = Arrays.copyOf( start, count * 2 + 1 );
+	}
+	int at = start[count];
+	if (at + len > arena.length) {
+	    arena = Arrays.copyOf(
+		arena, Math.max( arena.length * 2, at + len )
+	    );
+	}
+	return at;
+    }
+
+    // enter the name just copied to arena[at] as a new id
+    private int add( int at, int len, int h ) {
+	int id = count;
+	count = count + 1;
+	start[count] = at + len;
+	hashes[id] = h;
+
+	// keep the hash table at most half full
+	if (count * 2 > slots.length) {
+	    slots = new long[slots.length * 2];
+	    for (int i = 0; i < count; i++) {
+		if (start[i + 1] != start[i]) place( i );
+	    }
+	} else {
+	    place( id );
+	}
+	return id;
+    }
+
+    /** Get a name back from the table
+     *  @param id the id of the name
+     *  @return the name, as a new String
+     */
+    String name( int id ) {
+	int at = start[id];
+	if (start[id + 1] == at) return instanceName( id );
+	char[] c = new char[start[id + 1] - at];
+	for (int i = 0; i < c.length; i++) c[i] = (char)arena[at + i];
+	return new String( c );
+    }
+
+    // make the name of a gate in the block of an instance
+    private String instanceName( int id ) {
+	// the last instance whose block starts at or before id
+	int low = 0;
+	int high = instanceCount - 1;
+	while (low < high) {
+	    int mid = (low + high + 1) >>> 1;
+	    if (instances[mid].first <= id) {
+		low = mid;
+	    } else {
+		high = mid - 1;
+	    }
+	}
+	Module.Instance in = instances[low];
+	return in.name + "." + in.module.name( id - in.first );
+    }
+
+    // put id into the first empty slot for its hash
+    private void place( int id ) {
+	int mask = slots.length - 1;
+	int i = hashes[id] & mask;
+	while (slots[i] != 0) i = (i + 1) & mask;
+	slots[i] = ((long)hashes[id] << 32) | (id + 1);
+    }
+
+    // true if name id has the same bytes as b[off] to b[off + len - 1]
+    private boolean equals( int id, byte[] b, int off, int len ) {
+	int at = start[id];
+	if (len != start[id + 1] - at) return false;
+	for (int i = 0; i < len; i++) {
+	    if (arena[at + i] != b[off + i]) return false;
+	}
+	return true;
+    }
+
+    // true if name id has the same characters as s
+    private boolean equals( int id, String s ) {
+	int at = start[id];
+	int len = start[id + 1] - at;
+	if (len != s.length()) return false;
+	for (int i = 0; i < len; i++) {
+	    if (arena[at + i] != (byte)s.charAt( i )) return false;
+	}
+	return true;
+    }
+
+    // the hash of a name, FNV-1a over its bytes
+    private static int hash( String s ) {
+	int h = 0x811c9dc5;
+	for (int i = 0; i < s.length(); i++) {
+	    h = (h ^ (s.charAt( i ) & 0xff)) * 0x01000193;
+	}
+	return h ^ (h >>> 16);
+    }
+
+    // the same hash, of a name held as bytes
+    private static int hash( byte[] b, int off, int len ) {
+	int h = 0x811c9dc5;
+	for (int i = off; i < off + len; i++) {
+	    h = (h ^ (b[i] & 0xff)) * 0x01000193;
+	}
+	return h ^ (h >>> 16);
+    }
+}
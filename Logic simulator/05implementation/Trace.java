@@ -0,0 +1,316 @@
+/* Trace.java
+ * The trace of gate output changes, written by a background thread
+ */
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/** The trace of output changes printed by a simulation.
+ *  Each change is given to {@link #change change} as a time, a gate id
+ *  and a value.  Unless the trace is synchronous, these are only stored
+ *  in a preallocated ring buffer; a writer thread takes them out, formats
+ *  the lines, with exactly the text the gates always printed, and writes
+ *  them to System.out in large blocks.  Instead of lines, the trace may
+ *  be written to a file as a {@link ValueChangeDump ValueChangeDump}.
+ *  <p>
+ *  Only the gates selected by the {@link Probes Probes} are traced.  A
+ *  change of any other gate is stored all the same, but the ring does
+ *  not advance over it, so the simulation never branches on whether a
+ *  gate is traced, and the writer never sees the change.
+ *  <p>
+ *  If the simulation gets a whole ring ahead of the writer, it either
+ *  waits for the writer or drops the change, depending on the mode, and
+ *  counts how often; the counts are reported when the trace is finished.
+ *  Only one thread, the simulation, may report changes.
+ *  @see Gate#traceLine
+ */
+final class Trace {
+    // changes held in the ring, a power of 2
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+
+    // bytes of text gathered before they are written
+    private static final int BLOCK = 1 << 16;
+
+    // the gates, indexed by id, that changes are reported for, or the
+    // kernel or the store that holds them
+    private static Gate[] gates;
+    private static NetlistKernel kernel;
+    private static NetlistStore store;
+
+    // per gate, indexed by id, 1 if it is traced, 0 if not
+    private static byte[] traced;
+
+    // where the trace goes, and its format, null for lines of text
+    private static OutputStream out = System.out;
+    private static ValueChangeDump dump = null;
+
+    // text formatted by the simulation itself, for a synchronous dump
+    private static final StringBuilder pending = new StringBuilder();
+
+    // set if the trace could not be written
+    private static volatile boolean failed = false;
+
+    // the ring, null if the trace is synchronous
+    private static float[] times = null;
+    private static int[] ids;
+    private static boolean[] values;
+
+    // if the ring is full, drop changes instead of waiting for the writer
+    private static boolean drop;
+
+    // changes numbered from 0; the simulation has stored changes up to
+    // published, and the writer has taken those up to taken; head and
+    // room are the simulation's own copies of published and taken
+    private static final AtomicLong published = new AtomicLong();
+    private static final AtomicLong taken = new AtomicLong();
+    private static long head = 0;
+    private static long room = 0;
+
+    // how many changes were dropped, and how often the simulation waited
+    private static long dropped = 0;
+    private static long blocked = 0;
+
+    private static Thread writer = null;
+    private static volatile boolean finishing = false;
+
+    /** Start the trace
+     *  @param g the gates, such that g[i].id == i
+     *  @param probes the probes that select the gates that are traced
+     *  @param mode "sync" to print each change as it is reported,
+     *  "async" to write them from the writer thread, waiting for it
+     *  when the ring is full, or "drop" to do so, but drop changes when
+     *  the ring is full
+     *  @param vcdName the name of the file to which a Value Change Dump is
+     *  written, or null to print lines of text on System.out
+     */
+    static void start( Gate[] g, List <String> probes,
+		       String mode, String vcdName ) {
+	gates = g;
+	kernel = null;
+	store = null;
+	traced = Probes.select( gates, probes );
+	start( mode, vcdName, id -> gates[id].name() );
+    }
+
+    /** Start the trace of a circuit compiled into a kernel, some of whose
+     *  gates may have no Gate objects
+     *  @param k the kernel
+     *  @param probes the probes that select the gates that are traced
+     *  @param mode as for {@link #start(Gate[],List,String,String) start}
+     *  @param vcdName as for {@link #start(Gate[],List,String,String) start}
+     */
+    static void start( NetlistKernel k, List <String> probes,
+		       String mode, String vcdName ) {
+	kernel = k;
+	store = null;
+	traced = Probes.select( kernel.gates, probes );
+	start( mode, vcdName, Logic.symbols::name );
+    }
+
+    /** Start the trace of a circuit held in a store
+     *  @param s the store
+     *  @param probes the probes that select the gates that are traced
+     *  @param mode as for {@link #start(Gate[],List,String,String) start}
+     *  @param vcdName as for {@link #start(Gate[],List,String,String) start}
+     */
+    static void start( NetlistStore s, List <String> probes,
+		       String mode, String vcdName ) {
+	store = s;
+	traced = Probes.select( store, probes );
+	start( mode, vcdName, store::name );
+    }
+
+    // start the trace of the gates selected by traced, forgetting any
+    // trace before, so that the trace may be started again once finished
+    private static void start( String mode, String vcdName,
+			       IntFunction <String> name ) {
+	finishing = false;
+	published.set( 0 );
+	taken.set( 0 );
+	head = 0;
+	room = 0;
+	dropped = 0;
+	blocked = 0;
+	times = null;
+	dump = null;
+	if (vcdName != null) {
+	    try {
+		out = new FileOutputStream( vcdName );
+	    } catch (FileNotFoundException e) {
+		Errors.fatal( "Can't create the file " + vcdName );
+	    }
+	    dump = new ValueChangeDump();
+	    dump.header( pending, traced, name );
+	    writeBlock( pending );
+	}
+	if ("sync".equals( mode )) return;
+	drop = "drop".equals( mode );
+	times = new float[CAPACITY];
+	ids = new int[CAPACITY];
+	values = new boolean[CAPACITY];
+	room = CAPACITY;
+	writer = new Thread( Trace::write, "trace writer" );
+	writer.setDaemon( true );
+	writer.start();
+    }
+
+    /** Report a change of a gate's output
+     *  @param time when the output changed
+     *  @param id the id of the gate
+     *  @param value the new value of the output
+     */
+    static void change( float time, int id, boolean value ) {
+	if (times == null) {
+	    if (traced[id] == 0) {
+		// not traced
+	    } else if (dump == null) {
+		StringBuilder b = new StringBuilder();
+		line( b, id, time, value );
+		System.out.println( b );
+	    } else {
+		dump.change( pending, time, id, value );
+		if (pending.length() >= BLOCK) writeBlock( pending );
+	    }
+	    return;
+	}
+	if ((head == room) && !waitForRoom( id )) return;
+	int i = (int)head & MASK;
+	times[i] = time;
+	ids[i] = id;
+	values[i] = value;
+	head = head + traced[id];
+	published.lazySet( head );
+    }
+
+    /** Finish the trace, waiting for the writer to write all changes,
+     *  and report any dropped changes or waits.
+     *  This may be called more than once.
+     */
+    static void finish() {
+	if (writer != null) {
+	    finishing = true;
+	    LockSupport.unpark( writer );
+	    try {
+		writer.join();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    writer = null;
+	}
+	if (pending.length() > 0) writeBlock( pending );
+	if (out != System.out) {
+	    try {
+		out.close();
+	    } catch (IOException e) {
+		failed = true;
+	    }
+	    out = System.out;
+	}
+	System.out.flush();
+	if (failed) {
+	    failed = false;
+	    Errors.warn( "Can't write the trace" );
+	}
+	if (dropped > 0) {
+	    Errors.note( "Trace writer fell behind, "
+		+ dropped + " changes were not traced"
+	    );
+	    dropped = 0;
+	}
+	if (blocked > 0) {
+	    Errors.note( "Trace writer fell behind, "
+		+ "simulation waited for it " + blocked + " times"
+	    );
+	    blocked = 0;
+	}
+    }
+
+    /** The ring is full; wait for room, or count a dropped change
+     *  @param id the id of the gate whose change needs room
+     *  @return true if there is now room
+     */
+    private static boolean waitForRoom( int id ) {
+	room = taken.get() + CAPACITY;
+	if (head < room) return true;
+	if (traced[id] == 0) return false;
+	if (drop) {
+	    dropped = dropped + 1;
+	    return false;
+	}
+	blocked = blocked + 1;
+	do {
+	    LockSupport.unpark( writer );
+	    Thread.onSpinWait();
+	    room = taken.get() + CAPACITY;
+	} while (head == room);
+	return true;
+    }
+
+    /** The writer thread; formats and writes changes until finished
+     */
+    private static void write() {
+	String lineEnd = System.lineSeparator();
+	StringBuilder b = new StringBuilder( BLOCK + 256 );
+	long next = 0;
+	for (;;) {
+	    boolean last = finishing;
+	    long end = published.get();
+	    if (next == end) {
+		if (b.length() > 0) {
+		    writeBlock( b );
+		} else if (last) {
+		    return;
+		} else {
+		    LockSupport.parkNanos( 100000 );
+		}
+		continue;
+	    }
+	    // a batch at a time, so that the ring empties as it is written
+	    long batch = Math.min( end, next + 1024 );
+	    for (; next < batch; next++) {
+		int i = (int)next & MASK;
+		if (dump == null) {
+		    line( b, ids[i], times[i], values[i] );
+		    b.append( lineEnd );
+		} else {
+		    dump.change( b, times[i], ids[i], values[i] );
+		}
+	    }
+	    taken.lazySet( next );
+	    if (b.length() >= BLOCK) writeBlock( b );
+	}
+    }
+
+    // append the line tracing a change, as the gate or store gives it
+    private static void line( StringBuilder b, int id, float time,
+			      boolean value ) {
+	if (store != null) {
+	    store.traceLine( b, id, time, value );
+	} else if (kernel != null) {
+	    kernel.traceLine( b, id, time, value );
+	} else {
+	    gates[id].traceLine( b, time, value );
+	}
+    }
+
+    // write a block of the trace, and empty b; after a failure, the
+    // rest of the trace is discarded
+    private static void writeBlock( StringBuilder b ) {
+	byte[] bytes = b.toString().getBytes();
+	b.setLength( 0 );
+	if (failed) return;
+	try {
+	    out.write( bytes, 0, bytes.length );
+	    out.flush();
+	} catch (IOException e) {
+	    failed = true;
+	}
+    }
+}
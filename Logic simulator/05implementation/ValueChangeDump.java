@@ -0,0 +1,88 @@
+/* ValueChangeDump.java
+ * The trace of gate output changes as a Value Change Dump (VCD) file
+ */
+
+import java.util.function.IntFunction;
+
+/** Formats the trace as a Value Change Dump, IEEE 1364 section 18,
+ *  which waveform viewers read.
+ *  Each gate output is one single-bit variable, named by the gate and
+ *  identified by a short code of printable characters derived from the
+ *  gate's id.  Simulation time, measured in seconds, is written in
+ *  nanoseconds, the timescale of the dump.
+ *  <p>
+ *  A dump is made by one thread, the {@link Trace Trace} writer or the
+ *  simulation, so it keeps the time of the last change it wrote
+ *  without synchronization.
+ */
+final class ValueChangeDump {
+    // ticks of the timescale per second of simulated time
+    private static final double TICKS = 1e9;
+
+    // identifier codes use the printable characters '!' to '~'
+    private static final int FIRST = '!';
+    private static final int RADIX = '~' - '!' + 1;
+
+    // the time of the most recent change written, in ticks
+    private long lastTick = -1;
+
+    /** Append the header of the dump, declaring a variable for each gate
+     *  that is traced and giving each its initial value, false
+     *  @param b where the header is appended
+     *  @param traced for each gate id, 1 if the gate is traced, 0 if not
+     *  @param name gives the name of each gate, by id
+     */
+    void header( StringBuilder b, byte[] traced, IntFunction <String> name ) {
+	b.append( "$version Logic simulator $end\n" );
+	b.append( "$timescale 1 ns $end\n" );
+	b.append( "$scope module logic $end\n" );
+	for (int g = 0; g < traced.length; g++) {
+	    if (traced[g] == 0) continue;
+	    b.append( "$var wire 1 " );
+	    code( b, g );
+	    b.append( ' ' ).append( name.apply( g ) ).append( " $end\n" );
+	}
+	b.append( "$upscope $end\n" );
+	b.append( "$enddefinitions $end\n" );
+	b.append( "#0\n" );
+	b.append( "$dumpvars\n" );
+	for (int g = 0; g < traced.length; g++) {
+	    if (traced[g] == 0) continue;
+	    b.append( '0' );
+	    code( b, g );
+	    b.append( '\n' );
+	}
+	b.append( "$end\n" );
+	lastTick = 0;
+    }
+
+    /** Append a change of a gate's output, after the time if it is new
+     *  Changes must be given in order of time.
+     *  @param b where the change is appended
+     *  @param time when the output changed
+     *  @param id the id of the gate
+     *  @param v the new output value
+     */
+    void change( StringBuilder b, float time, int id, boolean v ) {
+	long tick = Math.round( time * TICKS );
+	if (tick != lastTick) {
+	    b.append( '#' ).append( tick ).append( '\n' );
+	    lastTick = tick;
+	}
+	b.append( v ? '1' : '0' );
+	code( b, id );
+	b.append( '\n' );
+    }
+
+    /** Append the identifier code of a gate, its id in base 94, least
+     *  significant digit first
+     *  @param b where the code is appended
+     *  @param id the id of the gate
+     */
+    private static void code( StringBuilder b, int id ) {
+	do {
+	    b.append( (char)(FIRST + (id % RADIX)) );
+	    id = id / RADIX;
+	} while (id > 0);
+    }
+}
@@ -8,12 +8,12 @@ public class Wire {
     // constructors may throw this when an error prevents construction
     public static class ConstructorFailure extends Exception {}
 
-    // fields of a gate
-    private final float delay;        // measured in seconds
-    private final Gate source;        // where this wire comes from, never null
-    private final int srcPin;         // what pin number of source
-    private final Gate destination;   // where this wire goes, never null
-    private final int dstPin;         // what pin number of destination
+    // fields of a wire, read by NetlistKernel when compiling the circuit
+    final float delay;        // measured in seconds
+    final Gate source;        // where this wire comes from, never null
+    final int srcPin;         // what pin number of source
+    final Gate destination;   // where this wire goes, never null
+    final int dstPin;         // what pin number of destination
     // note, wires don't understand pin numbers, only gates do.
     // note, by convention -1 is an illegal pin number.
 
@@ -69,7 +69,7 @@ public class Wire {
 	// take care of source and destination pins
 	// Bug:  This is a start, but in the long run, it might not be right
 	srcPin = source.registerOutput( this, srcPinName );
-	dstPin = destination.registerInput( this, dstPinName );
+	dstPin = destination.registerInput( dstPinName );
 
 	// pick off the numeric field of the source line
 	try {
@@ -86,14 +86,53 @@ public class Wire {
 	ScanSupport.lineEnd( sc, ()->this.toString() );
     }
 
+    /** construct a new wire from fields already scanned and checked
+     *  This is used by {@link NetlistReader NetlistReader}, which reports
+     *  errors in the fields itself.  As in the scanning constructor, the
+     *  pins are registered with the gates before the delay is checked.
+     *  @param source the gate this wire comes from
+     *  @param srcPinName the name of the output pin of source
+     *  @param destination the gate this wire goes to
+     *  @param dstPinName the name of the input pin of destination
+     *  @param delay the delay of the wire
+     */
+    Wire( Gate source, String srcPinName,
+	  Gate destination, String dstPinName, float delay ) {
+	this.source = source;
+	this.destination = destination;
+	srcPin = source.registerOutput( this, srcPinName );
+	dstPin = destination.registerInput( dstPinName );
+	this.delay = delay;
+	if (delay < 0.0F) Errors.warn( "Negative delay: " + this.toString() );
+    }
+
+    /** construct a new wire whose destination pin is already registered
+     *  This is used by {@link ParallelLoader ParallelLoader}, which
+     *  registers input pins and output pins in separate passes, and
+     *  reports a negative delay itself.
+     *  @param source the gate this wire comes from
+     *  @param srcPinName the name of the output pin of source
+     *  @param destination the gate this wire goes to
+     *  @param dstPin the pin number destination.registerInput returned
+     *  @param delay the delay of the wire
+     */
+    Wire( Gate source, String srcPinName,
+	  Gate destination, int dstPin, float delay ) {
+	this.source = source;
+	this.destination = destination;
+	srcPin = source.registerOutput( this, srcPinName );
+	this.dstPin = dstPin;
+	this.delay = delay;
+    }
+
     /** get textual description of a wire in a form like that used for input
      * @return the textual form
      */
     public String toString() {
 	return  "wire "
-		+ source.name + " "
+		+ source.name() + " "
 		+ source.outPinName( srcPin ) + " "
-		+ destination.name + " "
+		+ destination.name() + " "
 		+ destination.inPinName( dstPin ) + " "
 		+ delay;
     }
@@ -103,26 +142,12 @@ public class Wire {
     /** Simulate an input change on this wire
      *  @param time tells when this wire's input changes
      *  @param v gives the new value on this wire
-     *  schedules an output change event after the wire's delay.
-     *  @see outputChangeEvent
-     */
-    public void inputChangeEvent( float time, boolean v ) {
-	Simulator.schedule( new Simulator.Event( time + delay ) {
-	    void trigger() {
-		outputChangeEvent( time, v );
-	    }
-	}
-	);
-    }
-
-    /** Simulate an output change on this wire
-     *  @param time tells when this wire's input changes
-     *  @param v gives the new value on this wire
-     *  Passes the new value to the input of the gate to which this wire goes.
+     *  Schedules the arrival of the new value at the input of the gate
+     *  to which this wire goes, after the wire's delay.
      *  @see Gate.inputChangeEvent
      */
-    private void outputChangeEvent( float time, boolean v ) {
-	destination.inputChangeEvent( time, dstPin, v );
+    public void inputChangeEvent( float time, boolean v ) {
+	Simulator.schedule( time + delay, source, destination, dstPin, v );
     }
 
 } // class Wire
@@ -0,0 +1,48 @@
+/* Circuits.java
+ * Method handles on BenchmarkCircuits, for the benchmarks
+ */
+package logic;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/** Finds the methods of BenchmarkCircuits, which is in the default
+ *  package, where these benchmarks cannot name it.
+ *  Each benchmark keeps the handles it uses in static final fields, so
+ *  the JIT compiler treats them as constants and calls straight through
+ *  them, as if the benchmark called the method itself.
+ */
+final class Circuits {
+
+    // the class found, once
+    private static final Class <?> circuits;
+    static {
+	try {
+	    circuits = Class.forName( "BenchmarkCircuits" );
+	} catch (ClassNotFoundException e) {
+	    throw new ExceptionInInitializerError( e );
+	}
+    }
+
+    private Circuits() {}
+
+    /** Find one method of BenchmarkCircuits
+     *  @param name the name of the method
+     *  @param result the type it returns
+     *  @param params the types of its parameters
+     *  @return the handle on it
+     */
+    static MethodHandle method( String name, Class <?> result,
+				Class <?>... params ) {
+	try {
+	    return MethodHandles.publicLookup().findStatic(
+		circuits, name, MethodType.methodType( result, params )
+	    );
+	} catch (ReflectiveOperationException e) {
+	    throw new IllegalStateException(
+		"No method BenchmarkCircuits." + name, e
+	    );
+	}
+    }
+}
@@ -0,0 +1,69 @@
+/* EventBenchmark.java
+ * Nanoseconds per event along one wire into one gate and out again
+ */
+package logic;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures nanoseconds per event from Wire.inputChangeEvent through
+ *  MultiInputGate.inputChangeEvent, with each scheduler.
+ *  Each change of the wire is two events, the input change of an xor
+ *  gate and its output change, so each invocation counts as two
+ *  operations.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class EventBenchmark {
+    private static final MethodHandle eventCircuit = Circuits.method(
+	"eventCircuit", void.class, String.class
+    );
+    private static final MethodHandle event = Circuits.method(
+	"event", long.class, boolean.class
+    );
+    private static final MethodHandle finish = Circuits.method(
+	"finish", void.class
+    );
+
+    @Param( { "queue", "heap", "calendar" } )
+    public String scheduler;
+
+    // the next value of the wire
+    private boolean value;
+
+    @Setup( Level.Trial )
+    public void makeCircuit() throws Throwable {
+	eventCircuit.invokeExact( scheduler );
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( 2 )
+    public void event( Blackhole bh ) throws Throwable {
+	bh.consume( (long) event.invokeExact( value ) );
+	value = !value;
+    }
+
+    @TearDown( Level.Trial )
+    public void finishRun() throws Throwable {
+	finish.invokeExact();
+    }
+}
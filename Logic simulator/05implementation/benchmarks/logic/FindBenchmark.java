@@ -0,0 +1,75 @@
+/* FindBenchmark.java
+ * Nanoseconds per lookup of a gate by name
+ */
+package logic;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures nanoseconds per Logic.findGate of a name in the circuit,
+ *  the names taken in turn from 4096 picked at random.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class FindBenchmark {
+    private static final MethodHandle write = Circuits.method(
+	"write", long.class, String.class, int.class, String.class
+    );
+    private static final MethodHandle load = Circuits.method(
+	"load", Object.class, String.class, String.class, String.class
+    );
+    private static final MethodHandle names = Circuits.method(
+	"names", String[].class, int.class
+    );
+    private static final MethodHandle find = Circuits.method(
+	"find", Object.class, String.class
+    );
+
+    // the number of names, a power of two
+    private static final int NAMES = 1 << 12;
+
+    @Param( { "dag", "ring", "ripple" } )
+    public String shape;
+
+    @Param( { "10000", "100000" } )
+    public int size;
+
+    // the names looked up, and the index of the next
+    private String[] picked;
+    private int next;
+
+    @Setup( Level.Trial )
+    public void loadCircuit() throws Throwable {
+	File file = File.createTempFile( "circuit", ".txt" );
+	long elements = (long) write.invokeExact( shape, size, file.getPath() );
+	Object gates = (Object) load.invokeExact(
+	    file.getPath(), "bytes", (String) null
+	);
+	file.delete();
+	picked = (String[]) names.invokeExact( NAMES );
+    }
+
+    @Benchmark
+    public void find( Blackhole bh ) throws Throwable {
+	bh.consume( (Object) find.invokeExact( picked[next] ) );
+	next = (next + 1) & (NAMES - 1);
+    }
+}
@@ -0,0 +1,93 @@
+/* ParseBenchmark.java
+ * Elements per second read by each reader
+ */
+package logic;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures elements, gate and wire lines, read per second by each
+ *  reader, the scanner reader being Logic.readCircuit.
+ *  The circuit last read is forgotten before each read, outside the time
+ *  measured, so that each read starts from nothing.
+ *  The elements are counted as the secondary result parse:elements, in
+ *  elements per second; the primary result is reads per second.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class ParseBenchmark {
+    private static final MethodHandle write = Circuits.method(
+	"write", long.class, String.class, int.class, String.class
+    );
+    private static final MethodHandle reset = Circuits.method(
+	"reset", void.class
+    );
+    private static final MethodHandle load = Circuits.method(
+	"load", Object.class, String.class, String.class, String.class
+    );
+
+    @Param( { "dag", "ring", "ripple" } )
+    public String shape;
+
+    @Param( { "10000", "100000" } )
+    public int size;
+
+    @Param( { "scanner", "bytes", "parallel" } )
+    public String reader;
+
+    // the file holding the circuit, and the elements in it
+    private File file;
+    private long elements;
+
+    /** The elements read in each iteration
+     */
+    @AuxCounters( AuxCounters.Type.OPERATIONS )
+    @State( Scope.Thread )
+    public static class Elements {
+	public long elements;
+    }
+
+    @Setup( Level.Trial )
+    public void makeFile() throws Throwable {
+	file = File.createTempFile( "circuit", ".txt" );
+	elements = (long) write.invokeExact( shape, size, file.getPath() );
+    }
+
+    @Setup( Level.Invocation )
+    public void forget() throws Throwable {
+	reset.invokeExact();
+    }
+
+    @Benchmark
+    public void parse( Elements counted, Blackhole bh ) throws Throwable {
+	bh.consume( (Object) load.invokeExact(
+	    file.getPath(), reader, (String) null
+	) );
+	counted.elements = counted.elements + elements;
+    }
+
+    @TearDown( Level.Trial )
+    public void deleteFile() {
+	file.delete();
+    }
+}
@@ -0,0 +1,109 @@
+/* SimulateBenchmark.java
+ * Events per second through the simulator
+ */
+package logic;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures events per second through Simulator.run, scheduling with
+ *  Simulator.schedule, with the Gate and Wire objects and each scheduler.
+ *  The circuit is read again before each run, outside the time measured,
+ *  and a shape that never stops, ring or glitch, is cut off after 10
+ *  events per element.
+ *  The events are counted as the secondary result simulate:events, in
+ *  events per second; the primary result is runs per second.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 2 )
+@State( Scope.Thread )
+public class SimulateBenchmark {
+    private static final MethodHandle write = Circuits.method(
+	"write", long.class, String.class, int.class, String.class
+    );
+    private static final MethodHandle load = Circuits.method(
+	"load", Object.class, String.class, String.class, String.class
+    );
+    private static final MethodHandle start = Circuits.method(
+	"start", void.class, long.class
+    );
+    private static final MethodHandle run = Circuits.method(
+	"run", long.class
+    );
+    private static final MethodHandle finish = Circuits.method(
+	"finish", void.class
+    );
+
+    @Param( { "dag", "ring", "ripple" } )
+    public String shape;
+
+    @Param( { "10000", "100000" } )
+    public int size;
+
+    @Param( { "queue", "heap", "calendar" } )
+    public String scheduler;
+
+    // the file holding the circuit
+    private File file;
+
+    /** The events processed in each iteration
+     */
+    @AuxCounters( AuxCounters.Type.OPERATIONS )
+    @State( Scope.Thread )
+    public static class Events {
+	public long events;
+    }
+
+    @Setup( Level.Trial )
+    public void makeFile() throws Throwable {
+	file = File.createTempFile( "circuit", ".txt" );
+	long elements = (long) write.invokeExact(
+	    shape, size, file.getPath()
+	);
+    }
+
+    @Setup( Level.Invocation )
+    public void loadCircuit() throws Throwable {
+	Object gates = (Object) load.invokeExact(
+	    file.getPath(), "bytes", scheduler
+	);
+	boolean endless = "ring".equals( shape ) || "glitch".equals( shape );
+	start.invokeExact( endless ? 10L * size : 0L );
+    }
+
+    @Benchmark
+    public void simulate( Events counted, Blackhole bh ) throws Throwable {
+	long events = (long) run.invokeExact();
+	counted.events = counted.events + events;
+	bh.consume( events );
+    }
+
+    @TearDown( Level.Invocation )
+    public void finishRun() throws Throwable {
+	finish.invokeExact();
+    }
+
+    @TearDown( Level.Trial )
+    public void deleteFile() {
+	file.delete();
+    }
+}